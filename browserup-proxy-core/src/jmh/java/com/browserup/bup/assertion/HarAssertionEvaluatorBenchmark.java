@@ -0,0 +1,109 @@
+package com.browserup.bup.assertion;
+
+import com.browserup.bup.assertion.field.content.ContentMatchesAssertion;
+import com.browserup.bup.assertion.model.AssertionResult;
+import com.browserup.bup.assertion.model.filter.AssertionFilterInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import de.sstoehr.harreader.model.HarContent;
+import de.sstoehr.harreader.model.HarEntry;
+import de.sstoehr.harreader.model.HarRequest;
+import de.sstoehr.harreader.model.HarResponse;
+
+/**
+ * Compares checking a content pattern assertion against the entries of a synthetic HAR on the calling thread and in
+ * parallel with {@link HarAssertionEvaluator}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HarAssertionEvaluatorBenchmark {
+    @Param({"1000", "10000"})
+    private int entriesNumber;
+
+    @Param({"65536"})
+    private int bodySize;
+
+    private List<HarEntry> entries;
+    private HarEntryAssertion assertion;
+    private ForkJoinPool pool;
+    private HarAssertionEvaluator sequentialEvaluator;
+    private HarAssertionEvaluator parallelEvaluator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        entries = createEntries(entriesNumber, bodySize);
+        assertion = new ContentMatchesAssertion(Pattern.compile("(?s).*\"status\":\\s*\"error\".*"));
+        pool = new ForkJoinPool();
+
+        sequentialEvaluator = new HarAssertionEvaluator(pool, Integer.MAX_VALUE, HarAssertionEvaluator.DEFAULT_CHUNK_SIZE);
+        parallelEvaluator = new HarAssertionEvaluator(pool);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public AssertionResult sequential() {
+        return sequentialEvaluator.evaluate(entries, new AssertionFilterInfo(), assertion);
+    }
+
+    @Benchmark
+    public AssertionResult parallel() {
+        return parallelEvaluator.evaluate(entries, new AssertionFilterInfo(), assertion);
+    }
+
+    private static List<HarEntry> createEntries(int entriesNumber, int bodySize) {
+        StringBuilder body = new StringBuilder(bodySize);
+        while (body.length() < bodySize) {
+            body.append("{\"id\": 12345, \"status\": \"ok\", \"items\": [1, 2, 3]}\n");
+        }
+        body.setLength(bodySize);
+        String text = body.toString();
+
+        List<HarEntry> entries = new ArrayList<>(entriesNumber);
+        for (int i = 0; i < entriesNumber; i++) {
+            HarRequest request = new HarRequest();
+            request.setUrl("https://www.example.com/api/items/" + i);
+
+            HarContent content = new HarContent();
+            content.setMimeType("application/json");
+            content.setSize((long) bodySize);
+            content.setText(text);
+
+            HarResponse response = new HarResponse();
+            response.setStatus(200);
+            response.setContent(content);
+
+            HarEntry entry = new HarEntry();
+            entry.setRequest(request);
+            entry.setResponse(response);
+            entries.add(entry);
+        }
+
+        return entries;
+    }
+}
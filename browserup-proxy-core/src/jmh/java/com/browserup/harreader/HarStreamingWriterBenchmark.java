@@ -0,0 +1,143 @@
+package com.browserup.harreader;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import de.sstoehr.harreader.model.Har;
+import de.sstoehr.harreader.model.HarContent;
+import de.sstoehr.harreader.model.HarCreatorBrowser;
+import de.sstoehr.harreader.model.HarEntry;
+import de.sstoehr.harreader.model.HarHeader;
+import de.sstoehr.harreader.model.HarLog;
+import de.sstoehr.harreader.model.HarPage;
+import de.sstoehr.harreader.model.HarRequest;
+import de.sstoehr.harreader.model.HarResponse;
+import de.sstoehr.harreader.model.HttpMethod;
+
+/**
+ * Compares writing a synthetic HAR with a single-threaded {@link HarStreamingWriter} and with one that encodes entries
+ * in parallel. The HAR is written to a stream that discards its output, so only encoding is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HarStreamingWriterBenchmark {
+    @Param({"1000", "100000"})
+    private int entriesNumber;
+
+    @Param({"512"})
+    private int bodySize;
+
+    private Har har;
+    private ForkJoinPool pool;
+    private HarStreamingWriter sequentialWriter;
+    private HarStreamingWriter parallelWriter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        har = createHar(entriesNumber, bodySize);
+        pool = new ForkJoinPool();
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        sequentialWriter = new HarStreamingWriter(objectMapper);
+        parallelWriter = new HarStreamingWriter(objectMapper).withParallelEncoding(pool);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public void sequential() throws IOException {
+        sequentialWriter.writeHar(har, OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void parallel() throws IOException {
+        parallelWriter.writeHar(har, OutputStream.nullOutputStream());
+    }
+
+    private static Har createHar(int entriesNumber, int bodySize) {
+        HarLog log = new HarLog();
+        HarCreatorBrowser creator = new HarCreatorBrowser();
+        creator.setName("BrowserUp Proxy");
+        creator.setVersion("benchmark");
+        log.setCreator(creator);
+
+        HarPage page = new HarPage();
+        page.setId("page_1");
+        page.setTitle("Page 1");
+        page.setStartedDateTime(new Date(0));
+        log.getPages().add(page);
+
+        StringBuilder body = new StringBuilder(bodySize);
+        while (body.length() < bodySize) {
+            body.append("var x = \"\\u00e9\";\n");
+        }
+        body.setLength(bodySize);
+
+        for (int i = 0; i < entriesNumber; i++) {
+            HarRequest request = new HarRequest();
+            request.setUrl("https://www.example.com/assets/" + i + "/script.js?v=" + i);
+            request.setMethod(HttpMethod.GET);
+            request.setHttpVersion("HTTP/1.1");
+            request.getHeaders().add(header("Host", "www.example.com"));
+            request.getHeaders().add(header("User-Agent", "Mozilla/5.0 (X11; Linux x86_64) Gecko/20100101 Firefox/115.0"));
+            request.getHeaders().add(header("Accept", "*/*"));
+
+            HarContent content = new HarContent();
+            content.setMimeType("application/javascript");
+            content.setSize((long) bodySize);
+            content.setText(body.toString());
+
+            HarResponse response = new HarResponse();
+            response.setStatus(200);
+            response.setStatusText("OK");
+            response.setHttpVersion("HTTP/1.1");
+            response.getHeaders().add(header("Content-Type", "application/javascript"));
+            response.getHeaders().add(header("Cache-Control", "max-age=3600"));
+            response.setContent(content);
+
+            HarEntry entry = new HarEntry();
+            entry.setPageref("page_1");
+            entry.setStartedDateTime(new Date(i * 10L));
+            entry.setTime(42);
+            entry.setRequest(request);
+            entry.setResponse(response);
+            log.getEntries().add(entry);
+        }
+
+        Har har = new Har();
+        har.setLog(log);
+        return har;
+    }
+
+    private static HarHeader header(String name, String value) {
+        HarHeader header = new HarHeader();
+        header.setName(name);
+        header.setValue(value);
+        return header;
+    }
+}
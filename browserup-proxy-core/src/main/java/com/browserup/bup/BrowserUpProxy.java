@@ -1,8 +1,16 @@
 package com.browserup.bup;
 
 import com.browserup.bup.assertion.model.AssertionResult;
+import com.browserup.bup.assertion.model.HarEntryAssertionSpec;
+import com.browserup.bup.assertion.model.StandingAssertionResult;
 import com.browserup.bup.filters.RequestFilter;
 import com.browserup.bup.filters.ResponseFilter;
+import com.browserup.bup.har.HarCaptureLimits;
+import com.browserup.bup.har.HarCapturePolicy;
+import com.browserup.bup.har.HarDelta;
+import com.browserup.bup.har.HarEntryListener;
+import com.browserup.bup.har.HarEvictionStats;
+import com.browserup.bup.har.HarTimingReport;
 import com.browserup.bup.mitm.TrustSource;
 import com.browserup.bup.proxy.BlocklistEntry;
 import com.browserup.bup.proxy.CaptureType;
@@ -128,6 +136,35 @@ public interface BrowserUpProxy {
      */
     Har getHar(boolean cleanHar);
 
+    /**
+     * Retrieves the entries of the current HAR that were added or updated since the specified cursor was returned. Pages are
+     * always included. Clients that poll the HAR can use this method to retrieve only the entries that changed since the last
+     * poll, instead of the entire HAR.
+     * <p>
+     * Cursors remain valid when a new HAR is created, so the first poll after {@link #newHar()} returns all entries in the
+     * new HAR.
+     *
+     * @param cursor cursor returned by the previous call to this method, or 0 to retrieve all entries
+     * @return the changed entries and the cursor to use for the next call, or null if HAR capture is not enabled
+     */
+    HarDelta getHarSince(long cursor);
+
+    /**
+     * Adds a listener that is notified when HAR entries are started and completed, as an alternative to polling the HAR.
+     * Listeners are called on a dispatcher thread rather than on the proxy's I/O threads; events that arrive while the
+     * dispatcher is too far behind are dropped. Listeners receive entries of every HAR captured after they are added.
+     *
+     * @param listener listener to add
+     */
+    void addHarEntryListener(HarEntryListener listener);
+
+    /**
+     * Removes a listener added with {@link #addHarEntryListener(HarEntryListener)}.
+     *
+     * @param listener listener to remove
+     */
+    void removeHarEntryListener(HarEntryListener listener);
+
     /**
      * Starts a new HAR file with the default page name (see {@link #newPage()}. Enables HAR capture if it was not previously enabled.
      *
@@ -209,6 +246,59 @@ public interface BrowserUpProxy {
      */
     void disableHarCaptureTypes(CaptureType... captureTypes);
 
+    /**
+     * Limits the amount of data kept in the HAR while it is being captured. When the number of entries, the total size of
+     * captured bodies or the age of the oldest entry exceeds a limit, the oldest entries are evicted from the HAR. The limits
+     * apply to the current HAR and to HARs created afterwards.
+     *
+     * @param limits capture limits, or {@link HarCaptureLimits#UNLIMITED} to keep all entries
+     */
+    void setHarCaptureLimits(HarCaptureLimits limits);
+
+    /**
+     * @return the current HAR capture limits
+     */
+    HarCaptureLimits getHarCaptureLimits();
+
+    /**
+     * Returns the number of entries evicted from the current HAR because of the {@link #setHarCaptureLimits(HarCaptureLimits)
+     * capture limits}, and, if completed entries are persisted to a sink, the number of entries released after they
+     * were persisted and the number spilled to the sink's overflow queue. Counters are reset when a new HAR is created.
+     *
+     * @return eviction counters for the current HAR
+     */
+    HarEvictionStats getHarEvictionStats();
+
+    /**
+     * Returns percentiles of the timings of the HAR entries completed since the proxy was started or the timings were last
+     * reset with {@link #resetHarTimings()}, grouped by host and by page. Timings are aggregated as entries are completed,
+     * across HARs, so the report does not depend on the size of the current HAR.
+     *
+     * @return timing percentiles of the current interval
+     */
+    HarTimingReport getHarTimingReport();
+
+    /**
+     * Returns the timing percentiles of the current interval, like {@link #getHarTimingReport()}, and starts a new interval.
+     *
+     * @return timing percentiles of the interval that ended
+     */
+    HarTimingReport resetHarTimings();
+
+    /**
+     * Sets the policies that select what is captured for matching requests, instead of the proxy's capture types. Policies
+     * are evaluated in order, and the first matching policy applies. Requests that match no policy are captured using the
+     * proxy's capture types. See {@link com.browserup.bup.har.HarCapturePolicies} for how policies are matched.
+     *
+     * @param policies capture policies, or null or an empty list to capture every request using the proxy's capture types
+     */
+    void setHarCapturePolicies(List<HarCapturePolicy> policies);
+
+    /**
+     * @return the current HAR capture policies, in evaluation order
+     */
+    List<HarCapturePolicy> getHarCapturePolicies();
+
     /**
      * Starts a new HAR page using the default page naming convention. The default page naming convention is "Page #", where "#" resets to 1
      * every time {@link #newHar()} or {@link #newHar(String)} is called, and increments on every subsequent call to {@link #newPage()} or
@@ -760,6 +850,26 @@ public interface BrowserUpProxy {
      */
     AssertionResult assertMostRecentResponseContentDoesNotContain(Pattern url, String text);
 
+    /**
+     * Assert that response content for the most recent request found by a given URL pattern contains each of the specified values.
+     * The content is scanned once for all of the values.
+     * @param url Regular expression match of URL to find.
+     *            See examples {@link com.browserup.bup.BrowserUpProxy#findEntries(java.util.regex.Pattern)}
+     * @param texts Strings to search in the content
+     * @return Assertion result
+     */
+    AssertionResult assertMostRecentResponseContentContainsAll(Pattern url, Collection<String> texts);
+
+    /**
+     * Assert that response content for the most recent request found by a given URL pattern contains none of the specified values.
+     * The content is scanned once for all of the values, and the first occurrence of each value that is found is reported.
+     * @param url Regular expression match of URL to find.
+     *            See examples {@link com.browserup.bup.BrowserUpProxy#findEntries(java.util.regex.Pattern)}
+     * @param texts Strings to search in the content
+     * @return Assertion result
+     */
+    AssertionResult assertMostRecentResponseContentDoesNotContainAny(Pattern url, Collection<String> texts);
+
     /**
      * Assert that response content for the most recent request
      * found by a given URL pattern matches content pattern.
@@ -806,6 +916,27 @@ public interface BrowserUpProxy {
      */
     AssertionResult assertAnyUrlContentDoesNotContain(Pattern url, String text);
 
+    /**
+     * Assert that responses content for all requests found by a given URL pattern contain each of the specified values.
+     * The content of each response is scanned once for all of the values.
+     * @param url Regular expression match of URL to find.
+     *            See examples {@link com.browserup.bup.BrowserUpProxy#findEntries(java.util.regex.Pattern)}
+     * @param texts Strings to search in the content
+     * @return Assertion result
+     */
+    AssertionResult assertAnyUrlContentContainsAll(Pattern url, Collection<String> texts);
+
+    /**
+     * Assert that responses content for all requests found by a given URL pattern contain none of the specified values.
+     * The content of each response is scanned once for all of the values, and the first occurrence of each value that is
+     * found is reported.
+     * @param url Regular expression match of URL to find.
+     *            See examples {@link com.browserup.bup.BrowserUpProxy#findEntries(java.util.regex.Pattern)}
+     * @param texts Strings to search in the content
+     * @return Assertion result
+     */
+    AssertionResult assertAnyUrlContentDoesNotContainAny(Pattern url, Collection<String> texts);
+
     /**
      * Assert that headers of all responses found by url pattern contain specified value.
      * @param url Regular expression match of URL to find.
@@ -1006,4 +1137,42 @@ public interface BrowserUpProxy {
      * @return Assertion result
      */
     AssertionResult assertMostRecentResponseStatusCode(Pattern url, HttpStatusClass clazz);
+
+    /**
+     * Checks several assertions against the current HAR at once. The HAR entries are walked only once, and assertions
+     * with the same URL filter share the entries found by it, which is cheaper than checking each assertion separately
+     * when there are many assertions or many entries.
+     * @param assertions Assertions to check
+     * @return Result of each assertion, in the order of the assertions. An assertion that is not valid, such as one
+     *         missing a parameter its type requires, has an errored result.
+     */
+    List<AssertionResult> assertAll(List<HarEntryAssertionSpec> assertions);
+
+    /**
+     * Registers an assertion that is checked against each HAR entry as it is completed, from now on and across HARs. The
+     * assertion keeps running counters of the entries it was checked against and failed for, and the first entry it
+     * failed for, which can be read at any time with {@link #getStandingAssertionResults()} without scanning the HAR.
+     * @param assertion Assertion to check. It cannot be {@link HarEntryAssertionSpec#isMostRecent() most recent}.
+     * @return Id of the assertion
+     * @throws IllegalArgumentException if the assertion is not valid
+     */
+    long addStandingAssertion(HarEntryAssertionSpec assertion);
+
+    /**
+     * Stops checking a standing assertion.
+     * @param id Id of the assertion, returned by {@link #addStandingAssertion(HarEntryAssertionSpec)}
+     * @return true if the assertion was registered
+     */
+    boolean removeStandingAssertion(long id);
+
+    /**
+     * Returns the running results of the standing assertions.
+     * @return Result of each standing assertion, in the order the assertions were added
+     */
+    List<StandingAssertionResult> getStandingAssertionResults();
+
+    /**
+     * Resets the counters and first failure of every standing assertion, keeping the assertions registered.
+     */
+    void resetStandingAssertionResults();
 }
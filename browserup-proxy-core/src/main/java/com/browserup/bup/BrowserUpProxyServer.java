@@ -1,9 +1,12 @@
 package com.browserup.bup;
 
+import com.browserup.bup.assertion.HarAssertionBatch;
 import com.browserup.bup.assertion.HarEntryAssertion;
 import com.browserup.bup.assertion.ResponseTimeLessThanOrEqualAssertion;
-import com.browserup.bup.assertion.error.HarEntryAssertionError;
+import com.browserup.bup.assertion.StandingAssertions;
+import com.browserup.bup.assertion.field.content.ContentContainsAllStringsAssertion;
 import com.browserup.bup.assertion.field.content.ContentContainsStringAssertion;
+import com.browserup.bup.assertion.field.content.ContentDoesNotContainAnyStringAssertion;
 import com.browserup.bup.assertion.field.content.ContentDoesNotContainStringAssertion;
 import com.browserup.bup.assertion.field.content.ContentMatchesAssertion;
 import com.browserup.bup.assertion.field.content.ContentSizeLessThanOrEqualAssertion;
@@ -15,8 +18,9 @@ import com.browserup.bup.assertion.field.header.HeadersDoNotContainStringAsserti
 import com.browserup.bup.assertion.field.header.HeadersMatchAssertion;
 import com.browserup.bup.assertion.field.status.StatusBelongsToClassAssertion;
 import com.browserup.bup.assertion.field.status.StatusEqualsAssertion;
-import com.browserup.bup.assertion.model.AssertionEntryResult;
 import com.browserup.bup.assertion.model.AssertionResult;
+import com.browserup.bup.assertion.model.HarEntryAssertionSpec;
+import com.browserup.bup.assertion.model.StandingAssertionResult;
 import com.browserup.bup.assertion.supplier.CurrentStepHarEntriesSupplier;
 import com.browserup.bup.assertion.supplier.HarEntriesSupplier;
 import com.browserup.bup.assertion.supplier.MostRecentHarEntrySupplier;
@@ -40,6 +44,24 @@ import com.browserup.bup.filters.ResponseFilter;
 import com.browserup.bup.filters.ResponseFilterAdapter;
 import com.browserup.bup.filters.RewriteUrlFilter;
 import com.browserup.bup.filters.UnregisterRequestFilter;
+import com.browserup.bup.har.BoundedHarEntryList;
+import com.browserup.bup.har.HarCaptureExecutor;
+import com.browserup.bup.har.HarCaptureLimits;
+import com.browserup.bup.har.HarCapturePolicies;
+import com.browserup.bup.har.HarCapturePolicy;
+import com.browserup.bup.har.HarDelta;
+import com.browserup.bup.har.HarEntryDispatcher;
+import com.browserup.bup.har.HarEntryListener;
+import com.browserup.bup.har.HarEvictionStats;
+import com.browserup.bup.har.HarNdjsonSink;
+import com.browserup.bup.har.HarPageList;
+import com.browserup.bup.har.HarQueryCache;
+import com.browserup.bup.har.HarStringPool;
+import com.browserup.bup.har.HarStringPoolStats;
+import com.browserup.bup.har.HarTimingHistograms;
+import com.browserup.bup.har.HarTimingReport;
+import com.browserup.bup.har.body.BodyStore;
+import com.browserup.bup.har.body.MappedFileBodyStore;
 import com.browserup.bup.filters.AllowlistFilter;
 import com.browserup.bup.mitm.KeyStoreFileCertificateSource;
 import com.browserup.bup.mitm.TrustSource;
@@ -57,6 +79,7 @@ import com.browserup.bup.proxy.dns.DelegatingHostResolver;
 import com.browserup.bup.util.BrowserUpHttpUtil;
 import com.browserup.bup.util.BrowserUpProxyUtil;
 import com.browserup.bup.util.HttpStatusClass;
+import com.browserup.harreader.HarNdjsonReader;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.MapMaker;
@@ -89,6 +112,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.SSLEngine;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
@@ -112,6 +136,7 @@ import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 
 import static java.util.stream.Collectors.toCollection;
+import static java.util.stream.Collectors.toList;
 
 /**
  * A LittleProxy-based implementation of {@link BrowserUpProxy}.
@@ -203,6 +228,62 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
      */
     private volatile EnumSet<CaptureType> harCaptureTypes = EnumSet.noneOf(CaptureType.class);
 
+    /**
+     * Limits on the entries and captured bodies kept in the HAR.
+     */
+    private volatile HarCaptureLimits harCaptureLimits = HarCaptureLimits.UNLIMITED;
+
+    /**
+     * Policies selecting what is captured for matching requests, compiled when they are set.
+     */
+    private volatile HarCapturePolicies harCapturePolicies = HarCapturePolicies.NONE;
+
+    /**
+     * Sequence number of the most recent change to the previous HAR, so that entry sequence numbers continue to increase
+     * across HARs.
+     */
+    private volatile long lastHarSequence;
+
+    /**
+     * Executor that captured content is decoded and added to the HAR on, or null to capture content on the Netty event loops.
+     */
+    private volatile HarCaptureExecutor harCaptureExecutor;
+
+    /**
+     * Store for captured request and response bodies. If null, captured bodies are kept in the HAR as Strings.
+     */
+    private volatile BodyStore harBodyStore;
+
+    /**
+     * Pool that captured low-cardinality Strings are interned in. If null, captured Strings are not interned.
+     */
+    private volatile HarStringPool harStringPool = new HarStringPool();
+
+    /**
+     * Sink that completed entries are persisted to and then released from the HAR, or null to keep entries in memory.
+     */
+    private volatile HarNdjsonSink harSink;
+
+    /**
+     * Dispatcher that delivers started and completed entries to the HAR entry listeners.
+     */
+    private volatile HarEntryDispatcher harEntryDispatcher = new HarEntryDispatcher();
+
+    /**
+     * Histograms that the timings of completed entries of every HAR are recorded into.
+     */
+    private final HarTimingHistograms harTimingHistograms = new HarTimingHistograms();
+
+    /**
+     * Assertions that are checked against the completed entries of every HAR.
+     */
+    private final StandingAssertions standingAssertions = new StandingAssertions();
+
+    /**
+     * Results of entry queries and assertions, reused until the HAR changes.
+     */
+    private final HarQueryCache harQueryCache = new HarQueryCache();
+
     /**
      * The current HAR being captured.
      */
@@ -554,6 +635,32 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
                 } else {
                     log.warn("Attempted to stop proxy server, but proxy was never successfully started.");
                 }
+
+                // finish capturing content before the body store it may be written to is closed
+                HarCaptureExecutor captureExecutor = harCaptureExecutor;
+                if (captureExecutor != null) {
+                    captureExecutor.shutdown();
+                }
+
+                // finish checking the content of completed entries, which are persisted once checked
+                standingAssertions.shutdown();
+
+                // persist completed entries, whose bodies may still be in the body store
+                HarNdjsonSink sink = harSink;
+                if (sink != null) {
+                    sink.close();
+                }
+
+                // deliver the entries completed while capturing finished
+                harEntryDispatcher.close();
+
+                BodyStore bodyStore = harBodyStore;
+                if (bodyStore != null) {
+                    // keep the current HAR readable once the store is closed
+                    getBoundedEntries().ifPresent(BoundedHarEntryList::detachBodies);
+
+                    bodyStore.close();
+                }
             } else {
                 throw new IllegalStateException("Proxy server is already stopped. Cannot re-stop.");
             }
@@ -587,7 +694,11 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
 
     @Override
     public Har getHar() {
+        awaitHarCapture();
+
         synchronized (GET_HAR_LOCK) {
+            getBoundedEntries().ifPresent(BoundedHarEntryList::evictExpired);
+
             return this.har;
         }
     }
@@ -595,7 +706,7 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
     @Override
     public Har getHar(boolean cleanHar) {
         if (!cleanHar) {
-            return this.har;
+            return getHar();
         }
 
         synchronized (GET_HAR_LOCK) {
@@ -603,6 +714,78 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         }
     }
 
+    @Override
+    public void addHarEntryListener(HarEntryListener listener) {
+        harEntryDispatcher.addListener(listener);
+    }
+
+    @Override
+    public void removeHarEntryListener(HarEntryListener listener) {
+        harEntryDispatcher.removeListener(listener);
+    }
+
+    /**
+     * Replaces the dispatcher that delivers HAR entry events to listeners, e.g. to change its queue capacity or overflow
+     * policy. Listeners are registered with the dispatcher, so this method should be called before listeners are added;
+     * the previous dispatcher keeps its listeners, and is not closed. The dispatcher will be closed when the proxy is
+     * stopped.
+     *
+     * @param harEntryDispatcher dispatcher to deliver HAR entry events with
+     */
+    public void setHarEntryDispatcher(HarEntryDispatcher harEntryDispatcher) {
+        if (harEntryDispatcher == null) {
+            throw new IllegalArgumentException("HAR entry dispatcher must not be null");
+        }
+
+        this.harEntryDispatcher = harEntryDispatcher;
+
+        getBoundedEntries().ifPresent(entries -> entries.setDispatcher(harEntryDispatcher));
+    }
+
+    /**
+     * @return the dispatcher that delivers HAR entry events to listeners
+     */
+    public HarEntryDispatcher getHarEntryDispatcher() {
+        return harEntryDispatcher;
+    }
+
+    @Override
+    public HarDelta getHarSince(long cursor) {
+        Har currentHar = getHar();
+        if (currentHar == null) {
+            return null;
+        }
+
+        HarLog log = currentHar.getLog();
+
+        List<HarEntry> entries;
+        long nextCursor;
+        if (log.getEntries() instanceof BoundedHarEntryList) {
+            BoundedHarEntryList boundedEntries = (BoundedHarEntryList) log.getEntries();
+
+            // read the next cursor before collecting the entries: an entry updated in between is returned again next time,
+            // rather than not at all
+            nextCursor = boundedEntries.getSequence();
+            entries = boundedEntries.getEntriesSince(cursor);
+        } else {
+            nextCursor = cursor;
+            entries = new ArrayList<>(log.getEntries());
+        }
+
+        HarLog deltaLog = new HarLog();
+        deltaLog.setVersion(log.getVersion());
+        deltaLog.setCreator(log.getCreator());
+        deltaLog.setBrowser(log.getBrowser());
+        deltaLog.setComment(log.getComment());
+        deltaLog.setPages(new ArrayList<>(log.getPages()));
+        deltaLog.setEntries(entries);
+
+        Har delta = new Har();
+        delta.setLog(deltaLog);
+
+        return new HarDelta(delta, nextCursor);
+    }
+
     @Override
     public Har newHar() {
         return newHar(null);
@@ -628,8 +811,16 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         HarLog harLog = new HarLog();
 
         // https://github.com/browserup/browserup-proxy/pull/341
-        harLog.setPages(new CopyOnWriteArrayList<>());
-        harLog.setEntries(new CopyOnWriteArrayList<>());
+        // entries and pages are appended to concurrently by the capture filters; use append-only lists instead of
+        // CopyOnWriteArrayLists, which copy the entire list on every append. both lists are indexed by page, so that
+        // looking up a page or copying the entries of a page does not scan the whole HAR.
+        harLog.setPages(new HarPageList());
+        BoundedHarEntryList entries = new BoundedHarEntryList(harCaptureLimits, lastHarSequence);
+        entries.setSink(harSink);
+        entries.setDispatcher(harEntryDispatcher);
+        entries.setTimingHistograms(harTimingHistograms);
+        entries.setStandingAssertions(standingAssertions);
+        harLog.setEntries(entries);
 
         this.har = new Har();
         this.har.setLog(harLog);
@@ -642,6 +833,138 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         return oldHar;
     }
 
+    /**
+     * Waits for content captured so far to be decoded and added to the HAR, so that the HAR returned to callers (and
+     * assertions) includes the content of every response that has been received.
+     */
+    private void awaitHarCapture() {
+        HarCaptureExecutor executor = harCaptureExecutor;
+        if (executor != null) {
+            executor.awaitCompletion();
+        }
+    }
+
+    /**
+     * Sets the executor that captured request and response content is decompressed, decoded and added to the HAR on, so
+     * that large bodies do not stall the Netty event loops. By default, content is captured on the event loop that
+     * received it. When an executor is set, {@link #getHar()} and the HAR assertions first wait for the content captured
+     * so far to be added to the HAR, and the executor is shut down when the proxy is stopped. Only affects requests
+     * captured after this method is called.
+     *
+     * @param harCaptureExecutor executor to capture content on, or null to capture content on the Netty event loops
+     */
+    public void setHarCaptureExecutor(HarCaptureExecutor harCaptureExecutor) {
+        this.harCaptureExecutor = harCaptureExecutor;
+    }
+
+    /**
+     * @return the executor that captured content is added to the HAR on, or null if content is captured on the Netty event loops
+     */
+    public HarCaptureExecutor getHarCaptureExecutor() {
+        return harCaptureExecutor;
+    }
+
+    /**
+     * Sets the store that captured request and response bodies will be kept in, instead of holding them in the HAR as
+     * Strings. Bodies are read back from the store when the HAR is serialized or asserted on. Only affects requests
+     * captured after this method is called. When a HAR is replaced or ended, and when the proxy is stopped, the bodies
+     * of the HAR are copied back into it as text and released from the store, so the store only holds the bodies of the
+     * current HAR, and HARs retrieved from this proxy remain readable. The store will be closed when the proxy is stopped.
+     *
+     * @param bodyStore store for captured bodies, or null to keep bodies in the HAR as Strings
+     * @see MappedFileBodyStore#createTemporary(int)
+     * @see com.browserup.bup.har.body.DeduplicatingBodyStore
+     */
+    public void setHarBodyStore(BodyStore bodyStore) {
+        this.harBodyStore = bodyStore;
+    }
+
+    /**
+     * @return the store that captured bodies are kept in, or null if bodies are kept in the HAR as Strings
+     */
+    public BodyStore getHarBodyStore() {
+        return harBodyStore;
+    }
+
+    /**
+     * Sets the pool that captured header and cookie names, MIME types and low-cardinality header values are interned in,
+     * so that entries share one copy of each repeated String. By default, a {@link HarStringPool} with the default bounds is used. Only affects requests
+     * captured after this method is called.
+     *
+     * @param harStringPool pool to intern captured Strings in, or null to not intern them
+     */
+    public void setHarStringPool(HarStringPool harStringPool) {
+        this.harStringPool = harStringPool;
+    }
+
+    /**
+     * @return the pool that captured Strings are interned in, or null if they are not interned
+     */
+    public HarStringPool getHarStringPool() {
+        return harStringPool;
+    }
+
+    /**
+     * @return statistics about the Strings interned so far, or empty statistics if Strings are not interned
+     */
+    public HarStringPoolStats getHarStringPoolStats() {
+        HarStringPool pool = harStringPool;
+
+        return pool != null ? pool.getStats() : new HarStringPoolStats();
+    }
+
+    /**
+     * Sets the sink that completed HAR entries are persisted to. Once an entry has been persisted, it is released from
+     * the in-memory HAR, so that long-running captures do not hold every entry in memory; the HAR returned by
+     * {@link #getHar()} then only contains the entries that have not been persisted yet. The HAR captured so far can be
+     * reassembled from the sink's files with {@link #getPersistedHar()}. Affects entries completed after this method is
+     * called. The sink will be closed when the proxy is stopped.
+     *
+     * @param harSink sink to persist completed entries to, or null to keep entries in memory
+     */
+    public void setHarSink(HarNdjsonSink harSink) {
+        this.harSink = harSink;
+
+        getBoundedEntries().ifPresent(entries -> entries.setSink(harSink));
+    }
+
+    /**
+     * @return the sink that completed entries are persisted to, or null if entries are kept in memory
+     */
+    public HarNdjsonSink getHarSink() {
+        return harSink;
+    }
+
+    /**
+     * Reassembles the HAR captured so far from the files written by the HAR sink, after waiting for the entries that
+     * have already been completed to be persisted. The HAR contains every entry persisted by the sink, which may include
+     * entries of previous HARs if the sink was not replaced when they were ended, and the pages of the current HAR.
+     * Entries that are still being captured are not included.
+     *
+     * @return the reassembled HAR
+     * @throws IllegalStateException if there is no HAR sink
+     * @throws IOException if the sink's files cannot be read
+     */
+    public Har getPersistedHar() throws IOException {
+        HarNdjsonSink sink = harSink;
+        if (sink == null) {
+            throw new IllegalStateException("No HAR sink has been set");
+        }
+
+        awaitHarCapture();
+        sink.flush();
+
+        Har persistedHar = new HarNdjsonReader().read(sink.getFiles());
+        persistedHar.getLog().setCreator(HAR_CREATOR_VERSION);
+
+        Har currentHar = this.har;
+        if (currentHar != null) {
+            persistedHar.getLog().setPages(new ArrayList<>(currentHar.getLog().getPages()));
+        }
+
+        return persistedHar;
+    }
+
     @Override
     public void setHarCaptureTypes(Set<CaptureType> harCaptureSettings) {
         if (harCaptureSettings == null || harCaptureSettings.isEmpty()) {
@@ -694,6 +1017,58 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         }
     }
 
+    @Override
+    public void setHarCaptureLimits(HarCaptureLimits limits) {
+        this.harCaptureLimits = limits == null ? HarCaptureLimits.UNLIMITED : limits;
+
+        getBoundedEntries().ifPresent(entries -> entries.setLimits(harCaptureLimits));
+    }
+
+    @Override
+    public HarCaptureLimits getHarCaptureLimits() {
+        return harCaptureLimits;
+    }
+
+    @Override
+    public void setHarCapturePolicies(List<HarCapturePolicy> policies) {
+        if (policies == null || policies.isEmpty()) {
+            harCapturePolicies = HarCapturePolicies.NONE;
+        } else {
+            harCapturePolicies = new HarCapturePolicies(policies);
+        }
+    }
+
+    @Override
+    public List<HarCapturePolicy> getHarCapturePolicies() {
+        return harCapturePolicies.getPolicies();
+    }
+
+    @Override
+    public HarEvictionStats getHarEvictionStats() {
+        return getBoundedEntries()
+                .map(BoundedHarEntryList::getEvictionStats)
+                .orElseGet(HarEvictionStats::new);
+    }
+
+    @Override
+    public HarTimingReport getHarTimingReport() {
+        return harTimingHistograms.getReport();
+    }
+
+    @Override
+    public HarTimingReport resetHarTimings() {
+        return harTimingHistograms.reset();
+    }
+
+    private Optional<BoundedHarEntryList> getBoundedEntries() {
+        Har currentHar = this.har;
+        if (currentHar != null && currentHar.getLog().getEntries() instanceof BoundedHarEntryList) {
+            return Optional.of((BoundedHarEntryList) currentHar.getLog().getEntries());
+        }
+
+        return Optional.empty();
+    }
+
     @Override
     public Har newPage() {
         return newPage(null);
@@ -747,7 +1122,18 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         // end the page and populate timings
         endPage();
 
+        // cursors obtained from this HAR remain valid for the next one
+        if (oldHar.getLog().getEntries() instanceof BoundedHarEntryList) {
+            this.lastHarSequence = ((BoundedHarEntryList) oldHar.getLog().getEntries()).getSequence();
+        }
+
         this.har = null;
+        harQueryCache.clear();
+
+        // the body store only holds bodies of the current HAR; the ended HAR keeps its bodies as text
+        if (oldHar.getLog().getEntries() instanceof BoundedHarEntryList) {
+            ((BoundedHarEntryList) oldHar.getLog().getEntries()).detachBodies();
+        }
 
         return oldHar;
     }
@@ -1225,13 +1611,21 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
 
     @Override
     public Optional<HarEntry> findMostRecentEntry(Pattern url) {
-        List<HarEntry> entries = new MostRecentUrlFilteredHarEntrySupplier(getHar(), url).get();
-        return Optional.ofNullable(entries.isEmpty() ? null : entries.get(0));
+        Har currentHar = getHar();
+
+        return harQueryCache.get(HarQueryCache.query("findMostRecentEntry", url), currentHar, () -> {
+            List<HarEntry> entries = new MostRecentUrlFilteredHarEntrySupplier(currentHar, url).get();
+            return Optional.ofNullable(entries.isEmpty() ? null : entries.get(0));
+        });
     }
 
     @Override
     public Collection<HarEntry> findEntries(Pattern url) {
-        return new UrlFilteredHarEntriesSupplier(getHar(), url).get();
+        Har currentHar = getHar();
+
+        // callers may modify the returned collection, so the cached entries are copied
+        return new ArrayList<>(harQueryCache.get(HarQueryCache.query("findEntries", url), currentHar,
+                () -> new UrlFilteredHarEntriesSupplier(currentHar, url).get()));
     }
 
     @Override
@@ -1239,7 +1633,8 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         HarEntriesSupplier supplier = new MostRecentUrlFilteredHarEntrySupplier(getHar(), url);
         HarEntryAssertion assertion = new ResponseTimeLessThanOrEqualAssertion(time);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertMostRecentResponseTimeLessThanOrEqual", url, time),
+                supplier, assertion);
     }
 
     @Override
@@ -1247,7 +1642,7 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         HarEntriesSupplier supplier = new UrlFilteredHarEntriesSupplier(getHar(), url);
         HarEntryAssertion assertion = new ResponseTimeLessThanOrEqualAssertion(time);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertResponseTimeLessThanOrEqual", url, time), supplier, assertion);
     }
 
     @Override
@@ -1255,7 +1650,8 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         HarEntriesSupplier supplier = new MostRecentUrlFilteredHarEntrySupplier(getHar(), url);
         HarEntryAssertion assertion = new ContentContainsStringAssertion(text);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertMostRecentResponseContentContains", url, text),
+                supplier, assertion);
     }
 
     @Override
@@ -1263,7 +1659,26 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         HarEntriesSupplier supplier = new MostRecentUrlFilteredHarEntrySupplier(getHar(), url);
         HarEntryAssertion assertion = new ContentDoesNotContainStringAssertion(text);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertMostRecentResponseContentDoesNotContain", url, text),
+                supplier, assertion);
+    }
+
+    @Override
+    public AssertionResult assertMostRecentResponseContentContainsAll(Pattern url, Collection<String> texts) {
+        HarEntriesSupplier supplier = new MostRecentUrlFilteredHarEntrySupplier(getHar(), url);
+        HarEntryAssertion assertion = new ContentContainsAllStringsAssertion(texts);
+
+        return checkAssertion(HarQueryCache.query("assertMostRecentResponseContentContainsAll", url, texts),
+                supplier, assertion);
+    }
+
+    @Override
+    public AssertionResult assertMostRecentResponseContentDoesNotContainAny(Pattern url, Collection<String> texts) {
+        HarEntriesSupplier supplier = new MostRecentUrlFilteredHarEntrySupplier(getHar(), url);
+        HarEntryAssertion assertion = new ContentDoesNotContainAnyStringAssertion(texts);
+
+        return checkAssertion(HarQueryCache.query("assertMostRecentResponseContentDoesNotContainAny", url, texts),
+                supplier, assertion);
     }
 
     @Override
@@ -1271,7 +1686,8 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         HarEntriesSupplier supplier = new MostRecentUrlFilteredHarEntrySupplier(getHar(), url);
         HarEntryAssertion assertion = new ContentMatchesAssertion(contentPattern);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertMostRecentResponseContentMatches", url, contentPattern),
+                supplier, assertion);
     }
 
     @Override
@@ -1279,7 +1695,8 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         HarEntriesSupplier supplier = new UrlFilteredHarEntriesSupplier(getHar(), url);
         HarEntryAssertion assertion = new ContentSizeLessThanOrEqualAssertion(maxSize);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertAnyUrlContentLengthLessThanOrEquals", url, maxSize),
+                supplier, assertion);
     }
 
     @Override
@@ -1287,7 +1704,8 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         HarEntriesSupplier supplier = new UrlFilteredHarEntriesSupplier(getHar(), url);
         HarEntryAssertion assertion = new ContentMatchesAssertion(contentPattern);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertAnyUrlContentMatches", url, contentPattern),
+                supplier, assertion);
     }
 
     @Override
@@ -1295,7 +1713,7 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         HarEntriesSupplier supplier = new UrlFilteredHarEntriesSupplier(getHar(), url);
         HarEntryAssertion assertion = new ContentContainsStringAssertion(text);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertAnyUrlContentContains", url, text), supplier, assertion);
     }
 
     @Override
@@ -1303,7 +1721,24 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         HarEntriesSupplier supplier = new UrlFilteredHarEntriesSupplier(getHar(), url);
         HarEntryAssertion assertion = new ContentDoesNotContainStringAssertion(text);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertAnyUrlContentDoesNotContain", url, text), supplier, assertion);
+    }
+
+    @Override
+    public AssertionResult assertAnyUrlContentContainsAll(Pattern url, Collection<String> texts) {
+        HarEntriesSupplier supplier = new UrlFilteredHarEntriesSupplier(getHar(), url);
+        HarEntryAssertion assertion = new ContentContainsAllStringsAssertion(texts);
+
+        return checkAssertion(HarQueryCache.query("assertAnyUrlContentContainsAll", url, texts), supplier, assertion);
+    }
+
+    @Override
+    public AssertionResult assertAnyUrlContentDoesNotContainAny(Pattern url, Collection<String> texts) {
+        HarEntriesSupplier supplier = new UrlFilteredHarEntriesSupplier(getHar(), url);
+        HarEntryAssertion assertion = new ContentDoesNotContainAnyStringAssertion(texts);
+
+        return checkAssertion(HarQueryCache.query("assertAnyUrlContentDoesNotContainAny", url, texts),
+                supplier, assertion);
     }
 
     @Override
@@ -1311,7 +1746,8 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         HarEntriesSupplier supplier = new UrlFilteredHarEntriesSupplier(getHar(), url);
         HarEntryAssertion assertion = new HeadersContainStringAssertion(value);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertAnyUrlResponseHeaderContains", url, value),
+                supplier, assertion);
     }
 
     @Override
@@ -1321,7 +1757,8 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
                 new HeadersContainStringAssertion(value) :
                 new FilteredHeadersContainStringAssertion(name, value);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertAnyUrlResponseHeaderContains", url, name, value),
+                supplier, assertion);
     }
 
     @Override
@@ -1331,7 +1768,8 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
                 new HeadersDoNotContainStringAssertion(value) :
                 new FilteredHeadersDoNotContainStringAssertion(name, value);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertAnyUrlResponseHeaderDoesNotContain", url, name, value),
+                supplier, assertion);
     }
 
     @Override
@@ -1339,7 +1777,8 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         HarEntriesSupplier supplier = new UrlFilteredHarEntriesSupplier(getHar(), url);
         HarEntryAssertion assertion = new HeadersDoNotContainStringAssertion(value);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertAnyUrlResponseHeaderDoesNotContain", url, value),
+                supplier, assertion);
     }
 
     @Override
@@ -1349,7 +1788,8 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
                 new HeadersMatchAssertion(valuePattern) :
                 new FilteredHeadersMatchAssertion(namePattern, valuePattern);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertAnyUrlResponseHeaderMatches", url, namePattern, valuePattern),
+                supplier, assertion);
     }
 
     @Override
@@ -1357,7 +1797,7 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         HarEntriesSupplier supplier = new CurrentStepHarEntriesSupplier(getHar());
         HarEntryAssertion assertion = new StatusEqualsAssertion(status);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertResponseStatusCode", status), supplier, assertion);
     }
 
     @Override
@@ -1365,7 +1805,7 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         HarEntriesSupplier supplier = new CurrentStepHarEntriesSupplier(getHar());
         HarEntryAssertion assertion = new StatusBelongsToClassAssertion(clazz);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertResponseStatusCode", clazz), supplier, assertion);
     }
 
     @Override
@@ -1373,7 +1813,7 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         HarEntriesSupplier supplier = new UrlFilteredHarEntriesSupplier(getHar(), url);
         HarEntryAssertion assertion = new StatusEqualsAssertion(status);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertResponseStatusCode", url, status), supplier, assertion);
     }
 
     @Override
@@ -1381,7 +1821,7 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         HarEntriesSupplier supplier = new UrlFilteredHarEntriesSupplier(getHar(), url);
         HarEntryAssertion assertion = new StatusBelongsToClassAssertion(clazz);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertResponseStatusCode", url, clazz), supplier, assertion);
     }
 
     @Override
@@ -1389,7 +1829,7 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         HarEntriesSupplier supplier = new MostRecentHarEntrySupplier(getHar());
         HarEntryAssertion assertion = new StatusEqualsAssertion(status);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertMostRecentResponseStatusCode", status), supplier, assertion);
     }
 
 
@@ -1398,7 +1838,7 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         HarEntriesSupplier supplier = new MostRecentHarEntrySupplier(getHar());
         HarEntryAssertion assertion = new StatusBelongsToClassAssertion(clazz);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertMostRecentResponseStatusCode", clazz), supplier, assertion);
     }
 
     @Override
@@ -1406,7 +1846,8 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         HarEntriesSupplier supplier = new MostRecentUrlFilteredHarEntrySupplier(getHar(), url);
         HarEntryAssertion assertion = new StatusEqualsAssertion(status);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertMostRecentResponseStatusCode", url, status),
+                supplier, assertion);
     }
 
     @Override
@@ -1414,7 +1855,8 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         HarEntriesSupplier supplier = new MostRecentUrlFilteredHarEntrySupplier(getHar(), url);
         HarEntryAssertion assertion = new StatusBelongsToClassAssertion(clazz);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertMostRecentResponseStatusCode", url, clazz),
+                supplier, assertion);
     }
 
     @Override
@@ -1422,7 +1864,8 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         HarEntriesSupplier supplier = new MostRecentUrlFilteredHarEntrySupplier(getHar(), url);
         HarEntryAssertion assertion = new ContentSizeLessThanOrEqualAssertion(max);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertMostRecentResponseContentLengthLessThanOrEqual", url, max),
+                supplier, assertion);
     }
 
     @Override
@@ -1432,7 +1875,8 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
                 new HeadersContainStringAssertion(value) :
                 new FilteredHeadersContainStringAssertion(name, value);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertMostRecentResponseHeaderContains", url, name, value),
+                supplier, assertion);
     }
 
     @Override
@@ -1442,7 +1886,8 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
                 new HeadersDoNotContainStringAssertion(value) :
                 new FilteredHeadersDoNotContainStringAssertion(name, value);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertMostRecentResponseHeaderDoesNotContain", url, name, value),
+                supplier, assertion);
     }
 
     @Override
@@ -1452,39 +1897,52 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
                 new HeadersMatchAssertion(value) :
                 new FilteredHeadersMatchAssertion(name, value);
 
-        return checkAssertion(supplier, assertion);
+        return checkAssertion(HarQueryCache.query("assertMostRecentResponseHeaderMatches", url, name, value),
+                supplier, assertion);
     }
 
-    private AssertionResult checkAssertion(HarEntriesSupplier harEntriesSupplier, HarEntryAssertion assertion) {
-        AssertionResult.Builder result = new AssertionResult.Builder();
+    @Override
+    public List<AssertionResult> assertAll(List<HarEntryAssertionSpec> assertions) {
+        Har currentHar = getHar();
 
-        List<HarEntry> entries = harEntriesSupplier.get();
+        // the specs are copied, so that the key does not change if the caller modifies them later
+        List<HarEntryAssertionSpec> specs = assertions.stream().map(HarEntryAssertionSpec::new).collect(toList());
 
-        AtomicInteger failedCount = new AtomicInteger();
+        return new ArrayList<>(harQueryCache.get(HarQueryCache.query("assertAll", specs), currentHar,
+                () -> HarAssertionBatch.evaluate(currentHar, specs)));
+    }
 
-        entries.forEach(entry -> {
-            AssertionEntryResult.Builder requestResult = new AssertionEntryResult.Builder();
-            requestResult.setUrl(entry.getRequest().getUrl());
+    @Override
+    public long addStandingAssertion(HarEntryAssertionSpec assertion) {
+        return standingAssertions.add(assertion);
+    }
 
-            Optional<HarEntryAssertionError> error = assertion.assertion(entry);
-            requestResult.setFailed(error.isPresent());
+    @Override
+    public boolean removeStandingAssertion(long id) {
+        return standingAssertions.remove(id);
+    }
 
-            if (error.isPresent()) {
-                requestResult.setMessage(error.get().getMessage());
-                failedCount.getAndIncrement();
-            }
+    @Override
+    public List<StandingAssertionResult> getStandingAssertionResults() {
+        return standingAssertions.getResults();
+    }
 
-            result.addRequest(requestResult.create());
-        });
+    @Override
+    public void resetStandingAssertionResults() {
+        standingAssertions.resetResults();
+    }
 
-        String resultMessage = String.format("%d passed, %d total", entries.size() - failedCount.get(), entries.size());
+    private AssertionResult checkAssertion(List<Object> query, HarEntriesSupplier harEntriesSupplier,
+                                           HarEntryAssertion assertion) {
+        return harQueryCache.get(query, harEntriesSupplier.getHar(), () ->
+                HarAssertionBatch.checkAssertion(harEntriesSupplier.get(), harEntriesSupplier.getFilterInfo(), assertion));
+    }
 
-        return result
-                .setFilter(harEntriesSupplier.getFilterInfo())
-                .setFailed(failedCount.get() > 0)
-                .setMessage(resultMessage)
-                .setPassed(failedCount.get() == 0)
-                .create();
+    /**
+     * @return cache of entry query and assertion results, which are reused until the HAR changes
+     */
+    public HarQueryCache getHarQueryCache() {
+        return harQueryCache;
     }
 
     public boolean isMitmDisabled() {
@@ -1601,7 +2059,8 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
                 public HttpFilters filterRequest(HttpRequest originalRequest, ChannelHandlerContext ctx) {
                     Har har = getOrCreateHar();
                     if (har != null && !ProxyUtils.isCONNECT(originalRequest)) {
-                        return new HarCaptureFilter(originalRequest, ctx, har, getCurrentPageRef(), getHarCaptureTypes());
+                        return new HarCaptureFilter(originalRequest, ctx, har, getCurrentPageRef(), getHarCaptureTypes(), harBodyStore,
+                                harCaptureExecutor, harCapturePolicies, harStringPool);
                     } else {
                         return null;
                     }
@@ -1664,13 +2123,22 @@ public class BrowserUpProxyServer implements BrowserUpProxy {
         newPage.setTitle(DEFAULT_PAGE_REF);
         newPage.setStartedDateTime(new Date());
         newPage.setId(DEFAULT_PAGE_REF);
-        getHar().getLog().getPages().add(newPage);
+        har.getLog().getPages().add(newPage);
         return newPage;
     }
 
+    /**
+     * Finds the default page by its ID, whatever its title. Called for every request captured outside of a page, so it
+     * reads the HAR directly rather than through {@link #getHar()}, which waits for pending captures.
+     */
     private Optional<HarPage> getDefaultPage() {
-        return getHar().getLog().getPages().stream()
-                .filter(p -> p.getTitle().equals(DEFAULT_PAGE_REF))
+        List<HarPage> pages = har.getLog().getPages();
+        if (pages instanceof HarPageList) {
+            return Optional.ofNullable(((HarPageList) pages).getPage(DEFAULT_PAGE_REF));
+        }
+
+        return pages.stream()
+                .filter(p -> DEFAULT_PAGE_REF.equals(p.getId()))
                 .findFirst();
     }
 }
@@ -1,26 +1,41 @@
 package com.browserup.bup;
 
+import com.browserup.bup.assertion.HarAssertionBatch;
 import com.browserup.bup.assertion.HarEntryAssertion;
 import com.browserup.bup.assertion.ResponseTimeLessThanOrEqualAssertion;
-import com.browserup.bup.assertion.error.HarEntryAssertionError;
+import com.browserup.bup.assertion.StandingAssertions;
+import com.browserup.bup.assertion.field.content.ContentContainsAllStringsAssertion;
 import com.browserup.bup.assertion.field.content.ContentContainsStringAssertion;
+import com.browserup.bup.assertion.field.content.ContentDoesNotContainAnyStringAssertion;
 import com.browserup.bup.assertion.field.content.ContentDoesNotContainStringAssertion;
 import com.browserup.bup.assertion.field.content.ContentMatchesAssertion;
 import com.browserup.bup.assertion.field.content.ContentSizeLessThanOrEqualAssertion;
 import com.browserup.bup.assertion.field.header.*;
 import com.browserup.bup.assertion.field.status.StatusBelongsToClassAssertion;
 import com.browserup.bup.assertion.field.status.StatusEqualsAssertion;
-import com.browserup.bup.assertion.model.AssertionEntryResult;
 import com.browserup.bup.assertion.model.AssertionResult;
+import com.browserup.bup.assertion.model.HarEntryAssertionSpec;
+import com.browserup.bup.assertion.model.StandingAssertionResult;
 import com.browserup.bup.assertion.supplier.*;
 import com.browserup.bup.filters.RequestFilter;
 import com.browserup.bup.filters.ResponseFilter;
+import com.browserup.bup.har.HarCaptureLimits;
+import com.browserup.bup.har.HarCapturePolicy;
+import com.browserup.bup.har.HarDelta;
+import com.browserup.bup.har.HarEntryDispatcher;
+import com.browserup.bup.har.HarEntryListener;
+import com.browserup.bup.har.HarEvictionStats;
+import com.browserup.bup.har.HarQueryCache;
+import com.browserup.bup.har.HarTimingHistograms;
+import com.browserup.bup.har.HarTimingReport;
 import com.browserup.bup.mitm.TrustSource;
 import com.browserup.bup.mitmproxy.MitmProxyProcessManager;
 import com.browserup.bup.mitmproxy.MitmProxyProcessManager.MitmProxyLoggingLevel;
 import com.browserup.bup.mitmproxy.NetworkUtils;
 import com.browserup.bup.mitmproxy.addons.AbstractAddon;
 import com.browserup.bup.mitmproxy.management.HarCaptureManager;
+import com.browserup.bup.mitmproxy.management.HarEntryFeed;
+import com.browserup.bup.mitmproxy.management.HarSnapshot;
 import com.browserup.bup.proxy.BlocklistEntry;
 import com.browserup.bup.proxy.CaptureType;
 import com.browserup.bup.proxy.RewriteRule;
@@ -28,6 +43,7 @@ import com.browserup.bup.proxy.auth.AuthType;
 import com.browserup.bup.proxy.dns.AdvancedHostResolver;
 import com.browserup.bup.util.BrowserUpHttpUtil;
 import com.browserup.bup.util.HttpStatusClass;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
 import org.apache.commons.lang3.StringUtils;
 import org.littleshoot.proxy.HttpFiltersSource;
@@ -41,7 +57,7 @@ import java.net.UnknownHostException;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -53,28 +69,72 @@ public class MitmProxyServer implements BrowserUpProxy {
 
   private final MitmProxyProcessManager mitmProxyManager = new MitmProxyProcessManager();
 
+  /**
+   * Number of low bits of a HAR cursor that hold the sequence number of the last change returned; the remaining bits
+   * hold the generation of the HAR.
+   */
+  private static final int CURSOR_SEQUENCE_BITS = 40;
+
+  private static final long CURSOR_SEQUENCE_MASK = (1L << CURSOR_SEQUENCE_BITS) - 1;
+
+  /**
+   * Listeners added with {@link #addHarEntryListener(HarEntryListener)}, which are kept when the proxy is stopped, so that
+   * they are added to the dispatcher created when it is started again.
+   */
+  private final List<HarEntryListener> harEntryListeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * Delivers the entries reported by the feed to the listeners. Closed when the proxy is stopped, which delivers the
+   * events already queued, and replaced when the proxy is started again, since a closed dispatcher cannot be reopened.
+   */
+  private volatile HarEntryDispatcher harEntryDispatcher = new HarEntryDispatcher();
+
+  /**
+   * Reports the entries captured by mitmproxy while the proxy is running, or null if it is not.
+   */
+  private HarEntryFeed harEntryFeed;
+
+  private final HarTimingHistograms harTimingHistograms = new HarTimingHistograms();
+
+  private final StandingAssertions standingAssertions = new StandingAssertions();
+
+  /**
+   * Results of entry queries and assertions, reused until mitmproxy's HAR changes.
+   */
+  private final HarQueryCache harQueryCache = new HarQueryCache();
+
+  /**
+   * Copies cached entries before they are returned, since callers may modify them.
+   */
+  private static final ObjectMapper ENTRY_MAPPER = new ObjectMapper();
+
   public void start(List<AbstractAddon> addons) {
     mitmProxyManager.start(NetworkUtils.getFreePort(), addons);
+    startHarEntryFeed();
   }
 
   @Override
   public void start() {
     mitmProxyManager.start(NetworkUtils.getFreePort());
+    startHarEntryFeed();
   }
 
   @Override
   public void start(int port) {
     mitmProxyManager.start(port);
+    startHarEntryFeed();
   }
 
   @Override
   public void start(int port, InetAddress bindAddress) {
     mitmProxyManager.start(port);
+    startHarEntryFeed();
   }
 
   @Override
   public void start(int port, InetAddress clientBindAddress, InetAddress serverBindAddress) {
     mitmProxyManager.start(port);
+    startHarEntryFeed();
   }
 
   @Override
@@ -84,12 +144,18 @@ public class MitmProxyServer implements BrowserUpProxy {
 
   @Override
   public void stop() {
+    closeHarEntryDispatcher();
     mitmProxyManager.stop();
+    // a restarted mitmproxy numbers the changes to its HAR from the start again
+    harQueryCache.clear();
   }
 
   @Override
   public void abort() {
+    closeHarEntryDispatcher();
     mitmProxyManager.stop();
+    // a restarted mitmproxy numbers the changes to its HAR from the start again
+    harQueryCache.clear();
   }
 
   @Override
@@ -122,6 +188,97 @@ public class MitmProxyServer implements BrowserUpProxy {
     return mitmProxyManager.getHarCaptureFilterManager().getHar(cleanHar);
   }
 
+  /**
+   * Retrieves the current HAR to export it. Unlike {@link #getHar(boolean)}, which reads the whole HAR saved by mitmproxy
+   * into memory, the entries of the returned snapshot are read from mitmproxy's file one at a time while the snapshot is
+   * written, unless HAR capture limits are set. See {@link HarCaptureManager#getHarSnapshot(Boolean)}.
+   *
+   * @param cleanHar true to start a new HAR after retrieving the current one
+   * @return snapshot of the current HAR, or null if mitmproxy is not running
+   */
+  public HarSnapshot getHarSnapshot(boolean cleanHar) {
+    return mitmProxyManager.getHarCaptureFilterManager().getHarSnapshot(cleanHar);
+  }
+
+  /**
+   * The HAR is captured by mitmproxy, whose addon assigns each HAR a new generation, and each change to an entry of the
+   * HAR (e.g. when its request or its response is captured) the next sequence number within the HAR. The cursor holds
+   * the generation in its high bits and the sequence number in its low {@value #CURSOR_SEQUENCE_BITS} bits, so a cursor
+   * from a previous HAR returns every entry of the current one, and entries are returned again when they are updated.
+   */
+  @Override
+  public HarDelta getHarSince(long cursor) {
+    HarCaptureManager.HarEntriesResponse response = mitmProxyManager.getHarCaptureFilterManager()
+        .getHarEntriesSince(cursor >>> CURSOR_SEQUENCE_BITS, cursor & CURSOR_SEQUENCE_MASK, 0);
+    if (response == null || response.getHar() == null) {
+      return null;
+    }
+
+    long nextCursor = (response.getGeneration() << CURSOR_SEQUENCE_BITS) | (response.getSequence() & CURSOR_SEQUENCE_MASK);
+
+    return new HarDelta(response.getHar(), nextCursor);
+  }
+
+  /**
+   * Listeners are notified of the entries captured by mitmproxy by a {@link HarEntryFeed}, which receives each entry from
+   * mitmproxy's addon when it is added to the HAR and when its response is captured. The entries passed to listeners
+   * are copies of the entries in mitmproxy's HAR.
+   */
+  @Override
+  public synchronized void addHarEntryListener(HarEntryListener listener) {
+    harEntryListeners.add(listener);
+    if (!harEntryDispatcher.isClosed()) {
+      harEntryDispatcher.addListener(listener);
+    }
+  }
+
+  @Override
+  public synchronized void removeHarEntryListener(HarEntryListener listener) {
+    harEntryListeners.remove(listener);
+    harEntryDispatcher.removeListener(listener);
+  }
+
+  private synchronized void startHarEntryFeed() {
+    stopHarEntryFeed();
+
+    if (harEntryDispatcher.isClosed()) {
+      HarEntryDispatcher dispatcher = new HarEntryDispatcher();
+      harEntryListeners.forEach(dispatcher::addListener);
+      harEntryDispatcher = dispatcher;
+    }
+
+    harEntryFeed = new HarEntryFeed(mitmProxyManager.getHarCaptureFilterManager(), new HarEntryListener() {
+      @Override
+      public void onEntryStarted(HarEntry entry) {
+        harEntryDispatcher.entryStarted(entry);
+      }
+
+      @Override
+      public void onEntryCompleted(HarEntry entry) {
+        harTimingHistograms.record(entry);
+        standingAssertions.record(entry);
+        harEntryDispatcher.entryCompleted(entry);
+      }
+    });
+    harEntryFeed.start();
+  }
+
+  private synchronized void stopHarEntryFeed() {
+    if (harEntryFeed != null) {
+      harEntryFeed.close();
+      harEntryFeed = null;
+    }
+  }
+
+  /**
+   * Stops the feed, and closes the dispatcher once it has delivered the entries already reported. The listeners are kept
+   * for when the proxy is started again.
+   */
+  private synchronized void closeHarEntryDispatcher() {
+    stopHarEntryFeed();
+    harEntryDispatcher.close();
+  }
+
   @Override
   public Har newHar() {
     return mitmProxyManager.getHarCaptureFilterManager().newHar();
@@ -198,6 +355,45 @@ public class MitmProxyServer implements BrowserUpProxy {
     disableHarCaptureTypes(EnumSet.copyOf(Arrays.asList(captureTypes)));
   }
 
+  @Override
+  public void setHarCaptureLimits(HarCaptureLimits limits) {
+    mitmProxyManager.getHarCaptureFilterManager().setHarCaptureLimits(limits == null ? HarCaptureLimits.UNLIMITED : limits);
+  }
+
+  @Override
+  public HarCaptureLimits getHarCaptureLimits() {
+    return mitmProxyManager.getHarCaptureFilterManager().getHarCaptureLimits();
+  }
+
+  @Override
+  public void setHarCapturePolicies(List<HarCapturePolicy> policies) {
+    mitmProxyManager.getHarCaptureFilterManager().setHarCapturePolicies(policies);
+  }
+
+  @Override
+  public List<HarCapturePolicy> getHarCapturePolicies() {
+    return mitmProxyManager.getHarCaptureFilterManager().getHarCapturePolicies();
+  }
+
+  @Override
+  public HarEvictionStats getHarEvictionStats() {
+    return mitmProxyManager.getHarCaptureFilterManager().getHarEvictionStats();
+  }
+
+  /**
+   * The timings of each entry are recorded by the {@link HarEntryFeed} when mitmproxy completes the entry, so creating a
+   * report does not read the HAR.
+   */
+  @Override
+  public HarTimingReport getHarTimingReport() {
+    return harTimingHistograms.getReport();
+  }
+
+  @Override
+  public HarTimingReport resetHarTimings() {
+    return harTimingHistograms.reset();
+  }
+
   @Override
   public Har newPage() {
     return mitmProxyManager.getHarCaptureFilterManager().newPage();
@@ -505,265 +701,352 @@ public class MitmProxyServer implements BrowserUpProxy {
 
   @Override
   public Optional<HarEntry> findMostRecentEntry(Pattern url) {
-    List<HarEntry> entries = new MostRecentUrlFilteredHarEntrySupplier(getHar(), url).get();
-    return Optional.ofNullable(entries.isEmpty() ? null : entries.get(0));
+    List<HarEntry> entries = queryHar(HarQueryCache.query("findMostRecentEntry", url),
+        har -> new MostRecentUrlFilteredHarEntrySupplier(har, url).get());
+
+    // each call used to return entries parsed from a fresh copy of the HAR, so callers may modify them
+    return entries.isEmpty() ? Optional.empty() : Optional.of(copyEntry(entries.get(0)));
   }
 
   @Override
   public Collection<HarEntry> findEntries(Pattern url) {
-    return new UrlFilteredHarEntriesSupplier(getHar(), url).get();
+    List<HarEntry> entries = queryHar(HarQueryCache.query("findEntries", url),
+        har -> new UrlFilteredHarEntriesSupplier(har, url).get());
+
+    return entries.stream().map(MitmProxyServer::copyEntry).collect(Collectors.toList());
   }
 
   @Override
   public AssertionResult assertMostRecentResponseTimeLessThanOrEqual(Pattern url, long time) {
-    HarEntriesSupplier supplier = new MostRecentUrlFilteredHarEntrySupplier(getHar(), url);
+    Function<Har, HarEntriesSupplier> supplier = har -> new MostRecentUrlFilteredHarEntrySupplier(har, url);
     HarEntryAssertion assertion = new ResponseTimeLessThanOrEqualAssertion(time);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertMostRecentResponseTimeLessThanOrEqual", url, time),
+        supplier, assertion);
   }
 
   @Override
   public AssertionResult assertResponseTimeLessThanOrEqual(Pattern url, long time) {
-    HarEntriesSupplier supplier = new UrlFilteredHarEntriesSupplier(getHar(), url);
+    Function<Har, HarEntriesSupplier> supplier = har -> new UrlFilteredHarEntriesSupplier(har, url);
     HarEntryAssertion assertion = new ResponseTimeLessThanOrEqualAssertion(time);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertResponseTimeLessThanOrEqual", url, time), supplier, assertion);
   }
 
   @Override
   public AssertionResult assertMostRecentResponseContentContains(Pattern url, String text) {
-    HarEntriesSupplier supplier = new MostRecentUrlFilteredHarEntrySupplier(getHar(), url);
+    Function<Har, HarEntriesSupplier> supplier = har -> new MostRecentUrlFilteredHarEntrySupplier(har, url);
     HarEntryAssertion assertion = new ContentContainsStringAssertion(text);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertMostRecentResponseContentContains", url, text),
+        supplier, assertion);
   }
 
   @Override
   public AssertionResult assertMostRecentResponseContentDoesNotContain(Pattern url, String text) {
-    HarEntriesSupplier supplier = new MostRecentUrlFilteredHarEntrySupplier(getHar(), url);
+    Function<Har, HarEntriesSupplier> supplier = har -> new MostRecentUrlFilteredHarEntrySupplier(har, url);
     HarEntryAssertion assertion = new ContentDoesNotContainStringAssertion(text);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertMostRecentResponseContentDoesNotContain", url, text),
+        supplier, assertion);
+  }
+
+  @Override
+  public AssertionResult assertMostRecentResponseContentContainsAll(Pattern url, Collection<String> texts) {
+    Function<Har, HarEntriesSupplier> supplier = har -> new MostRecentUrlFilteredHarEntrySupplier(har, url);
+    HarEntryAssertion assertion = new ContentContainsAllStringsAssertion(texts);
+
+    return checkAssertion(HarQueryCache.query("assertMostRecentResponseContentContainsAll", url, texts),
+        supplier, assertion);
+  }
+
+  @Override
+  public AssertionResult assertMostRecentResponseContentDoesNotContainAny(Pattern url, Collection<String> texts) {
+    Function<Har, HarEntriesSupplier> supplier = har -> new MostRecentUrlFilteredHarEntrySupplier(har, url);
+    HarEntryAssertion assertion = new ContentDoesNotContainAnyStringAssertion(texts);
+
+    return checkAssertion(HarQueryCache.query("assertMostRecentResponseContentDoesNotContainAny", url, texts),
+        supplier, assertion);
   }
 
   @Override
   public AssertionResult assertMostRecentResponseContentMatches(Pattern url, Pattern contentPattern) {
-    HarEntriesSupplier supplier = new MostRecentUrlFilteredHarEntrySupplier(getHar(), url);
+    Function<Har, HarEntriesSupplier> supplier = har -> new MostRecentUrlFilteredHarEntrySupplier(har, url);
     HarEntryAssertion assertion = new ContentMatchesAssertion(contentPattern);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertMostRecentResponseContentMatches", url, contentPattern),
+        supplier, assertion);
   }
 
   @Override
   public AssertionResult assertAnyUrlContentLengthLessThanOrEquals(Pattern url, Long maxSize) {
-    HarEntriesSupplier supplier = new UrlFilteredHarEntriesSupplier(getHar(), url);
+    Function<Har, HarEntriesSupplier> supplier = har -> new UrlFilteredHarEntriesSupplier(har, url);
     HarEntryAssertion assertion = new ContentSizeLessThanOrEqualAssertion(maxSize);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertAnyUrlContentLengthLessThanOrEquals", url, maxSize),
+        supplier, assertion);
   }
 
   @Override
   public AssertionResult assertAnyUrlContentMatches(Pattern url, Pattern contentPattern) {
-    HarEntriesSupplier supplier = new UrlFilteredHarEntriesSupplier(getHar(), url);
+    Function<Har, HarEntriesSupplier> supplier = har -> new UrlFilteredHarEntriesSupplier(har, url);
     HarEntryAssertion assertion = new ContentMatchesAssertion(contentPattern);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertAnyUrlContentMatches", url, contentPattern), supplier, assertion);
   }
 
   @Override
   public AssertionResult assertAnyUrlContentContains(Pattern url, String text) {
-    HarEntriesSupplier supplier = new UrlFilteredHarEntriesSupplier(getHar(), url);
+    Function<Har, HarEntriesSupplier> supplier = har -> new UrlFilteredHarEntriesSupplier(har, url);
     HarEntryAssertion assertion = new ContentContainsStringAssertion(text);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertAnyUrlContentContains", url, text), supplier, assertion);
   }
 
   @Override
   public AssertionResult assertAnyUrlContentDoesNotContain(Pattern url, String text) {
-    HarEntriesSupplier supplier = new UrlFilteredHarEntriesSupplier(getHar(), url);
+    Function<Har, HarEntriesSupplier> supplier = har -> new UrlFilteredHarEntriesSupplier(har, url);
     HarEntryAssertion assertion = new ContentDoesNotContainStringAssertion(text);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertAnyUrlContentDoesNotContain", url, text), supplier, assertion);
+  }
+
+  @Override
+  public AssertionResult assertAnyUrlContentContainsAll(Pattern url, Collection<String> texts) {
+    Function<Har, HarEntriesSupplier> supplier = har -> new UrlFilteredHarEntriesSupplier(har, url);
+    HarEntryAssertion assertion = new ContentContainsAllStringsAssertion(texts);
+
+    return checkAssertion(HarQueryCache.query("assertAnyUrlContentContainsAll", url, texts), supplier, assertion);
+  }
+
+  @Override
+  public AssertionResult assertAnyUrlContentDoesNotContainAny(Pattern url, Collection<String> texts) {
+    Function<Har, HarEntriesSupplier> supplier = har -> new UrlFilteredHarEntriesSupplier(har, url);
+    HarEntryAssertion assertion = new ContentDoesNotContainAnyStringAssertion(texts);
+
+    return checkAssertion(HarQueryCache.query("assertAnyUrlContentDoesNotContainAny", url, texts), supplier, assertion);
   }
 
   @Override
   public AssertionResult assertAnyUrlResponseHeaderContains(Pattern url, String value) {
-    HarEntriesSupplier supplier = new UrlFilteredHarEntriesSupplier(getHar(), url);
+    Function<Har, HarEntriesSupplier> supplier = har -> new UrlFilteredHarEntriesSupplier(har, url);
     HarEntryAssertion assertion = new HeadersContainStringAssertion(value);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertAnyUrlResponseHeaderContains", url, value), supplier, assertion);
   }
 
   @Override
   public AssertionResult assertAnyUrlResponseHeaderContains(Pattern url, String name, String value) {
-    HarEntriesSupplier supplier = new UrlFilteredHarEntriesSupplier(getHar(), url);
+    Function<Har, HarEntriesSupplier> supplier = har -> new UrlFilteredHarEntriesSupplier(har, url);
     HarEntryAssertion assertion = StringUtils.isEmpty(name) ?
             new HeadersContainStringAssertion(value) :
             new FilteredHeadersContainStringAssertion(name, value);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertAnyUrlResponseHeaderContains", url, name, value),
+        supplier, assertion);
   }
 
   @Override
   public AssertionResult assertAnyUrlResponseHeaderDoesNotContain(Pattern url, String name, String value) {
-    HarEntriesSupplier supplier = new UrlFilteredHarEntriesSupplier(getHar(), url);
+    Function<Har, HarEntriesSupplier> supplier = har -> new UrlFilteredHarEntriesSupplier(har, url);
     HarEntryAssertion assertion = StringUtils.isEmpty(name) ?
             new HeadersDoNotContainStringAssertion(value) :
             new FilteredHeadersDoNotContainStringAssertion(name, value);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertAnyUrlResponseHeaderDoesNotContain", url, name, value),
+        supplier, assertion);
   }
 
   @Override
   public AssertionResult assertAnyUrlResponseHeaderDoesNotContain(Pattern url, String value) {
-    HarEntriesSupplier supplier = new UrlFilteredHarEntriesSupplier(getHar(), url);
+    Function<Har, HarEntriesSupplier> supplier = har -> new UrlFilteredHarEntriesSupplier(har, url);
     HarEntryAssertion assertion = new HeadersDoNotContainStringAssertion(value);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertAnyUrlResponseHeaderDoesNotContain", url, value),
+        supplier, assertion);
   }
 
   @Override
   public AssertionResult assertAnyUrlResponseHeaderMatches(Pattern url, Pattern namePattern, Pattern valuePattern) {
-    HarEntriesSupplier supplier = new UrlFilteredHarEntriesSupplier(getHar(), url);
+    Function<Har, HarEntriesSupplier> supplier = har -> new UrlFilteredHarEntriesSupplier(har, url);
     HarEntryAssertion assertion = namePattern == null ?
             new HeadersMatchAssertion(valuePattern) :
             new FilteredHeadersMatchAssertion(namePattern, valuePattern);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertAnyUrlResponseHeaderMatches", url, namePattern, valuePattern),
+        supplier, assertion);
   }
 
   @Override
   public AssertionResult assertResponseStatusCode(Integer status) {
-    HarEntriesSupplier supplier = new CurrentStepHarEntriesSupplier(getHar());
+    Function<Har, HarEntriesSupplier> supplier = har -> new CurrentStepHarEntriesSupplier(har);
     HarEntryAssertion assertion = new StatusEqualsAssertion(status);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertResponseStatusCode", status), supplier, assertion);
   }
 
   @Override
   public AssertionResult assertResponseStatusCode(HttpStatusClass clazz) {
-    HarEntriesSupplier supplier = new CurrentStepHarEntriesSupplier(getHar());
+    Function<Har, HarEntriesSupplier> supplier = har -> new CurrentStepHarEntriesSupplier(har);
     HarEntryAssertion assertion = new StatusBelongsToClassAssertion(clazz);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertResponseStatusCode", clazz), supplier, assertion);
   }
 
   @Override
   public AssertionResult assertResponseStatusCode(Pattern url, Integer status) {
-    HarEntriesSupplier supplier = new UrlFilteredHarEntriesSupplier(getHar(), url);
+    Function<Har, HarEntriesSupplier> supplier = har -> new UrlFilteredHarEntriesSupplier(har, url);
     HarEntryAssertion assertion = new StatusEqualsAssertion(status);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertResponseStatusCode", url, status), supplier, assertion);
   }
 
   @Override
   public AssertionResult assertResponseStatusCode(Pattern url, HttpStatusClass clazz) {
-    HarEntriesSupplier supplier = new UrlFilteredHarEntriesSupplier(getHar(), url);
+    Function<Har, HarEntriesSupplier> supplier = har -> new UrlFilteredHarEntriesSupplier(har, url);
     HarEntryAssertion assertion = new StatusBelongsToClassAssertion(clazz);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertResponseStatusCode", url, clazz), supplier, assertion);
   }
 
   @Override
   public AssertionResult assertMostRecentResponseStatusCode(Integer status) {
-    HarEntriesSupplier supplier = new MostRecentHarEntrySupplier(getHar());
+    Function<Har, HarEntriesSupplier> supplier = har -> new MostRecentHarEntrySupplier(har);
     HarEntryAssertion assertion = new StatusEqualsAssertion(status);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertMostRecentResponseStatusCode", status), supplier, assertion);
   }
 
 
   @Override
   public AssertionResult assertMostRecentResponseStatusCode(HttpStatusClass clazz) {
-    HarEntriesSupplier supplier = new MostRecentHarEntrySupplier(getHar());
+    Function<Har, HarEntriesSupplier> supplier = har -> new MostRecentHarEntrySupplier(har);
     HarEntryAssertion assertion = new StatusBelongsToClassAssertion(clazz);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertMostRecentResponseStatusCode", clazz), supplier, assertion);
   }
 
   @Override
   public AssertionResult assertMostRecentResponseStatusCode(Pattern url, Integer status) {
-    HarEntriesSupplier supplier = new MostRecentUrlFilteredHarEntrySupplier(getHar(), url);
+    Function<Har, HarEntriesSupplier> supplier = har -> new MostRecentUrlFilteredHarEntrySupplier(har, url);
     HarEntryAssertion assertion = new StatusEqualsAssertion(status);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertMostRecentResponseStatusCode", url, status), supplier, assertion);
   }
 
   @Override
   public AssertionResult assertMostRecentResponseStatusCode(Pattern url, HttpStatusClass clazz) {
-    HarEntriesSupplier supplier = new MostRecentUrlFilteredHarEntrySupplier(getHar(), url);
+    Function<Har, HarEntriesSupplier> supplier = har -> new MostRecentUrlFilteredHarEntrySupplier(har, url);
     HarEntryAssertion assertion = new StatusBelongsToClassAssertion(clazz);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertMostRecentResponseStatusCode", url, clazz), supplier, assertion);
   }
 
   @Override
   public AssertionResult assertMostRecentResponseContentLengthLessThanOrEqual(Pattern url, Long max) {
-    HarEntriesSupplier supplier = new MostRecentUrlFilteredHarEntrySupplier(getHar(), url);
+    Function<Har, HarEntriesSupplier> supplier = har -> new MostRecentUrlFilteredHarEntrySupplier(har, url);
     HarEntryAssertion assertion = new ContentSizeLessThanOrEqualAssertion(max);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertMostRecentResponseContentLengthLessThanOrEqual", url, max),
+        supplier, assertion);
   }
 
   @Override
   public AssertionResult assertMostRecentResponseHeaderContains(Pattern url, String name, String value) {
-    HarEntriesSupplier supplier = new MostRecentUrlFilteredHarEntrySupplier(getHar(), url);
+    Function<Har, HarEntriesSupplier> supplier = har -> new MostRecentUrlFilteredHarEntrySupplier(har, url);
     HarEntryAssertion assertion = StringUtils.isEmpty(name) ?
             new HeadersContainStringAssertion(value) :
             new FilteredHeadersContainStringAssertion(name, value);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertMostRecentResponseHeaderContains", url, name, value),
+        supplier, assertion);
   }
 
   @Override
   public AssertionResult assertMostRecentResponseHeaderDoesNotContain(Pattern url, String name, String value) {
-    HarEntriesSupplier supplier = new MostRecentUrlFilteredHarEntrySupplier(getHar(), url);
+    Function<Har, HarEntriesSupplier> supplier = har -> new MostRecentUrlFilteredHarEntrySupplier(har, url);
     HarEntryAssertion assertion = StringUtils.isEmpty(name) ?
             new HeadersDoNotContainStringAssertion(value) :
             new FilteredHeadersDoNotContainStringAssertion(name, value);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertMostRecentResponseHeaderDoesNotContain", url, name, value),
+        supplier, assertion);
   }
 
   @Override
   public AssertionResult assertMostRecentResponseHeaderMatches(Pattern url, Pattern name, Pattern value) {
-    HarEntriesSupplier supplier = new MostRecentUrlFilteredHarEntrySupplier(getHar(), url);
+    Function<Har, HarEntriesSupplier> supplier = har -> new MostRecentUrlFilteredHarEntrySupplier(har, url);
     HarEntryAssertion assertion = name == null ?
             new HeadersMatchAssertion(value) :
             new FilteredHeadersMatchAssertion(name, value);
 
-    return checkAssertion(supplier, assertion);
+    return checkAssertion(HarQueryCache.query("assertMostRecentResponseHeaderMatches", url, name, value),
+        supplier, assertion);
   }
 
-  private AssertionResult checkAssertion(HarEntriesSupplier harEntriesSupplier, HarEntryAssertion assertion) {
-    AssertionResult.Builder result = new AssertionResult.Builder();
+  @Override
+  public List<AssertionResult> assertAll(List<HarEntryAssertionSpec> assertions) {
+    // the specs are copied, so that the key does not change if the caller modifies them later
+    List<HarEntryAssertionSpec> specs = assertions.stream().map(HarEntryAssertionSpec::new).collect(Collectors.toList());
 
-    List<HarEntry> entries = harEntriesSupplier.get();
+    return new ArrayList<>(queryHar(HarQueryCache.query("assertAll", specs), har -> HarAssertionBatch.evaluate(har, specs)));
+  }
 
-    AtomicInteger failedCount = new AtomicInteger();
+  /**
+   * The standing assertions are checked by the {@link HarEntryFeed} against each entry when mitmproxy completes it, on
+   * the feed's thread, so reading their results does not read the HAR. Entries completed before an assertion is
+   * registered are not checked against it.
+   */
+  @Override
+  public long addStandingAssertion(HarEntryAssertionSpec assertion) {
+    return standingAssertions.add(assertion);
+  }
+
+  @Override
+  public boolean removeStandingAssertion(long id) {
+    return standingAssertions.remove(id);
+  }
 
-    entries.forEach(entry -> {
-      AssertionEntryResult.Builder requestResult = new AssertionEntryResult.Builder();
-      requestResult.setUrl(entry.getRequest().getUrl());
+  @Override
+  public List<StandingAssertionResult> getStandingAssertionResults() {
+    return standingAssertions.getResults();
+  }
 
-      Optional<HarEntryAssertionError> error = assertion.assertion(entry);
-      requestResult.setFailed(error.isPresent());
+  @Override
+  public void resetStandingAssertionResults() {
+    standingAssertions.resetResults();
+  }
 
-      if (error.isPresent()) {
-        requestResult.setMessage(error.get().getMessage());
-        failedCount.getAndIncrement();
-      }
+  /**
+   * @return cache of entry query and assertion results, which are reused until mitmproxy's HAR changes
+   */
+  public HarQueryCache getHarQueryCache() {
+    return harQueryCache;
+  }
 
-      result.addRequest(requestResult.create());
+  private AssertionResult checkAssertion(List<Object> query, Function<Har, HarEntriesSupplier> supplier,
+                                         HarEntryAssertion assertion) {
+    return queryHar(query, har -> {
+      HarEntriesSupplier harEntriesSupplier = supplier.apply(har);
+      return HarAssertionBatch.checkAssertion(harEntriesSupplier.get(), harEntriesSupplier.getFilterInfo(), assertion);
     });
+  }
+
+  /**
+   * Runs a query against the HAR, or returns its cached result if mitmproxy's HAR has not changed since it was cached.
+   * Checking whether the HAR has changed only transfers the entries changed since the last check, so a repeated query
+   * does not retrieve and parse the whole HAR.
+   */
+  private <T> T queryHar(List<Object> query, Function<Har, T> compute) {
+    HarCaptureManager harCaptureManager = mitmProxyManager.getHarCaptureFilterManager();
 
-    String resultMessage = String.format("%d passed, %d total", entries.size() - failedCount.get(), entries.size());
+    // read before the HAR is retrieved, so that a result computed while the HAR changes is not reused
+    Object version = harCaptureManager.getHarVersion();
+
+    return harQueryCache.get(query, harCaptureManager, version, () -> compute.apply(getHar()));
+  }
 
-    return result
-            .setFilter(harEntriesSupplier.getFilterInfo())
-            .setFailed(failedCount.get() > 0)
-            .setMessage(resultMessage)
-            .setPassed(failedCount.get() == 0)
-            .create();
+  private static HarEntry copyEntry(HarEntry entry) {
+    return ENTRY_MAPPER.convertValue(entry, HarEntry.class);
   }
 }
@@ -0,0 +1,146 @@
+package com.browserup.bup.assertion;
+
+import com.browserup.bup.assertion.model.AssertionResult;
+import com.browserup.bup.assertion.model.HarEntryAssertionSpec;
+import com.browserup.bup.assertion.model.filter.AssertionFilterInfo;
+import com.browserup.bup.assertion.model.filter.AssertionUrlFilterInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import de.sstoehr.harreader.model.Har;
+import de.sstoehr.harreader.model.HarEntry;
+
+/**
+ * Checks several {@link HarEntryAssertionSpec assertions} against a HAR at once. The assertions are grouped by their
+ * URL filter, so that the entries are walked only once and each URL pattern is matched only once against each entry,
+ * however many assertions share it.
+ */
+public final class HarAssertionBatch {
+    private HarAssertionBatch() {
+    }
+
+    /**
+     * Checks the assertions against the entries of the HAR.
+     *
+     * @param har HAR to check
+     * @param specs assertions to check
+     * @return the result of each assertion, in the order of the assertions. An assertion that is not valid has an
+     * errored result.
+     */
+    public static List<AssertionResult> evaluate(Har har, List<HarEntryAssertionSpec> specs) {
+        if (specs.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Map<String, EntryFilter> filters = new LinkedHashMap<>();
+        Map<HarEntryAssertionSpec, String> invalidPatterns = new LinkedHashMap<>();
+        for (HarEntryAssertionSpec spec : specs) {
+            try {
+                filters.computeIfAbsent(EntryFilter.key(spec), key -> new EntryFilter(spec));
+            } catch (PatternSyntaxException e) {
+                invalidPatterns.put(spec, "Invalid URL pattern: " + e.getMessage());
+            }
+        }
+
+        List<EntryFilter> entryFilters = new ArrayList<>(filters.values());
+        for (HarEntry entry : har.getLog().getEntries()) {
+            for (EntryFilter filter : entryFilters) {
+                filter.accept(entry);
+            }
+        }
+
+        List<AssertionResult> results = new ArrayList<>(specs.size());
+        for (HarEntryAssertionSpec spec : specs) {
+            String invalidPattern = invalidPatterns.get(spec);
+            if (invalidPattern != null) {
+                results.add(errored(new AssertionUrlFilterInfo(spec.getUrlPattern()), invalidPattern));
+                continue;
+            }
+
+            EntryFilter filter = filters.get(EntryFilter.key(spec));
+            HarEntryAssertion assertion;
+            try {
+                assertion = spec.toAssertion();
+            } catch (IllegalArgumentException e) {
+                results.add(errored(filter.filterInfo, e.getMessage()));
+                continue;
+            }
+
+            results.add(checkAssertion(filter.getEntries(), filter.filterInfo, assertion));
+        }
+
+        return results;
+    }
+
+    /**
+     * Checks an assertion against each of the entries with the {@link HarAssertionEvaluator#getDefault() default
+     * evaluator}, which checks large lists of entries in parallel.
+     *
+     * @param entries entries to check
+     * @param filterInfo filter the entries were found by
+     * @param assertion assertion to check
+     * @return assertion result
+     */
+    public static AssertionResult checkAssertion(List<HarEntry> entries, AssertionFilterInfo filterInfo,
+                                                 HarEntryAssertion assertion) {
+        return HarAssertionEvaluator.getDefault().evaluate(entries, filterInfo, assertion);
+    }
+
+    private static AssertionResult errored(AssertionFilterInfo filterInfo, String message) {
+        return new AssertionResult.Builder()
+                .setFilter(filterInfo)
+                .setErrored(true)
+                .setFailed(true)
+                .setPassed(false)
+                .setMessage(message != null ? message : "Invalid assertion")
+                .create();
+    }
+
+    /**
+     * Collects the entries of the HAR that a group of assertions is checked against.
+     */
+    private static class EntryFilter {
+        private final Pattern urlPattern;
+        private final boolean mostRecent;
+        private final AssertionFilterInfo filterInfo;
+
+        private final List<HarEntry> entries = new ArrayList<>();
+        private HarEntry mostRecentEntry;
+
+        private EntryFilter(HarEntryAssertionSpec spec) {
+            this.urlPattern = spec.getUrlPattern() != null ? Pattern.compile(spec.getUrlPattern()) : null;
+            this.mostRecent = spec.isMostRecent();
+            this.filterInfo = urlPattern != null ? new AssertionUrlFilterInfo(spec.getUrlPattern()) : new AssertionFilterInfo();
+        }
+
+        private static String key(HarEntryAssertionSpec spec) {
+            return (spec.isMostRecent() ? "1" : "0") + (spec.getUrlPattern() != null ? ":" + spec.getUrlPattern() : "");
+        }
+
+        private void accept(HarEntry entry) {
+            if (urlPattern != null && !urlPattern.matcher(entry.getRequest().getUrl()).matches()) {
+                return;
+            }
+
+            if (!mostRecent) {
+                entries.add(entry);
+            } else if (mostRecentEntry == null || entry.getStartedDateTime().compareTo(mostRecentEntry.getStartedDateTime()) > 0) {
+                mostRecentEntry = entry;
+            }
+        }
+
+        private List<HarEntry> getEntries() {
+            if (mostRecent) {
+                return mostRecentEntry != null ? Collections.singletonList(mostRecentEntry) : Collections.emptyList();
+            }
+
+            return entries;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.browserup.bup.assertion;
+
+import com.browserup.bup.assertion.error.HarEntryAssertionError;
+import com.browserup.bup.assertion.model.AssertionEntryResult;
+import com.browserup.bup.assertion.model.AssertionResult;
+import com.browserup.bup.assertion.model.filter.AssertionFilterInfo;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import de.sstoehr.harreader.model.HarEntry;
+
+/**
+ * Checks an assertion against each of a list of HAR entries, and collects the results of the entries into an
+ * {@link AssertionResult}, with the entry results in the order of the entries.
+ * <p>
+ * Assertions that inspect response content, such as content pattern assertions, can take a long time per entry for
+ * large bodies, so when there are at least as many entries as the parallel threshold, the entries are split into
+ * chunks that are checked in parallel on a {@link ForkJoinPool}. Each task writes the results of its entries into its
+ * own range of a shared result array and counts its own failures, so results need no synchronization and are merged in
+ * entry order. Fewer entries are checked on the calling thread, where splitting them would cost more than it saves.
+ * <p>
+ * Assertions are expected to be thread-safe, which the assertions in this package are.
+ */
+public class HarAssertionEvaluator {
+    /**
+     * Default minimum number of entries that are checked in parallel.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 512;
+
+    /**
+     * Default maximum number of entries checked by one task, when checking entries in parallel.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64;
+
+    private static final HarAssertionEvaluator DEFAULT = new HarAssertionEvaluator(ForkJoinPool.commonPool());
+
+    private final ForkJoinPool pool;
+    private final int parallelThreshold;
+    private final int chunkSize;
+
+    /**
+     * Creates an evaluator that checks large lists of entries in parallel on the specified pool, using the default
+     * parallel threshold and chunk size.
+     *
+     * @param pool pool to check entries on
+     */
+    public HarAssertionEvaluator(ForkJoinPool pool) {
+        this(pool, DEFAULT_PARALLEL_THRESHOLD, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param pool pool to check entries on
+     * @param parallelThreshold minimum number of entries that are checked in parallel
+     * @param chunkSize maximum number of entries checked by one task
+     */
+    public HarAssertionEvaluator(ForkJoinPool pool, int parallelThreshold, int chunkSize) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool is required");
+        }
+
+        if (parallelThreshold <= 0) {
+            throw new IllegalArgumentException("Parallel threshold must be positive: " + parallelThreshold);
+        }
+
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+
+        this.pool = pool;
+        this.parallelThreshold = parallelThreshold;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return an evaluator that checks large lists of entries in parallel on the common pool
+     */
+    public static HarAssertionEvaluator getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Checks an assertion against each of the entries.
+     *
+     * @param entries entries to check
+     * @param filterInfo filter the entries were found by
+     * @param assertion assertion to check
+     * @return assertion result
+     */
+    public AssertionResult evaluate(List<HarEntry> entries, AssertionFilterInfo filterInfo, HarEntryAssertion assertion) {
+        // entries may be the HAR's live entry list, which can grow while the entries are checked
+        HarEntry[] entryArray = entries.toArray(new HarEntry[0]);
+        AssertionEntryResult[] entryResults = new AssertionEntryResult[entryArray.length];
+
+        int failedCount;
+        if (entryArray.length < parallelThreshold) {
+            failedCount = checkEntries(assertion, entryArray, entryResults, 0, entryArray.length);
+        } else {
+            failedCount = pool.invoke(new ChunkTask(assertion, entryArray, entryResults, 0, entryArray.length));
+        }
+
+        String resultMessage = String.format("%d passed, %d total", entryArray.length - failedCount, entryArray.length);
+
+        return new AssertionResult.Builder()
+                .setRequests(Arrays.asList(entryResults))
+                .setFilter(filterInfo)
+                .setFailed(failedCount > 0)
+                .setMessage(resultMessage)
+                .setPassed(failedCount == 0)
+                .create();
+    }
+
+    /**
+     * Checks the entries in a range, and stores their results in the same range of the result array.
+     *
+     * @return number of entries that failed
+     */
+    private static int checkEntries(HarEntryAssertion assertion, HarEntry[] entries, AssertionEntryResult[] entryResults,
+                                    int from, int to) {
+        int failedCount = 0;
+        for (int i = from; i < to; i++) {
+            AssertionEntryResult entryResult = checkEntry(assertion, entries[i]);
+            entryResults[i] = entryResult;
+            if (entryResult.getFailed()) {
+                failedCount++;
+            }
+        }
+
+        return failedCount;
+    }
+
+    private static AssertionEntryResult checkEntry(HarEntryAssertion assertion, HarEntry entry) {
+        AssertionEntryResult.Builder requestResult = new AssertionEntryResult.Builder();
+        requestResult.setUrl(entry.getRequest().getUrl());
+
+        Optional<HarEntryAssertionError> error = assertion.assertion(entry);
+        requestResult.setFailed(error.isPresent());
+        error.ifPresent(e -> requestResult.setMessage(e.getMessage()));
+
+        return requestResult.create();
+    }
+
+    /**
+     * Checks the entries in a range, splitting the range in halves until it is no larger than the chunk size, and
+     * returns the number of entries that failed.
+     */
+    private class ChunkTask extends RecursiveTask<Integer> {
+        private final HarEntryAssertion assertion;
+        private final HarEntry[] entries;
+        private final AssertionEntryResult[] entryResults;
+        private final int from;
+        private final int to;
+
+        private ChunkTask(HarEntryAssertion assertion, HarEntry[] entries, AssertionEntryResult[] entryResults,
+                          int from, int to) {
+            this.assertion = assertion;
+            this.entries = entries;
+            this.entryResults = entryResults;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from <= chunkSize) {
+                return checkEntries(assertion, entries, entryResults, from, to);
+            }
+
+            int middle = (from + to) >>> 1;
+            ChunkTask left = new ChunkTask(assertion, entries, entryResults, from, middle);
+            ChunkTask right = new ChunkTask(assertion, entries, entryResults, middle, to);
+            left.fork();
+            int rightFailedCount = right.compute();
+
+            return left.join() + rightFailedCount;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package com.browserup.bup.assertion;
+
+import com.browserup.bup.assertion.error.HarEntryAssertionError;
+import com.browserup.bup.assertion.field.content.ContentPassesPredicateAssertion;
+import com.browserup.bup.assertion.model.AssertionEntryResult;
+import com.browserup.bup.assertion.model.HarEntryAssertionSpec;
+import com.browserup.bup.assertion.model.StandingAssertionResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Pattern;
+
+import de.sstoehr.harreader.model.HarEntry;
+
+/**
+ * Assertions that are registered up front and checked against each HAR entry as it is completed, instead of against
+ * the HAR after the fact. Each assertion keeps running counters of the entries it was checked against and failed for,
+ * and the first entry it failed for, so its result can be read at any time without scanning the HAR, and without
+ * keeping response bodies in the HAR just to assert on them later.
+ * <p>
+ * {@link #record(HarEntry)} checks every assertion on the calling thread. A proxy that completes entries on its I/O
+ * threads instead calls {@link #recordWithoutContent(HarEntry)}, which only checks the assertions that do not read the
+ * response body, and {@link #recordContentLater(HarEntry, BooleanSupplier, Runnable)}, which checks the assertions on
+ * the response body on a separate thread. Searching a large body then never stalls the connections served by the I/O
+ * thread. Content checks never block the caller: when too many entries are waiting for their content to be checked, the
+ * entry is skipped and counted in {@link StandingAssertionResult#getSkippedEntries()}.
+ * <p>
+ * Assertions can be added and removed while entries are being recorded; an assertion is checked against the entries
+ * completed after it was added. Results read while content checks are pending do not include them yet.
+ */
+public class StandingAssertions {
+    private static final Logger log = LoggerFactory.getLogger(StandingAssertions.class);
+
+    /**
+     * Default number of entries that can wait for their content to be checked before entries are skipped.
+     */
+    public static final int DEFAULT_CONTENT_QUEUE_CAPACITY = 1024;
+
+    /**
+     * How long {@link #shutdown()} waits for the entries waiting for their content to be checked.
+     */
+    private static final long SHUTDOWN_TIMEOUT_MS = 30000;
+
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+
+    private final AtomicLong lastId = new AtomicLong();
+
+    private final List<StandingAssertion> assertions = new CopyOnWriteArrayList<>();
+
+    /**
+     * Checks the assertions on response bodies. Its single thread is only started when an entry is recorded, and stops
+     * when it has been idle for a minute.
+     */
+    private final ThreadPoolExecutor contentExecutor;
+
+    public StandingAssertions() {
+        this(DEFAULT_CONTENT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param contentQueueCapacity number of entries that can wait for their content to be checked before entries are
+     *                             skipped
+     */
+    public StandingAssertions(int contentQueueCapacity) {
+        if (contentQueueCapacity <= 0) {
+            throw new IllegalArgumentException("Content queue capacity must be positive: " + contentQueueCapacity);
+        }
+
+        this.contentExecutor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(contentQueueCapacity),
+                r -> {
+                    Thread thread = Executors.defaultThreadFactory().newThread(r);
+                    thread.setName("standing-assertions-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.contentExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Registers an assertion to check against the entries completed from now on.
+     *
+     * @param spec assertion to check. Since standing assertions check each entry as it is completed, the assertion
+     *             cannot be {@link HarEntryAssertionSpec#isMostRecent() most recent}.
+     * @return the id of the assertion
+     * @throws IllegalArgumentException if the assertion is not valid
+     */
+    public long add(HarEntryAssertionSpec spec) {
+        if (spec.isMostRecent()) {
+            throw new IllegalArgumentException("Standing assertions cannot check only the most recent entry");
+        }
+
+        StandingAssertion assertion = new StandingAssertion(lastId.incrementAndGet(), spec);
+        assertions.add(assertion);
+
+        return assertion.id;
+    }
+
+    /**
+     * @param id id of the assertion to remove
+     * @return true if the assertion was registered
+     */
+    public boolean remove(long id) {
+        return assertions.removeIf(assertion -> assertion.id == id);
+    }
+
+    /**
+     * Removes all assertions.
+     */
+    public void clear() {
+        assertions.clear();
+    }
+
+    public boolean isEmpty() {
+        return assertions.isEmpty();
+    }
+
+    /**
+     * @return true if an assertion on the response body is registered
+     */
+    public boolean hasContentAssertions() {
+        for (StandingAssertion assertion : assertions) {
+            if (assertion.readsContent) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks each assertion whose URL pattern matches the completed entry against it, on the calling thread.
+     *
+     * @param entry entry that was completed
+     */
+    public void record(HarEntry entry) {
+        for (StandingAssertion assertion : assertions) {
+            assertion.record(entry);
+        }
+    }
+
+    /**
+     * Checks each assertion that does not read the response body and whose URL pattern matches the completed entry
+     * against it, on the calling thread.
+     *
+     * @param entry entry that was completed
+     */
+    public void recordWithoutContent(HarEntry entry) {
+        for (StandingAssertion assertion : assertions) {
+            if (!assertion.readsContent) {
+                assertion.record(entry);
+            }
+        }
+    }
+
+    /**
+     * Checks each assertion on the response body whose URL pattern matches the completed entry against it, on the
+     * thread that checks content, and then runs the continuation on that thread. If no such assertion is registered,
+     * the continuation is run on the calling thread right away. If too many entries are waiting for their content to be
+     * checked, the entry is skipped, and the continuation is run on the calling thread. Never blocks.
+     *
+     * @param entry entry that was completed
+     * @param contentAvailable checked before the content is read; if it returns false, e.g. because the entry has been
+     *                         evicted and its body released, the entry is skipped
+     * @param continuation run once the content has been checked, e.g. to persist the entry and release its body
+     */
+    public void recordContentLater(HarEntry entry, BooleanSupplier contentAvailable, Runnable continuation) {
+        if (!hasContentAssertions()) {
+            continuation.run();
+            return;
+        }
+
+        try {
+            contentExecutor.execute(() -> {
+                try {
+                    if (contentAvailable.getAsBoolean()) {
+                        recordContent(entry);
+                    } else {
+                        skipContent(entry);
+                    }
+                } finally {
+                    runContinuation(continuation);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            skipContent(entry);
+            continuation.run();
+        }
+    }
+
+    /**
+     * Stops the thread that checks content, and waits for the entries already waiting to be checked. Entries recorded
+     * with {@link #recordContentLater(HarEntry, BooleanSupplier, Runnable)} afterwards are skipped.
+     */
+    public void shutdown() {
+        contentExecutor.shutdown();
+
+        try {
+            if (!contentExecutor.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                log.warn("Standing assertions did not finish checking {} entries", contentExecutor.getQueue().size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void recordContent(HarEntry entry) {
+        for (StandingAssertion assertion : assertions) {
+            if (assertion.readsContent) {
+                assertion.record(entry);
+            }
+        }
+    }
+
+    private void skipContent(HarEntry entry) {
+        for (StandingAssertion assertion : assertions) {
+            if (assertion.readsContent) {
+                assertion.skip(entry);
+            }
+        }
+    }
+
+    private static void runContinuation(Runnable continuation) {
+        try {
+            continuation.run();
+        } catch (RuntimeException e) {
+            log.warn("Unable to complete entry after checking standing assertions", e);
+        }
+    }
+
+    /**
+     * @return the running result of each assertion, in the order the assertions were added
+     */
+    public List<StandingAssertionResult> getResults() {
+        List<StandingAssertionResult> results = new ArrayList<>(assertions.size());
+        for (StandingAssertion assertion : assertions) {
+            results.add(assertion.getResult());
+        }
+
+        return results;
+    }
+
+    /**
+     * @param id id of the assertion
+     * @return the running result of the assertion, or null if no assertion with the id is registered
+     */
+    public StandingAssertionResult getResult(long id) {
+        for (StandingAssertion assertion : assertions) {
+            if (assertion.id == id) {
+                return assertion.getResult();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Resets the counters and first failure of every assertion, keeping the assertions registered. Entries completed
+     * while the counters are being reset may be counted either before or after the reset.
+     */
+    public void resetResults() {
+        for (StandingAssertion assertion : assertions) {
+            assertion.reset();
+        }
+    }
+
+    private static class StandingAssertion {
+        private final long id;
+        private final HarEntryAssertionSpec spec;
+        private final Pattern urlPattern;
+        private final HarEntryAssertion assertion;
+        private final boolean readsContent;
+
+        private final LongAdder checkedEntries = new LongAdder();
+        private final LongAdder failedEntries = new LongAdder();
+        private final LongAdder skippedEntries = new LongAdder();
+        private final AtomicReference<AssertionEntryResult> firstFailure = new AtomicReference<>();
+
+        private StandingAssertion(long id, HarEntryAssertionSpec spec) {
+            this.id = id;
+            this.spec = spec;
+            this.urlPattern = spec.getUrlPattern() != null ? Pattern.compile(spec.getUrlPattern()) : null;
+            this.assertion = spec.toAssertion();
+            this.readsContent = assertion instanceof ContentPassesPredicateAssertion;
+        }
+
+        private boolean matches(String url) {
+            return url != null && (urlPattern == null || urlPattern.matcher(url).matches());
+        }
+
+        private void record(HarEntry entry) {
+            String url = entry.getRequest().getUrl();
+            if (!matches(url)) {
+                return;
+            }
+
+            Optional<String> failure;
+            try {
+                failure = assertion.assertion(entry).map(HarEntryAssertionError::getMessage);
+            } catch (RuntimeException e) {
+                // count entries the assertion cannot be checked against as failures, rather than failing the capture
+                log.warn("Unable to check standing assertion {} against entry for {}", id, url, e);
+                failure = Optional.of("Unable to check assertion: " + e);
+            }
+
+            checkedEntries.increment();
+            if (failure.isPresent()) {
+                failedEntries.increment();
+
+                if (firstFailure.get() == null) {
+                    firstFailure.compareAndSet(null, new AssertionEntryResult.Builder()
+                            .setUrl(url)
+                            .setMessage(failure.get())
+                            .setFailed(true)
+                            .create());
+                }
+            }
+        }
+
+        private void skip(HarEntry entry) {
+            if (matches(entry.getRequest().getUrl())) {
+                skippedEntries.increment();
+            }
+        }
+
+        private StandingAssertionResult getResult() {
+            return new StandingAssertionResult(id, spec, checkedEntries.sum(), failedEntries.sum(), skippedEntries.sum(),
+                    firstFailure.get());
+        }
+
+        private void reset() {
+            checkedEntries.reset();
+            failedEntries.reset();
+            skippedEntries.reset();
+            firstFailure.set(null);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.browserup.bup.assertion.field.content;
+
+import com.browserup.bup.assertion.field.HarEntryPredicate;
+import com.browserup.bup.util.AhoCorasickMatcher;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Asserts that the content contains each of several strings. The content is scanned once for all of the strings.
+ */
+public class ContentContainsAllStringsAssertion extends ContentPassesPredicateAssertion {
+    private final AhoCorasickMatcher matcher;
+
+    public ContentContainsAllStringsAssertion(Collection<String> texts) {
+        this.matcher = new AhoCorasickMatcher(texts);
+    }
+
+    @Override
+    public HarEntryPredicate<String> getHarEntryPredicate() {
+        return content -> {
+            int[] occurrences = matcher.findFirstOccurrences(content);
+
+            List<String> missing = new ArrayList<>();
+            for (int i = 0; i < occurrences.length; i++) {
+                if (occurrences[i] == AhoCorasickMatcher.NOT_FOUND) {
+                    missing.add(String.format("'%s'", matcher.getNeedles().get(i)));
+                }
+            }
+
+            if (missing.isEmpty()) {
+                return Optional.empty();
+            }
+
+            return Optional.of(String.format(
+                    "Expected to find all specified strings in content. Missing strings: %s",
+                    String.join(", ", missing)));
+        };
+    }
+}
@@ -0,0 +1,43 @@
+package com.browserup.bup.assertion.field.content;
+
+import com.browserup.bup.assertion.field.HarEntryPredicate;
+import com.browserup.bup.util.AhoCorasickMatcher;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Asserts that the content contains none of several strings, such as error markers or personal data. The content is
+ * scanned once for all of the strings, and the first occurrence of each string that is found is reported.
+ */
+public class ContentDoesNotContainAnyStringAssertion extends ContentPassesPredicateAssertion {
+    private final AhoCorasickMatcher matcher;
+
+    public ContentDoesNotContainAnyStringAssertion(Collection<String> texts) {
+        this.matcher = new AhoCorasickMatcher(texts);
+    }
+
+    @Override
+    public HarEntryPredicate<String> getHarEntryPredicate() {
+        return content -> {
+            int[] occurrences = matcher.findFirstOccurrences(content);
+
+            List<String> found = new ArrayList<>();
+            for (int i = 0; i < occurrences.length; i++) {
+                if (occurrences[i] != AhoCorasickMatcher.NOT_FOUND) {
+                    found.add(String.format("'%s' at index %d", matcher.getNeedles().get(i), occurrences[i]));
+                }
+            }
+
+            if (found.isEmpty()) {
+                return Optional.empty();
+            }
+
+            return Optional.of(String.format(
+                    "Expected to find none of the specified strings in content. Found strings: %s",
+                    String.join(", ", found)));
+        };
+    }
+}
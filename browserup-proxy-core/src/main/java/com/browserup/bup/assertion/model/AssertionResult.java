@@ -113,8 +113,10 @@ public class AssertionResult {
             if (StringUtils.isEmpty(message) || failed == null || filter == null || passed == null) {
                 throw new IllegalArgumentException("Not all required fields are set");
             }
-            requests = requests == null ? Collections.emptyList() : requests;
-            return new AssertionResult(message, failed, passed, errored, filter, requests);
+            // results are shared by every caller that hits a query cache, so they must not be modifiable
+            List<AssertionEntryResult> results = requests == null ? Collections.emptyList() :
+                    Collections.unmodifiableList(new ArrayList<>(requests));
+            return new AssertionResult(message, failed, passed, errored, filter, results);
         }
     }
 }
\ No newline at end of file
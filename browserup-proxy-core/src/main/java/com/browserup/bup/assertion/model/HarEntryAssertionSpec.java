@@ -0,0 +1,348 @@
+package com.browserup.bup.assertion.model;
+
+import com.browserup.bup.assertion.HarEntryAssertion;
+import com.browserup.bup.assertion.ResponseTimeLessThanOrEqualAssertion;
+import com.browserup.bup.assertion.field.content.ContentContainsAllStringsAssertion;
+import com.browserup.bup.assertion.field.content.ContentContainsStringAssertion;
+import com.browserup.bup.assertion.field.content.ContentDoesNotContainAnyStringAssertion;
+import com.browserup.bup.assertion.field.content.ContentDoesNotContainStringAssertion;
+import com.browserup.bup.assertion.field.content.ContentMatchesAssertion;
+import com.browserup.bup.assertion.field.content.ContentSizeLessThanOrEqualAssertion;
+import com.browserup.bup.assertion.field.header.FilteredHeadersContainStringAssertion;
+import com.browserup.bup.assertion.field.header.FilteredHeadersDoNotContainStringAssertion;
+import com.browserup.bup.assertion.field.header.FilteredHeadersMatchAssertion;
+import com.browserup.bup.assertion.field.header.HeadersContainStringAssertion;
+import com.browserup.bup.assertion.field.header.HeadersDoNotContainStringAssertion;
+import com.browserup.bup.assertion.field.header.HeadersMatchAssertion;
+import com.browserup.bup.assertion.field.status.StatusBelongsToClassAssertion;
+import com.browserup.bup.assertion.field.status.StatusEqualsAssertion;
+import com.browserup.bup.util.HttpStatusClass;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * Describes an assertion to check against the entries of a HAR, so that several assertions can be checked at once with
+ * {@link com.browserup.bup.BrowserUpProxy#assertAll(java.util.List)}. Each type of assertion corresponds to one of the
+ * single assertion methods of {@link com.browserup.bup.BrowserUpProxy}, and uses the parameters that method takes.
+ * <p>
+ * The assertion is checked against the entries whose request URL matches the URL pattern, or against all entries if
+ * there is no URL pattern. If mostRecent is true, it is only checked against the most recent of those entries.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class HarEntryAssertionSpec {
+    public enum Type {
+        /**
+         * The response time is less than or equal to <i>milliseconds</i>.
+         */
+        RESPONSE_TIME_LESS_THAN_OR_EQUAL,
+
+        /**
+         * The response content contains <i>contentText</i>.
+         */
+        CONTENT_CONTAINS,
+
+        /**
+         * The response content does not contain <i>contentText</i>.
+         */
+        CONTENT_DOES_NOT_CONTAIN,
+
+        /**
+         * The response content matches <i>contentPattern</i>.
+         */
+        CONTENT_MATCHES,
+
+        /**
+         * The response content contains each of <i>contentTexts</i>.
+         */
+        CONTENT_CONTAINS_ALL,
+
+        /**
+         * The response content contains none of <i>contentTexts</i>.
+         */
+        CONTENT_DOES_NOT_CONTAIN_ANY,
+
+        /**
+         * The response content length is less than or equal to <i>length</i>.
+         */
+        CONTENT_LENGTH_LESS_THAN_OR_EQUAL,
+
+        /**
+         * A response header (named <i>headerName</i>, if specified) contains <i>headerValue</i>.
+         */
+        HEADER_CONTAINS,
+
+        /**
+         * No response header (named <i>headerName</i>, if specified) contains <i>headerValue</i>.
+         */
+        HEADER_DOES_NOT_CONTAIN,
+
+        /**
+         * A response header (whose name matches <i>headerNamePattern</i>, if specified) matches <i>headerValuePattern</i>.
+         */
+        HEADER_MATCHES,
+
+        /**
+         * The response status equals <i>status</i>.
+         */
+        STATUS_EQUALS,
+
+        /**
+         * The response status belongs to <i>statusClass</i>.
+         */
+        STATUS_BELONGS_TO_CLASS
+    }
+
+    private Type type;
+    private String urlPattern;
+    private boolean mostRecent;
+
+    private Long milliseconds;
+    private String contentText;
+    private List<String> contentTexts;
+    private String contentPattern;
+    private Long length;
+    private String headerName;
+    private String headerValue;
+    private String headerNamePattern;
+    private String headerValuePattern;
+    private Integer status;
+    private HttpStatusClass statusClass;
+
+    public HarEntryAssertionSpec() {
+    }
+
+    /**
+     * @param type type of the assertion
+     * @param urlPattern pattern the request URL of the checked entries must match, or null to check all entries
+     */
+    public HarEntryAssertionSpec(Type type, String urlPattern) {
+        this.type = type;
+        this.urlPattern = urlPattern;
+    }
+
+    /**
+     * Creates a copy of a spec, e.g. to use as a key that does not change when the original spec is modified.
+     *
+     * @param other spec to copy
+     */
+    public HarEntryAssertionSpec(HarEntryAssertionSpec other) {
+        this.type = other.type;
+        this.urlPattern = other.urlPattern;
+        this.mostRecent = other.mostRecent;
+        this.milliseconds = other.milliseconds;
+        this.contentText = other.contentText;
+        this.contentTexts = other.contentTexts != null ? new ArrayList<>(other.contentTexts) : null;
+        this.contentPattern = other.contentPattern;
+        this.length = other.length;
+        this.headerName = other.headerName;
+        this.headerValue = other.headerValue;
+        this.headerNamePattern = other.headerNamePattern;
+        this.headerValuePattern = other.headerValuePattern;
+        this.status = other.status;
+        this.statusClass = other.statusClass;
+    }
+
+    /**
+     * Creates the assertion described by this spec.
+     *
+     * @return the assertion
+     * @throws IllegalArgumentException if the type or a parameter the type requires is missing, or a pattern is invalid
+     */
+    public HarEntryAssertion toAssertion() {
+        if (type == null) {
+            throw new IllegalArgumentException("Assertion type is required");
+        }
+
+        switch (type) {
+            case RESPONSE_TIME_LESS_THAN_OR_EQUAL:
+                return new ResponseTimeLessThanOrEqualAssertion(require(milliseconds, "milliseconds"));
+            case CONTENT_CONTAINS:
+                return new ContentContainsStringAssertion(require(contentText, "contentText"));
+            case CONTENT_DOES_NOT_CONTAIN:
+                return new ContentDoesNotContainStringAssertion(require(contentText, "contentText"));
+            case CONTENT_MATCHES:
+                return new ContentMatchesAssertion(Pattern.compile(require(contentPattern, "contentPattern")));
+            case CONTENT_CONTAINS_ALL:
+                return new ContentContainsAllStringsAssertion(require(contentTexts, "contentTexts"));
+            case CONTENT_DOES_NOT_CONTAIN_ANY:
+                return new ContentDoesNotContainAnyStringAssertion(require(contentTexts, "contentTexts"));
+            case CONTENT_LENGTH_LESS_THAN_OR_EQUAL:
+                return new ContentSizeLessThanOrEqualAssertion(require(length, "length"));
+            case HEADER_CONTAINS:
+                return StringUtils.isEmpty(headerName) ?
+                        new HeadersContainStringAssertion(require(headerValue, "headerValue")) :
+                        new FilteredHeadersContainStringAssertion(headerName, require(headerValue, "headerValue"));
+            case HEADER_DOES_NOT_CONTAIN:
+                return StringUtils.isEmpty(headerName) ?
+                        new HeadersDoNotContainStringAssertion(require(headerValue, "headerValue")) :
+                        new FilteredHeadersDoNotContainStringAssertion(headerName, require(headerValue, "headerValue"));
+            case HEADER_MATCHES:
+                Pattern valuePattern = Pattern.compile(require(headerValuePattern, "headerValuePattern"));
+                return StringUtils.isEmpty(headerNamePattern) ?
+                        new HeadersMatchAssertion(valuePattern) :
+                        new FilteredHeadersMatchAssertion(Pattern.compile(headerNamePattern), valuePattern);
+            case STATUS_EQUALS:
+                return new StatusEqualsAssertion(require(status, "status"));
+            case STATUS_BELONGS_TO_CLASS:
+                return new StatusBelongsToClassAssertion(require(statusClass, "statusClass"));
+            default:
+                throw new IllegalArgumentException("Unsupported assertion type: " + type);
+        }
+    }
+
+    private <T> T require(T value, String name) {
+        if (value == null || (value instanceof String && ((String) value).isEmpty())
+                || (value instanceof Collection && ((Collection<?>) value).isEmpty())) {
+            throw new IllegalArgumentException(String.format("Parameter '%s' is required for %s assertions", name, type));
+        }
+
+        return value;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public String getUrlPattern() {
+        return urlPattern;
+    }
+
+    public void setUrlPattern(String urlPattern) {
+        this.urlPattern = urlPattern;
+    }
+
+    public boolean isMostRecent() {
+        return mostRecent;
+    }
+
+    public void setMostRecent(boolean mostRecent) {
+        this.mostRecent = mostRecent;
+    }
+
+    public Long getMilliseconds() {
+        return milliseconds;
+    }
+
+    public void setMilliseconds(Long milliseconds) {
+        this.milliseconds = milliseconds;
+    }
+
+    public String getContentText() {
+        return contentText;
+    }
+
+    public void setContentText(String contentText) {
+        this.contentText = contentText;
+    }
+
+    public List<String> getContentTexts() {
+        return contentTexts;
+    }
+
+    public void setContentTexts(List<String> contentTexts) {
+        this.contentTexts = contentTexts;
+    }
+
+    public String getContentPattern() {
+        return contentPattern;
+    }
+
+    public void setContentPattern(String contentPattern) {
+        this.contentPattern = contentPattern;
+    }
+
+    public Long getLength() {
+        return length;
+    }
+
+    public void setLength(Long length) {
+        this.length = length;
+    }
+
+    public String getHeaderName() {
+        return headerName;
+    }
+
+    public void setHeaderName(String headerName) {
+        this.headerName = headerName;
+    }
+
+    public String getHeaderValue() {
+        return headerValue;
+    }
+
+    public void setHeaderValue(String headerValue) {
+        this.headerValue = headerValue;
+    }
+
+    public String getHeaderNamePattern() {
+        return headerNamePattern;
+    }
+
+    public void setHeaderNamePattern(String headerNamePattern) {
+        this.headerNamePattern = headerNamePattern;
+    }
+
+    public String getHeaderValuePattern() {
+        return headerValuePattern;
+    }
+
+    public void setHeaderValuePattern(String headerValuePattern) {
+        this.headerValuePattern = headerValuePattern;
+    }
+
+    public Integer getStatus() {
+        return status;
+    }
+
+    public void setStatus(Integer status) {
+        this.status = status;
+    }
+
+    public HttpStatusClass getStatusClass() {
+        return statusClass;
+    }
+
+    public void setStatusClass(HttpStatusClass statusClass) {
+        this.statusClass = statusClass;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        HarEntryAssertionSpec that = (HarEntryAssertionSpec) o;
+        return mostRecent == that.mostRecent &&
+                type == that.type &&
+                Objects.equals(urlPattern, that.urlPattern) &&
+                Objects.equals(milliseconds, that.milliseconds) &&
+                Objects.equals(contentText, that.contentText) &&
+                Objects.equals(contentTexts, that.contentTexts) &&
+                Objects.equals(contentPattern, that.contentPattern) &&
+                Objects.equals(length, that.length) &&
+                Objects.equals(headerName, that.headerName) &&
+                Objects.equals(headerValue, that.headerValue) &&
+                Objects.equals(headerNamePattern, that.headerNamePattern) &&
+                Objects.equals(headerValuePattern, that.headerValuePattern) &&
+                Objects.equals(status, that.status) &&
+                statusClass == that.statusClass;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, urlPattern, mostRecent, milliseconds, contentText, contentTexts, contentPattern, length,
+                headerName, headerValue, headerNamePattern, headerValuePattern, status, statusClass);
+    }
+}
@@ -0,0 +1,86 @@
+package com.browserup.bup.assertion.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Running result of a standing assertion: how many completed entries it was checked against since it was registered or
+ * its counters were last reset, how many of them failed, and the first entry that failed.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class StandingAssertionResult {
+    private long id;
+    private HarEntryAssertionSpec assertion;
+    private long checkedEntries;
+    private long failedEntries;
+    private long skippedEntries;
+    private AssertionEntryResult firstFailure;
+
+    public StandingAssertionResult() {
+    }
+
+    public StandingAssertionResult(long id, HarEntryAssertionSpec assertion, long checkedEntries, long failedEntries,
+                                   AssertionEntryResult firstFailure) {
+        this(id, assertion, checkedEntries, failedEntries, 0, firstFailure);
+    }
+
+    public StandingAssertionResult(long id, HarEntryAssertionSpec assertion, long checkedEntries, long failedEntries,
+                                   long skippedEntries, AssertionEntryResult firstFailure) {
+        this.id = id;
+        this.assertion = assertion;
+        this.checkedEntries = checkedEntries;
+        this.failedEntries = failedEntries;
+        this.skippedEntries = skippedEntries;
+        this.firstFailure = firstFailure;
+    }
+
+    /**
+     * @return id the assertion was registered with
+     */
+    public long getId() {
+        return id;
+    }
+
+    public HarEntryAssertionSpec getAssertion() {
+        return assertion;
+    }
+
+    /**
+     * @return number of completed entries matching the assertion's URL pattern that the assertion was checked against
+     */
+    public long getCheckedEntries() {
+        return checkedEntries;
+    }
+
+    public long getPassedEntries() {
+        return checkedEntries - failedEntries;
+    }
+
+    public long getFailedEntries() {
+        return failedEntries;
+    }
+
+    /**
+     * @return number of completed entries matching the assertion's URL pattern that the assertion could not be checked
+     * against, because their content was evicted or too many entries were waiting for their content to be checked
+     */
+    public long getSkippedEntries() {
+        return skippedEntries;
+    }
+
+    /**
+     * @return the first entry the assertion failed for, or null if it has not failed
+     */
+    public AssertionEntryResult getFirstFailure() {
+        return firstFailure;
+    }
+
+    public Boolean getFailed() {
+        return failedEntries > 0;
+    }
+
+    public Boolean getPassed() {
+        return failedEntries == 0;
+    }
+}
@@ -1,6 +1,5 @@
 package com.browserup.bup.filters;
 
-import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpHeaders;
@@ -8,12 +7,9 @@ import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.LastHttpContent;
-import com.browserup.bup.util.BrowserUpHttpUtil;
+import com.browserup.bup.filters.util.CapturedContentBuffer;
 import org.littleshoot.proxy.HttpFiltersAdapter;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-
 /**
  * This filter captures requests from the client (headers and content).
  * The filter can be used in one of three ways: (1) directly, by adding the filter to the filter chain; (2) by subclassing
@@ -29,9 +25,20 @@ public class ClientRequestCaptureFilter extends HttpFiltersAdapter {
 
     /**
      * Populated by clientToProxyRequest() when processing the HttpContent objects. If the request is chunked,
-     * it will be populated across multiple calls to clientToProxyRequest().
+     * it will be populated across multiple calls to clientToProxyRequest(). Holds retained slices of the request buffers
+     * until the full request contents are copied by {@link #getFullRequestContents()}.
      */
-    private final ByteArrayOutputStream requestContents = new ByteArrayOutputStream();
+    private final CapturedContentBuffer requestContents = new CapturedContentBuffer();
+
+    /**
+     * Populated by the first call to {@link #getFullRequestContents()} after the LastHttpContent was received.
+     */
+    private volatile byte[] fullRequestContents;
+
+    /**
+     * Set to true by clientToProxyRequest() when processing the LastHttpContent.
+     */
+    private volatile boolean requestComplete;
 
     /**
      * Populated by clientToProxyRequest() when processing the LastHttpContent.
@@ -60,6 +67,7 @@ public class ClientRequestCaptureFilter extends HttpFiltersAdapter {
             if (httpContent instanceof LastHttpContent) {
                 LastHttpContent lastHttpContent = (LastHttpContent) httpContent;
                 trailingHeaders = lastHttpContent .trailingHeaders();
+                requestComplete = true;
             }
         }
 
@@ -67,22 +75,75 @@ public class ClientRequestCaptureFilter extends HttpFiltersAdapter {
     }
 
     protected void storeRequestContent(HttpContent httpContent) {
-        ByteBuf bufferedContent = httpContent.content();
-        byte[] content = BrowserUpHttpUtil.extractReadableBytes(bufferedContent);
+        requestContents.add(httpContent.content());
+    }
 
-        try {
-            requestContents.write(content);
-        } catch (IOException e) {
-            // can't happen
-        }
+    /**
+     * Sets the maximum number of request content bytes to capture. Content beyond the limit is not retained, and
+     * {@link #isContentTruncated()} returns true. Must be called before the request content is received.
+     *
+     * @param maxContentSize maximum number of bytes to capture
+     */
+    public void setMaxContentSize(long maxContentSize) {
+        requestContents.setLimit(maxContentSize);
+    }
+
+    /**
+     * @return true if request content was discarded because it exceeded the maximum content size
+     */
+    public boolean isContentTruncated() {
+        return requestContents.isTruncated();
+    }
+
+    /**
+     * @return true once the last content of the request has been received
+     */
+    public boolean isRequestComplete() {
+        return requestComplete;
     }
 
     public HttpRequest getHttpRequest() {
         return httpRequest;
     }
 
+    /**
+     * Returns the contents of the entire request. Once the entire request has been received, the contents are copied only
+     * once, and the request buffers are released.
+     *
+     * @return contents of the request received so far
+     */
     public byte[] getFullRequestContents() {
-        return requestContents.toByteArray();
+        if (fullRequestContents != null) {
+            return fullRequestContents;
+        }
+
+        if (!requestComplete) {
+            return requestContents.toByteArray();
+        }
+
+        synchronized (requestContents) {
+            if (fullRequestContents == null) {
+                try {
+                    fullRequestContents = requestContents.toByteArray();
+                } finally {
+                    requestContents.release();
+                }
+            }
+        }
+
+        return fullRequestContents;
+    }
+
+    /**
+     * Releases the request buffers retained by this filter if the request was abandoned before it was entirely received,
+     * e.g. because the connection to the server failed or the client disconnected. Once the entire request has been
+     * received, the buffers are released by {@link #getFullRequestContents()} instead, even if it fails, and this method
+     * does nothing.
+     */
+    public void releaseContents() {
+        if (!requestComplete) {
+            requestContents.release();
+        }
     }
 
     public HttpHeaders getTrailingHeaders() {
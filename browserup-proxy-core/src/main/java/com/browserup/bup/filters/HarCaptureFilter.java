@@ -3,6 +3,7 @@ package com.browserup.bup.filters;
 import com.google.common.collect.ImmutableList;
 
 import de.sstoehr.harreader.model.Har;
+import de.sstoehr.harreader.model.HarContent;
 import de.sstoehr.harreader.model.HarCookie;
 import de.sstoehr.harreader.model.HarEntry;
 import de.sstoehr.harreader.model.HarHeader;
@@ -13,6 +14,8 @@ import de.sstoehr.harreader.model.HarRequest;
 import de.sstoehr.harreader.model.HarResponse;
 import de.sstoehr.harreader.model.HttpMethod;
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpHeaderNames;
@@ -29,6 +32,14 @@ import io.netty.handler.codec.http.cookie.ServerCookieDecoder;
 import com.browserup.bup.exception.UnsupportedCharsetException;
 import com.browserup.bup.filters.support.HttpConnectTiming;
 import com.browserup.bup.filters.util.HarCaptureUtil;
+import com.browserup.bup.har.BoundedHarEntryList;
+import com.browserup.bup.har.HarCaptureExecutor;
+import com.browserup.bup.har.HarCapturePolicies;
+import com.browserup.bup.har.HarCapturePolicy;
+import com.browserup.bup.har.HarStringPool;
+import com.browserup.bup.har.body.BodyStore;
+import com.browserup.bup.har.body.StoredHarContent;
+import com.browserup.bup.har.body.StoredHarPostData;
 import com.browserup.bup.proxy.CaptureType;
 import com.browserup.bup.util.BrowserUpHttpUtil;
 import org.littleshoot.proxy.impl.ProxyUtils;
@@ -39,6 +50,7 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Calendar;
 import java.util.Date;
@@ -46,6 +58,7 @@ import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.browserup.bup.util.BrowserUpProxyUtil.getTotalElapsedTimeInMillis;
@@ -78,9 +91,47 @@ public class HarCaptureFilter extends HttpsAwareFiltersAdapter {
     private final ServerResponseCaptureFilter responseCaptureFilter;
 
     /**
-     * The CaptureType data types to capture in this request.
+     * The CaptureType data types to capture in this request. If a capture policy matches the request, the response types
+     * are replaced when the response is received, since policies can match on the response MIME type.
      */
-    private final EnumSet<CaptureType> dataToCapture;
+    private volatile EnumSet<CaptureType> dataToCapture;
+
+    /**
+     * The proxy's data types to capture, which apply when no capture policy matches.
+     */
+    private final EnumSet<CaptureType> defaultDataToCapture;
+
+    /**
+     * The capture policies that match this request.
+     */
+    private final HarCapturePolicies.Match policyMatch;
+
+    /**
+     * Maximum size of the captured request body. Longer bodies are truncated.
+     */
+    private final long maxRequestBodySize;
+
+    /**
+     * Maximum size of the captured response body, set when the response is received. Longer bodies are truncated.
+     */
+    private volatile long maxResponseBodySize = Long.MAX_VALUE;
+
+    /**
+     * Store for captured request and response bodies. If null, bodies are kept in the HAR as Strings.
+     */
+    private final BodyStore bodyStore;
+
+    /**
+     * Executor that captured content is decoded and added to the entry on. If null, content is captured on the thread that
+     * received it.
+     */
+    private final HarCaptureExecutor captureExecutor;
+
+    /**
+     * Pool that captured low-cardinality Strings, such as header and cookie names, are interned in. If null, Strings are
+     * not interned.
+     */
+    private final HarStringPool stringPool;
 
     /**
      * Populated by proxyToServerResolutionStarted when DNS resolution starts. If any previous filters already resolved the address, their resolution time
@@ -119,6 +170,28 @@ public class HarCaptureFilter extends HttpsAwareFiltersAdapter {
 
     private volatile boolean isResponse = false;
 
+    /**
+     * Number of steps that must finish before the HAR entry is complete: receiving the response (or failing to), plus
+     * each content capture still running on the capture executor.
+     */
+    private final AtomicInteger pendingCompletionSteps = new AtomicInteger(1);
+
+    /**
+     * True once the response has been received, or has failed, so that the response step is only finished once.
+     */
+    private final AtomicBoolean responseFinished = new AtomicBoolean(false);
+
+    /**
+     * Releases the buffers retained by the capture filters when the client or server connection is closed before the
+     * request or response is complete. Removed from the connections once the entry is complete, so that a kept-alive
+     * connection does not retain the filters of every request it carried.
+     */
+    private final ChannelFutureListener releaseOnClose = future -> releaseCapturedContents();
+
+    private final Channel clientChannel;
+
+    private volatile Channel serverChannel;
+
     /**
      * True if this filter instance processed a {@link #proxyToServerResolutionSucceeded(String, java.net.InetSocketAddress)} call, indicating
      * that the hostname was resolved and populated in the HAR (if this is not a CONNECT).
@@ -143,6 +216,77 @@ public class HarCaptureFilter extends HttpsAwareFiltersAdapter {
      * @param ctx ChannelHandlerContext ctx
      */
     public HarCaptureFilter(HttpRequest originalRequest, ChannelHandlerContext ctx, Har har, String currentPageRef, Set<CaptureType> dataToCapture) {
+        this(originalRequest, ctx, har, currentPageRef, dataToCapture, null);
+    }
+
+    /**
+     * Create a new instance of the HarCaptureFilter that keeps captured bodies in the specified {@link BodyStore}, when the
+     * store accepts them. See {@link #HarCaptureFilter(HttpRequest, ChannelHandlerContext, Har, String, Set)}.
+     *
+     * @param originalRequest the original HttpRequest from the HttpFiltersSource factory
+     * @param har a reference to the ProxyServer's current HAR file at the time this request is received (can be null if HAR capture is not required)
+     * @param currentPageRef the ProxyServer's currentPageRef at the time this request is received from the client
+     * @param dataToCapture the data types to capture for this request
+     * @param ctx ChannelHandlerContext ctx
+     * @param bodyStore store for captured bodies, or null to keep bodies in the HAR as Strings
+     */
+    public HarCaptureFilter(HttpRequest originalRequest, ChannelHandlerContext ctx, Har har, String currentPageRef, Set<CaptureType> dataToCapture, BodyStore bodyStore) {
+        this(originalRequest, ctx, har, currentPageRef, dataToCapture, bodyStore, null);
+    }
+
+    /**
+     * Create a new instance of the HarCaptureFilter that decodes captured request and response content on the specified
+     * {@link HarCaptureExecutor}, instead of on the Netty event loop. See {@link #HarCaptureFilter(HttpRequest, ChannelHandlerContext, Har, String, Set, BodyStore)}.
+     *
+     * @param originalRequest the original HttpRequest from the HttpFiltersSource factory
+     * @param har a reference to the ProxyServer's current HAR file at the time this request is received (can be null if HAR capture is not required)
+     * @param currentPageRef the ProxyServer's currentPageRef at the time this request is received from the client
+     * @param dataToCapture the data types to capture for this request
+     * @param ctx ChannelHandlerContext ctx
+     * @param bodyStore store for captured bodies, or null to keep bodies in the HAR as Strings
+     * @param captureExecutor executor to capture content on, or null to capture content on the thread that received it
+     */
+    public HarCaptureFilter(HttpRequest originalRequest, ChannelHandlerContext ctx, Har har, String currentPageRef, Set<CaptureType> dataToCapture,
+                            BodyStore bodyStore, HarCaptureExecutor captureExecutor) {
+        this(originalRequest, ctx, har, currentPageRef, dataToCapture, bodyStore, captureExecutor, null);
+    }
+
+    /**
+     * Create a new instance of the HarCaptureFilter that selects the data to capture using {@link HarCapturePolicies}, falling
+     * back to <code>dataToCapture</code> when no policy matches the request. See
+     * {@link #HarCaptureFilter(HttpRequest, ChannelHandlerContext, Har, String, Set, BodyStore, HarCaptureExecutor)}.
+     *
+     * @param originalRequest the original HttpRequest from the HttpFiltersSource factory
+     * @param har a reference to the ProxyServer's current HAR file at the time this request is received (can be null if HAR capture is not required)
+     * @param currentPageRef the ProxyServer's currentPageRef at the time this request is received from the client
+     * @param dataToCapture the data types to capture for this request when no capture policy matches it
+     * @param ctx ChannelHandlerContext ctx
+     * @param bodyStore store for captured bodies, or null to keep bodies in the HAR as Strings
+     * @param captureExecutor executor to capture content on, or null to capture content on the thread that received it
+     * @param capturePolicies policies selecting the data to capture, or null to always capture <code>dataToCapture</code>
+     */
+    public HarCaptureFilter(HttpRequest originalRequest, ChannelHandlerContext ctx, Har har, String currentPageRef, Set<CaptureType> dataToCapture,
+                            BodyStore bodyStore, HarCaptureExecutor captureExecutor, HarCapturePolicies capturePolicies) {
+        this(originalRequest, ctx, har, currentPageRef, dataToCapture, bodyStore, captureExecutor, capturePolicies, null);
+    }
+
+    /**
+     * Create a new instance of the HarCaptureFilter that interns captured low-cardinality Strings in a {@link HarStringPool}.
+     * See {@link #HarCaptureFilter(HttpRequest, ChannelHandlerContext, Har, String, Set, BodyStore, HarCaptureExecutor, HarCapturePolicies)}.
+     *
+     * @param originalRequest the original HttpRequest from the HttpFiltersSource factory
+     * @param har a reference to the ProxyServer's current HAR file at the time this request is received (can be null if HAR capture is not required)
+     * @param currentPageRef the ProxyServer's currentPageRef at the time this request is received from the client
+     * @param dataToCapture the data types to capture for this request when no capture policy matches it
+     * @param ctx ChannelHandlerContext ctx
+     * @param bodyStore store for captured bodies, or null to keep bodies in the HAR as Strings
+     * @param captureExecutor executor to capture content on, or null to capture content on the thread that received it
+     * @param capturePolicies policies selecting the data to capture, or null to always capture <code>dataToCapture</code>
+     * @param stringPool pool to intern low-cardinality Strings in, or null to not intern them
+     */
+    public HarCaptureFilter(HttpRequest originalRequest, ChannelHandlerContext ctx, Har har, String currentPageRef, Set<CaptureType> dataToCapture,
+                            BodyStore bodyStore, HarCaptureExecutor captureExecutor, HarCapturePolicies capturePolicies,
+                            HarStringPool stringPool) {
         super(originalRequest, ctx);
 
         if (har == null) {
@@ -156,30 +300,52 @@ public class HarCaptureFilter extends HttpsAwareFiltersAdapter {
         this.clientAddress = (InetSocketAddress) ctx.channel().remoteAddress();
 
         if (dataToCapture != null && !dataToCapture.isEmpty()) {
-            this.dataToCapture = EnumSet.copyOf(dataToCapture);
+            this.defaultDataToCapture = EnumSet.copyOf(dataToCapture);
+        } else {
+            this.defaultDataToCapture = EnumSet.noneOf(CaptureType.class);
+        }
+
+        if (capturePolicies != null && !capturePolicies.isEmpty()) {
+            this.policyMatch = capturePolicies.match(originalRequest.method().name(), getFullUrl(originalRequest));
         } else {
-            this.dataToCapture = EnumSet.noneOf(CaptureType.class);
+            this.policyMatch = HarCapturePolicies.Match.NONE;
         }
 
+        this.dataToCapture = policyMatch.getCaptureTypes(defaultDataToCapture);
+        this.maxRequestBodySize = policyMatch.getMaxRequestBodySize();
+
         // we may need to capture both the request and the response, so set up the request/response filters and delegate to them when
         // the corresponding filter methods are invoked. to save time and memory, only set up the capturing filters when
         // we actually need to capture the data.
-        if (this.dataToCapture.contains(CaptureType.REQUEST_CONTENT) || this.dataToCapture.contains(CaptureType.REQUEST_BINARY_CONTENT)) {
+        // the capture filters retain the message buffers until the message is complete, so they are only created when the
+        // content will be captured. binary content is only captured along with the REQUEST_CONTENT/RESPONSE_CONTENT types.
+        if (this.dataToCapture.contains(CaptureType.REQUEST_CONTENT)) {
             requestCaptureFilter = new ClientRequestCaptureFilter(originalRequest);
+            requestCaptureFilter.setMaxContentSize(maxRequestBodySize);
         } else {
             requestCaptureFilter = null;
         }
 
-        if (this.dataToCapture.contains(CaptureType.RESPONSE_CONTENT) || this.dataToCapture.contains(CaptureType.RESPONSE_BINARY_CONTENT)) {
-            responseCaptureFilter = new ServerResponseCaptureFilter(originalRequest, true);
+        // a policy matching the response MIME type may capture response content even if the request's policy does not
+        if (policyMatch.mayCapture(CaptureType.RESPONSE_CONTENT, defaultDataToCapture)) {
+            // when there is a capture executor, the response is assembled and decompressed on it rather than on the event loop
+            responseCaptureFilter = new ServerResponseCaptureFilter(originalRequest, true, captureExecutor != null);
         } else {
             responseCaptureFilter = null;
         }
 
         this.har = har;
+        this.bodyStore = bodyStore;
+        this.captureExecutor = captureExecutor;
+        this.stringPool = stringPool;
 
         this.harEntry = new HarEntry();
         this.harEntry.setPageref(currentPageRef);
+
+        this.clientChannel = ctx.channel();
+        if (requestCaptureFilter != null || responseCaptureFilter != null) {
+            clientChannel.closeFuture().addListener(releaseOnClose);
+        }
     }
 
     @Override
@@ -228,6 +394,8 @@ public class HarCaptureFilter extends HttpsAwareFiltersAdapter {
             // connect times are recorded in the first request between the client and remote server after the HTTP CONNECT.
             captureConnectTiming();
             this.harEntry.setTime(getTotalElapsedTimeInMillis(this.harEntry.getTimings()));
+
+            onEntryStarted();
         }
 
         if (httpObject instanceof HttpContent) {
@@ -243,21 +411,30 @@ public class HarCaptureFilter extends HttpsAwareFiltersAdapter {
             }
 
             if (this.dataToCapture.contains(CaptureType.REQUEST_CONTENT)) {
-                captureRequestContent(this.requestCaptureFilter.getHttpRequest(), this.requestCaptureFilter.getFullRequestContents());
+                captureContent(() -> captureRequestContent(requestCaptureFilter.getHttpRequest(), requestCaptureFilter.getFullRequestContents()));
             }
 
             this.harEntry.getRequest().setBodySize((long)(this.requestBodySize.get()));
         }
 
+        if (httpObject instanceof HttpRequest || httpObject instanceof LastHttpContent) {
+            onEntryUpdated();
+        }
+
         return null;
     }
 
     @Override
     public HttpObject serverToProxyResponse(HttpObject httpObject) {
         isResponse = true;
+
+        if (httpObject instanceof HttpResponse && !policyMatch.isEmpty()) {
+            applyResponseCapturePolicy((HttpResponse) httpObject);
+        }
+
         // if a ServerResponseCaptureFilter is configured, delegate to it to collect the server's response. if it is not
         // configured, we still need to capture basic information (timings, HTTP status, etc.), just not content.
-        if (responseCaptureFilter != null) {
+        if (responseCaptureFilter != null && dataToCapture.contains(CaptureType.RESPONSE_CONTENT)) {
             responseCaptureFilter.serverToProxyResponse(httpObject);
         }
 
@@ -274,15 +451,36 @@ public class HarCaptureFilter extends HttpsAwareFiltersAdapter {
         }
 
         if (httpObject instanceof LastHttpContent) {
-            if (dataToCapture.contains(CaptureType.RESPONSE_CONTENT)) {
-                captureResponseContent(responseCaptureFilter.getHttpResponse(), responseCaptureFilter.getFullResponseContents());
+            try {
+                if (dataToCapture.contains(CaptureType.RESPONSE_CONTENT)) {
+                    captureContent(() -> {
+                        if (captureExecutor != null) {
+                            responseCaptureFilter.captureFullResponseContents();
+                        }
+
+                        captureResponseContent(responseCaptureFilter.getHttpResponse(), responseCaptureFilter.getFullResponseContents());
+                    });
+                }
+
+                harEntry.getResponse().setBodySize((long)(responseBodySize.get()));
+            } catch (RuntimeException e) {
+                // the response is over even though its content could not be captured, so complete the entry rather than
+                // leave it, and the connection listeners, in flight
+                finishResponse();
+                throw e;
             }
-
-            harEntry.getResponse().setBodySize((long)(responseBodySize.get()));
         }
 
         this.harEntry.setTime(getTotalElapsedTimeInMillis(this.harEntry.getTimings()));
 
+        if (httpObject instanceof HttpResponse || httpObject instanceof LastHttpContent) {
+            onEntryUpdated();
+        }
+
+        if (httpObject instanceof LastHttpContent) {
+            finishResponse();
+        }
+
         return super.serverToProxyResponse(httpObject);
     }
 
@@ -293,7 +491,13 @@ public class HarCaptureFilter extends HttpsAwareFiltersAdapter {
             HttpResponse httpResponse = (HttpResponse) httpObject;
             captureResponse(httpResponse);
             harEntry.setTime(getTotalElapsedTimeInMillis(harEntry.getTimings()));
+            onEntryUpdated();
+        }
+
+        if (!isResponse && httpObject instanceof LastHttpContent) {
+            finishResponse();
         }
+
         return super.proxyToClientResponse(httpObject); 
     }
 
@@ -306,6 +510,8 @@ public class HarCaptureFilter extends HttpsAwareFiltersAdapter {
 
         response.setAdditionalField ("_errorMessage", HarCaptureUtil.getResponseTimedOutErrorMessage());
 
+        releaseCapturedContents();
+
 
         // include this timeout time in the HarTimings object
         long timeoutTimestampNanos = System.nanoTime();
@@ -330,6 +536,9 @@ public class HarCaptureFilter extends HttpsAwareFiltersAdapter {
         }
 
         this.harEntry.setTime(getTotalElapsedTimeInMillis(this.harEntry.getTimings()));
+
+        onEntryUpdated();
+        finishResponse();
     }
 
     /**
@@ -395,7 +604,7 @@ public class HarCaptureFilter extends HttpsAwareFiltersAdapter {
 
         cookies.forEach(cookie -> {
             HarCookie harCookie = new HarCookie();
-            harCookie.setName(cookie.name());
+            harCookie.setName(intern(cookie.name()));
             harCookie.setValue(cookie.value());
             harEntry.getRequest().getCookies().add(harCookie);
         });
@@ -416,13 +625,19 @@ public class HarCaptureFilter extends HttpsAwareFiltersAdapter {
     protected void captureHeaders(HttpHeaders headers) {
         headers.entries().forEach(header -> {
             HarHeader harHeader = new HarHeader();
-            harHeader.setName(header.getKey());
-            harHeader.setValue(header.getValue());
+            harHeader.setName(intern(header.getKey()));
+            harHeader.setValue(internHeaderValue(header.getKey(), header.getValue()));
             harEntry.getRequest().getHeaders().add(harHeader);
         });
     }
 
     protected void captureRequestContent(HttpRequest httpRequest, byte[] fullMessage) {
+        boolean truncated = requestCaptureFilter != null && requestCaptureFilter.isContentTruncated();
+        if (fullMessage.length > maxRequestBodySize) {
+            fullMessage = Arrays.copyOf(fullMessage, (int) maxRequestBodySize);
+            truncated = true;
+        }
+
         if (fullMessage.length == 0) {
             return;
         }
@@ -433,10 +648,14 @@ public class HarCaptureFilter extends HttpsAwareFiltersAdapter {
             contentType = BrowserUpHttpUtil.UNKNOWN_CONTENT_TYPE;
         }
 
-        HarPostData postData = new HarPostData();
+        HarPostData postData = bodyStore != null ? new StoredHarPostData() : new HarPostData();
         harEntry.getRequest().setPostData(postData);
 
-        postData.setMimeType(contentType);
+        postData.setMimeType(intern(contentType));
+
+        if (truncated) {
+            postData.setAdditionalField(HarCapturePolicy.TRUNCATED_FIELD, true);
+        }
 
         boolean urlEncoded;
         urlEncoded = contentType.startsWith(HttpHeaderValues.APPLICATION_X_WWW_FORM_URLENCODED.toString());
@@ -474,15 +693,27 @@ public class HarCaptureFilter extends HttpsAwareFiltersAdapter {
             //TODO: implement capture of files and multipart form data
 
             // not URL encoded, so let's grab the body of the POST and capture that
-            String postBody = BrowserUpHttpUtil.getContentAsString(fullMessage, charset);
-            harEntry.getRequest().getPostData().setText(postBody);
+            if (postData instanceof StoredHarPostData && bodyStore.shouldStore(fullMessage.length)) {
+                ((StoredHarPostData) postData).setBody(bodyStore.store(fullMessage), charset);
+            } else {
+                String postBody = BrowserUpHttpUtil.getContentAsString(fullMessage, charset);
+                postData.setText(postBody);
+            }
         }
+
+        onBodyCaptured(fullMessage.length);
     }
 
     protected void captureResponseContent(HttpResponse httpResponse, byte[] fullMessage) {
         // force binary if the content encoding is not supported
         boolean forceBinary = false;
 
+        boolean truncated = responseCaptureFilter.isContentTruncated();
+        if (fullMessage.length > maxResponseBodySize) {
+            fullMessage = Arrays.copyOf(fullMessage, (int) maxResponseBodySize);
+            truncated = true;
+        }
+
         String contentType = httpResponse.headers().get(HttpHeaderNames.CONTENT_TYPE);
         if (contentType == null) {
             log.warn("No content type specified in response from {}. Content will be treated as {}", originalRequest.uri(), BrowserUpHttpUtil.UNKNOWN_CONTENT_TYPE);
@@ -509,22 +740,179 @@ public class HarCaptureFilter extends HttpsAwareFiltersAdapter {
             log.debug("No charset specified; using charset {} to decode contents from {}", charset, originalRequest.uri());
         }
 
+        HarContent content = harEntry.getResponse().getContent();
+        if (truncated) {
+            content.setAdditionalField(HarCapturePolicy.TRUNCATED_FIELD, true);
+        }
+
+        // the body is empty, rather than left undecoded, since its raw content was not retained while it was decompressed
+        String decodeError = responseCaptureFilter.getDecodeError();
+        if (decodeError != null) {
+            content.setAdditionalField(ServerResponseCaptureFilter.DECODE_ERROR_FIELD, decodeError);
+        }
+
+        // bodies accepted by the body store are kept there as raw bytes, and only decoded or base64-encoded when read
+        boolean storeBody = content instanceof StoredHarContent && bodyStore.shouldStore(fullMessage.length);
+
         if (!forceBinary && BrowserUpHttpUtil.hasTextualContent(contentType)) {
-            String text = BrowserUpHttpUtil.getContentAsString(fullMessage, charset);
-            harEntry.getResponse().getContent().setText(text);
+            if (storeBody) {
+                ((StoredHarContent) content).setBody(bodyStore.store(fullMessage), charset, false);
+            } else {
+                String text = BrowserUpHttpUtil.getContentAsString(fullMessage, charset);
+                content.setText(text);
+            }
+            onBodyCaptured(fullMessage.length);
         } else if (dataToCapture.contains(CaptureType.RESPONSE_BINARY_CONTENT)) {
-            harEntry.getResponse().getContent().setText(Base64.getEncoder().encodeToString(fullMessage));
-            harEntry.getResponse().getContent().setEncoding("base64");
+            if (storeBody) {
+                ((StoredHarContent) content).setBody(bodyStore.store(fullMessage), charset, true);
+            } else {
+                content.setText(Base64.getEncoder().encodeToString(fullMessage));
+            }
+            content.setEncoding("base64");
+            onBodyCaptured(fullMessage.length);
         }
 
         harEntry.getResponse().getContent().setSize((long)fullMessage.length);
     }
 
+    /**
+     * Reports the size of a captured body to the HAR's entry list, if the list enforces capture limits.
+     *
+     * @param bodyBytes size of the captured body, in bytes
+     */
+    protected void onBodyCaptured(long bodyBytes) {
+        List<HarEntry> entries = har.getLog().getEntries();
+        if (entries instanceof BoundedHarEntryList) {
+            ((BoundedHarEntryList) entries).onBodyCaptured(harEntry, bodyBytes);
+        }
+    }
+
+    /**
+     * Runs a task that decodes captured content and adds it to the HAR entry. If there is a capture executor, the task
+     * runs on it, and the entry is reported as updated when the task completes. Otherwise the task runs immediately.
+     *
+     * @param capture task that captures content
+     */
+    protected void captureContent(Runnable capture) {
+        if (captureExecutor == null) {
+            capture.run();
+            return;
+        }
+
+        // the entry is not complete until the content has been captured
+        pendingCompletionSteps.incrementAndGet();
+
+        captureExecutor.execute(() -> {
+            try {
+                capture.run();
+                onEntryUpdated();
+            } finally {
+                finishCompletionStep();
+            }
+        });
+    }
+
+    /**
+     * Reports that the HAR entry was modified to the HAR's entry list, so that the entry is returned to clients polling
+     * for changes to the HAR.
+     */
+    protected void onEntryUpdated() {
+        List<HarEntry> entries = har.getLog().getEntries();
+        if (entries instanceof BoundedHarEntryList) {
+            ((BoundedHarEntryList) entries).onEntryUpdated(harEntry);
+        }
+    }
+
+    /**
+     * Reports that the request of the HAR entry has been captured to the HAR's entry list. Called once, when the request
+     * line and headers have been received from the client.
+     */
+    protected void onEntryStarted() {
+        List<HarEntry> entries = har.getLog().getEntries();
+        if (entries instanceof BoundedHarEntryList) {
+            ((BoundedHarEntryList) entries).onEntryStarted(harEntry);
+        }
+    }
+
+    /**
+     * Reports that the HAR entry is complete, and will not be modified any more, to the HAR's entry list. Called once,
+     * when the response has been received (or has failed) and all of its content has been captured.
+     */
+    protected void onEntryCompleted() {
+        List<HarEntry> entries = har.getLog().getEntries();
+        if (entries instanceof BoundedHarEntryList) {
+            ((BoundedHarEntryList) entries).onEntryCompleted(harEntry);
+        }
+    }
+
+    /**
+     * Finishes the response step of the entry's completion, the first time the response is received or fails.
+     */
+    private void finishResponse() {
+        if (responseFinished.compareAndSet(false, true)) {
+            finishCompletionStep();
+        }
+    }
+
+    private void finishCompletionStep() {
+        if (pendingCompletionSteps.decrementAndGet() == 0) {
+            // every captured message has been copied and released by now, unless the response finished before the
+            // request was entirely received, in which case the request is still released if the client disconnects
+            if (requestCaptureFilter == null || requestCaptureFilter.isRequestComplete()) {
+                clientChannel.closeFuture().removeListener(releaseOnClose);
+
+                Channel channel = serverChannel;
+                if (channel != null) {
+                    channel.closeFuture().removeListener(releaseOnClose);
+                }
+            }
+
+            onEntryCompleted();
+        }
+    }
+
+    /**
+     * Selects the response data types to capture and the maximum response body size using the capture policy that
+     * matches the response MIME type. Called before the response is passed to the response capture filter.
+     *
+     * @param httpResponse the response from the server
+     */
+    protected void applyResponseCapturePolicy(HttpResponse httpResponse) {
+        String contentType = httpResponse.headers().get(HttpHeaderNames.CONTENT_TYPE);
+
+        dataToCapture = policyMatch.getCaptureTypes(defaultDataToCapture, contentType);
+        maxResponseBodySize = policyMatch.getMaxResponseBodySize(contentType);
+
+        if (responseCaptureFilter != null) {
+            if (dataToCapture.contains(CaptureType.RESPONSE_CONTENT)) {
+                responseCaptureFilter.setMaxContentSize(maxResponseBodySize);
+            } else {
+                responseCaptureFilter.releaseContents();
+            }
+        }
+    }
+
+    /**
+     * Releases the buffers retained by the capture filters for a request or response that will never be completed.
+     */
+    protected void releaseCapturedContents() {
+        if (requestCaptureFilter != null) {
+            requestCaptureFilter.releaseContents();
+        }
+
+        if (responseCaptureFilter != null) {
+            responseCaptureFilter.releaseContents();
+        }
+    }
+
     protected void captureResponse(HttpResponse httpResponse) {
         HarResponse response = new HarResponse();
         response.setStatus(httpResponse.status().code());
         response.setStatusText(httpResponse.status().reasonPhrase());
         response.setHttpVersion(httpResponse.protocolVersion().text());
+        if (bodyStore != null) {
+            response.setContent(new StoredHarContent());
+        }
         harEntry.setResponse(response);
 
         captureResponseHeaderSize(httpResponse);
@@ -548,7 +936,7 @@ public class HarCaptureFilter extends HttpsAwareFiltersAdapter {
         String contentType = httpResponse.headers().get(HttpHeaderNames.CONTENT_TYPE);
         // don't set the mimeType to null, since mimeType is a required field
         if (contentType != null) {
-            harEntry.getResponse().getContent().setMimeType(contentType);
+            harEntry.getResponse().getContent().setMimeType(intern(contentType));
         }
     }
 
@@ -566,12 +954,12 @@ public class HarCaptureFilter extends HttpsAwareFiltersAdapter {
 
             HarCookie harCookie = new HarCookie();
 
-            harCookie.setName(cookie.name());
+            harCookie.setName(intern(cookie.name()));
             harCookie.setValue(cookie.value());
             // comment is no longer supported in the netty ClientCookieDecoder
-            harCookie.setDomain(cookie.domain());
+            harCookie.setDomain(intern(cookie.domain()));
             harCookie.setHttpOnly(cookie.isHttpOnly());
-            harCookie.setPath(cookie.path());
+            harCookie.setPath(intern(cookie.path()));
             harCookie.setSecure(cookie.isSecure());
             if (cookie.maxAge() > 0) {
                 // use a Calendar with the current timestamp + maxAge seconds. the locale of the calendar is irrelevant,
@@ -604,12 +992,27 @@ public class HarCaptureFilter extends HttpsAwareFiltersAdapter {
         HttpHeaders headers = httpResponse.headers();
         headers.entries().forEach(header -> {
             HarHeader harHeader = new HarHeader();
-            harHeader.setName(header.getKey());
-            harHeader.setValue(header.getValue());
+            harHeader.setName(intern(header.getKey()));
+            harHeader.setValue(internHeaderValue(header.getKey(), header.getValue()));
             harEntry.getResponse().getHeaders().add(harHeader);
         });
     }
 
+    /**
+     * Interns a captured low-cardinality String, such as a header or cookie name, if this filter has a {@link HarStringPool}.
+     */
+    protected String intern(String string) {
+        return stringPool != null ? stringPool.intern(string) : string;
+    }
+
+    /**
+     * Interns a captured header value if this filter has a {@link HarStringPool} and the header's values are
+     * low-cardinality. See {@link HarStringPool#internHeaderValue(String, String)}.
+     */
+    protected String internHeaderValue(String headerName, String value) {
+        return stringPool != null ? stringPool.internHeaderValue(headerName, value) : value;
+    }
+
     protected void captureRedirectUrl(HttpResponse httpResponse) {
         String locationHeaderValue = httpResponse.headers().get(HttpHeaderNames.LOCATION);
         if (locationHeaderValue != null) {
@@ -710,12 +1113,17 @@ public class HarCaptureFilter extends HttpsAwareFiltersAdapter {
 
         response.setAdditionalField("_errorMessage", HarCaptureUtil.getResolutionFailedErrorMessage(hostAndPort));
 
+        releaseCapturedContents();
+
         // record the amount of time we attempted to resolve the hostname in the HarTimings object
         if (dnsResolutionStartedNanos > 0L) {
             this.harEntry.getTimings().setDns(Math.toIntExact(
                     TimeUnit.MILLISECONDS.convert(System.nanoTime() - dnsResolutionStartedNanos, TimeUnit.NANOSECONDS)
             ));
         }
+
+        onEntryUpdated();
+        finishResponse();
     }
 
     @Override
@@ -757,12 +1165,17 @@ public class HarCaptureFilter extends HttpsAwareFiltersAdapter {
 
         response.setAdditionalField("_errorMessage", HarCaptureUtil.getConnectionFailedErrorMessage());
 
+        releaseCapturedContents();
+
         // record the amount of time we attempted to connect in the HarTimings object
         if (connectionStartedNanos > 0L) {
             this.harEntry.getTimings().setConnect(Math.toIntExact(
                     TimeUnit.MILLISECONDS.convert(System.nanoTime() - connectionStartedNanos, TimeUnit.NANOSECONDS)
             ));
         }
+
+        onEntryUpdated();
+        finishResponse();
     }
 
     @Override
@@ -778,6 +1191,11 @@ public class HarCaptureFilter extends HttpsAwareFiltersAdapter {
         } else {
             this.harEntry.getTimings().setConnect(0);
         }
+
+        if ((requestCaptureFilter != null || responseCaptureFilter != null) && !responseFinished.get()) {
+            serverChannel = serverCtx.channel();
+            serverChannel.closeFuture().addListener(releaseOnClose);
+        }
     }
 
     @Override
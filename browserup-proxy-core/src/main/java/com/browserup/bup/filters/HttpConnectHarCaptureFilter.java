@@ -14,6 +14,7 @@ import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import com.browserup.bup.filters.support.HttpConnectTiming;
 import com.browserup.bup.filters.util.HarCaptureUtil;
+import com.browserup.bup.har.BoundedHarEntryList;
 import com.browserup.bup.util.HttpUtil;
 import org.littleshoot.proxy.impl.ProxyUtils;
 import org.slf4j.Logger;
@@ -22,6 +23,7 @@ import org.slf4j.LoggerFactory;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.Date;
+import java.util.List;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
@@ -165,7 +167,7 @@ public class HttpConnectHarCaptureFilter extends HttpsAwareFiltersAdapter implem
         }
 
         harEntry.setTime(getTotalElapsedTimeInMillis(harEntry.getTimings()));
-        har.getLog().getEntries().add(harEntry);
+        addFailedEntry(harEntry);
 
         httpConnectTimes.remove(clientAddress);
     }
@@ -184,7 +186,7 @@ public class HttpConnectHarCaptureFilter extends HttpsAwareFiltersAdapter implem
         }
 
         harEntry.setTime(getTotalElapsedTimeInMillis(harEntry.getTimings()));
-        har.getLog().getEntries().add(harEntry);
+        addFailedEntry(harEntry);
 
         httpConnectTimes.remove(clientAddress);
     }
@@ -238,7 +240,7 @@ public class HttpConnectHarCaptureFilter extends HttpsAwareFiltersAdapter implem
         }
 
         harEntry.setTime(getTotalElapsedTimeInMillis(harEntry.getTimings()));
-        har.getLog().getEntries().add(harEntry);
+        addFailedEntry(harEntry);
     }
 
     @Override
@@ -294,6 +296,23 @@ public class HttpConnectHarCaptureFilter extends HttpsAwareFiltersAdapter implem
         this.responseReceiveStartedNanos = System.nanoTime();
     }
 
+    /**
+     * Adds a fully populated entry for a failed CONNECT to the HAR. The entry is complete as soon as it is added, so it is
+     * reported to the HAR's entry list as both started and completed.
+     *
+     * @param harEntry HAR entry to add
+     */
+    private void addFailedEntry(HarEntry harEntry) {
+        List<HarEntry> entries = har.getLog().getEntries();
+        entries.add(harEntry);
+
+        if (entries instanceof BoundedHarEntryList) {
+            BoundedHarEntryList boundedEntries = (BoundedHarEntryList) entries;
+            boundedEntries.onEntryStarted(harEntry);
+            boundedEntries.onEntryCompleted(harEntry);
+        }
+    }
+
     /**
      * Populates timing information in the specified harEntry for failed rquests. Populates as much timing information
      * as possible, up to the point of failure.
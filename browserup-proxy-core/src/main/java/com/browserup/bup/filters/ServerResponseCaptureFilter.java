@@ -1,6 +1,5 @@
 package com.browserup.bup.filters;
 
-import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpHeaderNames;
@@ -10,14 +9,13 @@ import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.LastHttpContent;
+import com.browserup.bup.filters.util.CapturedContentBuffer;
+import com.browserup.bup.filters.util.StreamingContentDecoder;
 import com.browserup.bup.util.BrowserUpHttpUtil;
 import org.littleshoot.proxy.HttpFiltersAdapter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-
 /**
  * This filter captures responses from the server (headers and content). The filter can also decompress contents if desired.
  * The filter can be used in one of three ways: (1) directly, by adding the filter to the filter chain; (2) by subclassing
@@ -28,6 +26,19 @@ public class ServerResponseCaptureFilter extends HttpFiltersAdapter {
     private static final Logger log = LoggerFactory.getLogger(ServerResponseCaptureFilter.class);
     private static final String BROTLI_COMPRESSION = "br";
 
+    /**
+     * Default maximum size of a decompressed response. Responses that are decompressed once they are received and that
+     * decompress to more than this are captured without decompression. Responses that are decompressed as they are
+     * received and that decompress to more than this are not captured, since their raw content is not retained.
+     */
+    public static final long DEFAULT_MAX_DECOMPRESSED_SIZE = 100L * 1024 * 1024;
+
+    /**
+     * Name of the custom field set on the content of a HAR response whose body could not be captured, because it failed
+     * to decompress after its raw content had been discarded. The value of the field describes the failure.
+     */
+    public static final String DECODE_ERROR_FIELD = "_decodeError";
+
     /**
      * Populated by serverToProxyResponse() when processing the HttpResponse object
      */
@@ -35,9 +46,45 @@ public class ServerResponseCaptureFilter extends HttpFiltersAdapter {
 
     /**
      * Populated by serverToProxyResponse() as it receives HttpContent responses. If the response is chunked, it will
-     * be populated across multiple calls to proxyToServerResponse().
+     * be populated across multiple calls to proxyToServerResponse(). Holds retained slices of the response buffers until
+     * the full response contents are captured. Not populated while the response is decompressed as it is received.
      */
-    private final ByteArrayOutputStream rawResponseContents = new ByteArrayOutputStream();
+    private final CapturedContentBuffer rawResponseContents = new CapturedContentBuffer();
+
+    /**
+     * Populated by captureFullResponseContents() with a copy of the raw response, after which the response buffers are
+     * released. Not populated if the response was decompressed as it was received.
+     */
+    private volatile byte[] rawResponseBytes;
+
+    /**
+     * Set to true by storeResponseContent() if some of the raw response was only passed to the content decoder, and
+     * not retained. If decompression then fails, the raw response is incomplete and is not captured.
+     */
+    private volatile boolean rawContentDiscarded;
+
+    /**
+     * Set by captureFullResponseContents() if the response failed to decompress after its raw content was discarded, in
+     * which case the full response contents are empty.
+     */
+    private volatile String decodeError;
+
+    /**
+     * Set to true by serverToProxyResponse() when processing the LastHttpContent.
+     */
+    private volatile boolean responseComplete;
+
+    /**
+     * Created by serverToProxyResponse() when processing the HttpResponse object, if decompression was requested and the
+     * content encoding can be decompressed incrementally. Decompresses each HttpContent as it is received.
+     */
+    private volatile StreamingContentDecoder contentDecoder;
+
+    /**
+     * Maximum number of content bytes to capture. Applied to the decompressed content when the response is decompressed
+     * as it is received, and to the raw content otherwise.
+     */
+    private volatile long maxContentSize = Long.MAX_VALUE;
 
     /**
      * Populated when processing the LastHttpContent. If the response is compressed and decompression is requested,
@@ -70,16 +117,58 @@ public class ServerResponseCaptureFilter extends HttpFiltersAdapter {
      */
     private final boolean decompressEncodedContent;
 
+    /**
+     * When true, the full response contents are not assembled and decompressed when the LastHttpContent is received.
+     * The owner of the filter must call {@link #captureFullResponseContents()} instead, typically on another thread.
+     */
+    private final boolean deferFullResponseContents;
+
+    /**
+     * Maximum size of the decompressed response. If the response decompresses to more than this, decompression is abandoned
+     * and the raw response is captured instead.
+     */
+    private final long maxDecompressedSize;
+
     public ServerResponseCaptureFilter(HttpRequest originalRequest, boolean decompressEncodedContent) {
+        this(originalRequest, decompressEncodedContent, false);
+    }
+
+    /**
+     * @param originalRequest the original request
+     * @param decompressEncodedContent true to decompress compressed responses
+     * @param deferFullResponseContents true if the full response contents will be assembled and decompressed by a call to
+     *                                  {@link #captureFullResponseContents()}, rather than when the last content is received
+     */
+    public ServerResponseCaptureFilter(HttpRequest originalRequest, boolean decompressEncodedContent, boolean deferFullResponseContents) {
+        this(originalRequest, decompressEncodedContent, deferFullResponseContents, DEFAULT_MAX_DECOMPRESSED_SIZE);
+    }
+
+    /**
+     * @param originalRequest the original request
+     * @param decompressEncodedContent true to decompress compressed responses
+     * @param deferFullResponseContents true if the full response contents will be assembled and decompressed by a call to
+     *                                  {@link #captureFullResponseContents()}, rather than when the last content is received
+     * @param maxDecompressedSize maximum size of the decompressed response, in bytes
+     */
+    public ServerResponseCaptureFilter(HttpRequest originalRequest, boolean decompressEncodedContent, boolean deferFullResponseContents,
+                                       long maxDecompressedSize) {
         super(originalRequest);
 
+        if (maxDecompressedSize < 0) {
+            throw new IllegalArgumentException("Maximum decompressed size cannot be negative");
+        }
+
         this.decompressEncodedContent = decompressEncodedContent;
+        this.deferFullResponseContents = deferFullResponseContents;
+        this.maxDecompressedSize = maxDecompressedSize;
     }
 
     public ServerResponseCaptureFilter(HttpRequest originalRequest, ChannelHandlerContext ctx, boolean decompressEncodedContent) {
         super(originalRequest, ctx);
 
         this.decompressEncodedContent = decompressEncodedContent;
+        this.deferFullResponseContents = false;
+        this.maxDecompressedSize = DEFAULT_MAX_DECOMPRESSED_SIZE;
     }
 
     @Override
@@ -87,6 +176,12 @@ public class ServerResponseCaptureFilter extends HttpFiltersAdapter {
         if (httpObject instanceof HttpResponse) {
             httpResponse = (HttpResponse) httpObject;
             captureContentEncoding(httpResponse);
+
+            if (decompressEncodedContent) {
+                contentDecoder = StreamingContentDecoder.forContentEncoding(contentEncoding, maxDecompressedSize, maxContentSize);
+            }
+
+            applyMaxContentSize();
         }
 
         if (httpObject instanceof HttpContent) {
@@ -97,8 +192,12 @@ public class ServerResponseCaptureFilter extends HttpFiltersAdapter {
             if (httpContent instanceof LastHttpContent) {
                 LastHttpContent lastContent = (LastHttpContent) httpContent;
                 captureTrailingHeaders(lastContent);
+                finishDecoding();
+                responseComplete = true;
 
-                captureFullResponseContents();
+                if (!deferFullResponseContents) {
+                    captureFullResponseContents();
+                }
             }
         }
 
@@ -106,9 +205,57 @@ public class ServerResponseCaptureFilter extends HttpFiltersAdapter {
     }
 
     protected void captureFullResponseContents() {
+        if (fullResponseContents != null) {
+            return;
+        }
+
+        StreamingContentDecoder decoder = contentDecoder;
+        if (decoder != null && !decoder.isFailed()) {
+            // the response was decompressed as it was received, so the raw response is never copied
+            try {
+                fullResponseContents = decoder.toByteArray();
+                responseCompressed = true;
+                decompressionSuccessful = true;
+            } finally {
+                decoder.release();
+                rawResponseContents.release();
+            }
+
+            return;
+        }
+
+        if (rawContentDiscarded) {
+            // the raw response was only passed to the decoder, which failed, so there is nothing complete to capture.
+            // the raw response is deliberately not retained while it is decoded, so that the compressed and decompressed
+            // contents are never held together; the failure is reported by getDecodeError() instead
+            fullResponseContents = new byte[0];
+            responseCompressed = true;
+            decodeError = decoder != null && decoder.getFailureReason() != null
+                    ? decoder.getFailureReason()
+                    : "Failed to decompress content with encoding " + contentEncoding;
+
+            if (decoder != null) {
+                decoder.release();
+            }
+            rawResponseContents.release();
+
+            return;
+        }
+
         // start by setting fullResponseContent to the raw, (possibly) compressed byte stream. replace it
-        // with the decompressed bytes if decompression is successful.
-        fullResponseContents = getRawResponseContents();
+        // with the decompressed bytes if decompression is successful. the raw contents are copied out of the response
+        // buffers exactly once, after which the buffers can be released.
+        synchronized (rawResponseContents) {
+            if (rawResponseBytes == null) {
+                try {
+                    rawResponseBytes = rawResponseContents.toByteArray();
+                } finally {
+                    rawResponseContents.release();
+                }
+            }
+        }
+
+        fullResponseContents = rawResponseBytes;
 
         // if the content is compressed, we need to decompress it. but don't use
         // the netty HttpContentCompressor/Decompressor in the pipeline because we don't actually want it to
@@ -116,10 +263,10 @@ public class ServerResponseCaptureFilter extends HttpFiltersAdapter {
         if (contentEncoding != null) {
             responseCompressed = true;
 
-            if (decompressEncodedContent) {
+            if (decompressEncodedContent && decoder == null) {
                 decompressContents();
             }  else {
-                // will not decompress response
+                // will not decompress response, or incremental decompression already failed
             }
         } else {
             // no compression
@@ -130,7 +277,7 @@ public class ServerResponseCaptureFilter extends HttpFiltersAdapter {
     protected void decompressContents() {
         if (contentEncoding.equals(HttpHeaderValues.GZIP.toString())) {
             try {
-                fullResponseContents = BrowserUpHttpUtil.decompressGZIPContents(getRawResponseContents());
+                fullResponseContents = BrowserUpHttpUtil.decompressGZIPContents(rawResponseBytes);
                 decompressionSuccessful = true;
             } catch (RuntimeException e) {
                 log.warn("Failed to decompress response with encoding type {} when decoding request from {}",
@@ -138,7 +285,7 @@ public class ServerResponseCaptureFilter extends HttpFiltersAdapter {
             }
         } else if (contentEncoding.equals(BROTLI_COMPRESSION)) {
             try {
-                fullResponseContents = BrowserUpHttpUtil.decompressBrotliContents(getRawResponseContents());
+                fullResponseContents = BrowserUpHttpUtil.decompressBrotliContents(rawResponseBytes, maxDecompressedSize);
                 decompressionSuccessful = true;
             } catch (RuntimeException e) {
                 log.warn("Failed to decompress response with encoding type {} when decoding request from {}",
@@ -149,6 +296,40 @@ public class ServerResponseCaptureFilter extends HttpFiltersAdapter {
         }
     }
 
+    /**
+     * Decompresses whatever remains of the response after the last content is received. If a trailing header changed
+     * the content encoding, the incrementally decompressed response is discarded, and the raw response is decompressed
+     * by {@link #captureFullResponseContents()} instead.
+     */
+    protected void finishDecoding() {
+        StreamingContentDecoder decoder = contentDecoder;
+        if (decoder == null) {
+            return;
+        }
+
+        if (decoder.getContentEncoding().equals(contentEncoding)) {
+            decoder.finish();
+        } else {
+            decoder.release();
+            contentDecoder = null;
+        }
+    }
+
+    /**
+     * Limits the captured raw content to the maximum content size. The raw content is not limited when it will have to be
+     * decompressed in its entirety once it is received. The content decoder, if any, is created with the limit instead.
+     */
+    protected void applyMaxContentSize() {
+        long maxSize = maxContentSize;
+        if (maxSize == Long.MAX_VALUE) {
+            return;
+        }
+
+        if (contentDecoder != null || contentEncoding == null || !decompressEncodedContent) {
+            rawResponseContents.setLimit(maxSize);
+        }
+    }
+
     protected void captureContentEncoding(HttpResponse httpResponse) {
         contentEncoding = httpResponse.headers().get(HttpHeaderNames.CONTENT_ENCODING);
     }
@@ -166,14 +347,19 @@ public class ServerResponseCaptureFilter extends HttpFiltersAdapter {
 
     }
 
+    /**
+     * Stores a chunk of the response. While the response is decompressed as it is received, the chunk is only passed to
+     * the content decoder, so that the compressed response is not retained alongside the decompressed one.
+     */
     protected void storeResponseContent(HttpContent httpContent) {
-        ByteBuf bufferedContent = httpContent.content();
-        byte[] content = BrowserUpHttpUtil.extractReadableBytes(bufferedContent);
-
-        try {
-            rawResponseContents.write(content);
-        } catch (IOException e) {
-            // can't happen
+        StreamingContentDecoder decoder = contentDecoder;
+        if (decoder != null && !decoder.isFailed()) {
+            if (httpContent.content().isReadable()) {
+                rawContentDiscarded = true;
+            }
+            decoder.decode(httpContent.content());
+        } else {
+            rawResponseContents.add(httpContent.content());
         }
     }
 
@@ -193,13 +379,85 @@ public class ServerResponseCaptureFilter extends HttpFiltersAdapter {
 
     /**
      * Returns the raw contents of the entire response, without decompression.
+     * <p>
+     * When decompression is enabled, responses in the gzip and deflate encodings are decompressed as they are received,
+     * and their raw contents are not retained, so this method returns null for them, whether or not decompression
+     * succeeded. It returns the raw contents of every other response, including compressed responses when decompression
+     * is disabled.
      *
-     * @return entire response contents, without decompression
+     * @return entire response contents, without decompression, or null if the response was decompressed as it was received
+     * @deprecated use {@link #getFullResponseContents()} instead, which returns the decompressed contents when the raw
+     * contents are not retained, or disable decompression to capture the raw contents.
      */
+    @Deprecated
     public byte[] getRawResponseContents() {
+        if (rawContentDiscarded) {
+            return null;
+        }
+
+        byte[] contents = rawResponseBytes;
+        if (contents != null) {
+            return contents;
+        }
+
         return rawResponseContents.toByteArray();
     }
 
+    /**
+     * Releases the response buffers retained by this filter if the response was abandoned before it was entirely received,
+     * e.g. because the response timed out or the connection was closed. Once the entire response has been received, the
+     * buffers are released by {@link #captureFullResponseContents()} instead, even if it fails, and this method does nothing.
+     */
+    public void releaseContents() {
+        if (!responseComplete) {
+            rawResponseContents.release();
+
+            StreamingContentDecoder decoder = contentDecoder;
+            if (decoder != null) {
+                decoder.release();
+            }
+        }
+    }
+
+    /**
+     * Sets the maximum number of response content bytes to capture. Content beyond the limit is not retained, and
+     * {@link #isContentTruncated()} returns true. Must be called before the HttpResponse is received.
+     *
+     * @param maxContentSize maximum number of bytes to capture
+     */
+    public void setMaxContentSize(long maxContentSize) {
+        if (maxContentSize < 0) {
+            throw new IllegalArgumentException("Maximum content size cannot be negative");
+        }
+
+        this.maxContentSize = maxContentSize;
+    }
+
+    /**
+     * @return why the response could not be captured, if it failed to decompress after its raw content was discarded as
+     * it was decompressed; null otherwise, including when decompression failed but the raw content was captured instead
+     */
+    public String getDecodeError() {
+        return decodeError;
+    }
+
+    /**
+     * @return true if response content was discarded because it exceeded the maximum content size
+     */
+    public boolean isContentTruncated() {
+        StreamingContentDecoder decoder = contentDecoder;
+        if (rawContentDiscarded && (decoder == null || decoder.isFailed())) {
+            // decompression failed after some of the raw response was discarded, so none of the response is captured
+            return true;
+        }
+
+        if (decoder != null && !decoder.isFailed()) {
+            return decoder.isTruncated();
+        }
+
+        return rawResponseContents.isTruncated();
+    }
+
     public HttpHeaders getTrailingHeaders() {
         return trailingHeaders;
     }
@@ -0,0 +1,190 @@
+package com.browserup.bup.filters.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.Cleaner;
+
+/**
+ * Accumulates the content of an HTTP message as it is received, without copying it. Each chunk is added as a retained
+ * slice of the Netty buffer it arrived in, so the bytes are only copied once, when {@link #toByteArray()} is called after
+ * the last chunk has been received.
+ * <p>
+ * Retained slices keep the underlying (usually pooled) buffers from being reused, so the buffer must be released as
+ * soon as the content is no longer needed: {@link #toByteArray()} followed by {@link #release()} when the message is
+ * complete, or {@link #release()} alone when the message is abandoned, including when the connection is closed or the
+ * message times out. Content that was never released is released when this object is garbage collected, but only as a
+ * safety net: a warning is logged, since the pooled buffers were withheld from the pool until then.
+ * <p>
+ * This class is thread-safe.
+ */
+public class CapturedContentBuffer {
+    private static final Logger log = LoggerFactory.getLogger(CapturedContentBuffer.class);
+
+    private static final Cleaner cleaner = Cleaner.create();
+
+    private final ContentState state;
+    private final Cleaner.Cleanable cleanable;
+
+    public CapturedContentBuffer() {
+        this(PooledByteBufAllocator.DEFAULT);
+    }
+
+    public CapturedContentBuffer(ByteBufAllocator allocator) {
+        // never consolidate components, since consolidating copies every component into a new buffer
+        this.state = new ContentState(allocator.compositeBuffer(Integer.MAX_VALUE));
+        this.cleanable = cleaner.register(this, state);
+    }
+
+    /**
+     * Adds the readable bytes of the buffer to the captured content, without copying them. The reader index of the buffer
+     * is not modified.
+     *
+     * @param content buffer to capture
+     */
+    public void add(ByteBuf content) {
+        if (content.isReadable()) {
+            state.add(content);
+        }
+    }
+
+    /**
+     * Sets the maximum number of bytes to capture. Bytes added beyond the limit are discarded, and the content is marked
+     * as truncated.
+     *
+     * @param maxBytes maximum number of bytes to capture
+     */
+    public void setLimit(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Limit cannot be negative");
+        }
+
+        state.setLimit(maxBytes);
+    }
+
+    /**
+     * @return true if bytes were discarded because the content exceeded the limit
+     */
+    public boolean isTruncated() {
+        return state.isTruncated();
+    }
+
+    /**
+     * @return number of bytes captured so far
+     */
+    public int readableBytes() {
+        return state.readableBytes();
+    }
+
+    /**
+     * Copies the captured content to a new byte array.
+     *
+     * @return the captured content
+     * @throws IllegalStateException if the content has been released
+     */
+    public byte[] toByteArray() {
+        return state.toByteArray();
+    }
+
+    /**
+     * Releases the captured content. Does nothing if the content has already been released.
+     */
+    public void release() {
+        state.release();
+        cleanable.clean();
+    }
+
+    /**
+     * @return true if the captured content has been released
+     */
+    public boolean isReleased() {
+        return state.isReleased();
+    }
+
+    /**
+     * The buffer itself, which is also the cleaning action run if the buffer was not released. Must not refer to the
+     * enclosing CapturedContentBuffer, or it would never become unreachable.
+     */
+    private static class ContentState implements Runnable {
+        private final CompositeByteBuf composite;
+
+        private boolean released;
+
+        private long limit = Long.MAX_VALUE;
+
+        private boolean truncated;
+
+        private ContentState(CompositeByteBuf composite) {
+            this.composite = composite;
+        }
+
+        private synchronized void add(ByteBuf content) {
+            if (released) {
+                return;
+            }
+
+            long remaining = limit - composite.readableBytes();
+            if (content.readableBytes() > remaining) {
+                truncated = true;
+
+                if (remaining > 0) {
+                    composite.addComponent(true, content.retainedSlice(content.readerIndex(), (int) remaining));
+                }
+
+                return;
+            }
+
+            composite.addComponent(true, content.retainedSlice());
+        }
+
+        private synchronized void setLimit(long limit) {
+            this.limit = limit;
+        }
+
+        private synchronized boolean isTruncated() {
+            return truncated;
+        }
+
+        private synchronized int readableBytes() {
+            return released ? 0 : composite.readableBytes();
+        }
+
+        private synchronized byte[] toByteArray() {
+            if (released) {
+                throw new IllegalStateException("Captured content has been released");
+            }
+
+            byte[] bytes = new byte[composite.readableBytes()];
+            composite.getBytes(composite.readerIndex(), bytes);
+
+            return bytes;
+        }
+
+        private synchronized boolean isReleased() {
+            return released;
+        }
+
+        private synchronized boolean release() {
+            if (released) {
+                return false;
+            }
+
+            released = true;
+            composite.release();
+
+            return true;
+        }
+
+        @Override
+        public void run() {
+            int capturedBytes = readableBytes();
+            if (release()) {
+                log.warn("Captured content of {} bytes was not released before it was garbage collected", capturedBytes);
+            }
+        }
+    }
+}
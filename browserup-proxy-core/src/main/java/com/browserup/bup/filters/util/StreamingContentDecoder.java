@@ -0,0 +1,374 @@
+package com.browserup.bup.filters.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.DecompressionException;
+import io.netty.handler.codec.compression.JdkZlibDecoder;
+import io.netty.handler.codec.compression.ZlibWrapper;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.Cleaner;
+
+/**
+ * Decompresses the content of an HTTP message one chunk at a time, as the chunks are received, so that the compressed
+ * message never has to be assembled before it is decompressed. The decompressed content is accumulated in a
+ * {@link CapturedContentBuffer}.
+ * <p>
+ * Decoding stops as soon as the decompressed content exceeds the maximum size, which protects the proxy from
+ * decompression bombs. The buffer a single chunk is decompressed into is also limited to the maximum size, or to the
+ * maximum captured size if it is smaller, so the memory used by a decoder never exceeds that size by more than one
+ * buffer, however much a single chunk expands.
+ * <p>
+ * Supports the gzip and deflate content encodings. Brotli is not supported, because the brotli decoder available to the
+ * proxy can only read complete streams.
+ * <p>
+ * Like the filters that use it, this class is not thread-safe: chunks must be decoded by one thread at a time, and
+ * {@link #toByteArray()} must be called after {@link #finish()} has returned. {@link #release()} may be called from any
+ * thread, e.g. when the connection is closed, and must be called on every path that abandons the decoder; the buffers of
+ * a decoder that was never released are only released, with a warning, when it is garbage collected.
+ */
+public class StreamingContentDecoder {
+    private static final Logger log = LoggerFactory.getLogger(StreamingContentDecoder.class);
+
+    private static final Cleaner cleaner = Cleaner.create();
+
+    private final String contentEncoding;
+    private final long maxDecodedSize;
+
+    private final CappedZlibDecoder zlibDecoder;
+    private final DecoderState state;
+    private final Cleaner.Cleanable cleanable;
+
+    private long decodedSize;
+
+    private volatile boolean failed;
+    private volatile String failureReason;
+    private volatile boolean sizeLimitExceeded;
+    private volatile boolean finished;
+
+    private final long maxCapturedSize;
+    private volatile boolean truncated;
+
+    private StreamingContentDecoder(String contentEncoding, ZlibWrapper wrapper, long maxDecodedSize, long maxCapturedSize) {
+        this.contentEncoding = contentEncoding;
+        this.maxDecodedSize = maxDecodedSize;
+        this.maxCapturedSize = maxCapturedSize;
+
+        // a max allocation of 0 means no limit, so always allow at least one byte
+        int maxAllocation = (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.min(maxDecodedSize, maxCapturedSize)));
+
+        this.zlibDecoder = new CappedZlibDecoder(wrapper, maxAllocation);
+        this.state = new DecoderState(new EmbeddedChannel(zlibDecoder));
+        this.state.decodedContent.setLimit(maxCapturedSize);
+        this.cleanable = cleaner.register(this, state);
+    }
+
+    /**
+     * Creates a decoder for the specified content encoding.
+     *
+     * @param contentEncoding value of the Content-Encoding header
+     * @param maxDecodedSize maximum size of the decompressed content, in bytes
+     * @return a new decoder, or null if the content encoding cannot be decompressed incrementally
+     */
+    public static StreamingContentDecoder forContentEncoding(String contentEncoding, long maxDecodedSize) {
+        return forContentEncoding(contentEncoding, maxDecodedSize, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates a decoder for the specified content encoding that keeps at most the specified number of decompressed bytes.
+     * Unlike the maximum decoded size, reaching the maximum captured size is not a failure: decoding stops, and the content
+     * decompressed so far is kept and marked as truncated.
+     *
+     * @param contentEncoding value of the Content-Encoding header
+     * @param maxDecodedSize maximum size of the decompressed content, in bytes
+     * @param maxCapturedSize maximum size of the decompressed content to keep, in bytes
+     * @return a new decoder, or null if the content encoding cannot be decompressed incrementally
+     */
+    public static StreamingContentDecoder forContentEncoding(String contentEncoding, long maxDecodedSize, long maxCapturedSize) {
+        if (maxDecodedSize < 0) {
+            throw new IllegalArgumentException("Maximum decoded size cannot be negative");
+        }
+
+        if (maxCapturedSize < 0) {
+            throw new IllegalArgumentException("Maximum captured size cannot be negative");
+        }
+
+        if (contentEncoding == null) {
+            return null;
+        }
+
+        String encoding = contentEncoding.trim();
+
+        if (HttpHeaderValues.GZIP.contentEqualsIgnoreCase(encoding) || HttpHeaderValues.X_GZIP.contentEqualsIgnoreCase(encoding)) {
+            return new StreamingContentDecoder(contentEncoding, ZlibWrapper.GZIP, maxDecodedSize, maxCapturedSize);
+        }
+
+        if (HttpHeaderValues.DEFLATE.contentEqualsIgnoreCase(encoding) || HttpHeaderValues.X_DEFLATE.contentEqualsIgnoreCase(encoding)) {
+            // many servers send raw deflate streams instead of the zlib streams the spec requires
+            return new StreamingContentDecoder(contentEncoding, ZlibWrapper.ZLIB_OR_NONE, maxDecodedSize, maxCapturedSize);
+        }
+
+        return null;
+    }
+
+    /**
+     * Decompresses a chunk of the message. The reader index of the chunk is not modified. Does nothing if decoding has
+     * already failed or finished.
+     *
+     * @param chunk compressed chunk
+     * @return false if decoding has failed or exceeded the maximum size
+     */
+    public boolean decode(ByteBuf chunk) {
+        if (failed || finished) {
+            return !failed;
+        }
+
+        if (!chunk.isReadable()) {
+            return true;
+        }
+
+        // hold the state, so that the decoder cannot be released while a chunk is being decoded
+        synchronized (state) {
+            if (state.released) {
+                return !failed;
+            }
+
+            try {
+                state.channel.writeInbound(chunk.retainedDuplicate());
+                readDecodedContent();
+            } catch (DecompressionException e) {
+                failOrTruncate(e);
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        return !failed;
+    }
+
+    /**
+     * Decompresses whatever remains buffered in the decoder, after the last chunk of the message was decoded.
+     *
+     * @return false if decoding has failed or exceeded the maximum size
+     */
+    public boolean finish() {
+        if (failed || finished) {
+            return !failed;
+        }
+
+        finished = true;
+
+        synchronized (state) {
+            if (state.released) {
+                return !failed;
+            }
+
+            try {
+                if (state.channel.finish()) {
+                    readDecodedContent();
+                }
+            } catch (DecompressionException e) {
+                failOrTruncate(e);
+            } catch (RuntimeException e) {
+                fail(e);
+            } finally {
+                state.closeChannel();
+            }
+        }
+
+        return !failed;
+    }
+
+    /**
+     * Copies the decompressed content to a new byte array.
+     *
+     * @return the decompressed content
+     * @throws IllegalStateException if decoding failed, or the decoder has been released
+     */
+    public byte[] toByteArray() {
+        if (failed) {
+            throw new IllegalStateException("Unable to decompress content with encoding " + contentEncoding);
+        }
+
+        return state.decodedContent.toByteArray();
+    }
+
+    /**
+     * @return the content encoding this decoder decompresses
+     */
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    /**
+     * @return true if the content could not be decompressed, or its decompressed size exceeded the maximum size
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * @return why the content could not be decompressed, or null if decoding has not failed
+     */
+    public String getFailureReason() {
+        return failureReason;
+    }
+
+    /**
+     * @return true if decoding stopped because the decompressed content reached the maximum captured size
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * @return true if decoding stopped because the decompressed content exceeded the maximum size
+     */
+    public boolean isSizeLimitExceeded() {
+        return sizeLimitExceeded;
+    }
+
+    /**
+     * Releases the buffers held by the decoder. Does nothing if the decoder has already been released.
+     */
+    public void release() {
+        state.release();
+        cleanable.clean();
+    }
+
+    private void readDecodedContent() {
+        ByteBuf decoded;
+        while ((decoded = state.channel.readInbound()) != null) {
+            try {
+                decodedSize += decoded.readableBytes();
+                if (decodedSize > maxCapturedSize && maxCapturedSize <= maxDecodedSize) {
+                    // keep what fits, and stop spending time on content that will be discarded
+                    state.decodedContent.add(decoded);
+                    truncated = true;
+                    finished = true;
+                    state.closeChannel();
+                    return;
+                }
+
+                if (decodedSize > maxDecodedSize) {
+                    sizeLimitExceeded = true;
+                    fail(null);
+                    return;
+                }
+
+                state.decodedContent.add(decoded);
+            } finally {
+                decoded.release();
+            }
+        }
+    }
+
+    /**
+     * Handles an exception thrown by the zlib decoder. When a single chunk decompresses to more than the maximum
+     * allocation, the decoder discards the chunk's output, so the content decompressed from the previous chunks is kept
+     * if the maximum captured size was reached, and decoding fails if the maximum decoded size was exceeded. Any other
+     * exception means the content is corrupt.
+     */
+    private void failOrTruncate(DecompressionException e) {
+        if (!zlibDecoder.isMaxAllocationReached()) {
+            fail(e);
+        } else if (maxCapturedSize <= maxDecodedSize) {
+            truncated = true;
+            finished = true;
+            state.closeChannel();
+        } else {
+            sizeLimitExceeded = true;
+            fail(null);
+        }
+    }
+
+    private void fail(RuntimeException cause) {
+        failed = true;
+
+        if (sizeLimitExceeded) {
+            failureReason = "Decompressed content with encoding " + contentEncoding + " exceeded the maximum size of "
+                    + maxDecodedSize + " bytes";
+            log.warn("Decompressed content with encoding {} exceeded the maximum size of {} bytes", contentEncoding, maxDecodedSize);
+        } else {
+            failureReason = "Failed to decompress content with encoding " + contentEncoding
+                    + (cause != null && cause.getMessage() != null ? ": " + cause.getMessage() : "");
+            log.warn("Failed to decompress content with encoding {}", contentEncoding, cause);
+        }
+
+        // nothing decoded so far will be used, so free it now rather than when the filter is discarded
+        release();
+    }
+
+    /**
+     * Zlib decoder that records whether it failed because the buffer a chunk is decompressed into could not grow beyond
+     * the maximum allocation, which is the only reason it fails to prepare a buffer. Any other failure means the content
+     * is corrupt.
+     */
+    private static class CappedZlibDecoder extends JdkZlibDecoder {
+        private boolean maxAllocationReached;
+
+        private CappedZlibDecoder(ZlibWrapper wrapper, int maxAllocation) {
+            super(wrapper, maxAllocation);
+        }
+
+        @Override
+        protected ByteBuf prepareDecompressBuffer(ChannelHandlerContext ctx, ByteBuf buffer, int preferredSize) {
+            try {
+                return super.prepareDecompressBuffer(ctx, buffer, preferredSize);
+            } catch (DecompressionException e) {
+                maxAllocationReached = true;
+                throw e;
+            }
+        }
+
+        private boolean isMaxAllocationReached() {
+            return maxAllocationReached;
+        }
+    }
+
+    /**
+     * The decoding channel and decompressed content. The cleaning action releases them if the decoder was not released.
+     * Must not refer to the enclosing StreamingContentDecoder, or it would never become unreachable.
+     */
+    private static class DecoderState implements Runnable {
+        private final EmbeddedChannel channel;
+        private final CapturedContentBuffer decodedContent = new CapturedContentBuffer();
+
+        private boolean channelClosed;
+
+        private boolean released;
+
+        private DecoderState(EmbeddedChannel channel) {
+            this.channel = channel;
+        }
+
+        private synchronized void closeChannel() {
+            if (!channelClosed) {
+                channelClosed = true;
+                channel.finishAndReleaseAll();
+            }
+        }
+
+        private synchronized boolean release() {
+            if (released) {
+                return false;
+            }
+
+            released = true;
+            closeChannel();
+            decodedContent.release();
+
+            return true;
+        }
+
+        @Override
+        public void run() {
+            if (release()) {
+                log.warn("Content decoder was not released before it was garbage collected");
+            }
+        }
+    }
+}
@@ -0,0 +1,767 @@
+package com.browserup.bup.har;
+
+import com.browserup.bup.assertion.StandingAssertions;
+import com.browserup.bup.har.body.BodyHandle;
+import com.browserup.bup.har.body.StoredHarContent;
+import com.browserup.bup.har.body.StoredHarPostData;
+import com.browserup.bup.util.ConcurrentAppendOnlyList;
+import com.browserup.harreader.filter.HarEntryIndex;
+import com.browserup.harreader.filter.IndexedHarEntryList;
+import com.google.common.collect.MapMaker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.sstoehr.harreader.model.HarEntry;
+import de.sstoehr.harreader.model.HarRequest;
+import de.sstoehr.harreader.model.HarResponse;
+
+/**
+ * A list of HAR entries that enforces {@link HarCaptureLimits}. Whenever an entry is added or a body is captured, the
+ * oldest entries are evicted until the list is within its limits again. Each eviction is O(1), and bodies of evicted
+ * entries that are held in a {@link com.browserup.bup.har.body.BodyStore} are released.
+ * <p>
+ * When the HAR the list belongs to is replaced or ended, {@link #detachBodies()} copies the bodies that are still held
+ * in the store into the entries and releases them, so that the store only holds the bodies of the current HAR, and HARs
+ * that were already returned to callers remain readable after the store is closed.
+ * <p>
+ * Entries older than the maximum age are evicted when entries are added, and when {@link #evictExpired()} is called.
+ * <p>
+ * Each entry is also assigned a sequence number when it is added, and a new, higher sequence number each time it is
+ * updated with {@link #onEntryUpdated(HarEntry)}. A client that remembers the last sequence number it has seen can
+ * retrieve just the entries that were added or updated since then with {@link #getEntriesSince(long)}, in time
+ * proportional to the number of those entries. Entries are indexed by their latest sequence number for this purpose.
+ * <p>
+ * The list also has a modification version, which is incremented whenever an entry is added, replaced, updated,
+ * completed or evicted, or a body is captured. Results computed from the entries, such as assertion results, remain
+ * valid for as long as the version does not change (see {@link HarQueryCache}).
+ * <p>
+ * Entries are added to a {@link HarEntryIndex} as soon as their request URL is known, and removed from it when they
+ * are evicted.
+ * <p>
+ * Entries are also grouped by the page they belong to, so that the entries of a page can be retrieved with
+ * {@link #getPageEntries(String)} in time proportional to the size of the page, rather than of the whole HAR. An entry
+ * is grouped under the page ref it has when it is added.
+ * <p>
+ * If the list has a {@link HarNdjsonSink}, each entry reported with {@link #onEntryCompleted(HarEntry)} is appended to
+ * the sink, and released from the list as soon as the sink has persisted it, wherever it is in the list, so an entry that
+ * is slow to complete does not keep the entries persisted after it in memory.
+ * <p>
+ * If the list has a {@link HarEntryDispatcher}, entries reported with {@link #onEntryStarted(HarEntry)} and
+ * {@link #onEntryCompleted(HarEntry)} are also published to its listeners, and if it has {@link HarTimingHistograms},
+ * the timings of completed entries are recorded into them. If it has {@link StandingAssertions}, they are checked
+ * against completed entries before the entries are persisted, and the assertions on response bodies are checked off the
+ * thread that completed the entry.
+ */
+public class BoundedHarEntryList extends ConcurrentAppendOnlyList<HarEntry> implements IndexedHarEntryList {
+    /**
+     * Marks an entry that has been evicted, so that bodies captured after the eviction are not counted.
+     */
+    private static final long EVICTED = -1L;
+
+    private volatile HarCaptureLimits limits;
+
+    /**
+     * State of each entry in the list. Uses weak keys, which are compared by identity, since HarEntry implements value
+     * equality and is mutable.
+     */
+    private final ConcurrentMap<HarEntry, EntryState> entryStates = new MapMaker().weakKeys().makeMap();
+
+    /**
+     * The most recently assigned sequence number. Only set once the entry it was assigned to can be found in
+     * {@link #entriesBySequence}, so a cursor read from it never skips an entry. Written while holding
+     * {@link #sequenceLock}.
+     */
+    private final AtomicLong sequence;
+
+    /**
+     * Entries by their latest sequence number. Modified while holding {@link #sequenceLock}.
+     */
+    private final ConcurrentNavigableMap<Long, HarEntry> entriesBySequence = new ConcurrentSkipListMap<>();
+
+    private final Object sequenceLock = new Object();
+
+    /**
+     * Incremented after each modification of the list or of its entries.
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    private final HarEntryIndex entryIndex = new HarEntryIndex();
+
+    /**
+     * Entries of each page, in the order they were added. Each entry is removed from its page as soon as it is evicted
+     * or released, wherever it is in the page.
+     */
+    private final ConcurrentMap<String, PageEntries> entriesByPage = new ConcurrentHashMap<>();
+
+    /**
+     * Number of entries added so far, used to order the entries of several pages.
+     */
+    private final AtomicLong addedEntries = new AtomicLong();
+
+    private final AtomicLong capturedBodyBytes = new AtomicLong();
+
+    /**
+     * Sink that completed entries are persisted to before they are released, or null to keep entries in the list.
+     */
+    private volatile HarNdjsonSink sink;
+
+    /**
+     * Dispatcher that started and completed entries are published to, or null if they are not published.
+     */
+    private volatile HarEntryDispatcher dispatcher;
+
+    /**
+     * Histograms that the timings of completed entries are recorded into, or null if timings are not aggregated.
+     */
+    private volatile HarTimingHistograms timingHistograms;
+
+    /**
+     * Assertions that are checked against completed entries, or null if no assertions are checked.
+     */
+    private volatile StandingAssertions standingAssertions;
+
+    /**
+     * True once the bodies of the entries have been detached from the body store. Bodies captured afterwards are
+     * detached as soon as they are captured.
+     */
+    private volatile boolean bodiesDetached;
+
+    private final LongAdder releasedPersistedEntries = new LongAdder();
+
+    private final LongAdder evictedByEntryLimit = new LongAdder();
+    private final LongAdder evictedByBodyBytesLimit = new LongAdder();
+    private final LongAdder evictedByAge = new LongAdder();
+    private final LongAdder evictedBodyBytes = new LongAdder();
+
+    public BoundedHarEntryList() {
+        this(HarCaptureLimits.UNLIMITED);
+    }
+
+    public BoundedHarEntryList(HarCaptureLimits limits) {
+        this(limits, 0L);
+    }
+
+    /**
+     * Creates a list whose sequence numbers start after the specified sequence number, so that cursors obtained from
+     * a previous list remain valid for this list.
+     *
+     * @param limits limits to enforce
+     * @param initialSequence sequence number to continue from
+     */
+    public BoundedHarEntryList(HarCaptureLimits limits, long initialSequence) {
+        this.limits = limits;
+        this.sequence = new AtomicLong(initialSequence);
+    }
+
+    @Override
+    public boolean add(HarEntry entry) {
+        long slot = append(entry);
+
+        EntryState state = getState(entry);
+        state.slot = slot;
+        state.position = addedEntries.incrementAndGet();
+        nextSequence(entry, state);
+        index(entry, state);
+        addToPage(entry, state);
+
+        evict();
+        version.incrementAndGet();
+
+        return true;
+    }
+
+    @Override
+    public HarEntry set(int index, HarEntry entry) {
+        HarEntry previous = super.set(index, entry);
+
+        entryIndex.remove(previous);
+        EntryState previousState = getState(previous);
+        removeFromPage(previous, previousState);
+        removeSequence(previous, previousState);
+
+        EntryState state = getState(entry);
+        state.slot = previousState.slot;
+        state.position = previousState.position;
+        nextSequence(entry, state);
+        index(entry, state);
+        addToPage(entry, state);
+        version.incrementAndGet();
+
+        return previous;
+    }
+
+    @Override
+    public HarEntryIndex getEntryIndex() {
+        return entryIndex;
+    }
+
+    /**
+     * Assigns a new sequence number to an entry that has been modified since it was added, so that it will be returned
+     * by {@link #getEntriesSince(long)} again. Entries are expected to be updated by one thread at a time (the thread
+     * capturing the request and response).
+     *
+     * @param entry entry that was updated
+     */
+    public void onEntryUpdated(HarEntry entry) {
+        EntryState state = entryStates.get(entry);
+        if (state != null) {
+            nextSequence(entry, state);
+
+            // entries are usually added before their request URL is captured
+            if (!entryIndex.contains(entry)) {
+                index(entry, state);
+            }
+
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the most recently assigned sequence number, which may be used as a cursor for {@link #getEntriesSince(long)}
+     */
+    public long getSequence() {
+        return sequence.get();
+    }
+
+    /**
+     * Returns the modification version of the list. The version is incremented after an entry is added, replaced,
+     * updated, completed or evicted, and after a body is captured, so a result computed from the entries after reading
+     * the version is up to date for as long as the version is unchanged. Entries modified without being reported to
+     * the list do not change the version.
+     *
+     * @return the modification version
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Returns the entries that were added or updated after the specified cursor was obtained from {@link #getSequence()},
+     * in the order they were added. Entries that are being updated concurrently may be returned both now and on the
+     * next call. Runs in time proportional to the number of entries returned, rather than to the size of the list.
+     *
+     * @param cursor sequence number previously returned by {@link #getSequence()}, or 0 to return all entries
+     * @return entries added or updated since the cursor
+     */
+    public List<HarEntry> getEntriesSince(long cursor) {
+        // an entry updated while the map is traversed may be found under both its old and its new sequence number
+        Set<HarEntry> changed = Collections.newSetFromMap(new IdentityHashMap<>());
+        changed.addAll(entriesBySequence.tailMap(cursor, false).values());
+
+        List<HarEntry> entries = new ArrayList<>(changed);
+        entries.sort(Comparator.comparingLong(entry -> getState(entry).position));
+
+        return entries;
+    }
+
+    /**
+     * Returns the entries of a page, in the order they were added. Runs in time proportional to the number of entries
+     * of the page.
+     *
+     * @param pageRef ID of the page
+     * @return the entries of the page
+     */
+    public List<HarEntry> getPageEntries(String pageRef) {
+        List<HarEntry> entries = new ArrayList<>();
+        addPageEntries(pageRef, entries);
+
+        return entries;
+    }
+
+    /**
+     * Returns the entries of several pages, in the order they were added. Runs in time proportional to the number of
+     * entries of the pages.
+     *
+     * @param pageRefs IDs of the pages
+     * @return the entries of the pages
+     */
+    public List<HarEntry> getPageEntries(Collection<String> pageRefs) {
+        List<HarEntry> entries = new ArrayList<>();
+        for (String pageRef : pageRefs) {
+            addPageEntries(pageRef, entries);
+        }
+
+        if (pageRefs.size() > 1) {
+            // each page's entries are already sorted, which the sort takes advantage of
+            entries.sort(Comparator.comparingLong(entry -> getState(entry).position));
+        }
+
+        return entries;
+    }
+
+    /**
+     * Reports that the request of an entry has been captured. If the list has a dispatcher, the entry is published to
+     * its listeners.
+     *
+     * @param entry entry that was started
+     */
+    public void onEntryStarted(HarEntry entry) {
+        HarEntryDispatcher currentDispatcher = dispatcher;
+        if (currentDispatcher != null) {
+            currentDispatcher.entryStarted(entry);
+        }
+    }
+
+    /**
+     * Reports that an entry will not be modified any more. If the list has timing histograms, the entry's timings are
+     * recorded into them, and if it has standing assertions, the assertions that do not read the response body are
+     * checked against the entry. If the list has a dispatcher, the entry is then published to its listeners. The
+     * assertions on the response body are checked on the standing assertions' own thread, since this method is usually
+     * called on an I/O thread; if the list has a sink, the entry is appended to it once they have been checked, so that
+     * its body is not released before, and released from the list once it has been persisted. Each entry is expected to
+     * be reported once.
+     *
+     * @param entry entry that was completed
+     */
+    public void onEntryCompleted(HarEntry entry) {
+        // the entry may have been modified since it was last reported as updated
+        version.incrementAndGet();
+
+        HarTimingHistograms currentTimingHistograms = timingHistograms;
+        if (currentTimingHistograms != null) {
+            currentTimingHistograms.record(entry);
+        }
+
+        StandingAssertions currentStandingAssertions = standingAssertions;
+        if (currentStandingAssertions != null) {
+            currentStandingAssertions.recordWithoutContent(entry);
+        }
+
+        HarEntryDispatcher currentDispatcher = dispatcher;
+        if (currentDispatcher != null) {
+            currentDispatcher.entryCompleted(entry);
+        }
+
+        if (currentStandingAssertions != null) {
+            currentStandingAssertions.recordContentLater(entry, () -> !isEvicted(entry), () -> appendToSink(entry));
+        } else {
+            appendToSink(entry);
+        }
+    }
+
+    private void appendToSink(HarEntry entry) {
+        HarNdjsonSink currentSink = sink;
+        if (currentSink == null || isEvicted(entry)) {
+            return;
+        }
+
+        currentSink.append(entry, () -> onEntryPersisted(entry));
+    }
+
+    private boolean isEvicted(HarEntry entry) {
+        EntryState state = entryStates.get(entry);
+
+        return state == null || state.capturedBytes.get() == EVICTED;
+    }
+
+    /**
+     * @return the sink that completed entries are persisted to, or null if entries are kept in the list
+     */
+    public HarNdjsonSink getSink() {
+        return sink;
+    }
+
+    /**
+     * Sets the sink that entries completed from now on are persisted to, and released from the list once persisted.
+     *
+     * @param sink sink to persist completed entries to, or null to keep entries in the list
+     */
+    public void setSink(HarNdjsonSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * @return the dispatcher that started and completed entries are published to, or null if they are not published
+     */
+    public HarEntryDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * @param dispatcher dispatcher to publish started and completed entries to, or null to not publish them
+     */
+    public void setDispatcher(HarEntryDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * @return the histograms that the timings of completed entries are recorded into, or null if timings are not aggregated
+     */
+    public HarTimingHistograms getTimingHistograms() {
+        return timingHistograms;
+    }
+
+    /**
+     * @param timingHistograms histograms to record the timings of completed entries into, or null to not aggregate timings
+     */
+    public void setTimingHistograms(HarTimingHistograms timingHistograms) {
+        this.timingHistograms = timingHistograms;
+    }
+
+    /**
+     * @return the assertions that are checked against completed entries, or null if no assertions are checked
+     */
+    public StandingAssertions getStandingAssertions() {
+        return standingAssertions;
+    }
+
+    /**
+     * @param standingAssertions assertions to check against completed entries, or null to not check assertions
+     */
+    public void setStandingAssertions(StandingAssertions standingAssertions) {
+        this.standingAssertions = standingAssertions;
+    }
+
+    /**
+     * @return number of entries released from the list after they were persisted to the sink
+     */
+    public long getReleasedPersistedEntries() {
+        return releasedPersistedEntries.sum();
+    }
+
+    public HarCaptureLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * Changes the limits of this list, and immediately evicts entries that exceed the new limits.
+     *
+     * @param limits new limits
+     */
+    public void setLimits(HarCaptureLimits limits) {
+        this.limits = limits;
+
+        evict();
+    }
+
+    /**
+     * Records the size of a body captured for an entry in this list, and evicts the oldest entries if the total size of
+     * captured bodies now exceeds the limit. If the entry was already evicted, its bodies are released instead.
+     *
+     * @param entry entry the body was captured for
+     * @param bodyBytes size of the captured body, in bytes
+     */
+    public void onBodyCaptured(HarEntry entry, long bodyBytes) {
+        AtomicLong entryBytes = getState(entry).capturedBytes;
+
+        while (true) {
+            long current = entryBytes.get();
+            if (current == EVICTED) {
+                releaseBodies(entry);
+                return;
+            }
+
+            if (entryBytes.compareAndSet(current, current + bodyBytes)) {
+                break;
+            }
+        }
+
+        capturedBodyBytes.addAndGet(bodyBytes);
+
+        // bodies of requests that were still in progress when the HAR was ended
+        if (bodiesDetached) {
+            detachBodies(entry);
+        }
+
+        evict();
+        version.incrementAndGet();
+    }
+
+    /**
+     * Copies the bodies of the entries that are held in a {@link com.browserup.bup.har.body.BodyStore} into the entries
+     * as text, and releases them from the store. Bodies captured after this method is called are detached as soon as they
+     * are captured. Called when the HAR that the list belongs to is replaced or ended, so that the store does not hold
+     * bodies of HARs that are no longer captured, and the entries can still be read after the store is closed.
+     */
+    public void detachBodies() {
+        // set before the entries are visited, so that a body captured concurrently is detached either here or by
+        // onBodyCaptured()
+        bodiesDetached = true;
+
+        for (HarEntry entry : this) {
+            detachBodies(entry);
+        }
+    }
+
+    /**
+     * Evicts entries that are older than the maximum age.
+     */
+    public void evictExpired() {
+        evictExpired(limits);
+    }
+
+    /**
+     * @return counts of entries evicted from this list, and released from it by its sink, so far
+     */
+    public HarEvictionStats getEvictionStats() {
+        HarNdjsonSink currentSink = sink;
+
+        return new HarEvictionStats(evictedByEntryLimit.sum(), evictedByBodyBytesLimit.sum(), evictedByAge.sum(),
+                evictedBodyBytes.sum(), capturedBodyBytes.get(), releasedPersistedEntries.sum(),
+                currentSink == null ? 0 : currentSink.getSpilledEntries());
+    }
+
+    private void evict() {
+        HarCaptureLimits current = limits;
+        if (current.isUnlimited()) {
+            return;
+        }
+
+        while (size() > current.getMaxEntries() && evictOldest(evictedByEntryLimit)) {
+            // keep evicting
+        }
+
+        evictExpired(current);
+
+        while (capturedBodyBytes.get() > current.getMaxBodyBytes() && evictOldest(evictedByBodyBytesLimit)) {
+            // keep evicting
+        }
+    }
+
+    private void evictExpired(HarCaptureLimits current) {
+        if (current.getMaxAgeMillis() == Long.MAX_VALUE) {
+            return;
+        }
+
+        long cutoff = System.currentTimeMillis() - current.getMaxAgeMillis();
+
+        HarEntry expired;
+        while ((expired = pollFirstIf(entry -> isStartedBefore(entry, cutoff))) != null) {
+            onEvicted(expired, evictedByAge);
+        }
+    }
+
+    private boolean evictOldest(LongAdder reasonCounter) {
+        HarEntry oldest = pollFirst();
+        if (oldest == null) {
+            return false;
+        }
+
+        onEvicted(oldest, reasonCounter);
+
+        return true;
+    }
+
+    private void onEntryPersisted(HarEntry entry) {
+        EntryState state = entryStates.get(entry);
+
+        // the entry may have been evicted, or replaced, before it was persisted
+        if (state != null && removeAtPosition(state.slot, entry)) {
+            onEvicted(entry, releasedPersistedEntries);
+        }
+    }
+
+    private void onEvicted(HarEntry entry, LongAdder reasonCounter) {
+        reasonCounter.increment();
+
+        long bytes = getState(entry).capturedBytes.getAndSet(EVICTED);
+        if (bytes > 0) {
+            capturedBodyBytes.addAndGet(-bytes);
+            evictedBodyBytes.add(bytes);
+        }
+
+        entryIndex.remove(entry);
+        removeFromPage(entry, getState(entry));
+        removeSequence(entry, getState(entry));
+        version.incrementAndGet();
+
+        releaseBodies(entry);
+    }
+
+    private EntryState getState(HarEntry entry) {
+        return entryStates.computeIfAbsent(entry, e -> new EntryState());
+    }
+
+    private void index(HarEntry entry, EntryState state) {
+        if (state.capturedBytes.get() == EVICTED || !entryIndex.add(entry, state.slot)) {
+            return;
+        }
+
+        // the entry may have been evicted while it was being indexed
+        if (state.capturedBytes.get() == EVICTED) {
+            entryIndex.remove(entry);
+        }
+    }
+
+    private void addToPage(HarEntry entry, EntryState state) {
+        String pageRef = entry.getPageref();
+        if (pageRef == null) {
+            return;
+        }
+
+        state.pageRef = pageRef;
+        state.inPage = true;
+        PageEntries pageEntries = entriesByPage.computeIfAbsent(pageRef, p -> new PageEntries());
+        state.pageSlot = pageEntries.append(entry);
+
+        // the entry may have been evicted while it was being added to its page
+        if (state.capturedBytes.get() == EVICTED) {
+            removeFromPage(entry, state);
+        }
+    }
+
+    private void removeFromPage(HarEntry entry, EntryState state) {
+        state.inPage = false;
+
+        if (state.pageRef == null) {
+            return;
+        }
+
+        PageEntries pageEntries = entriesByPage.get(state.pageRef);
+        if (pageEntries != null) {
+            // fails harmlessly if the entry has not been added to its page yet; addToPage() then removes it
+            pageEntries.removeAtPosition(state.pageSlot, entry);
+        }
+    }
+
+    /**
+     * @return number of entries held for a page; used by tests to check that released entries are removed from pages
+     */
+    int getPageEntryCount(String pageRef) {
+        PageEntries pageEntries = entriesByPage.get(pageRef);
+
+        return pageEntries == null ? 0 : pageEntries.size();
+    }
+
+    private void addPageEntries(String pageRef, List<HarEntry> entries) {
+        PageEntries pageEntries = entriesByPage.get(pageRef);
+        if (pageEntries == null) {
+            return;
+        }
+
+        for (HarEntry entry : pageEntries) {
+            if (isInPage(entry)) {
+                entries.add(entry);
+            }
+        }
+    }
+
+    private boolean isInPage(HarEntry entry) {
+        EntryState state = entryStates.get(entry);
+
+        return state != null && state.inPage;
+    }
+
+    private void nextSequence(HarEntry entry, EntryState state) {
+        synchronized (sequenceLock) {
+            // evicted entries are no longer returned
+            if (state.capturedBytes.get() == EVICTED) {
+                return;
+            }
+
+            // the new sequence number is published only once the entry can be found under it, so a reader that missed
+            // the entry returns it on its next call, whose cursor is below the new number
+            long next = sequence.get() + 1;
+            entriesBySequence.put(next, entry);
+            if (state.sequence != 0) {
+                entriesBySequence.remove(state.sequence, entry);
+            }
+
+            state.sequence = next;
+            sequence.set(next);
+        }
+    }
+
+    private void removeSequence(HarEntry entry, EntryState state) {
+        synchronized (sequenceLock) {
+            if (state.sequence != 0) {
+                entriesBySequence.remove(state.sequence, entry);
+            }
+        }
+    }
+
+    private static boolean isStartedBefore(HarEntry entry, long cutoff) {
+        Date startedDateTime = entry.getStartedDateTime();
+
+        return startedDateTime != null && startedDateTime.getTime() < cutoff;
+    }
+
+    private static void releaseBodies(HarEntry entry) {
+        HarRequest request = entry.getRequest();
+        if (request != null && request.getPostData() instanceof StoredHarPostData) {
+            release(((StoredHarPostData) request.getPostData()).getBodyHandle());
+        }
+
+        HarResponse response = entry.getResponse();
+        if (response != null && response.getContent() instanceof StoredHarContent) {
+            release(((StoredHarContent) response.getContent()).getBodyHandle());
+        }
+    }
+
+    private static void detachBodies(HarEntry entry) {
+        HarRequest request = entry.getRequest();
+        if (request != null && request.getPostData() instanceof StoredHarPostData) {
+            ((StoredHarPostData) request.getPostData()).detachBody();
+        }
+
+        HarResponse response = entry.getResponse();
+        if (response != null && response.getContent() instanceof StoredHarContent) {
+            ((StoredHarContent) response.getContent()).detachBody();
+        }
+    }
+
+    private static void release(BodyHandle handle) {
+        if (handle != null) {
+            handle.release();
+        }
+    }
+
+    private static class EntryState {
+        private final AtomicLong capturedBytes = new AtomicLong();
+
+        /**
+         * Position of the entry's slot in the list, used to release the entry once it has been persisted.
+         */
+        private volatile long slot;
+
+        /**
+         * Latest sequence number of the entry, or 0 if it has not been assigned one yet.
+         */
+        private volatile long sequence;
+
+        /**
+         * Order in which the entry was added to the list.
+         */
+        private volatile long position;
+
+        /**
+         * Page the entry was grouped under when it was added, or null if it had no page ref.
+         */
+        private volatile String pageRef;
+
+        /**
+         * Position of the entry's slot in the entries of its page.
+         */
+        private volatile long pageSlot;
+
+        private volatile boolean inPage;
+    }
+
+    /**
+     * Entries of a page, from which each entry can be removed by the position of its slot.
+     */
+    private static class PageEntries extends ConcurrentAppendOnlyList<HarEntry> {
+        @Override
+        protected long append(HarEntry entry) {
+            return super.append(entry);
+        }
+
+        @Override
+        protected boolean removeAtPosition(long position, HarEntry entry) {
+            return super.removeAtPosition(position, entry);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.browserup.bup.har;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finalizes captured HAR entries (decompressing, decoding and base64-encoding bodies) on a dedicated thread pool, instead
+ * of on the Netty event loop that received the response. Large responses would otherwise stall every other connection
+ * served by the same event loop.
+ * <p>
+ * The pool and its queue are bounded. When the queue is full, the task is handed to a single overflow thread instead
+ * of being run on the submitting thread, since the submitting thread is usually a Netty event loop that serves many
+ * other connections. The overflow thread's queue is bounded too: only when it is also full is the task run on the
+ * submitting thread, which slows down the connections that produce entries faster than they can be finalized, instead
+ * of queueing tasks without bound. The number of overflowed tasks is reported by {@link #getOverflowedTaskCount()}, and
+ * the number of tasks run on the submitting thread by {@link #getRejectedTaskCount()}; a sustained non-zero rate of
+ * either means the pool needs more threads.
+ * <p>
+ * {@link #awaitCompletion()} is a completion barrier: it waits until every task submitted before it was called has
+ * finished, so that a HAR retrieved after the barrier contains the finalized contents of every completed response.
+ */
+public class HarCaptureExecutor {
+    private static final Logger log = LoggerFactory.getLogger(HarCaptureExecutor.class);
+
+    /**
+     * Default number of tasks that can be queued before tasks are handed to the overflow thread.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /**
+     * Default number of tasks that can be queued for the overflow thread before tasks are run on the submitting thread.
+     */
+    public static final int DEFAULT_OVERFLOW_QUEUE_CAPACITY = 1024;
+
+    /**
+     * Default maximum time {@link #awaitCompletion()} waits for pending tasks.
+     */
+    public static final long DEFAULT_COMPLETION_TIMEOUT_MS = 30000;
+
+    private static final AtomicInteger executorCounter = new AtomicInteger();
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Runs the tasks that did not fit in the pool's queue.
+     */
+    private final ThreadPoolExecutor overflowExecutor;
+
+    /**
+     * Id of the last submitted task. Guarded by submitLock, together with adding the task to pendingTasks, so that a
+     * barrier taken by {@link #awaitCompletion(long, TimeUnit)} never covers a task that is not pending yet.
+     */
+    private long submittedTasks;
+
+    private final Object submitLock = new Object();
+
+    /**
+     * Ids of tasks that have been submitted, but have not finished yet.
+     */
+    private final ConcurrentSkipListSet<Long> pendingTasks = new ConcurrentSkipListSet<>();
+
+    private final LongAdder overflowedTasks = new LongAdder();
+
+    private final LongAdder rejectedTasks = new LongAdder();
+
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    private final Object completionLock = new Object();
+
+    public HarCaptureExecutor() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param threads maximum number of threads finalizing entries
+     * @param queueCapacity number of tasks that can be queued before tasks are handed to the overflow thread
+     */
+    public HarCaptureExecutor(int threads, int queueCapacity) {
+        this(threads, queueCapacity, DEFAULT_OVERFLOW_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param threads maximum number of threads finalizing entries
+     * @param queueCapacity number of tasks that can be queued before tasks are handed to the overflow thread
+     * @param overflowQueueCapacity number of tasks that can be queued for the overflow thread before tasks are run on the
+     *                              submitting thread
+     */
+    public HarCaptureExecutor(int threads, int queueCapacity, int overflowQueueCapacity) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive");
+        }
+
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+
+        if (overflowQueueCapacity < 1) {
+            throw new IllegalArgumentException("Overflow queue capacity must be positive");
+        }
+
+        String threadNamePrefix = "har-capture-" + executorCounter.incrementAndGet() + "-";
+        AtomicInteger threadCounter = new AtomicInteger();
+
+        this.overflowExecutor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(overflowQueueCapacity),
+                r -> {
+                    Thread thread = Executors.defaultThreadFactory().newThread(r);
+                    thread.setName(threadNamePrefix + "overflow");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                // when the overflow queue is full too, the submitting thread is slowed down rather than queueing more
+                // content in memory; after shutdown, the proxy no longer serves connections
+                (r, e) -> {
+                    if (!e.isShutdown()) {
+                        rejectedTasks.increment();
+                    }
+                    r.run();
+                });
+
+        this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread thread = Executors.defaultThreadFactory().newThread(r);
+                    thread.setName(threadNamePrefix + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                // unlike CallerRunsPolicy, never runs tasks on the submitting event loop, and also runs tasks rejected
+                // because the executor was shut down, so that every submitted task finishes and the completion barrier
+                // is never left waiting for a discarded task
+                (r, e) -> {
+                    if (e.isShutdown()) {
+                        r.run();
+                    } else {
+                        overflowedTasks.increment();
+                        overflowExecutor.execute(r);
+                    }
+                });
+
+        // idle threads are not kept around while no HAR is being captured
+        this.executor.allowCoreThreadTimeOut(true);
+        this.overflowExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs the task on the capture thread pool. If the queue is full, the task is run on the overflow thread, and if its
+     * queue is full too, or the executor has been shut down, the task is run on the calling thread.
+     *
+     * @param task task that finalizes a HAR entry
+     */
+    public void execute(Runnable task) {
+        long id;
+        synchronized (submitLock) {
+            id = ++submittedTasks;
+            pendingTasks.add(id);
+        }
+
+        Runnable trackedTask = () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.warn("Unable to finalize captured HAR entry", e);
+            } finally {
+                onTaskFinished(id);
+            }
+        };
+
+        executor.execute(trackedTask);
+    }
+
+    /**
+     * Waits for every task submitted before this method was called to finish, for up to
+     * {@link #DEFAULT_COMPLETION_TIMEOUT_MS} milliseconds.
+     *
+     * @return true if the tasks finished, false if the timeout elapsed first
+     */
+    public boolean awaitCompletion() {
+        return awaitCompletion(DEFAULT_COMPLETION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits for every task submitted before this method was called to finish. Tasks submitted while waiting are not
+     * waited for.
+     *
+     * @param timeout maximum time to wait
+     * @param timeUnit unit of the timeout
+     * @return true if the tasks finished, false if the timeout elapsed or the thread was interrupted first
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit timeUnit) {
+        long barrier;
+        synchronized (submitLock) {
+            barrier = submittedTasks;
+        }
+        if (isCompleted(barrier)) {
+            return true;
+        }
+
+        long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+
+        waiters.incrementAndGet();
+        try {
+            synchronized (completionLock) {
+                while (!isCompleted(barrier)) {
+                    long remainingNanos = deadline - System.nanoTime();
+                    if (remainingNanos <= 0) {
+                        log.warn("Timed out waiting for {} captured HAR entries to be finalized", pendingTasks.size());
+                        return false;
+                    }
+
+                    TimeUnit.NANOSECONDS.timedWait(completionLock, remainingNanos);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            waiters.decrementAndGet();
+        }
+
+        return true;
+    }
+
+    /**
+     * @return number of tasks that have been submitted, but have not finished yet
+     */
+    public int getPendingTaskCount() {
+        return pendingTasks.size();
+    }
+
+    /**
+     * @return number of tasks that were run on the overflow thread because the pool's queue was full
+     */
+    public long getOverflowedTaskCount() {
+        return overflowedTasks.sum();
+    }
+
+    /**
+     * @return number of tasks that were run on the submitting thread because the queues of both the pool and the overflow
+     * thread were full
+     */
+    public long getRejectedTaskCount() {
+        return rejectedTasks.sum();
+    }
+
+    /**
+     * Stops accepting tasks and waits for the tasks that were already submitted to finish. Tasks submitted after shutdown
+     * are run on the submitting thread.
+     */
+    public void shutdown() {
+        executor.shutdown();
+
+        try {
+            // the pool may hand tasks to the overflow thread until it has terminated
+            boolean terminated = executor.awaitTermination(DEFAULT_COMPLETION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+            overflowExecutor.shutdown();
+            terminated &= overflowExecutor.awaitTermination(DEFAULT_COMPLETION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+            if (!terminated) {
+                log.warn("HAR capture threads did not terminate; {} entries may not be finalized", pendingTasks.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean isCompleted(long barrier) {
+        Long oldestPending = pendingTasks.ceiling(0L);
+
+        return oldestPending == null || oldestPending > barrier;
+    }
+
+    private void onTaskFinished(long id) {
+        pendingTasks.remove(id);
+
+        // avoid taking the lock for every task when nobody is waiting
+        if (waiters.get() > 0) {
+            synchronized (completionLock) {
+                completionLock.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.browserup.bup.har;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits on the amount of data kept in a HAR while it is being captured. When a limit is exceeded, the oldest entries
+ * (and their captured bodies) are evicted from the HAR. Use {@link Builder} to create instances.
+ */
+public class HarCaptureLimits {
+    /**
+     * No limits: entries are never evicted.
+     */
+    public static final HarCaptureLimits UNLIMITED = new Builder().create();
+
+    private final int maxEntries;
+    private final long maxBodyBytes;
+    private final long maxAgeMillis;
+
+    private HarCaptureLimits(int maxEntries, long maxBodyBytes, long maxAgeMillis) {
+        this.maxEntries = maxEntries;
+        this.maxBodyBytes = maxBodyBytes;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * @return maximum number of entries in the HAR
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return maximum total size, in bytes, of the request and response bodies captured in the HAR
+     */
+    public long getMaxBodyBytes() {
+        return maxBodyBytes;
+    }
+
+    /**
+     * @return maximum age of an entry in the HAR, in milliseconds, measured from the time the request started
+     */
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    public boolean isUnlimited() {
+        return maxEntries == Integer.MAX_VALUE && maxBodyBytes == Long.MAX_VALUE && maxAgeMillis == Long.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return "HarCaptureLimits{maxEntries=" + maxEntries + ", maxBodyBytes=" + maxBodyBytes + ", maxAgeMillis=" + maxAgeMillis + '}';
+    }
+
+    public static class Builder {
+        private int maxEntries = Integer.MAX_VALUE;
+        private long maxBodyBytes = Long.MAX_VALUE;
+        private long maxAgeMillis = Long.MAX_VALUE;
+
+        public Builder setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        public Builder setMaxBodyBytes(long maxBodyBytes) {
+            this.maxBodyBytes = maxBodyBytes;
+            return this;
+        }
+
+        public Builder setMaxAge(long maxAge, TimeUnit timeUnit) {
+            this.maxAgeMillis = timeUnit.toMillis(maxAge);
+            return this;
+        }
+
+        public HarCaptureLimits create() {
+            if (maxEntries <= 0 || maxBodyBytes < 0 || maxAgeMillis <= 0) {
+                throw new IllegalArgumentException("Max entries and max age must be positive, and max body bytes cannot be negative");
+            }
+            return new HarCaptureLimits(maxEntries, maxBodyBytes, maxAgeMillis);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.browserup.bup.har;
+
+import com.browserup.bup.proxy.CaptureType;
+import com.browserup.bup.util.BrowserUpHttpUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An ordered, immutable set of {@link HarCapturePolicy} rules, compiled once when the policies change so that matching
+ * a request is cheap. Policies are grouped by host, so a request is only tested against the policies for its own host
+ * and the policies that match any host.
+ * <p>
+ * Policies are evaluated in order, and the first matching policy wins:
+ * <ul>
+ *     <li>the <code>REQUEST_*</code> capture types and the maximum request body size come from the first policy matching
+ *     the request that has no MIME type condition, since the response is not known when the request is captured</li>
+ *     <li>the <code>RESPONSE_*</code> capture types and the maximum response body size come from the first policy
+ *     matching the request whose MIME type condition, if any, matches the response</li>
+ * </ul>
+ * When no policy matches, the proxy's capture types are used, and bodies are not truncated.
+ */
+public class HarCapturePolicies {
+    /**
+     * No policies: every entry is captured using the proxy's capture types.
+     */
+    public static final HarCapturePolicies NONE = new HarCapturePolicies(Collections.emptyList());
+
+    private final List<HarCapturePolicy> policies;
+
+    /**
+     * Positions of the policies for each host, in ascending order.
+     */
+    private final Map<String, int[]> policiesByHost;
+
+    /**
+     * Positions of the policies that match any host, in ascending order.
+     */
+    private final int[] anyHostPolicies;
+
+    public HarCapturePolicies(List<HarCapturePolicy> policies) {
+        this.policies = Collections.unmodifiableList(new ArrayList<>(policies));
+
+        Map<String, List<Integer>> positionsByHost = new HashMap<>();
+        List<Integer> anyHostPositions = new ArrayList<>();
+        for (int i = 0; i < this.policies.size(); i++) {
+            String host = this.policies.get(i).getHost();
+            if (host == null) {
+                anyHostPositions.add(i);
+            } else {
+                positionsByHost.computeIfAbsent(host, h -> new ArrayList<>()).add(i);
+            }
+        }
+
+        this.policiesByHost = new HashMap<>();
+        positionsByHost.forEach((host, positions) -> policiesByHost.put(host, toArray(positions)));
+        this.anyHostPolicies = toArray(anyHostPositions);
+    }
+
+    /**
+     * @return the policies, in evaluation order
+     */
+    public List<HarCapturePolicy> getPolicies() {
+        return policies;
+    }
+
+    public boolean isEmpty() {
+        return policies.isEmpty();
+    }
+
+    /**
+     * Finds the policies that match a request. The result is matched against the response once it is received.
+     *
+     * @param method HTTP method of the request
+     * @param url full URL of the request
+     * @return the policies matching the request, in evaluation order
+     */
+    public Match match(String method, String url) {
+        if (policies.isEmpty()) {
+            return Match.NONE;
+        }
+
+        int[] hostPolicies = policiesByHost.isEmpty() ? null : policiesByHost.get(BrowserUpHttpUtil.getHostFromUrl(url));
+
+        List<HarCapturePolicy> candidates = null;
+
+        // merge the host's policies with the policies for any host, preserving the order of the policies
+        int hostIndex = 0;
+        int anyHostIndex = 0;
+        int hostCount = hostPolicies != null ? hostPolicies.length : 0;
+        while (hostIndex < hostCount || anyHostIndex < anyHostPolicies.length) {
+            int position;
+            if (anyHostIndex >= anyHostPolicies.length
+                    || (hostIndex < hostCount && hostPolicies[hostIndex] < anyHostPolicies[anyHostIndex])) {
+                position = hostPolicies[hostIndex++];
+            } else {
+                position = anyHostPolicies[anyHostIndex++];
+            }
+
+            HarCapturePolicy policy = policies.get(position);
+            if (policy.matchesRequest(method, url)) {
+                if (candidates == null) {
+                    candidates = new ArrayList<>(2);
+                }
+                candidates.add(policy);
+            }
+        }
+
+        return candidates != null ? new Match(candidates) : Match.NONE;
+    }
+
+    private static EnumSet<CaptureType> copy(Set<CaptureType> captureTypes) {
+        EnumSet<CaptureType> copy = EnumSet.noneOf(CaptureType.class);
+        copy.addAll(captureTypes);
+        return copy;
+    }
+
+    private static int[] toArray(List<Integer> positions) {
+        return positions.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * The policies matching a request, in evaluation order.
+     */
+    public static class Match {
+        /**
+         * No matching policies.
+         */
+        public static final Match NONE = new Match(Collections.emptyList());
+
+        private final List<HarCapturePolicy> candidates;
+
+        private Match(List<HarCapturePolicy> candidates) {
+            this.candidates = candidates;
+        }
+
+        public boolean isEmpty() {
+            return candidates.isEmpty();
+        }
+
+        /**
+         * @return the policy that applies to the request, or null if the proxy's capture types apply
+         */
+        public HarCapturePolicy getRequestPolicy() {
+            for (HarCapturePolicy policy : candidates) {
+                if (!policy.hasMimeTypeCondition()) {
+                    return policy;
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * @param contentType Content-Type of the response, or null if it has none
+         * @return the policy that applies to the response, or null if the proxy's capture types apply
+         */
+        public HarCapturePolicy getResponsePolicy(String contentType) {
+            for (HarCapturePolicy policy : candidates) {
+                if (policy.matchesMimeType(contentType)) {
+                    return policy;
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * Returns the data types to capture for the entry before the response is received. The response types are
+         * provisional, and are replaced by {@link #getCaptureTypes(Set, String)} when the response is received.
+         *
+         * @param defaults the proxy's capture types
+         */
+        public EnumSet<CaptureType> getCaptureTypes(Set<CaptureType> defaults) {
+            if (candidates.isEmpty()) {
+                return copy(defaults);
+            }
+
+            HarCapturePolicy requestPolicy = getRequestPolicy();
+            if (requestPolicy == null || requestPolicy.getCaptureTypes() == null) {
+                return copy(defaults);
+            }
+
+            return requestPolicy.getCaptureTypes();
+        }
+
+        /**
+         * Returns the data types to capture for the entry once the response is received.
+         *
+         * @param defaults the proxy's capture types
+         * @param contentType Content-Type of the response, or null if it has none
+         */
+        public EnumSet<CaptureType> getCaptureTypes(Set<CaptureType> defaults, String contentType) {
+            if (candidates.isEmpty()) {
+                return copy(defaults);
+            }
+
+            HarCapturePolicy requestPolicy = getRequestPolicy();
+            HarCapturePolicy responsePolicy = getResponsePolicy(contentType);
+
+            EnumSet<CaptureType> captureTypes = requestPolicy != null
+                    ? requestPolicy.getRequestCaptureTypes(defaults)
+                    : HarCapturePolicy.retain(defaults, CaptureType.getRequestCaptureTypes());
+            captureTypes.addAll(responsePolicy != null
+                    ? responsePolicy.getResponseCaptureTypes(defaults)
+                    : HarCapturePolicy.retain(defaults, CaptureType.getResponseCaptureTypes()));
+
+            return captureTypes;
+        }
+
+        /**
+         * Returns true if the capture type may be captured for the entry, whichever policy ends up applying to the
+         * response.
+         *
+         * @param captureType capture type to check
+         * @param defaults the proxy's capture types
+         */
+        public boolean mayCapture(CaptureType captureType, Set<CaptureType> defaults) {
+            boolean defaultsApply = candidates.isEmpty();
+            for (HarCapturePolicy policy : candidates) {
+                Set<CaptureType> captureTypes = policy.getCaptureTypes();
+                if (captureTypes == null ? defaults.contains(captureType) : captureTypes.contains(captureType)) {
+                    return true;
+                }
+
+                if (!policy.hasMimeTypeCondition()) {
+                    // later policies can never apply
+                    return false;
+                }
+
+                defaultsApply = true;
+            }
+
+            return defaultsApply && defaults.contains(captureType);
+        }
+
+        /**
+         * @return maximum size of the request body, in bytes
+         */
+        public long getMaxRequestBodySize() {
+            HarCapturePolicy policy = getRequestPolicy();
+            return policy != null ? policy.getMaxBodySize() : Long.MAX_VALUE;
+        }
+
+        /**
+         * @param contentType Content-Type of the response, or null if it has none
+         * @return maximum size of the response body, in bytes
+         */
+        public long getMaxResponseBodySize(String contentType) {
+            HarCapturePolicy policy = getResponsePolicy(contentType);
+            return policy != null ? policy.getMaxBodySize() : Long.MAX_VALUE;
+        }
+    }
+}
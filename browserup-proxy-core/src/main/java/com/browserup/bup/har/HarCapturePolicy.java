@@ -0,0 +1,223 @@
+package com.browserup.bup.har;
+
+import com.browserup.bup.proxy.CaptureType;
+
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A rule that selects what is captured in the HAR for matching requests, instead of the proxy's global capture types.
+ * A policy matches a request by URL pattern, host and method, and optionally matches the response by its MIME type. Each
+ * condition that is not set matches everything. Use {@link Builder} to create instances, and {@link HarCapturePolicies}
+ * to evaluate a list of policies.
+ */
+public class HarCapturePolicy {
+    /**
+     * Name of the custom field set to true on the content or post data of an entry whose body was truncated to the
+     * maximum body size of its policy.
+     */
+    public static final String TRUNCATED_FIELD = "_truncated";
+
+    private final String urlPattern;
+    private final Pattern compiledUrlPattern;
+    private final String host;
+    private final String method;
+    private final String mimeTypePattern;
+    private final Pattern compiledMimeTypePattern;
+    private final EnumSet<CaptureType> captureTypes;
+    private final long maxBodySize;
+
+    private HarCapturePolicy(Builder builder) {
+        this.urlPattern = builder.urlPattern;
+        this.compiledUrlPattern = builder.urlPattern != null ? Pattern.compile(builder.urlPattern) : null;
+        this.host = builder.host != null ? builder.host.toLowerCase(Locale.ROOT) : null;
+        this.method = builder.method != null ? builder.method.toUpperCase(Locale.ROOT) : null;
+        this.mimeTypePattern = builder.mimeTypePattern;
+        this.compiledMimeTypePattern = builder.mimeTypePattern != null ? Pattern.compile(builder.mimeTypePattern, Pattern.CASE_INSENSITIVE) : null;
+        this.captureTypes = builder.captureTypes;
+        this.maxBodySize = builder.maxBodySize;
+    }
+
+    /**
+     * @return regular expression the full request URL must match, or null if the policy matches any URL
+     */
+    public String getUrlPattern() {
+        return urlPattern;
+    }
+
+    /**
+     * @return lower-case host name the request must be sent to, or null if the policy matches any host
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return upper-case HTTP method of the request, or null if the policy matches any method
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return regular expression the response MIME type must match, or null if the policy matches any response
+     */
+    public String getMimeTypePattern() {
+        return mimeTypePattern;
+    }
+
+    /**
+     * @return data types to capture for matching entries, or null to capture the proxy's capture types
+     */
+    public EnumSet<CaptureType> getCaptureTypes() {
+        return captureTypes != null ? EnumSet.copyOf(captureTypes) : null;
+    }
+
+    /**
+     * @return maximum size, in bytes, of each request and response body captured for matching entries
+     */
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    /**
+     * @return true if the policy can only be matched once the response MIME type is known
+     */
+    public boolean hasMimeTypeCondition() {
+        return compiledMimeTypePattern != null;
+    }
+
+    /**
+     * Returns true if the request matches the URL pattern and method of this policy. The host is matched by
+     * {@link HarCapturePolicies}.
+     */
+    boolean matchesRequest(String requestMethod, String url) {
+        if (method != null && !method.equalsIgnoreCase(requestMethod)) {
+            return false;
+        }
+
+        return compiledUrlPattern == null || compiledUrlPattern.matcher(url).matches();
+    }
+
+    /**
+     * Returns true if the response MIME type matches this policy. Parameters of the MIME type, such as the charset, are
+     * ignored.
+     *
+     * @param contentType Content-Type of the response, or null if it has none
+     */
+    boolean matchesMimeType(String contentType) {
+        if (compiledMimeTypePattern == null) {
+            return true;
+        }
+
+        if (contentType == null) {
+            return false;
+        }
+
+        int parametersStart = contentType.indexOf(';');
+        String mimeType = parametersStart >= 0 ? contentType.substring(0, parametersStart) : contentType;
+
+        return compiledMimeTypePattern.matcher(mimeType.trim()).matches();
+    }
+
+    /**
+     * @return the capture types of this policy that apply to the request, or the request types of the defaults
+     */
+    EnumSet<CaptureType> getRequestCaptureTypes(Set<CaptureType> defaults) {
+        return retain(captureTypes != null ? captureTypes : defaults, CaptureType.getRequestCaptureTypes());
+    }
+
+    /**
+     * @return the capture types of this policy that apply to the response, or the response types of the defaults
+     */
+    EnumSet<CaptureType> getResponseCaptureTypes(Set<CaptureType> defaults) {
+        return retain(captureTypes != null ? captureTypes : defaults, CaptureType.getResponseCaptureTypes());
+    }
+
+    static EnumSet<CaptureType> retain(Set<CaptureType> captureTypes, EnumSet<CaptureType> typesToRetain) {
+        typesToRetain.retainAll(captureTypes);
+        return typesToRetain;
+    }
+
+    @Override
+    public String toString() {
+        return "HarCapturePolicy{urlPattern=" + urlPattern + ", host=" + host + ", method=" + method
+                + ", mimeTypePattern=" + mimeTypePattern + ", captureTypes=" + captureTypes + ", maxBodySize=" + maxBodySize + '}';
+    }
+
+    public static class Builder {
+        private String urlPattern;
+        private String host;
+        private String method;
+        private String mimeTypePattern;
+        private EnumSet<CaptureType> captureTypes;
+        private long maxBodySize = Long.MAX_VALUE;
+
+        /**
+         * @param urlPattern regular expression the entire request URL must match
+         */
+        public Builder setUrlPattern(String urlPattern) {
+            this.urlPattern = urlPattern;
+            return this;
+        }
+
+        /**
+         * @param host host name the request must be sent to, without the port
+         */
+        public Builder setHost(String host) {
+            this.host = host;
+            return this;
+        }
+
+        public Builder setMethod(String method) {
+            this.method = method;
+            return this;
+        }
+
+        /**
+         * @param mimeTypePattern regular expression the response MIME type must match, e.g. "video/.*|font/.*"
+         */
+        public Builder setMimeTypePattern(String mimeTypePattern) {
+            this.mimeTypePattern = mimeTypePattern;
+            return this;
+        }
+
+        /**
+         * @param captureTypes data types to capture for matching entries, or null to capture the proxy's capture types
+         */
+        public Builder setCaptureTypes(Set<CaptureType> captureTypes) {
+            if (captureTypes == null) {
+                this.captureTypes = null;
+            } else if (captureTypes.isEmpty()) {
+                this.captureTypes = EnumSet.noneOf(CaptureType.class);
+            } else {
+                this.captureTypes = EnumSet.copyOf(captureTypes);
+            }
+            return this;
+        }
+
+        /**
+         * @param maxBodySize maximum size, in bytes, of each request and response body captured for matching entries.
+         *                    Longer bodies are truncated.
+         */
+        public Builder setMaxBodySize(long maxBodySize) {
+            this.maxBodySize = maxBodySize;
+            return this;
+        }
+
+        /**
+         * @return a new policy
+         * @throws IllegalArgumentException if the maximum body size is negative, or a pattern is not a valid regular expression
+         */
+        public HarCapturePolicy create() {
+            if (maxBodySize < 0) {
+                throw new IllegalArgumentException("Max body size cannot be negative");
+            }
+
+            // PatternSyntaxException is an IllegalArgumentException
+            return new HarCapturePolicy(this);
+        }
+    }
+}
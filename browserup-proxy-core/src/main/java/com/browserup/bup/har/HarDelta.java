@@ -0,0 +1,31 @@
+package com.browserup.bup.har;
+
+import de.sstoehr.harreader.model.Har;
+
+/**
+ * The part of a HAR that changed since a cursor was obtained: a {@link Har} containing all pages, but only the entries
+ * that were added or updated since the cursor, and the cursor to use for the next request.
+ */
+public class HarDelta {
+    private final Har har;
+    private final long cursor;
+
+    public HarDelta(Har har, long cursor) {
+        this.har = har;
+        this.cursor = cursor;
+    }
+
+    /**
+     * @return HAR containing only the entries added or updated since the previous cursor
+     */
+    public Har getHar() {
+        return har;
+    }
+
+    /**
+     * @return cursor to pass to the next request, in order to retrieve only the entries that change after this one
+     */
+    public long getCursor() {
+        return cursor;
+    }
+}
@@ -0,0 +1,318 @@
+package com.browserup.bup.har;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import de.sstoehr.harreader.model.HarEntry;
+
+/**
+ * Delivers HAR entry events to {@link HarEntryListener}s on a dedicated thread, so that listeners never run on, or block,
+ * the threads that capture the entries.
+ * <p>
+ * Events are put on a bounded, lock-free queue that any number of threads may write to, and that a single daemon
+ * thread drains, calling each listener in turn. Publishing an event never blocks: when the queue is full, an event is
+ * dropped according to the {@link OverflowPolicy}, and counted in {@link #getDroppedEvents()}. Events published while
+ * there are no listeners are discarded without being queued.
+ * <p>
+ * The dispatcher thread is started when the first listener is added, and stopped by {@link #close()} once it has
+ * delivered the events that were already queued. Exceptions thrown by listeners are logged and do not affect other
+ * listeners.
+ */
+public class HarEntryDispatcher implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(HarEntryDispatcher.class);
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 8192;
+
+    /**
+     * How long an idle dispatcher thread parks before it checks the queue again, in case a wakeup was missed.
+     */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * How long {@link #close()} waits for queued events to be delivered.
+     */
+    private static final long CLOSE_TIMEOUT_MS = 5000;
+
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+
+    /**
+     * Selects the event that is dropped when an event is published while the queue is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * The event being published is dropped, and the queued events are kept.
+         */
+        DROP_NEWEST,
+
+        /**
+         * The oldest queued event is dropped to make room for the event being published.
+         */
+        DROP_OLDEST
+    }
+
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+
+    private final Queue<Event> queue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Number of events in the queue. May briefly exceed the capacity by the number of threads publishing at the same time.
+     */
+    private final AtomicInteger queueSize = new AtomicInteger();
+
+    private final List<HarEntryListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final LongAdder dispatchedEvents = new LongAdder();
+    private final LongAdder droppedEvents = new LongAdder();
+    private final LongAdder failedListenerCalls = new LongAdder();
+
+    private volatile Thread dispatcherThread;
+
+    /**
+     * True while the dispatcher thread is about to park, or parked, on an empty queue, so publishers know to unpark it.
+     */
+    private volatile boolean idle;
+
+    private volatile boolean closed;
+
+    public HarEntryDispatcher() {
+        this(DEFAULT_QUEUE_CAPACITY, OverflowPolicy.DROP_NEWEST);
+    }
+
+    /**
+     * @param queueCapacity maximum number of events waiting to be delivered
+     * @param overflowPolicy selects the event that is dropped when the queue is full
+     */
+    public HarEntryDispatcher(int queueCapacity, OverflowPolicy overflowPolicy) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive: " + queueCapacity);
+        }
+
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("Overflow policy must not be null");
+        }
+
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Adds a listener that is called for events published from now on, starting the dispatcher thread if necessary.
+     *
+     * @param listener listener to add
+     * @throws IllegalStateException if the dispatcher has been closed
+     */
+    public void addListener(HarEntryListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener must not be null");
+        }
+
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("HAR entry dispatcher has been closed");
+            }
+
+            listeners.add(listener);
+
+            if (dispatcherThread == null) {
+                Thread thread = new Thread(this::run, "har-entry-dispatcher-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                dispatcherThread = thread;
+                thread.start();
+            }
+        }
+    }
+
+    /**
+     * Removes a listener. Events that are already queued may still be delivered to it.
+     *
+     * @param listener listener to remove
+     * @return true if the listener had been added
+     */
+    public boolean removeListener(HarEntryListener listener) {
+        return listeners.remove(listener);
+    }
+
+    /**
+     * @return true if at least one listener has been added and not removed
+     */
+    public boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    /**
+     * Publishes the start of an entry to the listeners. Never blocks.
+     *
+     * @param entry entry that was started
+     */
+    public void entryStarted(HarEntry entry) {
+        publish(new Event(entry, false));
+    }
+
+    /**
+     * Publishes the completion of an entry to the listeners. Never blocks.
+     *
+     * @param entry entry that was completed
+     */
+    public void entryCompleted(HarEntry entry) {
+        publish(new Event(entry, true));
+    }
+
+    /**
+     * Stops accepting events, and waits for the dispatcher thread to deliver the events that were already queued.
+     */
+    @Override
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            thread = dispatcherThread;
+        }
+
+        if (thread == null || thread == Thread.currentThread()) {
+            return;
+        }
+
+        LockSupport.unpark(thread);
+
+        try {
+            thread.join(CLOSE_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (thread.isAlive()) {
+            log.warn("HAR entry dispatcher did not deliver {} queued events within {} ms", queueSize.get(), CLOSE_TIMEOUT_MS);
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return number of events waiting to be delivered
+     */
+    public int getQueuedEvents() {
+        return Math.max(queueSize.get(), 0);
+    }
+
+    /**
+     * @return number of events delivered to the listeners
+     */
+    public long getDispatchedEvents() {
+        return dispatchedEvents.sum();
+    }
+
+    /**
+     * @return number of events dropped because the queue was full
+     */
+    public long getDroppedEvents() {
+        return droppedEvents.sum();
+    }
+
+    /**
+     * @return number of times a listener threw an exception
+     */
+    public long getFailedListenerCalls() {
+        return failedListenerCalls.sum();
+    }
+
+    private void publish(Event event) {
+        if (closed || listeners.isEmpty()) {
+            return;
+        }
+
+        if (queueSize.incrementAndGet() > queueCapacity) {
+            if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                queueSize.decrementAndGet();
+                droppedEvents.increment();
+                return;
+            }
+
+            // the dispatcher thread may have emptied the queue in the meantime, in which case nothing needs to be dropped
+            if (queue.poll() != null) {
+                queueSize.decrementAndGet();
+                droppedEvents.increment();
+            }
+        }
+
+        queue.offer(event);
+
+        // the dispatcher thread sets idle before it checks the queue for the last time, so either it sees this event,
+        // or this thread sees that it is idle
+        if (idle) {
+            LockSupport.unpark(dispatcherThread);
+        }
+    }
+
+    private void run() {
+        while (true) {
+            Event event = queue.poll();
+            if (event != null) {
+                queueSize.decrementAndGet();
+                dispatch(event);
+                continue;
+            }
+
+            if (closed) {
+                return;
+            }
+
+            idle = true;
+            if (queue.isEmpty() && !closed) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            idle = false;
+        }
+    }
+
+    private void dispatch(Event event) {
+        for (HarEntryListener listener : listeners) {
+            try {
+                if (event.completed) {
+                    listener.onEntryCompleted(event.entry);
+                } else {
+                    listener.onEntryStarted(event.entry);
+                }
+            } catch (RuntimeException e) {
+                failedListenerCalls.increment();
+                log.warn("HAR entry listener {} failed", listener, e);
+            }
+        }
+
+        dispatchedEvents.increment();
+    }
+
+    private static class Event {
+        private final HarEntry entry;
+        private final boolean completed;
+
+        private Event(HarEntry entry, boolean completed) {
+            this.entry = entry;
+            this.completed = completed;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.browserup.bup.har;
+
+import de.sstoehr.harreader.model.HarEntry;
+
+/**
+ * Receives HAR entries as they are captured, instead of polling the HAR for them. Listeners are registered with
+ * {@link com.browserup.bup.BrowserUpProxy#addHarEntryListener(HarEntryListener)} and are called on a dispatcher thread,
+ * never on the proxy's I/O threads, so they may block without slowing down the proxy. Events that arrive while the
+ * dispatcher's queue is full are dropped, see {@link HarEntryDispatcher.OverflowPolicy}.
+ * <p>
+ * Listeners are called by a single thread, in the order the events occurred. The entry passed to a listener is the live
+ * entry in the HAR: an entry passed to {@link #onEntryStarted(HarEntry)} is still being captured, and should not be
+ * modified by the listener.
+ */
+public interface HarEntryListener {
+    /**
+     * Called after the request of an entry has been captured and the entry has been added to the HAR.
+     *
+     * @param entry entry that was started
+     */
+    default void onEntryStarted(HarEntry entry) {
+    }
+
+    /**
+     * Called when an entry will not be modified any more: the response has been received, has timed out or has failed,
+     * and all of its content has been captured.
+     *
+     * @param entry entry that was completed
+     */
+    default void onEntryCompleted(HarEntry entry) {
+    }
+}
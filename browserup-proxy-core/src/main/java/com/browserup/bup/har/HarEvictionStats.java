@@ -0,0 +1,94 @@
+package com.browserup.bup.har;
+
+/**
+ * Counts of entries evicted from a HAR because a {@link HarCaptureLimits} limit was exceeded, and of entries released
+ * from it or spilled to an overflow queue by its {@link HarNdjsonSink}.
+ */
+public class HarEvictionStats {
+    private long evictedEntries;
+    private long evictedByEntryLimit;
+    private long evictedByBodyBytesLimit;
+    private long evictedByAge;
+    private long evictedBodyBytes;
+    private long capturedBodyBytes;
+    private long releasedPersistedEntries;
+    private long spilledSinkEntries;
+
+    public HarEvictionStats() {
+    }
+
+    public HarEvictionStats(long evictedByEntryLimit, long evictedByBodyBytesLimit, long evictedByAge,
+                            long evictedBodyBytes, long capturedBodyBytes) {
+        this.evictedEntries = evictedByEntryLimit + evictedByBodyBytesLimit + evictedByAge;
+        this.evictedByEntryLimit = evictedByEntryLimit;
+        this.evictedByBodyBytesLimit = evictedByBodyBytesLimit;
+        this.evictedByAge = evictedByAge;
+        this.evictedBodyBytes = evictedBodyBytes;
+        this.capturedBodyBytes = capturedBodyBytes;
+    }
+
+    public HarEvictionStats(long evictedByEntryLimit, long evictedByBodyBytesLimit, long evictedByAge,
+                            long evictedBodyBytes, long capturedBodyBytes, long releasedPersistedEntries,
+                            long spilledSinkEntries) {
+        this(evictedByEntryLimit, evictedByBodyBytesLimit, evictedByAge, evictedBodyBytes, capturedBodyBytes);
+        this.releasedPersistedEntries = releasedPersistedEntries;
+        this.spilledSinkEntries = spilledSinkEntries;
+    }
+
+    /**
+     * @return total number of entries evicted from the HAR
+     */
+    public long getEvictedEntries() {
+        return evictedEntries;
+    }
+
+    /**
+     * @return number of entries evicted because the HAR held the maximum number of entries
+     */
+    public long getEvictedByEntryLimit() {
+        return evictedByEntryLimit;
+    }
+
+    /**
+     * @return number of entries evicted because the captured bodies exceeded the maximum total size
+     */
+    public long getEvictedByBodyBytesLimit() {
+        return evictedByBodyBytesLimit;
+    }
+
+    /**
+     * @return number of entries evicted because they were older than the maximum age
+     */
+    public long getEvictedByAge() {
+        return evictedByAge;
+    }
+
+    /**
+     * @return total size, in bytes, of the captured bodies of evicted entries
+     */
+    public long getEvictedBodyBytes() {
+        return evictedBodyBytes;
+    }
+
+    /**
+     * @return total size, in bytes, of the captured bodies of the entries currently in the HAR
+     */
+    public long getCapturedBodyBytes() {
+        return capturedBodyBytes;
+    }
+
+    /**
+     * @return number of entries released from the HAR after they were persisted to its sink
+     */
+    public long getReleasedPersistedEntries() {
+        return releasedPersistedEntries;
+    }
+
+    /**
+     * @return number of completed entries spilled to the sink's overflow queue because the sink was falling behind.
+     *         Spilled entries remain in memory until the sink has written them.
+     */
+    public long getSpilledSinkEntries() {
+        return spilledSinkEntries;
+    }
+}
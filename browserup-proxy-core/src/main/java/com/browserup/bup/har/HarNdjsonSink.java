@@ -0,0 +1,552 @@
+package com.browserup.bup.har;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.sstoehr.harreader.model.HarEntry;
+
+/**
+ * Persists completed HAR entries to disk as they are captured, so that long-running captures do not have to hold the
+ * whole HAR in memory. Each entry is written as one line of JSON (NDJSON) to a file in the sink's directory. When a
+ * file reaches the maximum size, the sink rolls over to a new file, so the files are named in the order they were
+ * written: <code>har-000001.ndjson</code>, <code>har-000002.ndjson</code>, and so on. A sink writing to a directory that
+ * already contains such files continues the numbering after them.
+ * <p>
+ * Entries are written by a single background thread. The thread takes every entry that is waiting when it wakes up
+ * (up to the maximum batch size), writes them with one write call, and commits them with one fsync, so that the cost of
+ * syncing is shared by every entry in the batch. Once an entry has been committed, its callback is run, which
+ * usually releases the entry from the in-memory HAR.
+ * <p>
+ * The queue of entries waiting to be written is bounded. Appending never blocks, since entries are usually appended on
+ * I/O threads: when the queue is full, the entry is spilled to an unbounded overflow queue instead, which the writer
+ * drains after the entries in the bounded queue, so every appended entry is eventually persisted and released. The
+ * overflow queue only holds references to entries that are still in the in-memory HAR, so while the writer is behind,
+ * memory grows only by one queue node per entry. Spilled entries are counted in {@link #getSpilledEntries()}, and a
+ * warning is logged at most once every {@value #SPILL_WARNING_INTERVAL_MS} milliseconds while entries are spilled.
+ * <p>
+ * The files can be reassembled into a HAR with {@link com.browserup.harreader.HarNdjsonReader}.
+ */
+public class HarNdjsonSink implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(HarNdjsonSink.class);
+
+    /**
+     * Default size of a file, in bytes, after which the sink rolls over to a new file.
+     */
+    public static final long DEFAULT_MAX_FILE_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Default maximum number of entries committed with one fsync.
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    /**
+     * Default number of entries that can wait to be written before appended entries are spilled to the overflow queue.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+    /**
+     * Default maximum time {@link #flush()} waits for the entries appended before it to be committed.
+     */
+    public static final long DEFAULT_FLUSH_TIMEOUT_MS = 30000;
+
+    /**
+     * Minimum time between two warnings that entries are spilled to the overflow queue.
+     */
+    private static final long SPILL_WARNING_INTERVAL_MS = 60000;
+
+    private static final String FILE_NAME_PREFIX = "har-";
+    private static final String FILE_NAME_SUFFIX = ".ndjson";
+    private static final String FILE_NAME_FORMAT = FILE_NAME_PREFIX + "%06d" + FILE_NAME_SUFFIX;
+
+    private static final byte[] LINE_SEPARATOR = {'\n'};
+
+    private static final AtomicInteger sinkCounter = new AtomicInteger();
+
+    /**
+     * Marks the end of the queue when the sink is closed.
+     */
+    private static final Object STOP = new Object();
+
+    /**
+     * Wakes the writer up when entries have been spilled after it emptied the queue.
+     */
+    private static final Object SPILLED = new Object();
+
+    private final Path directory;
+    private final long maxFileBytes;
+    private final int maxBatchSize;
+    private final ObjectWriter entryWriter;
+
+    /**
+     * Entries waiting to be written, and flush barriers.
+     */
+    private final BlockingQueue<Object> queue;
+
+    /**
+     * Entries appended while {@link #queue} was full, written after the entries in it.
+     */
+    private final Queue<PendingEntry> overflow = new ConcurrentLinkedQueue<>();
+
+    private final Thread writerThread;
+
+    /**
+     * Files written so far, in the order they were written.
+     */
+    private final List<Path> files = new CopyOnWriteArrayList<>();
+
+    /**
+     * Current file. Only accessed by the writer thread.
+     */
+    private FileChannel channel;
+    private long channelBytes;
+
+    /**
+     * Number of the next file to write. Only accessed by the writer thread once the sink has been created.
+     */
+    private int nextFileNumber;
+
+    private volatile long writtenEntries;
+    private volatile long writtenBytes;
+    private volatile long commits;
+    private volatile long failedEntries;
+
+    private final LongAdder spilledEntries = new LongAdder();
+
+    /**
+     * Time the last spill warning was logged, in milliseconds.
+     */
+    private final AtomicLong lastSpillWarning = new AtomicLong(-SPILL_WARNING_INTERVAL_MS);
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a sink that writes files of up to {@link #DEFAULT_MAX_FILE_BYTES} bytes to the specified directory.
+     *
+     * @param directory directory to write files to, which is created if it does not exist
+     * @throws IOException if the directory cannot be created
+     */
+    public HarNdjsonSink(Path directory) throws IOException {
+        this(directory, new ObjectMapper(), DEFAULT_MAX_FILE_BYTES, DEFAULT_MAX_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param directory directory to write files to, which is created if it does not exist
+     * @param objectMapper mapper used to serialize entries
+     * @param maxFileBytes size of a file, in bytes, after which the sink rolls over to a new file
+     * @param maxBatchSize maximum number of entries committed with one fsync
+     * @param queueCapacity number of entries that can wait to be written before appended entries are spilled to the
+     *                      overflow queue
+     * @throws IOException if the directory cannot be created
+     */
+    public HarNdjsonSink(Path directory, ObjectMapper objectMapper, long maxFileBytes, int maxBatchSize, int queueCapacity) throws IOException {
+        if (maxFileBytes < 1) {
+            throw new IllegalArgumentException("Maximum file size must be positive");
+        }
+
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Maximum batch size must be positive");
+        }
+
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+
+        this.directory = Files.createDirectories(directory);
+        this.maxFileBytes = maxFileBytes;
+        this.maxBatchSize = maxBatchSize;
+        this.entryWriter = objectMapper.writerFor(HarEntry.class);
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.nextFileNumber = findLastFileNumber(this.directory) + 1;
+
+        this.writerThread = new Thread(this::writeEntries, "har-ndjson-sink-" + sinkCounter.incrementAndGet());
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Queues a completed entry to be written, without blocking. If the queue is full, the entry is spilled to the
+     * overflow queue, and written once the writer has caught up. The entry must not be modified after it has been
+     * appended.
+     *
+     * @param entry entry to write
+     * @param onPersisted callback run on the writer thread once the entry has been committed, or null
+     * @return true if the entry was queued, false if the sink has been closed
+     */
+    public boolean append(HarEntry entry, Runnable onPersisted) {
+        if (closed) {
+            return false;
+        }
+
+        PendingEntry pending = new PendingEntry(entry, onPersisted);
+        if (!queue.offer(pending)) {
+            overflow.add(pending);
+            spilledEntries.increment();
+            warnSpilled();
+
+            // the writer may have emptied the queue before the entry was spilled; if the queue is still full, the writer
+            // is not waiting and will find the entry once it has written the queued entries
+            queue.offer(SPILLED);
+        }
+
+        return true;
+    }
+
+    /**
+     * Waits for every entry appended before this method was called to be committed, for up to
+     * {@link #DEFAULT_FLUSH_TIMEOUT_MS} milliseconds.
+     *
+     * @return true if the entries were committed, false if the timeout elapsed first or the sink has been closed
+     */
+    public boolean flush() {
+        return flush(DEFAULT_FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits for every entry appended before this method was called to be committed.
+     *
+     * @param timeout maximum time to wait
+     * @param timeUnit unit of the timeout
+     * @return true if the entries were committed, false if the timeout elapsed, the thread was interrupted or the sink
+     *         has been closed first
+     */
+    public boolean flush(long timeout, TimeUnit timeUnit) {
+        if (closed) {
+            return false;
+        }
+
+        CountDownLatch barrier = new CountDownLatch(1);
+        try {
+            long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+            if (!queue.offer(barrier, timeout, timeUnit)) {
+                return false;
+            }
+
+            if (!barrier.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                log.warn("Timed out waiting for {} HAR entries to be written to {}", queue.size(), directory);
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes the entries that have already been appended, and stops the writer thread. Entries appended after the sink
+     * is closed are not written.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        try {
+            queue.put(STOP);
+            writerThread.join(DEFAULT_FLUSH_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (writerThread.isAlive()) {
+            log.warn("HAR sink writer did not terminate; {} entries may not be written to {}", queue.size(), directory);
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getMaxFileBytes() {
+        return maxFileBytes;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @return the files written so far, in the order they were written
+     */
+    public List<Path> getFiles() {
+        return new ArrayList<>(files);
+    }
+
+    /**
+     * @return number of entries committed so far
+     */
+    public long getWrittenEntries() {
+        return writtenEntries;
+    }
+
+    /**
+     * @return number of bytes committed so far
+     */
+    public long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    /**
+     * @return number of fsyncs so far. Each fsync commits a batch of entries.
+     */
+    public long getCommits() {
+        return commits;
+    }
+
+    /**
+     * @return number of entries that could not be written
+     */
+    public long getFailedEntries() {
+        return failedEntries;
+    }
+
+    /**
+     * @return number of entries spilled to the overflow queue because the queue was full when they were appended
+     */
+    public long getSpilledEntries() {
+        return spilledEntries.sum();
+    }
+
+    /**
+     * @return number of spilled entries that are still waiting to be written
+     */
+    public int getOverflowSize() {
+        return overflow.size();
+    }
+
+    /**
+     * @return true if the sink has been closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private void writeEntries() {
+        List<Object> batch = new ArrayList<>(maxBatchSize);
+        boolean stopped = false;
+
+        try {
+            while (!stopped) {
+                batch.add(overflow.isEmpty() ? queue.take() : queue.poll());
+                queue.drainTo(batch, maxBatchSize - 1);
+                drainOverflow(batch);
+
+                stopped = writeBatch(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            log.warn("HAR sink writer was interrupted; entries may not be written to {}", directory);
+        } finally {
+            closeChannel();
+
+            // release threads waiting to flush a sink that will not write any more entries
+            for (Object item : queue) {
+                if (item instanceof CountDownLatch) {
+                    ((CountDownLatch) item).countDown();
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds spilled entries to a batch after the queued entries. A batch that ends the queue or releases a flush barrier
+     * takes every spilled entry, since the entries spilled before the sink was closed or flushed must be written first.
+     */
+    private void drainOverflow(List<Object> batch) {
+        boolean drainAll = batch.stream().anyMatch(item -> item == STOP || item instanceof CountDownLatch);
+
+        PendingEntry pending;
+        while ((drainAll || batch.size() < maxBatchSize) && (pending = overflow.poll()) != null) {
+            batch.add(pending);
+        }
+    }
+
+    private void warnSpilled() {
+        long now = System.currentTimeMillis();
+        long last = lastSpillWarning.get();
+        if (now - last >= SPILL_WARNING_INTERVAL_MS && lastSpillWarning.compareAndSet(last, now)) {
+            log.warn("HAR sink writer for {} is falling behind; {} entries spilled to the overflow queue so far, {} waiting",
+                    directory, spilledEntries.sum(), overflow.size());
+        }
+    }
+
+    /**
+     * Writes and commits a batch of entries, then runs their callbacks and releases the flush barriers in the batch.
+     *
+     * @return true if the batch ends the queue
+     */
+    private boolean writeBatch(List<Object> batch) {
+        List<PendingEntry> uncommitted = new ArrayList<>(batch.size());
+        List<CountDownLatch> barriers = new ArrayList<>();
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        boolean stopped = false;
+
+        for (Object item : batch) {
+            if (item == STOP) {
+                stopped = true;
+            } else if (item == SPILLED || item == null) {
+                // woke the writer up to drain the overflow queue
+            } else if (item instanceof CountDownLatch) {
+                barriers.add((CountDownLatch) item);
+            } else {
+                PendingEntry pending = (PendingEntry) item;
+
+                byte[] line;
+                try {
+                    line = entryWriter.writeValueAsBytes(pending.entry);
+                } catch (IOException | RuntimeException e) {
+                    // the entry stays in memory, and later entries are still written
+                    log.warn("Unable to serialize HAR entry for {}", directory, e);
+                    failedEntries++;
+                    continue;
+                }
+
+                // roll over before the file would exceed the maximum size, unless the entry alone exceeds it
+                long pendingBytes = channelBytes + lines.size();
+                if (pendingBytes > 0 && pendingBytes + line.length + 1 > maxFileBytes) {
+                    commit(lines, uncommitted);
+                    closeChannel();
+                }
+
+                lines.write(line, 0, line.length);
+                lines.write(LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+                uncommitted.add(pending);
+            }
+        }
+
+        commit(lines, uncommitted);
+
+        barriers.forEach(CountDownLatch::countDown);
+
+        return stopped;
+    }
+
+    /**
+     * Writes the lines to the current file with a single fsync, then runs the callbacks of the entries they contain.
+     */
+    private void commit(ByteArrayOutputStream lines, List<PendingEntry> uncommitted) {
+        if (uncommitted.isEmpty()) {
+            return;
+        }
+
+        try {
+            if (channel == null) {
+                openChannel();
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(lines.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+
+            channelBytes += lines.size();
+            writtenBytes += lines.size();
+            writtenEntries += uncommitted.size();
+            commits++;
+        } catch (IOException e) {
+            log.warn("Unable to write {} HAR entries to {}", uncommitted.size(), directory, e);
+            failedEntries += uncommitted.size();
+            uncommitted.clear();
+            lines.reset();
+
+            // start a new file, rather than appending to a file that may end with a partial line
+            closeChannel();
+            return;
+        }
+
+        for (PendingEntry pending : uncommitted) {
+            if (pending.onPersisted != null) {
+                try {
+                    pending.onPersisted.run();
+                } catch (RuntimeException e) {
+                    log.warn("Unable to release persisted HAR entry", e);
+                }
+            }
+        }
+
+        uncommitted.clear();
+        lines.reset();
+    }
+
+    private void openChannel() throws IOException {
+        Path file = directory.resolve(String.format(FILE_NAME_FORMAT, nextFileNumber++));
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        channelBytes = 0;
+        files.add(file);
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Unable to close HAR file in {}", directory, e);
+        }
+
+        channel = null;
+        channelBytes = 0;
+    }
+
+    /**
+     * Finds the number of the last file written to the directory by an earlier sink, so that its files are not
+     * overwritten.
+     */
+    private static int findLastFileNumber(Path directory) throws IOException {
+        int last = 0;
+        try (DirectoryStream<Path> existing = Files.newDirectoryStream(directory, FILE_NAME_PREFIX + "*" + FILE_NAME_SUFFIX)) {
+            for (Path file : existing) {
+                String name = file.getFileName().toString();
+                try {
+                    last = Math.max(last, Integer.parseInt(name.substring(FILE_NAME_PREFIX.length(), name.length() - FILE_NAME_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // not written by a sink
+                }
+            }
+        }
+
+        return last;
+    }
+
+    private static class PendingEntry {
+        private final HarEntry entry;
+        private final Runnable onPersisted;
+
+        private PendingEntry(HarEntry entry, Runnable onPersisted) {
+            this.entry = entry;
+            this.onPersisted = onPersisted;
+        }
+    }
+}
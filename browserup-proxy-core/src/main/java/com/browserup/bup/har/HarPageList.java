@@ -0,0 +1,109 @@
+package com.browserup.bup.har;
+
+import com.browserup.bup.util.ConcurrentAppendOnlyList;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import de.sstoehr.harreader.model.HarPage;
+
+/**
+ * The pages of a HAR, indexed by page ID, so that a page (such as the default page, which is looked up for every request
+ * captured outside of a page) can be found in O(1) time rather than by scanning every page.
+ * <p>
+ * The pages are kept in a {@link ConcurrentAppendOnlyList}, so pages can be added while the HAR is read, and iterators
+ * are weakly consistent. If several pages have the same ID, the first one is indexed. Pages are expected to be fully
+ * populated before they are added, and can be replaced with {@link #set(int, HarPage)}, but not removed.
+ */
+public class HarPageList extends AbstractList<HarPage> implements RandomAccess {
+    private final ConcurrentAppendOnlyList<HarPage> pages = new ConcurrentAppendOnlyList<>();
+
+    /**
+     * Position of the first page with each ID.
+     */
+    private final ConcurrentMap<String, Integer> positionsById = new ConcurrentHashMap<>();
+
+    @Override
+    public synchronized boolean add(HarPage page) {
+        // pages are added rarely, so serializing additions is cheap, and keeps each page's position equal to its index
+        int position = pages.size();
+
+        pages.add(page);
+
+        if (page.getId() != null) {
+            positionsById.putIfAbsent(page.getId(), position);
+        }
+
+        return true;
+    }
+
+    @Override
+    public HarPage get(int index) {
+        return pages.get(index);
+    }
+
+    @Override
+    public synchronized HarPage set(int index, HarPage page) {
+        HarPage previous = pages.set(index, page);
+
+        if (previous.getId() != null && positionsById.remove(previous.getId(), index)) {
+            // another page with the same ID may now be the first one
+            for (int i = index + 1; i < pages.size(); i++) {
+                if (previous.getId().equals(pages.get(i).getId())) {
+                    positionsById.put(previous.getId(), i);
+                    break;
+                }
+            }
+        }
+
+        if (page.getId() != null) {
+            positionsById.merge(page.getId(), index, Math::min);
+        }
+
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return pages.size();
+    }
+
+    @Override
+    public Iterator<HarPage> iterator() {
+        return pages.iterator();
+    }
+
+    @Override
+    public Spliterator<HarPage> spliterator() {
+        return pages.spliterator();
+    }
+
+    /**
+     * @param pageRef ID of the page
+     * @return the first page with the specified ID, or null if there is no such page
+     */
+    public HarPage getPage(String pageRef) {
+        Integer position = positionsById.get(pageRef);
+
+        return position != null ? pages.get(position) : null;
+    }
+
+    /**
+     * Returns the pages up to and including the first page with the specified ID, in order. If there is no such page,
+     * returns every page.
+     *
+     * @param pageRef ID of the last page to return
+     * @return the pages through the specified page
+     */
+    public List<HarPage> getPagesThrough(String pageRef) {
+        Integer position = positionsById.get(pageRef);
+
+        return new ArrayList<>(position != null ? pages.subList(0, position + 1) : pages);
+    }
+}
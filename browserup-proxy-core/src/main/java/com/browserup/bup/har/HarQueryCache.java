@@ -0,0 +1,194 @@
+package com.browserup.bup.har;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import de.sstoehr.harreader.model.Har;
+
+/**
+ * A small least-recently-used cache of results computed from a HAR, such as entry queries and assertion results. Each
+ * result is cached together with the {@link BoundedHarEntryList} it was computed from and the list's
+ * {@link BoundedHarEntryList#getVersion() modification version}, and is only reused while the HAR has the same entry list
+ * and the list has the same version. Repeating a query against an unchanged HAR, e.g. when a client retries an assertion
+ * or several reporters check the same assertion, then returns the cached result instead of walking the entries again.
+ * Results computed from HARs whose entries are not in a {@link BoundedHarEntryList} are not cached.
+ * <p>
+ * A HAR held elsewhere, such as by the mitmproxy addon, can be cached against with
+ * {@link #get(Object, Object, Object, Supplier)}, using whatever identifies its current state as the version.
+ * <p>
+ * The same result object is returned by every call that hits the cache, so only immutable results, such as
+ * {@link com.browserup.bup.assertion.model.AssertionResult}s, may be returned to callers as they are; mutable results,
+ * such as lists of entries, must be copied before they are returned.
+ */
+public class HarQueryCache {
+    /**
+     * Default maximum number of results that are cached.
+     */
+    public static final int DEFAULT_MAX_SIZE = 64;
+
+    private final Map<Object, CachedResult> results;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public HarQueryCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize maximum number of results that are cached; the least recently used result is evicted when the
+     *                cache is full
+     */
+    public HarQueryCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Maximum size must be positive: " + maxSize);
+        }
+
+        this.results = new LinkedHashMap<Object, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, CachedResult> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached result of a query against the HAR, or computes and caches it if the HAR has changed since the
+     * result was cached. The result is computed without holding a lock, so identical queries that miss the cache at the
+     * same time may each compute it.
+     *
+     * @param query key identifying the query and its arguments; see {@link #query(String, Object...)}
+     * @param har HAR the query is run against
+     * @param compute computes the result from the HAR
+     * @param <T> type of the result
+     * @return the result of the query
+     */
+    public <T> T get(Object query, Har har, Supplier<T> compute) {
+        if (har == null || har.getLog() == null || !(har.getLog().getEntries() instanceof BoundedHarEntryList)) {
+            return compute.get();
+        }
+
+        BoundedHarEntryList entries = (BoundedHarEntryList) har.getLog().getEntries();
+
+        // read the version before computing the result: a modification made while the result is computed bumps the
+        // version again, so the result is not reused once the modification is complete
+        return get(query, entries, entries.getVersion(), compute);
+    }
+
+    /**
+     * Returns the cached result of a query, or computes and caches it if the source of the result has changed since the
+     * result was cached. The version must be read before the result is computed, so that a result computed while the
+     * source changes is cached against the earlier version and not reused.
+     *
+     * @param query key identifying the query and its arguments; see {@link #query(String, Object...)}
+     * @param source the object the result is computed from, compared by identity
+     * @param version the current version of the source, compared by equality, or null if results computed from the
+     *                source cannot be cached at the moment
+     * @param compute computes the result
+     * @param <T> type of the result
+     * @return the result of the query
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object query, Object source, Object version, Supplier<T> compute) {
+        if (version == null) {
+            return compute.get();
+        }
+
+        CachedResult cached;
+        synchronized (results) {
+            cached = results.get(query);
+        }
+
+        if (cached != null && cached.source == source && cached.version.equals(version)) {
+            hits.increment();
+            return (T) cached.value;
+        }
+
+        misses.increment();
+
+        T value = compute.get();
+
+        synchronized (results) {
+            results.put(query, new CachedResult(source, version, value));
+        }
+
+        return value;
+    }
+
+    /**
+     * Removes all cached results, e.g. when a new HAR is created, so that the previous HAR can be garbage collected.
+     */
+    public void clear() {
+        synchronized (results) {
+            results.clear();
+        }
+    }
+
+    /**
+     * @return number of results currently cached
+     */
+    public int size() {
+        synchronized (results) {
+            return results.size();
+        }
+    }
+
+    /**
+     * @return number of queries answered from the cache so far
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of queries that were computed so far
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Creates a cache key for a query. {@link Pattern}s, which do not implement equality, are compared by their
+     * expression and flags, and collections are copied, so that later changes to them do not change the key.
+     *
+     * @param name name of the query, e.g. the name of the method that runs it
+     * @param args arguments of the query, which must implement equality
+     * @return key for the query
+     */
+    public static List<Object> query(String name, Object... args) {
+        List<Object> key = new ArrayList<>(args.length + 1);
+        key.add(name);
+
+        for (Object arg : args) {
+            if (arg instanceof Pattern) {
+                Pattern pattern = (Pattern) arg;
+                key.add(Arrays.asList(pattern.pattern(), pattern.flags()));
+            } else if (arg instanceof Collection) {
+                key.add(new ArrayList<>((Collection<?>) arg));
+            } else {
+                key.add(arg);
+            }
+        }
+
+        return key;
+    }
+
+    private static class CachedResult {
+        private final Object source;
+        private final Object version;
+        private final Object value;
+
+        private CachedResult(Object source, Object version, Object value) {
+            this.source = source;
+            this.version = version;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.browserup.bup.har;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, thread-safe pool of the low-cardinality Strings captured in HARs: header and cookie names, cookie domains
+ * and paths, MIME types, and the values of headers such as User-Agent, Accept and Cache-Control. These are identical
+ * across thousands of entries; interning them makes every entry share one copy of each String, rather than retaining a
+ * copy per entry.
+ * <p>
+ * High-cardinality values, such as cookie values, tokens and the values of other headers, are not pooled: they are rarely
+ * repeated, and would fill the pool and evict the Strings that are. Use {@link #internHeaderValue(String, String)} for
+ * header values, which only pools the values of the headers in {@link #LOW_CARDINALITY_HEADERS}.
+ * <p>
+ * Strings longer than the maximum length are never pooled either. If the pool nonetheless reaches its maximum size it is
+ * cleared, so that it never grows without bound. Strings that were interned before the pool was cleared remain shared by
+ * the entries that reference them.
+ */
+public class HarStringPool {
+    /**
+     * Default maximum number of distinct Strings in the pool.
+     */
+    public static final int DEFAULT_MAX_SIZE = 16 * 1024;
+
+    /**
+     * Default maximum length of a pooled String.
+     */
+    public static final int DEFAULT_MAX_LENGTH = 256;
+
+    /**
+     * Lower-case names of the headers whose values are pooled by {@link #internHeaderValue(String, String)}. Their values
+     * are drawn from a small set that is shared by most requests to, or responses from, the same servers.
+     */
+    public static final Set<String> LOW_CARDINALITY_HEADERS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "accept", "accept-encoding", "accept-language", "accept-ranges", "access-control-allow-credentials",
+            "access-control-allow-origin", "cache-control", "connection", "content-encoding", "content-language",
+            "content-type", "origin", "pragma", "referrer-policy", "sec-fetch-dest", "sec-fetch-mode", "sec-fetch-site",
+            "server", "strict-transport-security", "transfer-encoding", "upgrade-insecure-requests", "user-agent", "vary",
+            "via", "x-content-type-options", "x-frame-options", "x-xss-protection")));
+
+    /**
+     * Approximate size of a String object and the header of its character array, in bytes, with compressed references.
+     */
+    private static final int STRING_OVERHEAD_BYTES = 40;
+
+    private final int maxSize;
+    private final int maxLength;
+
+    private final ConcurrentMap<String, String> strings = new ConcurrentHashMap<>();
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder savedBytes = new LongAdder();
+    private final LongAdder resets = new LongAdder();
+
+    public HarStringPool() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * @param maxSize maximum number of distinct Strings in the pool
+     * @param maxLength maximum length of a pooled String
+     */
+    public HarStringPool(int maxSize, int maxLength) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be positive");
+        }
+
+        if (maxLength < 0) {
+            throw new IllegalArgumentException("Maximum length cannot be negative");
+        }
+
+        this.maxSize = maxSize;
+        this.maxLength = maxLength;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * Returns the pooled String equal to the specified String, adding it to the pool if it is not pooled yet. Must only be
+     * called with low-cardinality Strings, such as header and cookie names.
+     *
+     * @param string String to intern
+     * @return the pooled String, or the specified String if it is null or too long to be pooled
+     */
+    public String intern(String string) {
+        if (string == null || string.length() > maxLength) {
+            return string;
+        }
+
+        lookups.increment();
+
+        String pooled = strings.get(string);
+        if (pooled == null) {
+            if (strings.size() >= maxSize) {
+                strings.clear();
+                resets.increment();
+            }
+
+            pooled = strings.putIfAbsent(string, string);
+            if (pooled == null) {
+                return string;
+            }
+        }
+
+        hits.increment();
+        savedBytes.add(STRING_OVERHEAD_BYTES + pooled.length());
+
+        return pooled;
+    }
+
+    /**
+     * Interns the value of a header if the header's values are low-cardinality, i.e. if it is one of the
+     * {@link #LOW_CARDINALITY_HEADERS}.
+     *
+     * @param headerName name of the header
+     * @param value value of the header
+     * @return the pooled value, or the specified value if the header's values are not pooled
+     */
+    public String internHeaderValue(String headerName, String value) {
+        if (headerName == null || !LOW_CARDINALITY_HEADERS.contains(headerName.toLowerCase(Locale.ROOT))) {
+            return value;
+        }
+
+        return intern(value);
+    }
+
+    /**
+     * @return statistics about the Strings interned so far
+     */
+    public HarStringPoolStats getStats() {
+        return new HarStringPoolStats(lookups.sum(), hits.sum(), strings.size(), savedBytes.sum(), resets.sum());
+    }
+}
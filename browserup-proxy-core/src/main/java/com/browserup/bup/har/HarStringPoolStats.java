@@ -0,0 +1,66 @@
+package com.browserup.bup.har;
+
+/**
+ * Statistics about the Strings interned by a {@link HarStringPool}.
+ */
+public class HarStringPoolStats {
+    private long lookups;
+    private long hits;
+    private int pooledStrings;
+    private long savedBytes;
+    private long resets;
+
+    public HarStringPoolStats() {
+    }
+
+    public HarStringPoolStats(long lookups, long hits, int pooledStrings, long savedBytes, long resets) {
+        this.lookups = lookups;
+        this.hits = hits;
+        this.pooledStrings = pooledStrings;
+        this.savedBytes = savedBytes;
+        this.resets = resets;
+    }
+
+    /**
+     * @return number of Strings that were short enough to be pooled
+     */
+    public long getLookups() {
+        return lookups;
+    }
+
+    /**
+     * @return number of Strings that were replaced with an equal pooled String
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return fraction of the pooled lookups that were replaced with an equal pooled String, between 0 and 1
+     */
+    public double getDedupRatio() {
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * @return number of distinct Strings currently in the pool
+     */
+    public int getPooledStrings() {
+        return pooledStrings;
+    }
+
+    /**
+     * @return estimated heap, in bytes, saved by sharing pooled Strings instead of retaining copies, assuming one byte
+     * per character
+     */
+    public long getSavedBytes() {
+        return savedBytes;
+    }
+
+    /**
+     * @return number of times the pool was cleared because it reached its maximum size
+     */
+    public long getResets() {
+        return resets;
+    }
+}
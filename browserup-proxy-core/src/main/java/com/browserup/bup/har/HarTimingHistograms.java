@@ -0,0 +1,179 @@
+package com.browserup.bup.har;
+
+import com.browserup.bup.util.BrowserUpHttpUtil;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.PackedHistogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import de.sstoehr.harreader.model.HarEntry;
+
+/**
+ * Aggregates the {@link HarTimingPhase timings} of completed HAR entries into histograms, grouped by the host of the
+ * request URL and by page, so that timing percentiles can be reported without retaining or scanning the HAR.
+ * <p>
+ * Recording an entry takes constant time, and is wait-free: each timing is recorded into an HdrHistogram
+ * {@link Recorder}, which entries can be recorded into concurrently while a report is being created. Histograms are
+ * packed, so their memory grows with the number of distinct timing values rather than with the range of values, and
+ * record values with 2 significant digits.
+ * <p>
+ * Timings are aggregated from when the histograms are created until they are {@link #reset()}. At most
+ * {@link #DEFAULT_MAX_KEYS} hosts and pages are tracked; entries of further hosts or pages are aggregated under
+ * {@link #OTHER_KEY}.
+ */
+public class HarTimingHistograms {
+    public static final int DEFAULT_MAX_KEYS = 1000;
+
+    /**
+     * Key under which entries are aggregated once the maximum number of hosts or pages is tracked.
+     */
+    public static final String OTHER_KEY = "(other)";
+
+    private static final int SIGNIFICANT_VALUE_DIGITS = 2;
+
+    private static final HarTimingPhase[] PHASES = HarTimingPhase.values();
+
+    private final int maxKeys;
+
+    private final ConcurrentMap<String, PhaseHistograms> hosts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, PhaseHistograms> pages = new ConcurrentHashMap<>();
+
+    private volatile long intervalStart = System.currentTimeMillis();
+
+    public HarTimingHistograms() {
+        this(DEFAULT_MAX_KEYS);
+    }
+
+    /**
+     * @param maxKeys maximum number of hosts, and of pages, that are tracked separately
+     */
+    public HarTimingHistograms(int maxKeys) {
+        if (maxKeys <= 0) {
+            throw new IllegalArgumentException("Maximum number of keys must be positive: " + maxKeys);
+        }
+
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Records the timings of a completed entry under its host and its page.
+     *
+     * @param entry entry to record
+     */
+    public void record(HarEntry entry) {
+        String host = entry.getRequest() != null ? BrowserUpHttpUtil.getHostFromUrl(entry.getRequest().getUrl()) : null;
+        if (host != null) {
+            getHistograms(hosts, host).record(entry);
+        }
+
+        String pageRef = entry.getPageref();
+        if (pageRef != null) {
+            getHistograms(pages, pageRef).record(entry);
+        }
+    }
+
+    /**
+     * @return percentiles of the timings recorded since the histograms were created or last reset
+     */
+    public HarTimingReport getReport() {
+        return createReport(false);
+    }
+
+    /**
+     * Reports the timings recorded since the histograms were created or last reset, and starts a new interval.
+     *
+     * @return percentiles of the timings recorded in the interval that ended
+     */
+    public synchronized HarTimingReport reset() {
+        HarTimingReport report = createReport(true);
+        intervalStart = report.getIntervalEnd().getTime();
+
+        return report;
+    }
+
+    private synchronized HarTimingReport createReport(boolean reset) {
+        long intervalEnd = System.currentTimeMillis();
+
+        return new HarTimingReport(new Date(intervalStart), new Date(intervalEnd),
+                getPercentiles(hosts, reset), getPercentiles(pages, reset));
+    }
+
+    private static Map<String, Map<String, HarTimingPercentiles>> getPercentiles(Map<String, PhaseHistograms> histograms,
+                                                                                  boolean reset) {
+        Map<String, Map<String, HarTimingPercentiles>> percentiles = new TreeMap<>();
+        histograms.forEach((key, phaseHistograms) -> {
+            Map<String, HarTimingPercentiles> keyPercentiles = phaseHistograms.getPercentiles(reset);
+            if (!keyPercentiles.isEmpty()) {
+                percentiles.put(key, keyPercentiles);
+            }
+        });
+
+        return percentiles;
+    }
+
+    private PhaseHistograms getHistograms(ConcurrentMap<String, PhaseHistograms> histograms, String key) {
+        PhaseHistograms keyHistograms = histograms.get(key);
+        if (keyHistograms != null) {
+            return keyHistograms;
+        }
+
+        // the limit may be exceeded by a few keys when keys are added concurrently
+        String trackedKey = histograms.size() < maxKeys ? key : OTHER_KEY;
+
+        return histograms.computeIfAbsent(trackedKey, k -> new PhaseHistograms());
+    }
+
+    /**
+     * Histograms of each timing phase of the entries of one host or page.
+     */
+    private static class PhaseHistograms {
+        private final Recorder[] recorders = new Recorder[PHASES.length];
+
+        /**
+         * Values recorded in the current interval and already taken from the recorders. Only accessed while holding the
+         * lock of the {@link HarTimingHistograms} that creates reports.
+         */
+        private final Histogram[] intervalHistograms = new Histogram[PHASES.length];
+
+        private PhaseHistograms() {
+            for (int i = 0; i < PHASES.length; i++) {
+                recorders[i] = new Recorder(SIGNIFICANT_VALUE_DIGITS, true);
+                intervalHistograms[i] = new PackedHistogram(SIGNIFICANT_VALUE_DIGITS);
+            }
+        }
+
+        private void record(HarEntry entry) {
+            for (int i = 0; i < PHASES.length; i++) {
+                int timing = PHASES[i].getTiming(entry);
+                if (timing >= 0) {
+                    recorders[i].recordValue(timing);
+                }
+            }
+        }
+
+        private Map<String, HarTimingPercentiles> getPercentiles(boolean reset) {
+            Map<String, HarTimingPercentiles> percentiles = new LinkedHashMap<>();
+            for (int i = 0; i < PHASES.length; i++) {
+                Histogram histogram = intervalHistograms[i];
+                histogram.add(recorders[i].getIntervalHistogram());
+
+                if (histogram.getTotalCount() > 0) {
+                    percentiles.put(PHASES[i].getFieldName(), new HarTimingPercentiles(histogram));
+                }
+
+                if (reset) {
+                    histogram.reset();
+                }
+            }
+
+            return percentiles.isEmpty() ? Collections.emptyMap() : percentiles;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.browserup.bup.har;
+
+import org.HdrHistogram.AbstractHistogram;
+
+/**
+ * Distribution of one timing of the HAR entries of a host or page, in milliseconds. Percentiles are accurate to within
+ * 1%.
+ */
+public class HarTimingPercentiles {
+    private long count;
+    private long min;
+    private long max;
+    private double mean;
+    private long p50;
+    private long p90;
+    private long p95;
+    private long p99;
+
+    public HarTimingPercentiles() {
+    }
+
+    HarTimingPercentiles(AbstractHistogram histogram) {
+        this.count = histogram.getTotalCount();
+        this.min = histogram.getMinValue();
+        this.max = histogram.getMaxValue();
+        this.mean = histogram.getMean();
+        this.p50 = histogram.getValueAtPercentile(50);
+        this.p90 = histogram.getValueAtPercentile(90);
+        this.p95 = histogram.getValueAtPercentile(95);
+        this.p99 = histogram.getValueAtPercentile(99);
+    }
+
+    /**
+     * @return number of entries that had the timing
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public long getP95() {
+        return p95;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+}
@@ -0,0 +1,49 @@
+package com.browserup.bup.har;
+
+import java.util.function.Function;
+
+import de.sstoehr.harreader.model.HarEntry;
+import de.sstoehr.harreader.model.HarTiming;
+
+/**
+ * The timings of a HAR entry that are aggregated by {@link HarTimingHistograms}: the phases of {@link HarTiming}, and the
+ * total time of the entry.
+ */
+public enum HarTimingPhase {
+    BLOCKED("blocked", entry -> entry.getTimings().getBlocked()),
+    DNS("dns", entry -> entry.getTimings().getDns()),
+    CONNECT("connect", entry -> entry.getTimings().getConnect()),
+    SSL("ssl", entry -> entry.getTimings().getSsl()),
+    SEND("send", entry -> entry.getTimings().getSend()),
+    WAIT("wait", entry -> entry.getTimings().getWait()),
+    RECEIVE("receive", entry -> entry.getTimings().getReceive()),
+    TIME("time", HarEntry::getTime);
+
+    private final String fieldName;
+    private final Function<HarEntry, Integer> timing;
+
+    HarTimingPhase(String fieldName, Function<HarEntry, Integer> timing) {
+        this.fieldName = fieldName;
+        this.timing = timing;
+    }
+
+    /**
+     * @return name of the timing's field in a HAR
+     */
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    /**
+     * @param entry HAR entry
+     * @return the timing of the entry in milliseconds, or -1 if the entry does not have this timing
+     */
+    public int getTiming(HarEntry entry) {
+        if (this != TIME && entry.getTimings() == null) {
+            return -1;
+        }
+
+        Integer value = timing.apply(entry);
+        return value != null ? value : -1;
+    }
+}
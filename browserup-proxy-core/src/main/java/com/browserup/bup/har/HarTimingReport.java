@@ -0,0 +1,57 @@
+package com.browserup.bup.har;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Timing percentiles of the HAR entries completed during an interval, grouped by the host of the request URL and by
+ * page. The timings of each host and page are keyed by their {@link HarTimingPhase#getFieldName() HAR field name};
+ * timings that no entry had are omitted.
+ */
+public class HarTimingReport {
+    private Date intervalStart;
+    private Date intervalEnd;
+    private Map<String, Map<String, HarTimingPercentiles>> hosts = Collections.emptyMap();
+    private Map<String, Map<String, HarTimingPercentiles>> pages = Collections.emptyMap();
+
+    public HarTimingReport() {
+    }
+
+    public HarTimingReport(Date intervalStart, Date intervalEnd,
+                           Map<String, Map<String, HarTimingPercentiles>> hosts,
+                           Map<String, Map<String, HarTimingPercentiles>> pages) {
+        this.intervalStart = intervalStart;
+        this.intervalEnd = intervalEnd;
+        this.hosts = hosts;
+        this.pages = pages;
+    }
+
+    /**
+     * @return time the timings were last reset, or the aggregation was started
+     */
+    public Date getIntervalStart() {
+        return intervalStart;
+    }
+
+    /**
+     * @return time the report was created
+     */
+    public Date getIntervalEnd() {
+        return intervalEnd;
+    }
+
+    /**
+     * @return timings by host of the request URL
+     */
+    public Map<String, Map<String, HarTimingPercentiles>> getHosts() {
+        return hosts;
+    }
+
+    /**
+     * @return timings by page ref
+     */
+    public Map<String, Map<String, HarTimingPercentiles>> getPages() {
+        return pages;
+    }
+}
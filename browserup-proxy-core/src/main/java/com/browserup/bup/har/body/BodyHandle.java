@@ -0,0 +1,26 @@
+package com.browserup.bup.har.body;
+
+/**
+ * A reference to a captured request or response body held by a {@link BodyStore}. The body is only copied to the heap
+ * when {@link #getBytes()} is called.
+ */
+public interface BodyHandle {
+    /**
+     * @return length of the body, in bytes
+     */
+    int length();
+
+    /**
+     * Reads the body from the store.
+     *
+     * @return a new array containing the body
+     * @throws IllegalStateException if the body has been released or the store has been closed
+     */
+    byte[] getBytes();
+
+    /**
+     * Notifies the store that the body is no longer referenced, so that the space it occupies can be reclaimed. Releasing
+     * a handle more than once has no effect.
+     */
+    void release();
+}
@@ -0,0 +1,34 @@
+package com.browserup.bup.har.body;
+
+import java.io.Closeable;
+
+/**
+ * Storage for captured request and response bodies. When a store is configured on the proxy, bodies that the store
+ * {@link #shouldStore(int) accepts} are kept in the store and referenced from the HAR by a {@link BodyHandle}, rather
+ * than being held on the heap as Strings. Bodies are read back from the store when the HAR is serialized, or when an
+ * assertion reads the content text.
+ * <p>
+ * Implementations must be thread-safe.
+ */
+public interface BodyStore extends Closeable {
+    /**
+     * @param bodyLength length of a captured body, in bytes
+     * @return true if a body of the specified length should be kept in this store, false if it should stay on the heap
+     */
+    boolean shouldStore(int bodyLength);
+
+    /**
+     * Stores a copy of the specified body.
+     *
+     * @param body body to store
+     * @return handle to the stored body
+     * @throws java.io.UncheckedIOException if the body cannot be stored
+     */
+    BodyHandle store(byte[] body);
+
+    /**
+     * Closes the store and releases all resources held by it. Handles to bodies in a closed store can no longer be read.
+     */
+    @Override
+    void close();
+}
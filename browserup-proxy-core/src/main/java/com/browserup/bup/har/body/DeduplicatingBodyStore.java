@@ -0,0 +1,276 @@
+package com.browserup.bup.har.body;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link BodyStore} that keeps a single copy of each distinct body, no matter how many times it is captured. Bodies
+ * are identified by their SHA-256 digest. Each distinct body is reference counted: every {@link #store(byte[])} returns
+ * a new handle to the shared copy, and the copy is discarded once every handle to it has been released (e.g. because
+ * the entries referencing it were evicted from the HAR).
+ * <p>
+ * The shared copies are kept in a delegate store when the delegate accepts them, and on the heap otherwise. This is
+ * useful when the same responses (scripts, fonts, configuration) are fetched many times while a HAR is captured.
+ */
+public class DeduplicatingBodyStore implements BodyStore {
+    /**
+     * Default minimum size of a body that will be deduplicated. Smaller bodies are not worth hashing.
+     */
+    public static final int DEFAULT_MIN_BODY_SIZE = 1024;
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private final BodyStore delegate;
+    private final int minBodySize;
+
+    private final ConcurrentMap<ContentKey, SharedBody> bodies = new ConcurrentHashMap<>();
+
+    private final LongAdder deduplicatedBodies = new LongAdder();
+    private final LongAdder deduplicatedBytes = new LongAdder();
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a store that keeps distinct bodies on the heap.
+     */
+    public DeduplicatingBodyStore() {
+        this(null, DEFAULT_MIN_BODY_SIZE);
+    }
+
+    /**
+     * Creates a store that keeps distinct bodies in the specified store, when it accepts them, and on the heap otherwise.
+     * The delegate is closed when this store is closed.
+     *
+     * @param delegate store for distinct bodies, or null to keep them on the heap
+     * @param minBodySize minimum size of a body, in bytes, that will be deduplicated
+     */
+    public DeduplicatingBodyStore(BodyStore delegate, int minBodySize) {
+        if (minBodySize < 0) {
+            throw new IllegalArgumentException("Minimum body size cannot be negative");
+        }
+
+        this.delegate = delegate;
+        this.minBodySize = minBodySize;
+    }
+
+    public int getMinBodySize() {
+        return minBodySize;
+    }
+
+    /**
+     * @return number of distinct bodies currently held by this store
+     */
+    public int getDistinctBodies() {
+        return bodies.size();
+    }
+
+    /**
+     * @return number of bodies stored so far that were already held by this store
+     */
+    public long getDeduplicatedBodies() {
+        return deduplicatedBodies.sum();
+    }
+
+    /**
+     * @return total size, in bytes, of the bodies stored so far that were already held by this store
+     */
+    public long getDeduplicatedBytes() {
+        return deduplicatedBytes.sum();
+    }
+
+    @Override
+    public boolean shouldStore(int bodyLength) {
+        return !closed && bodyLength >= minBodySize;
+    }
+
+    @Override
+    public BodyHandle store(byte[] body) {
+        if (closed) {
+            throw new IllegalStateException("Body store is closed");
+        }
+
+        ContentKey key = new ContentKey(digest(body));
+
+        while (true) {
+            SharedBody shared = bodies.get(key);
+            if (shared != null) {
+                if (shared.retain()) {
+                    deduplicatedBodies.increment();
+                    deduplicatedBytes.add(body.length);
+
+                    return new SharedBodyHandle(shared);
+                }
+
+                // the last handle to the body was released concurrently
+                bodies.remove(key, shared);
+                continue;
+            }
+
+            SharedBody created = new SharedBody(key, body);
+            created.retain();
+
+            SharedBody existing = bodies.putIfAbsent(key, created);
+            if (existing == null) {
+                return new SharedBodyHandle(created);
+            }
+
+            // another thread stored the same body first
+            created.discard();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+
+        bodies.values().forEach(SharedBody::discard);
+        bodies.clear();
+
+        if (delegate != null) {
+            delegate.close();
+        }
+    }
+
+    private static byte[] digest(byte[] body) {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM).digest(body);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(DIGEST_ALGORITHM + " is not available", e);
+        }
+    }
+
+    /**
+     * The digest of a body, compared by value.
+     */
+    private static class ContentKey {
+        private final byte[] digest;
+        private final int hashCode;
+
+        private ContentKey(byte[] digest) {
+            this.digest = digest;
+            this.hashCode = Arrays.hashCode(digest);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof ContentKey && Arrays.equals(digest, ((ContentKey) o).digest));
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * The single copy of a distinct body, and the number of handles that reference it.
+     */
+    private class SharedBody {
+        private final ContentKey key;
+        private final int length;
+
+        /**
+         * Handle in the delegate store, or null if the body is held on the heap.
+         */
+        private final BodyHandle delegateHandle;
+        private final byte[] heapBody;
+
+        /**
+         * Number of unreleased handles to this body, or -1 once the body has been discarded.
+         */
+        private final AtomicInteger references = new AtomicInteger();
+
+        private SharedBody(ContentKey key, byte[] body) {
+            this.key = key;
+            this.length = body.length;
+
+            if (delegate != null && delegate.shouldStore(body.length)) {
+                this.delegateHandle = delegate.store(body);
+                this.heapBody = null;
+            } else {
+                this.delegateHandle = null;
+                this.heapBody = body.clone();
+            }
+        }
+
+        /**
+         * @return false if the body has already been discarded
+         */
+        private boolean retain() {
+            while (true) {
+                int current = references.get();
+                if (current < 0) {
+                    return false;
+                }
+
+                if (references.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private void release() {
+            // a concurrent retain() between the decrement and the compareAndSet keeps the body alive
+            if (references.decrementAndGet() == 0 && references.compareAndSet(0, -1)) {
+                bodies.remove(key, this);
+                releaseDelegateHandle();
+            }
+        }
+
+        private void discard() {
+            references.set(-1);
+            releaseDelegateHandle();
+        }
+
+        private byte[] getBytes() {
+            if (closed || references.get() < 0) {
+                throw new IllegalStateException("Body is no longer available: body store has been closed");
+            }
+
+            return delegateHandle != null ? delegateHandle.getBytes() : heapBody.clone();
+        }
+
+        private void releaseDelegateHandle() {
+            if (delegateHandle != null) {
+                delegateHandle.release();
+            }
+        }
+    }
+
+    private static class SharedBodyHandle implements BodyHandle {
+        private final SharedBody body;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private SharedBodyHandle(SharedBody body) {
+            this.body = body;
+        }
+
+        @Override
+        public int length() {
+            return body.length;
+        }
+
+        @Override
+        public byte[] getBytes() {
+            if (released.get()) {
+                throw new IllegalStateException("Body has been released");
+            }
+
+            return body.getBytes();
+        }
+
+        @Override
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                body.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.browserup.bup.har.body;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link BodyStore} that writes bodies to append-only, memory-mapped segment files in a directory. Bodies are appended
+ * to the current segment until it is full, at which point a new segment is started. A segment file is deleted once
+ * every body in it has been released, and all segments are deleted when the store is closed.
+ * <p>
+ * Bodies smaller than the spill threshold are not accepted by the store, and remain on the heap.
+ */
+public class MappedFileBodyStore implements BodyStore {
+    private static final Logger log = LoggerFactory.getLogger(MappedFileBodyStore.class);
+
+    /**
+     * Default minimum size of a body that will be written to disk.
+     */
+    public static final int DEFAULT_SPILL_THRESHOLD = 64 * 1024;
+
+    /**
+     * Default size of each segment file. Bodies larger than the segment size are written to a segment of their own.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final String TEMP_DIRECTORY_PREFIX = "browserup-proxy-bodies";
+
+    private final Path directory;
+    private final boolean deleteDirectoryOnClose;
+    private final int spillThreshold;
+    private final int segmentSize;
+
+    /**
+     * All segments that have not been deleted yet. Guarded by "this".
+     */
+    private final List<Segment> segments = new ArrayList<>();
+
+    /**
+     * The segment that new bodies are appended to. Guarded by "this".
+     */
+    private Segment currentSegment;
+
+    private int segmentCounter;
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a store that writes segments to the specified directory, which must already exist.
+     *
+     * @param directory directory to create segment files in
+     * @param spillThreshold minimum size of a body, in bytes, that will be written to disk
+     * @param segmentSize size of each segment file, in bytes
+     */
+    public MappedFileBodyStore(Path directory, int spillThreshold, int segmentSize) {
+        this(directory, spillThreshold, segmentSize, false);
+    }
+
+    private MappedFileBodyStore(Path directory, int spillThreshold, int segmentSize, boolean deleteDirectoryOnClose) {
+        if (spillThreshold < 0) {
+            throw new IllegalArgumentException("Spill threshold cannot be negative");
+        }
+
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Segment size must be positive");
+        }
+
+        this.directory = directory;
+        this.spillThreshold = spillThreshold;
+        this.segmentSize = segmentSize;
+        this.deleteDirectoryOnClose = deleteDirectoryOnClose;
+    }
+
+    /**
+     * Creates a store in a new temporary directory, using the default segment size. The directory is deleted when the
+     * store is closed.
+     *
+     * @param spillThreshold minimum size of a body, in bytes, that will be written to disk
+     * @return new store
+     * @throws UncheckedIOException if the temporary directory cannot be created
+     */
+    public static MappedFileBodyStore createTemporary(int spillThreshold) {
+        try {
+            Path directory = Files.createTempDirectory(TEMP_DIRECTORY_PREFIX);
+
+            return new MappedFileBodyStore(directory, spillThreshold, DEFAULT_SEGMENT_SIZE, true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to create temporary directory for captured bodies", e);
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public int getSpillThreshold() {
+        return spillThreshold;
+    }
+
+    @Override
+    public boolean shouldStore(int bodyLength) {
+        return !closed && bodyLength >= spillThreshold;
+    }
+
+    @Override
+    public BodyHandle store(byte[] body) {
+        Segment segment;
+        int offset;
+
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Body store is closed");
+            }
+
+            if (currentSegment == null || currentSegment.remaining() < body.length) {
+                // the previous segment can be deleted as soon as its last body is released
+                if (currentSegment != null) {
+                    currentSegment.seal();
+                }
+
+                currentSegment = createSegment(Math.max(segmentSize, body.length));
+            }
+
+            segment = currentSegment;
+            offset = segment.allocate(body.length);
+        }
+
+        // bodies are written outside the lock; each body has its own region of the segment
+        segment.write(offset, body);
+
+        return new MappedBodyHandle(segment, offset, body.length);
+    }
+
+    @Override
+    public void close() {
+        List<Segment> toDelete;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            currentSegment = null;
+            toDelete = new ArrayList<>(segments);
+            segments.clear();
+        }
+
+        toDelete.forEach(Segment::delete);
+
+        if (deleteDirectoryOnClose) {
+            try {
+                Files.deleteIfExists(directory);
+            } catch (IOException e) {
+                log.warn("Unable to delete body store directory {}", directory, e);
+            }
+        }
+    }
+
+    private Segment createSegment(int capacity) {
+        Path file = directory.resolve("segment-" + segmentCounter++ + ".bin");
+
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping remains valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+
+            Segment segment = new Segment(file, buffer);
+            segments.add(segment);
+
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to create body store segment " + file, e);
+        }
+    }
+
+    private void onSegmentEmpty(Segment segment) {
+        synchronized (this) {
+            if (!segments.remove(segment)) {
+                return;
+            }
+        }
+
+        segment.delete();
+    }
+
+    private class Segment {
+        private final Path file;
+        private final MappedByteBuffer buffer;
+
+        /**
+         * Next free offset in the segment. Guarded by the enclosing store.
+         */
+        private int position;
+
+        /**
+         * Number of bodies in this segment that have not been released, plus one while the segment is still
+         * accepting new bodies.
+         */
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private volatile boolean deleted;
+
+        private Segment(Path file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        private int remaining() {
+            return buffer.capacity() - position;
+        }
+
+        private int allocate(int length) {
+            int offset = position;
+            position += length;
+            references.incrementAndGet();
+
+            return offset;
+        }
+
+        private void write(int offset, byte[] body) {
+            ByteBuffer target = buffer.duplicate();
+            target.position(offset);
+            target.put(body);
+        }
+
+        private byte[] read(int offset, int length) {
+            if (deleted) {
+                throw new IllegalStateException("Body is no longer available: body store segment " + file + " has been deleted");
+            }
+
+            byte[] body = new byte[length];
+
+            ByteBuffer source = buffer.duplicate();
+            source.position(offset);
+            source.get(body);
+
+            return body;
+        }
+
+        private void seal() {
+            release();
+        }
+
+        private void release() {
+            if (references.decrementAndGet() == 0) {
+                onSegmentEmpty(this);
+            }
+        }
+
+        private void delete() {
+            deleted = true;
+
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Unable to delete body store segment {}", file, e);
+            }
+        }
+    }
+
+    private static class MappedBodyHandle implements BodyHandle {
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private MappedBodyHandle(Segment segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public byte[] getBytes() {
+            if (released.get()) {
+                throw new IllegalStateException("Body has been released");
+            }
+
+            return segment.read(offset, length);
+        }
+
+        @Override
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                segment.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.browserup.bup.har.body;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.nio.charset.Charset;
+import java.util.Base64;
+
+import de.sstoehr.harreader.model.HarContent;
+
+/**
+ * A {@link HarContent} whose text may be held in a {@link BodyStore}. When a body has been attached with
+ * {@link #setBody(BodyHandle, Charset, boolean)}, the text is read from the store (and decoded or base64-encoded)
+ * each time {@link #getText()} is called, i.e. only when the HAR is serialized or the content is asserted on.
+ */
+public class StoredHarContent extends HarContent {
+    private volatile StoredBody body;
+
+    /**
+     * Attaches a stored body to this content, replacing any existing text.
+     *
+     * @param handle handle to the stored body
+     * @param charset charset used to decode the body; ignored if base64 is true
+     * @param base64 true to base64-encode the body instead of decoding it as text
+     */
+    public void setBody(BodyHandle handle, Charset charset, boolean base64) {
+        super.setText(null);
+        this.body = new StoredBody(handle, charset, base64);
+    }
+
+    /**
+     * @return handle to the stored body, or null if the text of this content is not stored in a {@link BodyStore}
+     */
+    @JsonIgnore
+    public BodyHandle getBodyHandle() {
+        StoredBody storedBody = body;
+
+        return storedBody == null ? null : storedBody.getHandle();
+    }
+
+    @Override
+    public String getText() {
+        StoredBody storedBody = body;
+        if (storedBody == null) {
+            return super.getText();
+        }
+
+        String text = storedBody.getText();
+        if (text == null && body != storedBody) {
+            // the body was detached while it was being read
+            return super.getText();
+        }
+
+        return text;
+    }
+
+    /**
+     * Reads the stored body into the text of this content and releases its handle, so that the text remains available
+     * after the body store is closed. Has no effect if the text is not stored in a {@link BodyStore}.
+     */
+    public synchronized void detachBody() {
+        StoredBody storedBody = body;
+        if (storedBody == null) {
+            return;
+        }
+
+        // the text is set before the body is cleared, so concurrent readers always find one of them
+        super.setText(storedBody.getText());
+        this.body = null;
+
+        storedBody.getHandle().release();
+    }
+
+    @Override
+    public void setText(String text) {
+        this.body = null;
+        super.setText(text);
+    }
+
+    /**
+     * A body in a {@link BodyStore}, and how to turn it back into HAR content text.
+     */
+    static class StoredBody {
+        private final BodyHandle handle;
+        private final Charset charset;
+        private final boolean base64;
+
+        StoredBody(BodyHandle handle, Charset charset, boolean base64) {
+            this.handle = handle;
+            this.charset = charset;
+            this.base64 = base64;
+        }
+
+        BodyHandle getHandle() {
+            return handle;
+        }
+
+        String getText() {
+            byte[] bytes;
+            try {
+                bytes = handle.getBytes();
+            } catch (IllegalStateException e) {
+                // the body was released, e.g. because the entry was evicted from the HAR while it was being read
+                return null;
+            }
+
+            return base64 ? Base64.getEncoder().encodeToString(bytes) : new String(bytes, charset);
+        }
+    }
+}
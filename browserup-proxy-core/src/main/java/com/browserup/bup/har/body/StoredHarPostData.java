@@ -0,0 +1,74 @@
+package com.browserup.bup.har.body;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.nio.charset.Charset;
+
+import de.sstoehr.harreader.model.HarPostData;
+
+/**
+ * A {@link HarPostData} whose text may be held in a {@link BodyStore}. See {@link StoredHarContent}.
+ */
+public class StoredHarPostData extends HarPostData {
+    private volatile StoredHarContent.StoredBody body;
+
+    /**
+     * Attaches a stored body to this post data, replacing any existing text.
+     *
+     * @param handle handle to the stored body
+     * @param charset charset used to decode the body
+     */
+    public void setBody(BodyHandle handle, Charset charset) {
+        super.setText(null);
+        this.body = new StoredHarContent.StoredBody(handle, charset, false);
+    }
+
+    /**
+     * @return handle to the stored body, or null if the text of this post data is not stored in a {@link BodyStore}
+     */
+    @JsonIgnore
+    public BodyHandle getBodyHandle() {
+        StoredHarContent.StoredBody storedBody = body;
+
+        return storedBody == null ? null : storedBody.getHandle();
+    }
+
+    @Override
+    public String getText() {
+        StoredHarContent.StoredBody storedBody = body;
+        if (storedBody == null) {
+            return super.getText();
+        }
+
+        String text = storedBody.getText();
+        if (text == null && body != storedBody) {
+            // the body was detached while it was being read
+            return super.getText();
+        }
+
+        return text;
+    }
+
+    /**
+     * Reads the stored body into the text of this post data and releases its handle, so that the text remains available
+     * after the body store is closed. Has no effect if the text is not stored in a {@link BodyStore}.
+     */
+    public synchronized void detachBody() {
+        StoredHarContent.StoredBody storedBody = body;
+        if (storedBody == null) {
+            return;
+        }
+
+        // the text is set before the body is cleared, so concurrent readers always find one of them
+        super.setText(storedBody.getText());
+        this.body = null;
+
+        storedBody.getHandle().release();
+    }
+
+    @Override
+    public void setText(String text) {
+        this.body = null;
+        super.setText(text);
+    }
+}
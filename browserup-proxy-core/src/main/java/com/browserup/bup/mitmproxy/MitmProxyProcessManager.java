@@ -105,6 +105,7 @@ public class MitmProxyProcessManager {
 
   private void configureProxy() {
     harCaptureFilterManager.setHarCaptureTypes(harCaptureFilterManager.getLastCaptureTypes());
+    harCaptureFilterManager.setHarCaptureLimits(harCaptureFilterManager.getHarCaptureLimits());
     authBasicFilterManager.getCredentials().forEach((key, value) -> authBasicFilterManager.authAuthorization(key, value));
     additionalHeadersManager.addHeaders(additionalHeadersManager.getAllHeaders());
     rewriteUrlManager.rewriteUrls(rewriteUrlManager.getRewriteRulesMap());
@@ -1,9 +1,15 @@
 package com.browserup.bup.mitmproxy.management;
 
+import com.browserup.bup.har.BoundedHarEntryList;
+import com.browserup.bup.har.HarCaptureLimits;
+import com.browserup.bup.har.HarCapturePolicies;
+import com.browserup.bup.har.HarCapturePolicy;
+import com.browserup.bup.har.HarEvictionStats;
 import com.browserup.bup.mitmproxy.MitmProxyProcessManager;
 import com.browserup.bup.proxy.CaptureType;
+import com.browserup.harreader.HarFormatReader;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -21,9 +27,22 @@ import de.sstoehr.harreader.model.HarLog;
 public class HarCaptureManager {
     private static final Logger LOGGER = LoggerFactory.getLogger(HarCaptureManager.class);
 
+    /**
+     * Reads the HAR files written by the mitmproxy addon. Shared, since creating the underlying mappers is expensive.
+     */
+    private static final HarFormatReader HAR_READER = new HarFormatReader();
+
     private final AddonsManagerClient addonsManagerClient;
     private final MitmProxyProcessManager mitmProxyManager;
     private EnumSet<CaptureType> lastCaptureTypes = EnumSet.noneOf(CaptureType.class);
+    private volatile HarCaptureLimits harCaptureLimits = HarCaptureLimits.UNLIMITED;
+    private volatile HarCapturePolicies harCapturePolicies = HarCapturePolicies.NONE;
+    private volatile HarEvictionStats harEvictionStats = new HarEvictionStats();
+
+    /**
+     * Version returned by the last call to {@link #getHarVersion()}, used to retrieve only the changes made since.
+     */
+    private volatile HarVersion lastHarVersion = new HarVersion(0, 0, null, null);
 
     public HarCaptureManager(AddonsManagerClient addonsManagerClient, MitmProxyProcessManager mitmProxyManager) {
         this.addonsManagerClient = addonsManagerClient;
@@ -42,11 +61,252 @@ public class HarCaptureManager {
                         "har",
                         "get_har",
                         List.of(
-                            of("cleanHar", valueOf(cleanHar))
+                            of("cleanHar", valueOf(cleanHar)),
+                            // the HAR is read from the file, so the addon need not send it in the response too
+                            of("includeJson", "false")
                         ),
                         HarResponse.class);
         LOGGER.info("Parsing HAR from file: {}", response.path);
-        return parseHar(response.path);
+        Har har = parseHar(response.path);
+
+        applyHarCapturePolicies(har);
+        applyHarCaptureLimits(har, response.evictedEntries);
+
+        return har;
+    }
+
+    /**
+     * Retrieves the current HAR to export it, like {@link #getHar(Boolean)}, but without reading its entries into memory:
+     * the entries are read from the file the addon saved the HAR to one at a time, patched and filtered by the policies,
+     * while the returned snapshot is written. Limits are applied to the HAR as a whole, so when limits are set, the HAR
+     * is read into memory as by {@link #getHar(Boolean)}; the number of entries held is then bounded by the limits.
+     *
+     * @param cleanHar true to start a new HAR after retrieving the current one
+     * @return snapshot of the HAR, or null if mitmproxy is not running
+     */
+    public HarSnapshot getHarSnapshot(Boolean cleanHar) {
+        if (!mitmProxyManager.isRunning()) return null;
+
+        if (!harCaptureLimits.isUnlimited()) {
+            return new HarSnapshot(getHar(cleanHar));
+        }
+
+        HarResponse response = addonsManagerClient.
+                getRequestToAddonsManager(
+                        "har",
+                        "get_har",
+                        List.of(
+                            of("cleanHar", valueOf(cleanHar)),
+                            of("includeJson", "false")
+                        ),
+                        HarResponse.class);
+        LOGGER.info("Streaming HAR from file: {}", response.path);
+
+        File harFile = new File(response.path);
+        Har har;
+        try {
+            har = HAR_READER.readWithoutEntries(harFile);
+        } catch (IOException e) {
+            throw new RuntimeException("Couldn't read HAR file: " + harFile.getAbsolutePath(), e);
+        }
+        harEvictionStats = new HarEvictionStats();
+
+        HarCapturePolicies policies = harCapturePolicies;
+        EnumSet<CaptureType> defaults = lastCaptureTypes;
+
+        return new HarSnapshot(har, harFile, HAR_READER, entry -> {
+            patchEntry(entry);
+            applyHarCapturePolicies(entry, policies, defaults);
+        });
+    }
+
+    /**
+     * Retrieves the entries of the current HAR that changed after the specified sequence number. The addon assigns each
+     * HAR a new generation, and within a HAR, assigns the next sequence number to an entry each time it is added or
+     * updated (e.g. when its response is received). If the generation differs from the current one, every entry of the
+     * current HAR is returned. If no entry has changed, the addon waits up to the specified timeout for a change before
+     * responding.
+     *
+     * @param generation generation returned by the previous call, or 0
+     * @param sequence sequence number returned by the previous call, or 0
+     * @param timeoutMillis maximum time to wait for a change, in milliseconds, or 0 to return immediately
+     * @return the changed entries, and the generation and sequence number to pass to the next call, or null if mitmproxy
+     * is not running
+     */
+    public HarEntriesResponse getHarEntriesSince(long generation, long sequence, long timeoutMillis) {
+        if (!mitmProxyManager.isRunning()) return null;
+
+        HarEntriesResponse response = addonsManagerClient.
+                getRequestToAddonsManager(
+                        "har",
+                        "get_har_entries_since",
+                        List.of(
+                                of("generation", valueOf(generation)),
+                                of("sequence", valueOf(sequence)),
+                                of("timeoutMillis", valueOf(timeoutMillis))
+                        ),
+                        HarEntriesResponse.class);
+
+        Har har = response.getHar();
+        if (har != null) {
+            patchHar(har);
+            applyHarCapturePolicies(har);
+        }
+
+        return response;
+    }
+
+    /**
+     * Returns the version of the entries of the HAR returned by {@link #getHar()}. The version changes whenever the addon
+     * adds or updates an entry or starts a new HAR, and whenever the limits or policies applied to the HAR are changed,
+     * so results computed from the entries remain valid for as long as the version is unchanged. Only the entries
+     * changed since the previous call are transferred from the addon, so this is much cheaper than retrieving the HAR.
+     *
+     * @return the version of the HAR's entries, or null if mitmproxy is not running, there is no HAR, or entries expire
+     * after a maximum age, so that the HAR changes without being modified
+     */
+    public Object getHarVersion() {
+        HarCaptureLimits limits = harCaptureLimits;
+        HarCapturePolicies policies = harCapturePolicies;
+        if (!mitmProxyManager.isRunning() || limits.getMaxAgeMillis() != Long.MAX_VALUE) return null;
+
+        HarVersion last = lastHarVersion;
+        HarEntriesResponse response = addonsManagerClient.
+                getRequestToAddonsManager(
+                        "har",
+                        "get_har_entries_since",
+                        List.of(
+                                of("generation", valueOf(last.generation)),
+                                of("sequence", valueOf(last.sequence)),
+                                of("timeoutMillis", "0")
+                        ),
+                        HarEntriesResponse.class);
+        if (response == null || response.getHar() == null) return null;
+
+        HarVersion version = new HarVersion(response.getGeneration(), response.getSequence(), limits, policies);
+        lastHarVersion = version;
+
+        return version;
+    }
+
+    /**
+     * The HAR is held by the mitmproxy addon. The addon bounds the number of entries it keeps while they are captured (see
+     * {@link #setHarCaptureLimits(HarCaptureLimits)}), but only evicts entries in batches, and does not know the other
+     * limits. The limits are therefore applied exactly to the HAR each time it is retrieved, and the eviction counters
+     * describe the most recently retrieved HAR.
+     *
+     * @param evictedByAddon number of entries the addon has evicted from the current HAR
+     */
+    private void applyHarCaptureLimits(Har har, long evictedByAddon) {
+        HarCaptureLimits limits = harCaptureLimits;
+        if (har == null || har.getLog() == null || limits.isUnlimited()) {
+            harEvictionStats = new HarEvictionStats();
+            return;
+        }
+
+        BoundedHarEntryList entries = new BoundedHarEntryList(limits);
+        har.getLog().getEntries().forEach(entry -> {
+            entries.add(entry);
+            entries.onBodyCaptured(entry, getCapturedBodyBytes(entry));
+        });
+        har.getLog().setEntries(entries);
+
+        HarEvictionStats stats = entries.getEvictionStats();
+        harEvictionStats = new HarEvictionStats(stats.getEvictedByEntryLimit() + evictedByAddon,
+                stats.getEvictedByBodyBytesLimit(), stats.getEvictedByAge(), stats.getEvictedBodyBytes(),
+                stats.getCapturedBodyBytes());
+    }
+
+    /**
+     * The mitmproxy addon captures every entry using the proxy's capture types, so policies cannot make it capture more.
+     * Instead, the policies are applied to the HAR each time it is retrieved: data a matching policy does not capture is
+     * removed, and bodies longer than its maximum body size are truncated. Bodies are truncated by characters rather
+     * than bytes, since the addon has already decoded them.
+     */
+    private void applyHarCapturePolicies(Har har) {
+        HarCapturePolicies policies = harCapturePolicies;
+        if (har == null || har.getLog() == null || policies.isEmpty()) {
+            return;
+        }
+
+        EnumSet<CaptureType> defaults = lastCaptureTypes;
+        har.getLog().getEntries().forEach(entry -> applyHarCapturePolicies(entry, policies, defaults));
+    }
+
+    private static void applyHarCapturePolicies(de.sstoehr.harreader.model.HarEntry entry, HarCapturePolicies policies,
+                                                EnumSet<CaptureType> defaults) {
+        if (policies.isEmpty()) {
+            return;
+        }
+
+        de.sstoehr.harreader.model.HarRequest request = entry.getRequest();
+        String method = request.getMethod() != null ? request.getMethod().name() : "";
+        HarCapturePolicies.Match match = policies.match(method, request.getUrl());
+        if (match.isEmpty()) {
+            return;
+        }
+
+        de.sstoehr.harreader.model.HarResponse response = entry.getResponse();
+        de.sstoehr.harreader.model.HarContent content = response.getContent();
+        String mimeType = content != null ? content.getMimeType() : null;
+        EnumSet<CaptureType> captureTypes = match.getCaptureTypes(defaults, mimeType);
+
+        if (!captureTypes.contains(CaptureType.REQUEST_HEADERS)) {
+            request.setHeaders(new ArrayList<>());
+        }
+        if (!captureTypes.contains(CaptureType.REQUEST_COOKIES)) {
+            request.setCookies(new ArrayList<>());
+        }
+        if (!captureTypes.contains(CaptureType.REQUEST_CONTENT)) {
+            request.setPostData(null);
+        } else if (request.getPostData() != null && request.getPostData().getText() != null) {
+            String text = request.getPostData().getText();
+            long maxBodySize = match.getMaxRequestBodySize();
+            if (text.length() > maxBodySize) {
+                request.getPostData().setText(text.substring(0, (int) maxBodySize));
+                request.getPostData().setAdditionalField(HarCapturePolicy.TRUNCATED_FIELD, true);
+            }
+        }
+
+        if (!captureTypes.contains(CaptureType.RESPONSE_HEADERS)) {
+            response.setHeaders(new ArrayList<>());
+        }
+        if (!captureTypes.contains(CaptureType.RESPONSE_COOKIES)) {
+            response.setCookies(new ArrayList<>());
+        }
+        if (content != null && content.getText() != null) {
+            boolean base64 = "base64".equals(content.getEncoding());
+            if (!captureTypes.contains(CaptureType.RESPONSE_CONTENT)
+                    || (base64 && !captureTypes.contains(CaptureType.RESPONSE_BINARY_CONTENT))) {
+                content.setText(null);
+                content.setEncoding(null);
+            } else {
+                long maxBodySize = match.getMaxResponseBodySize(mimeType);
+                // base64 encodes every 3 bytes as 4 characters
+                long maxLength = base64 ? maxBodySize / 3 * 4 : maxBodySize;
+                if (content.getText().length() > maxLength) {
+                    content.setText(content.getText().substring(0, (int) maxLength));
+                    content.setAdditionalField(HarCapturePolicy.TRUNCATED_FIELD, true);
+                }
+            }
+        }
+    }
+
+    private static long getCapturedBodyBytes(de.sstoehr.harreader.model.HarEntry entry) {
+        long bytes = 0;
+
+        de.sstoehr.harreader.model.HarResponse response = entry.getResponse();
+        if (response != null && response.getContent() != null && response.getContent().getText() != null
+                && response.getContent().getSize() != null) {
+            bytes += response.getContent().getSize();
+        }
+
+        de.sstoehr.harreader.model.HarRequest request = entry.getRequest();
+        if (request != null && request.getPostData() != null && request.getPostData().getText() != null) {
+            bytes += request.getPostData().getText().length();
+        }
+
+        return bytes;
     }
 
     public Har newHar() {
@@ -122,30 +382,8 @@ public class HarCaptureManager {
         File harFile = new File(filePath);
 
         try {
-            Har har = new ObjectMapper().readerFor(Har.class).readValue(harFile);
-
-            // mitmproxy writes HAR which does not follow specification: some mandatory fields are not initialized
-            // thus it is needed to go through the object and patch to make sure it matches specification
-            Optional.ofNullable(har).map(Har::getLog).map(HarLog::getEntries).ifPresent(es -> es.forEach(e -> {
-                de.sstoehr.harreader.model.HarRequest request = e.getRequest();
-                if (request.getUrl() == null) {
-                    request.setUrl("");
-                }
-                de.sstoehr.harreader.model.HarResponse response = e.getResponse();
-                if (response.getRedirectURL() == null) {
-                    response.setRedirectURL("");
-                }
-                de.sstoehr.harreader.model.HarTiming timings = e.getTimings();
-                if (timings.getSend() == null) {
-                    timings.setSend(0);
-                }
-                if (timings.getWait() == null) {
-                    timings.setWait(0);
-                }
-                if (timings.getReceive() == null) {
-                    timings.setReceive(0);
-                }
-            }));
+            Har har = HAR_READER.read(harFile);
+            patchHar(har);
 
             return har;
         } catch (IOException e) {
@@ -153,6 +391,33 @@ public class HarCaptureManager {
         }
     }
 
+    private static void patchHar(Har har) {
+        // mitmproxy writes HAR which does not follow specification: some mandatory fields are not initialized
+        // thus it is needed to go through the object and patch to make sure it matches specification
+        Optional.ofNullable(har).map(Har::getLog).map(HarLog::getEntries).ifPresent(es -> es.forEach(HarCaptureManager::patchEntry));
+    }
+
+    private static void patchEntry(de.sstoehr.harreader.model.HarEntry entry) {
+        de.sstoehr.harreader.model.HarRequest request = entry.getRequest();
+        if (request.getUrl() == null) {
+            request.setUrl("");
+        }
+        de.sstoehr.harreader.model.HarResponse response = entry.getResponse();
+        if (response.getRedirectURL() == null) {
+            response.setRedirectURL("");
+        }
+        de.sstoehr.harreader.model.HarTiming timings = entry.getTimings();
+        if (timings.getSend() == null) {
+            timings.setSend(0);
+        }
+        if (timings.getWait() == null) {
+            timings.setWait(0);
+        }
+        if (timings.getReceive() == null) {
+            timings.setReceive(0);
+        }
+    }
+
     public void setHarCaptureTypes(EnumSet<CaptureType> captureTypes) {
         lastCaptureTypes = captureTypes;
 
@@ -172,9 +437,79 @@ public class HarCaptureManager {
         return lastCaptureTypes;
     }
 
+    /**
+     * Sets the limits applied to the HAR. The maximum number of entries is also sent to the mitmproxy addon, so that the
+     * HAR it holds does not grow without bound while it is captured.
+     */
+    public void setHarCaptureLimits(HarCaptureLimits harCaptureLimits) {
+        this.harCaptureLimits = harCaptureLimits;
+
+        if (!mitmProxyManager.isRunning()) return;
+
+        int maxEntries = harCaptureLimits.getMaxEntries();
+        addonsManagerClient.
+                getRequestToAddonsManager(
+                        "har",
+                        "set_har_capture_limits",
+                        List.of(
+                                of("maxEntries", valueOf(maxEntries == Integer.MAX_VALUE ? 0 : maxEntries))
+                        ),
+                        Void.class);
+    }
+
+    public HarCaptureLimits getHarCaptureLimits() {
+        return harCaptureLimits;
+    }
+
+    public void setHarCapturePolicies(List<HarCapturePolicy> policies) {
+        this.harCapturePolicies = policies == null || policies.isEmpty() ? HarCapturePolicies.NONE : new HarCapturePolicies(policies);
+    }
+
+    public List<HarCapturePolicy> getHarCapturePolicies() {
+        return harCapturePolicies.getPolicies();
+    }
+
+    public HarEvictionStats getHarEvictionStats() {
+        return harEvictionStats;
+    }
+
+    /**
+     * Identifies the state of the addon's HAR, and the limits and policies applied to it when it is retrieved. Limits
+     * and policies are compared by identity, since they are replaced rather than modified.
+     */
+    private static class HarVersion {
+        private final long generation;
+        private final long sequence;
+        private final HarCaptureLimits limits;
+        private final HarCapturePolicies policies;
+
+        private HarVersion(long generation, long sequence, HarCaptureLimits limits, HarCapturePolicies policies) {
+            this.generation = generation;
+            this.sequence = sequence;
+            this.limits = limits;
+            this.policies = policies;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof HarVersion)) return false;
+
+            HarVersion that = (HarVersion) o;
+            return generation == that.generation && sequence == that.sequence && limits == that.limits
+                    && policies == that.policies;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(generation, sequence, System.identityHashCode(limits), System.identityHashCode(policies));
+        }
+    }
+
     @JsonIgnoreProperties(ignoreUnknown = true)
     public static class HarResponse {
         private String path;
+        private long evictedEntries;
 
         public HarResponse() {}
 
@@ -189,5 +524,76 @@ public class HarCaptureManager {
         public void setPath(String path) {
             this.path = path;
         }
+
+        public long getEvictedEntries() {
+            return evictedEntries;
+        }
+
+        public void setEvictedEntries(long evictedEntries) {
+            this.evictedEntries = evictedEntries;
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class HarEntriesResponse {
+        private long generation;
+        private long sequence;
+        private Har har;
+        private List<Long> addedSequences = new ArrayList<>();
+        private List<Long> completedSequences = new ArrayList<>();
+
+        public HarEntriesResponse() {}
+
+        public long getGeneration() {
+            return generation;
+        }
+
+        public void setGeneration(long generation) {
+            this.generation = generation;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public void setSequence(long sequence) {
+            this.sequence = sequence;
+        }
+
+        /**
+         * @return the current HAR, containing all pages but only the changed entries, or null if there is no HAR
+         */
+        @JsonProperty("json")
+        public Har getHar() {
+            return har;
+        }
+
+        @JsonProperty("json")
+        public void setHar(Har har) {
+            this.har = har;
+        }
+
+        /**
+         * @return for each returned entry, the sequence number of the change that added it to the HAR
+         */
+        public List<Long> getAddedSequences() {
+            return addedSequences;
+        }
+
+        public void setAddedSequences(List<Long> addedSequences) {
+            this.addedSequences = addedSequences;
+        }
+
+        /**
+         * @return for each returned entry, the sequence number of the change that completed it, or 0 if its response has
+         * not been captured yet
+         */
+        public List<Long> getCompletedSequences() {
+            return completedSequences;
+        }
+
+        public void setCompletedSequences(List<Long> completedSequences) {
+            this.completedSequences = completedSequences;
+        }
     }
 }
@@ -0,0 +1,145 @@
+package com.browserup.bup.mitmproxy.management;
+
+import com.browserup.bup.har.HarEntryListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.sstoehr.harreader.model.HarEntry;
+
+/**
+ * Reports the entries captured by the mitmproxy addon to a {@link HarEntryListener} as they are started and completed.
+ * <p>
+ * The addon notifies waiting requests whenever it adds an entry to its HAR or captures the response of an entry, so a
+ * single daemon thread long-polls it for the entries changed since the previous request, and only the changed entries
+ * are transferred and parsed. The addon reports the change that added each entry and the change that completed it, so
+ * each entry is reported as started and as completed once per HAR, however often it is changed. The listener is called
+ * on the feed's thread, with copies of the addon's entries.
+ */
+public class HarEntryFeed implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(HarEntryFeed.class);
+
+    /**
+     * How long a request waits for the addon to change its HAR, in milliseconds.
+     */
+    private static final long POLL_TIMEOUT_MS = 1000;
+
+    /**
+     * How long the feed waits before it requests the changes again when the proxy is not running or a request failed,
+     * in milliseconds.
+     */
+    private static final long RETRY_INTERVAL_MS = 500;
+
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+
+    private final HarCaptureManager harCaptureManager;
+    private final HarEntryListener listener;
+
+    private final Thread thread;
+
+    private volatile boolean closed;
+
+    /**
+     * Generation of the HAR and sequence number of the last change reported. Only accessed by the feed's thread.
+     */
+    private long generation;
+    private long sequence;
+
+    /**
+     * @param harCaptureManager manager of the addon that captures the HAR
+     * @param listener listener the entries are reported to
+     */
+    public HarEntryFeed(HarCaptureManager harCaptureManager, HarEntryListener listener) {
+        this.harCaptureManager = harCaptureManager;
+        this.listener = listener;
+
+        this.thread = new Thread(this::run, "har-entry-feed-" + threadNumber.incrementAndGet());
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Stops reporting entries. Entries whose changes have already been retrieved may still be reported.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private void run() {
+        while (!closed) {
+            HarCaptureManager.HarEntriesResponse response;
+            try {
+                response = harCaptureManager.getHarEntriesSince(generation, sequence, POLL_TIMEOUT_MS);
+            } catch (RuntimeException e) {
+                if (!closed) {
+                    log.debug("Couldn't retrieve changed HAR entries from mitmproxy", e);
+                }
+                response = null;
+            }
+
+            if (response == null) {
+                if (!pause()) {
+                    return;
+                }
+                continue;
+            }
+
+            report(response);
+        }
+    }
+
+    private void report(HarCaptureManager.HarEntriesResponse response) {
+        // changes made to another HAR are not comparable to the changes already reported
+        long reportedSequence = response.getGeneration() == generation ? sequence : 0;
+
+        if (response.getHar() != null && response.getHar().getLog() != null) {
+            List<HarEntry> entries = response.getHar().getLog().getEntries();
+            List<Long> addedSequences = response.getAddedSequences();
+            List<Long> completedSequences = response.getCompletedSequences();
+
+            for (int i = 0; i < entries.size() && !closed; i++) {
+                HarEntry entry = entries.get(i);
+                long addedSequence = i < addedSequences.size() ? addedSequences.get(i) : 0;
+                long completedSequence = i < completedSequences.size() ? completedSequences.get(i) : 0;
+
+                try {
+                    if (addedSequence > reportedSequence) {
+                        listener.onEntryStarted(entry);
+                    }
+                    if (completedSequence > reportedSequence) {
+                        listener.onEntryCompleted(entry);
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("HAR entry listener failed", e);
+                }
+            }
+        }
+
+        generation = response.getGeneration();
+        sequence = response.getSequence();
+    }
+
+    /**
+     * @return false if the feed was closed while it was paused
+     */
+    private boolean pause() {
+        try {
+            Thread.sleep(RETRY_INTERVAL_MS);
+            return !closed;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+}
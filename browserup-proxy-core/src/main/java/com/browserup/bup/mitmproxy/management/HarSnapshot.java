@@ -0,0 +1,101 @@
+package com.browserup.bup.mitmproxy.management;
+
+import com.browserup.harreader.HarFormatReader;
+import com.browserup.harreader.HarStreamingWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+import de.sstoehr.harreader.model.Har;
+import de.sstoehr.harreader.model.HarEntry;
+
+/**
+ * A HAR retrieved from the mitmproxy addon to be exported, see {@link HarCaptureManager#getHarSnapshot(Boolean)}. The
+ * entries of a snapshot backed by the file the addon saved the HAR to are only read from the file while the snapshot is
+ * written, one at a time, so the memory used to export the HAR does not depend on its number of entries.
+ * <p>
+ * A snapshot backed by a file reads the file each time it is written.
+ */
+public class HarSnapshot {
+    private final Har har;
+    private final File entriesFile;
+    private final HarFormatReader reader;
+    private final Consumer<HarEntry> entryProcessor;
+
+    /**
+     * Creates a snapshot of a HAR held in memory.
+     *
+     * @param har HAR, or null
+     */
+    public HarSnapshot(Har har) {
+        this(har, null, null, null);
+    }
+
+    /**
+     * Creates a snapshot whose entries are read from a HAR file.
+     *
+     * @param har HAR without entries, or null
+     * @param entriesFile HAR file to read the entries from
+     * @param reader reader of the file
+     * @param entryProcessor modifies each entry after it is read and before it is written
+     */
+    HarSnapshot(Har har, File entriesFile, HarFormatReader reader, Consumer<HarEntry> entryProcessor) {
+        this.har = har;
+        this.entriesFile = entriesFile;
+        this.reader = reader;
+        this.entryProcessor = entryProcessor;
+    }
+
+    /**
+     * @return the HAR; if the snapshot is backed by a file, the HAR has no entries
+     */
+    public Har getHar() {
+        return har;
+    }
+
+    /**
+     * @return true if the entries are read from a file while the snapshot is written
+     */
+    public boolean isBackedByFile() {
+        return entriesFile != null;
+    }
+
+    /**
+     * Writes the HAR, with its entries, to the output stream.
+     *
+     * @param writer writer to write the HAR with
+     * @param out stream to write to; will be flushed, but not closed
+     * @throws IOException if the HAR file cannot be read, or the stream cannot be written to
+     */
+    public void writeTo(HarStreamingWriter writer, OutputStream out) throws IOException {
+        if (entriesFile == null || har == null) {
+            writer.writeHar(har, out);
+            return;
+        }
+
+        try (HarFormatReader.EntryIterator entries = reader.readEntries(entriesFile)) {
+            Iterable<HarEntry> processed = () -> new Iterator<HarEntry>() {
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public HarEntry next() {
+                    HarEntry entry = entries.next();
+                    entryProcessor.accept(entry);
+
+                    return entry;
+                }
+            };
+
+            writer.writeHar(har, processed, out);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
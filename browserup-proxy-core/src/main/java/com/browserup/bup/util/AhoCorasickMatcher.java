@@ -0,0 +1,200 @@
+package com.browserup.bup.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeSet;
+
+/**
+ * Finds occurrences of several strings ("needles") in a text in a single pass over the text, using an Aho-Corasick
+ * automaton that is built once, when the matcher is created. Scanning a text takes time proportional to the length of
+ * the text, however many needles there are, rather than one scan of the text per needle.
+ * <p>
+ * The automaton is a deterministic automaton over the characters that occur in the needles: each character of the
+ * text is mapped to its character class (ASCII characters by table lookup, others by binary search), and each step is
+ * a single table lookup. Matching is case-sensitive. Matchers are immutable, and can be shared between threads.
+ */
+public final class AhoCorasickMatcher {
+    private static final int ASCII_SIZE = 128;
+
+    /**
+     * Marks a needle that does not occur in the text.
+     */
+    public static final int NOT_FOUND = -1;
+
+    private final List<String> needles;
+
+    /**
+     * Character class of each ASCII character; 0 for characters that occur in no needle.
+     */
+    private final int[] asciiClasses = new int[ASCII_SIZE];
+
+    /**
+     * Non-ASCII characters that occur in the needles, sorted; the character class of otherChars[i] is
+     * otherClasses[i].
+     */
+    private final char[] otherChars;
+    private final int[] otherClasses;
+
+    private final int classCount;
+
+    /**
+     * Next state for each state and character class, at index state * classCount + characterClass.
+     */
+    private final int[] transitions;
+
+    /**
+     * Indexes of the needles that end at each state, including needles that are suffixes of the state's string.
+     */
+    private final int[][] outputs;
+
+    /**
+     * @param needles strings to find
+     * @throws IllegalArgumentException if there are no needles, or a needle is null or empty
+     */
+    public AhoCorasickMatcher(Collection<String> needles) {
+        if (needles == null || needles.isEmpty()) {
+            throw new IllegalArgumentException("At least one string to find is required");
+        }
+
+        for (String needle : needles) {
+            if (needle == null || needle.isEmpty()) {
+                throw new IllegalArgumentException("Strings to find cannot be null or empty");
+            }
+        }
+
+        this.needles = Collections.unmodifiableList(new ArrayList<>(needles));
+
+        // assign a character class to each distinct character of the needles
+        TreeSet<Character> chars = new TreeSet<>();
+        for (String needle : this.needles) {
+            for (int i = 0; i < needle.length(); i++) {
+                chars.add(needle.charAt(i));
+            }
+        }
+
+        int nextClass = 1;
+        List<Character> others = new ArrayList<>();
+        for (char c : chars) {
+            if (c < ASCII_SIZE) {
+                asciiClasses[c] = nextClass++;
+            } else {
+                others.add(c);
+            }
+        }
+
+        otherChars = new char[others.size()];
+        otherClasses = new int[others.size()];
+        for (int i = 0; i < others.size(); i++) {
+            otherChars[i] = others.get(i);
+            otherClasses[i] = nextClass++;
+        }
+
+        classCount = nextClass;
+
+        // build the trie of the needles
+        List<Map<Integer, Integer>> children = new ArrayList<>();
+        List<List<Integer>> stateOutputs = new ArrayList<>();
+        children.add(new HashMap<>());
+        stateOutputs.add(new ArrayList<>());
+
+        for (int needleIndex = 0; needleIndex < this.needles.size(); needleIndex++) {
+            String needle = this.needles.get(needleIndex);
+            int state = 0;
+            for (int i = 0; i < needle.length(); i++) {
+                int characterClass = getCharacterClass(needle.charAt(i));
+                Integer next = children.get(state).get(characterClass);
+                if (next == null) {
+                    next = children.size();
+                    children.add(new HashMap<>());
+                    stateOutputs.add(new ArrayList<>());
+                    children.get(state).put(characterClass, next);
+                }
+                state = next;
+            }
+            stateOutputs.get(state).add(needleIndex);
+        }
+
+        // compute the failure links breadth-first, turning the trie into a deterministic automaton
+        int stateCount = children.size();
+        transitions = new int[stateCount * classCount];
+        int[] failure = new int[stateCount];
+
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (Map.Entry<Integer, Integer> child : children.get(0).entrySet()) {
+            transitions[child.getKey()] = child.getValue();
+            queue.add(child.getValue());
+        }
+
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            stateOutputs.get(state).addAll(stateOutputs.get(failure[state]));
+
+            for (int characterClass = 0; characterClass < classCount; characterClass++) {
+                Integer child = children.get(state).get(characterClass);
+                int failureTransition = transitions[failure[state] * classCount + characterClass];
+                if (child != null) {
+                    failure[child] = failureTransition;
+                    transitions[state * classCount + characterClass] = child;
+                    queue.add(child);
+                } else {
+                    transitions[state * classCount + characterClass] = failureTransition;
+                }
+            }
+        }
+
+        outputs = new int[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            outputs[state] = stateOutputs.get(state).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * @return the strings to find, in the order they were specified
+     */
+    public List<String> getNeedles() {
+        return needles;
+    }
+
+    /**
+     * Finds the first occurrence of each needle in the text.
+     *
+     * @param text text to search
+     * @return the index in the text of the first occurrence of each needle, in the order of the needles, or
+     * {@link #NOT_FOUND} for needles that do not occur in the text
+     */
+    public int[] findFirstOccurrences(CharSequence text) {
+        int[] occurrences = new int[needles.size()];
+        Arrays.fill(occurrences, NOT_FOUND);
+
+        int remaining = occurrences.length;
+        int state = 0;
+        for (int i = 0; i < text.length() && remaining > 0; i++) {
+            state = transitions[state * classCount + getCharacterClass(text.charAt(i))];
+
+            for (int needleIndex : outputs[state]) {
+                if (occurrences[needleIndex] == NOT_FOUND) {
+                    occurrences[needleIndex] = i - needles.get(needleIndex).length() + 1;
+                    remaining--;
+                }
+            }
+        }
+
+        return occurrences;
+    }
+
+    private int getCharacterClass(char c) {
+        if (c < ASCII_SIZE) {
+            return asciiClasses[c];
+        }
+
+        int index = Arrays.binarySearch(otherChars, c);
+        return index >= 0 ? otherClasses[index] : 0;
+    }
+}
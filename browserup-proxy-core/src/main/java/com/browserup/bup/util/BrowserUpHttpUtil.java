@@ -21,6 +21,7 @@ import java.net.URISyntaxException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
+import java.util.Locale;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.InflaterInputStream;
 
@@ -118,6 +119,19 @@ public class BrowserUpHttpUtil {
      * @throws DecompressionException thrown if the fullMessage cannot be read or decompressed for any reason
      */
     public static byte[] decompressBrotliContents(byte[] fullMessage) throws DecompressionException {
+        return decompressBrotliContents(fullMessage, Long.MAX_VALUE);
+    }
+
+    /**
+     * Decompresses the brotli byte stream, failing as soon as the decompressed size exceeds the specified maximum.
+     *
+     * @param fullMessage brotli byte stream to decompress
+     * @param maxDecompressedSize maximum size of the decompressed bytes
+     * @return decompressed bytes
+     * @throws DecompressionException thrown if the fullMessage cannot be read or decompressed for any reason, or if the
+     *                                decompressed size exceeds maxDecompressedSize
+     */
+    public static byte[] decompressBrotliContents(byte[] fullMessage, long maxDecompressedSize) throws DecompressionException {
         InputStream brotliReader = null;
         ByteArrayOutputStream uncompressed;
         try {
@@ -126,8 +140,14 @@ public class BrowserUpHttpUtil {
             uncompressed = new ByteArrayOutputStream(fullMessage.length);
 
             byte[] decompressBuffer = new byte[DECOMPRESS_BUFFER_SIZE];
+            long decompressedSize = 0;
             int bytesRead;
             while ((bytesRead = brotliReader.read(decompressBuffer)) > -1) {
+                decompressedSize += bytesRead;
+                if (decompressedSize > maxDecompressedSize) {
+                    throw new DecompressionException("Decompressed response exceeds the maximum size of " + maxDecompressedSize + " bytes");
+                }
+
                 uncompressed.write(decompressBuffer, 0, bytesRead);
             }
 
@@ -318,6 +338,48 @@ public class BrowserUpHttpUtil {
         }
     }
 
+    /**
+     * Returns the host of a URL in lower case, without the user info and the port. IPv6 literals keep their brackets.
+     * Unlike {@link URI#getHost()}, this does not parse or validate the rest of the URL, so it is cheap enough to call for
+     * every captured request.
+     *
+     * @param url absolute URL, e.g. {@code https://user@Example.com:8443/path}
+     * @return the host of the URL, e.g. {@code example.com}, or null if the URL is null, is not absolute or has no host
+     */
+    public static String getHostFromUrl(String url) {
+        if (url == null) {
+            return null;
+        }
+
+        int start = url.indexOf("://");
+        if (start < 0) {
+            return null;
+        }
+        start += 3;
+
+        int end = start;
+        while (end < url.length() && "/?#".indexOf(url.charAt(end)) < 0) {
+            end++;
+        }
+
+        int userInfoEnd = url.lastIndexOf('@', end - 1);
+        if (userInfoEnd >= start) {
+            start = userInfoEnd + 1;
+        }
+
+        int hostEnd;
+        if (start < end && url.charAt(start) == '[') {
+            // IPv6 literal
+            int closingBracket = url.indexOf(']', start);
+            hostEnd = closingBracket >= 0 && closingBracket < end ? closingBracket + 1 : end;
+        } else {
+            int portStart = url.indexOf(':', start);
+            hostEnd = portStart >= 0 && portStart < end ? portStart : end;
+        }
+
+        return hostEnd > start ? url.substring(start, hostEnd).toLowerCase(Locale.ROOT) : null;
+    }
+
     /**
      * Base64-encodes the specified username and password for Basic Authorization for HTTP requests or upstream proxy
      * authorization. The format of Basic auth is "username:password" as a base64 string.
@@ -1,5 +1,7 @@
 package com.browserup.bup.util;
 
+import com.browserup.bup.har.BoundedHarEntryList;
+import com.browserup.bup.har.HarPageList;
 import com.google.common.base.Suppliers;
 import java.net.InetSocketAddress;
 import java.net.URI;
@@ -16,8 +18,11 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * General utility class for functionality and classes used mostly internally by BrowserUp Proxy.
@@ -44,6 +49,9 @@ public class BrowserUpProxyUtil {
      * Copies {@link de.sstoehr.harreader.model.HarEntry} and {@link HarPage} references from the specified har to a
      * new har copy, up to and including the specified pageRef. Does not perform a "deep copy", so any subsequent
      * modification to the entries or pages will be reflected in the copied har.
+     * <p>
+     * When the har's pages are a {@link HarPageList} and its entries a {@link BoundedHarEntryList}, only the pages being
+     * copied and their entries are visited.
      *
      * @param har existing har to copy
      * @param pageRef last page ID to copy
@@ -58,28 +66,40 @@ public class BrowserUpProxyUtil {
             return new Har();
         }
 
-        // collect the page refs that need to be copied to new har copy.
-        Set<String> pageRefsToCopy = new HashSet<>();
-
-        for (HarPage page : har.getLog().getPages()) {
-            pageRefsToCopy.add(page.getId());
+        HarLog log = har.getLog();
+        HarLog logCopy = new HarLog();
 
-            if (pageRef.equals(page.getId())) {
-                break;
+        if (log.getPages() instanceof HarPageList && log.getEntries() instanceof BoundedHarEntryList) {
+            // only visit the pages being copied, and their entries
+            List<HarPage> pagesToCopy = ((HarPageList) log.getPages()).getPagesThrough(pageRef);
+            Set<String> pageRefsToCopy = pagesToCopy.stream()
+                    .map(HarPage::getId)
+                    .collect(Collectors.toCollection(LinkedHashSet::new));
+
+            logCopy.getEntries().addAll(((BoundedHarEntryList) log.getEntries()).getPageEntries(pageRefsToCopy));
+            logCopy.getPages().addAll(pagesToCopy);
+        } else {
+            // collect the page refs that need to be copied to new har copy.
+            Set<String> pageRefsToCopy = new HashSet<>();
+
+            for (HarPage page : log.getPages()) {
+                pageRefsToCopy.add(page.getId());
+
+                if (pageRef.equals(page.getId())) {
+                    break;
+                }
             }
-        }
 
-        HarLog logCopy = new HarLog();
-
-        // copy every entry and page in the HarLog that matches a pageRefToCopy. since getEntries() and getPages() return
-        // lists, we are guaranteed that we will iterate through the pages and entries in the proper order
-        har.getLog().getEntries().stream()
-                .filter(entry -> pageRefsToCopy.contains(entry.getPageref()))
-                .forEach(entry -> logCopy.getEntries().add(entry));
+            // copy every entry and page in the HarLog that matches a pageRefToCopy. since getEntries() and getPages() return
+            // lists, we are guaranteed that we will iterate through the pages and entries in the proper order
+            log.getEntries().stream()
+                    .filter(entry -> pageRefsToCopy.contains(entry.getPageref()))
+                    .forEach(entry -> logCopy.getEntries().add(entry));
 
-        har.getLog().getPages().stream()
-                .filter(page -> pageRefsToCopy.contains(page.getId()))
-                .forEach(page -> logCopy.getPages().add(page));
+            log.getPages().stream()
+                    .filter(page -> pageRefsToCopy.contains(page.getId()))
+                    .forEach(page -> logCopy.getPages().add(page));
+        }
 
         Har harCopy = new Har();
         harCopy.setLog(logCopy);
@@ -0,0 +1,517 @@
+package com.browserup.bup.util;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+/**
+ * A thread-safe, append-only {@link java.util.List} intended for HAR entries and pages, which are appended to from many
+ * Netty I/O threads and read (usually much less often) when the HAR is retrieved.
+ * <p>
+ * Unlike {@link java.util.concurrent.CopyOnWriteArrayList}, appends never copy existing elements. Elements are stored in
+ * fixed-size chunks, which are kept in a ring: each chunk occupies the slot of the ring selected by its number modulo the
+ * size of the ring, and the ring only grows when a new chunk would collide with a chunk that is still in use. An append is
+ * O(1), and takes a lock only when it allocates a new chunk, i.e. once per {@value #CHUNK_SIZE} elements.
+ * <p>
+ * The oldest elements may be evicted with {@link #pollFirst()}. A chunk is released as soon as every element in it has
+ * been evicted, so a list whose oldest elements are evicted as new ones are appended (e.g. because the HAR is bounded)
+ * retains memory proportional to the number of elements it holds, not to the number of elements ever appended to it.
+ * Positions are 64-bit, so the list never fills up.
+ * <p>
+ * Iterators are weakly consistent: an iterator returns the elements that were visible when it was created and never throws
+ * {@link java.util.ConcurrentModificationException}. Elements may be replaced with {@link #set(int, Object)}, but cannot
+ * otherwise be removed through the {@link java.util.List} interface, only by {@link #pollFirst()}, or by subclasses with
+ * {@link #removeAtPosition(long, Object)}. Null elements are not permitted.
+ * <p>
+ * If a writer fails after it has reserved a slot but before it has written its element (e.g. because the chunk for the
+ * slot could not be allocated), the slot is filled with a tombstone instead, so that the elements appended after it are
+ * still published. An element removed with {@link #removeAtPosition(long, Object)} is replaced with a tombstone too.
+ * Tombstones are not elements: they are skipped by iterators and index-based access, not counted by {@link #size()},
+ * and discarded when they reach the head of the list.
+ * <p>
+ * The list does not implement {@link RandomAccess}, and should be read with its iterator or spliterator. Index-based
+ * access is O(1) only as long as the list contains no tombstones, and otherwise runs in time proportional to the index;
+ * and since elements may be evicted between a call to {@link #size()} and a call to {@link #get(int)}, an indexed loop
+ * over a list that is being evicted from may fail with an {@link IndexOutOfBoundsException}. Serializers such as
+ * Jackson's therefore iterate over the list rather than reading it by index.
+ *
+ * @param <E> type of the elements in this list
+ */
+public class ConcurrentAppendOnlyList<E> extends AbstractList<E> {
+    private static final int CHUNK_SHIFT = 6;
+
+    /**
+     * Number of slots in each chunk.
+     */
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private static final int INITIAL_RING_SIZE = 4;
+
+    /**
+     * Fills a slot that was reserved, but whose element was never written, or whose element was removed.
+     */
+    private static final Object TOMBSTONE = new Object();
+
+    /**
+     * Chunks that are in use, each at index (chunk number &amp; (length - 1)). The length is always a power of two.
+     * Replaced (with a larger ring) and modified only while holding {@link #ringLock}; read without it.
+     */
+    private volatile AtomicReferenceArray<Chunk> ring = new AtomicReferenceArray<>(INITIAL_RING_SIZE);
+
+    private final Object ringLock = new Object();
+
+    /**
+     * Number of slots handed out to writers. Slots below this position may not have been written yet.
+     */
+    private final AtomicLong reserved = new AtomicLong();
+
+    /**
+     * Number of leading slots that are known to be written, and are therefore visible to readers.
+     */
+    private final AtomicLong published = new AtomicLong();
+
+    /**
+     * Position of the oldest slot that has not been evicted. Always less than or equal to {@link #published}.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Number of tombstones at or after the head.
+     */
+    private final AtomicLong tombstones = new AtomicLong();
+
+    public ConcurrentAppendOnlyList() {
+    }
+
+    @Override
+    public boolean add(E element) {
+        append(element);
+
+        return true;
+    }
+
+    /**
+     * Appends an element and returns its position, which identifies the element's slot for
+     * {@link #removeAtPosition(long, Object)}. Unlike an index, the position of an element does not change when the
+     * elements before it are removed.
+     *
+     * @param element element to append
+     * @return position of the element
+     */
+    protected long append(E element) {
+        Objects.requireNonNull(element, "Null elements are not permitted");
+
+        long position = reserved.getAndIncrement();
+
+        boolean written = false;
+        try {
+            chunkFor(position).slots.set(slotOffset(position), element);
+            written = true;
+        } finally {
+            if (!written) {
+                // an unwritten slot would stop the published count, and with it every reader, forever
+                tombstones.incrementAndGet();
+                chunkFor(position).slots.set(slotOffset(position), TOMBSTONE);
+            }
+
+            advancePublished();
+        }
+
+        return position;
+    }
+
+    /**
+     * Removes an element from its slot, wherever it is in the list, by replacing it with a tombstone. Runs in O(1)
+     * time, plus the time needed to discard the tombstones that have reached the head of the list. While the list
+     * contains tombstones, random access runs in time proportional to the index.
+     *
+     * @param position position of the element, as returned by {@link #append(Object)}
+     * @param element element expected in the slot
+     * @return true if the element was removed, false if the slot no longer holds it (e.g. because it was evicted)
+     */
+    protected boolean removeAtPosition(long position, E element) {
+        Objects.requireNonNull(element, "Null elements are not permitted");
+
+        // a slot that holds the element has been written, even if it has not been published yet
+        if (position < head.get() || position >= reserved.get()) {
+            return false;
+        }
+
+        Chunk chunk = getChunk(position);
+        if (chunk == null) {
+            return false;
+        }
+
+        // counted before the slot is replaced, so that index-based access never skips a tombstone it does not know of
+        tombstones.incrementAndGet();
+        if (!chunk.slots.compareAndSet(slotOffset(position), element, TOMBSTONE)) {
+            tombstones.decrementAndGet();
+            return false;
+        }
+
+        discardLeadingTombstones();
+
+        return true;
+    }
+
+    @Override
+    public E get(int index) {
+        while (true) {
+            E element = asElement(readSlot(slotOf(index)));
+            // the element was evicted after its slot was found, so the element at this index has changed; try again
+            if (element != null) {
+                return element;
+            }
+        }
+    }
+
+    @Override
+    public E set(int index, E element) {
+        Objects.requireNonNull(element, "Null elements are not permitted");
+
+        while (true) {
+            long position = slotOf(index);
+            Chunk chunk = getChunk(position);
+            E previous = chunk == null ? null : asElement(chunk.slots.get(slotOffset(position)));
+            // as in get(), a missing element means the element was evicted concurrently
+            if (previous != null && chunk.slots.compareAndSet(slotOffset(position), previous, element)) {
+                return previous;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        // read published first: the head never moves past it
+        long last = advancePublished();
+
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, last - head.get() - tombstones.get()));
+    }
+
+    /**
+     * Removes and returns the oldest element in this list. Runs in O(1) time.
+     *
+     * @return the oldest element, or null if the list is empty
+     */
+    public E pollFirst() {
+        return pollFirstIf(element -> true);
+    }
+
+    /**
+     * Removes and returns the oldest element in this list, if it matches the specified predicate. Runs in O(1) time.
+     *
+     * @param predicate condition the oldest element must satisfy in order to be removed
+     * @return the removed element, or null if the list is empty or the oldest element does not satisfy the predicate
+     */
+    public E pollFirstIf(Predicate<? super E> predicate) {
+        while (true) {
+            long first = head.get();
+            if (first >= advancePublished()) {
+                return null;
+            }
+
+            Chunk chunk = getChunk(first);
+            Object value = chunk == null ? null : chunk.slots.get(slotOffset(first));
+            if (value == null) {
+                // another thread is evicting this element
+                continue;
+            }
+
+            if (value == TOMBSTONE) {
+                if (head.compareAndSet(first, first + 1)) {
+                    tombstones.decrementAndGet();
+                    clearSlot(chunk, first);
+                }
+                continue;
+            }
+
+            E element = asElement(value);
+            if (!predicate.test(element)) {
+                return null;
+            }
+
+            if (head.compareAndSet(first, first + 1)) {
+                clearSlot(chunk, first);
+
+                return element;
+            }
+        }
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        final long snapshotEnd = advancePublished();
+        final long snapshotStart = head.get();
+
+        return new Iterator<E>() {
+            private long cursor = snapshotStart;
+            private E next;
+
+            @Override
+            public boolean hasNext() {
+                // skip over elements that were evicted since the iterator was created, and over tombstones
+                while (next == null && cursor < snapshotEnd) {
+                    next = asElement(readSlot(cursor++));
+                }
+
+                return next != null;
+            }
+
+            @Override
+            public E next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                E element = next;
+                next = null;
+
+                return element;
+            }
+        };
+    }
+
+    @Override
+    public Spliterator<E> spliterator() {
+        // the default spliterator reads by index, which is not stable while elements are being evicted
+        return Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
+    /**
+     * @return number of chunks currently allocated; used by tests to check that evicted chunks are released
+     */
+    int getAllocatedChunks() {
+        AtomicReferenceArray<Chunk> current = ring;
+
+        int allocated = 0;
+        for (int i = 0; i < current.length(); i++) {
+            if (current.get(i) != null) {
+                allocated++;
+            }
+        }
+
+        return allocated;
+    }
+
+    /**
+     * @return number of chunks the ring can hold without growing; used by tests
+     */
+    int getRingSize() {
+        return ring.length();
+    }
+
+    /**
+     * Moves the head past the tombstones at the head of the list, so that their chunks can be released.
+     */
+    private void discardLeadingTombstones() {
+        while (true) {
+            long first = head.get();
+            if (first >= advancePublished()) {
+                return;
+            }
+
+            Chunk chunk = getChunk(first);
+            Object value = chunk == null ? null : chunk.slots.get(slotOffset(first));
+            if (value != TOMBSTONE) {
+                // an element, or a slot another thread is evicting
+                return;
+            }
+
+            if (head.compareAndSet(first, first + 1)) {
+                tombstones.decrementAndGet();
+                clearSlot(chunk, first);
+            }
+        }
+    }
+
+    /**
+     * Moves the published count past every contiguous written slot. Writers may finish out of order, so a slot that was
+     * reserved but not yet written stops the published count until its writer (or any later caller) advances it.
+     *
+     * @return the current published count
+     */
+    private long advancePublished() {
+        while (true) {
+            long current = published.get();
+            long next = current;
+            long limit = reserved.get();
+
+            while (next < limit && isWritten(next)) {
+                next++;
+            }
+
+            if (next == current || published.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Finds the slot of the element at the specified index. Runs in O(1) time if there are no tombstones in the list,
+     * and otherwise in time proportional to the index.
+     */
+    private long slotOf(int index) {
+        long first = head.get();
+        long last = advancePublished();
+
+        if (index >= 0 && tombstones.get() == 0) {
+            if (index < last - first) {
+                return first + index;
+            }
+        } else if (index >= 0) {
+            int remaining = index;
+            for (long position = first; position < last; position++) {
+                if (asElement(readSlot(position)) != null && remaining-- == 0) {
+                    return position;
+                }
+            }
+        }
+
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+    }
+
+    private boolean isWritten(long position) {
+        Chunk chunk = getChunk(position);
+
+        return chunk != null && chunk.slots.get(slotOffset(position)) != null;
+    }
+
+    /**
+     * @return the element or tombstone in the specified slot, or null if it has been evicted
+     */
+    private Object readSlot(long position) {
+        Chunk chunk = getChunk(position);
+
+        return chunk == null ? null : chunk.slots.get(slotOffset(position));
+    }
+
+    /**
+     * Clears a slot that the head has moved past. Once the last slot in a chunk is cleared, the chunk is removed from the
+     * ring, so that it can be garbage collected and its place in the ring reused.
+     */
+    private void clearSlot(Chunk chunk, long position) {
+        chunk.slots.set(slotOffset(position), null);
+
+        if (slotOffset(position) == CHUNK_SIZE - 1) {
+            synchronized (ringLock) {
+                AtomicReferenceArray<Chunk> current = ring;
+                current.compareAndSet(ringIndex(current, chunk.number), chunk, null);
+            }
+        }
+    }
+
+    /**
+     * @return the value as an element, or null if it is a tombstone or null
+     */
+    @SuppressWarnings("unchecked")
+    private static <E> E asElement(Object value) {
+        return value == TOMBSTONE ? null : (E) value;
+    }
+
+    /**
+     * @return the chunk holding the specified slot, or null if it has not been allocated yet or has already been released
+     */
+    private Chunk getChunk(long position) {
+        long number = position >>> CHUNK_SHIFT;
+        AtomicReferenceArray<Chunk> current = ring;
+        Chunk chunk = current.get(ringIndex(current, number));
+
+        // the ring slot may hold a later chunk, once the chunk for this position has been released
+        return chunk != null && chunk.number == number ? chunk : null;
+    }
+
+    /**
+     * Returns the chunk holding the specified slot, allocating it if necessary. Must only be called for slots that have
+     * been reserved but not yet published, whose chunks therefore cannot have been released.
+     */
+    private Chunk chunkFor(long position) {
+        Chunk chunk = getChunk(position);
+        if (chunk != null) {
+            return chunk;
+        }
+
+        long number = position >>> CHUNK_SHIFT;
+        synchronized (ringLock) {
+            AtomicReferenceArray<Chunk> current = ring;
+            int index = ringIndex(current, number);
+            Chunk existing = current.get(index);
+            if (existing != null && existing.number == number) {
+                // allocated by another writer to the same chunk
+                return existing;
+            }
+
+            chunk = new Chunk(number);
+            if (existing == null || isReleased(existing)) {
+                // a chunk the head has moved past may not have been removed yet by the thread that cleared its last slot
+                current.set(index, chunk);
+            } else {
+                // the ring slot is held by an older chunk that is still in use
+                ring = grow(current, chunk);
+            }
+
+            return chunk;
+        }
+    }
+
+    /**
+     * Creates a larger ring holding every chunk of the current ring that is still in use, plus a new chunk. Chunks in use
+     * have distinct numbers within a bounded range, so doubling the size of the ring eventually places each of them in a
+     * slot of its own.
+     */
+    private AtomicReferenceArray<Chunk> grow(AtomicReferenceArray<Chunk> current, Chunk added) {
+        int size = current.length() * 2;
+
+        while (true) {
+            AtomicReferenceArray<Chunk> grown = new AtomicReferenceArray<>(size);
+            boolean placed = place(grown, added);
+
+            for (int i = 0; placed && i < current.length(); i++) {
+                Chunk chunk = current.get(i);
+                if (chunk != null && !isReleased(chunk)) {
+                    placed = place(grown, chunk);
+                }
+            }
+
+            if (placed) {
+                return grown;
+            }
+
+            size *= 2;
+        }
+    }
+
+    private boolean isReleased(Chunk chunk) {
+        return (chunk.number + 1) << CHUNK_SHIFT <= head.get();
+    }
+
+    private static boolean place(AtomicReferenceArray<Chunk> ring, Chunk chunk) {
+        return ring.compareAndSet(ringIndex(ring, chunk.number), null, chunk);
+    }
+
+    private static int ringIndex(AtomicReferenceArray<Chunk> ring, long number) {
+        return (int) (number & (ring.length() - 1));
+    }
+
+    private static int slotOffset(long position) {
+        return (int) (position & (CHUNK_SIZE - 1));
+    }
+
+    /**
+     * A fixed-size block of consecutive slots, starting at position (number * {@link #CHUNK_SIZE}).
+     */
+    private static class Chunk {
+        private final long number;
+        private final AtomicReferenceArray<Object> slots = new AtomicReferenceArray<>(CHUNK_SIZE);
+
+        private Chunk(long number) {
+            this.number = number;
+        }
+    }
+}
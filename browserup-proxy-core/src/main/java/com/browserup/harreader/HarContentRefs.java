@@ -0,0 +1,112 @@
+package com.browserup.harreader;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import de.sstoehr.harreader.model.Har;
+import de.sstoehr.harreader.model.HarContent;
+import de.sstoehr.harreader.model.HarEntry;
+
+/**
+ * Support for HARs in which repeated response bodies are written once. Every response content whose text is at least
+ * {@link #MIN_CONTENT_REF_LENGTH} characters long is given a {@value #CONTENT_REF_FIELD} field identifying its text
+ * (and encoding). Only the first content with a given reference includes the text; later contents with the same
+ * reference omit it.
+ * <p>
+ * Such HARs are written by {@link HarStreamingWriter#withContentRefs()}, and can be expanded back into regular HARs
+ * with {@link #expand(Har)}.
+ */
+public class HarContentRefs {
+    /**
+     * Name of the custom content field holding the content reference.
+     */
+    public static final String CONTENT_REF_FIELD = "_contentRef";
+
+    /**
+     * Minimum length of a content text that is given a reference. Replacing shorter texts would hardly save anything.
+     */
+    public static final int MIN_CONTENT_REF_LENGTH = 1024;
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private HarContentRefs() {
+    }
+
+    /**
+     * Computes the reference of a content text.
+     *
+     * @param text content text
+     * @param encoding content encoding, e.g. "base64", or null if the text is not encoded
+     * @return reference of the text, e.g. "sha256:9f86d0..."
+     */
+    public static String contentRef(String text, String encoding) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(DIGEST_ALGORITHM + " is not available", e);
+        }
+
+        if (encoding != null) {
+            digest.update(encoding.getBytes(StandardCharsets.UTF_8));
+        }
+        // separates the encoding from the text
+        digest.update((byte) 0);
+        byte[] hash = digest.digest(text.getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder ref = new StringBuilder("sha256:".length() + hash.length * 2).append("sha256:");
+        for (byte b : hash) {
+            ref.append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
+        }
+
+        return ref.toString();
+    }
+
+    /**
+     * Restores the text of every response content that refers to the text of an earlier content with
+     * {@value #CONTENT_REF_FIELD}. The HAR is modified in place. Contents that refer to a text that does not appear
+     * earlier in the HAR are left without text.
+     *
+     * @param har HAR to expand
+     * @return the same HAR
+     */
+    public static Har expand(Har har) {
+        if (har == null || har.getLog() == null) {
+            return har;
+        }
+
+        Map<Object, HarContent> contentsByRef = new HashMap<>();
+        for (HarEntry entry : har.getLog().getEntries()) {
+            if (entry.getResponse() == null || entry.getResponse().getContent() == null) {
+                continue;
+            }
+
+            HarContent content = entry.getResponse().getContent();
+            Object ref = content.getAdditional().get(CONTENT_REF_FIELD);
+            if (ref == null) {
+                continue;
+            }
+
+            if (content.getText() != null) {
+                contentsByRef.putIfAbsent(ref, content);
+                continue;
+            }
+
+            HarContent original = contentsByRef.get(ref);
+            if (original != null) {
+                content.setText(original.getText());
+                if (content.getEncoding() == null) {
+                    content.setEncoding(original.getEncoding());
+                }
+            }
+        }
+
+        return har;
+    }
+}
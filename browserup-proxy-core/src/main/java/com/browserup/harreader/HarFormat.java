@@ -0,0 +1,128 @@
+package com.browserup.harreader;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.util.Locale;
+
+/**
+ * Encodings a HAR can be exported in. Besides JSON, HARs can be encoded in the binary Smile and CBOR formats, which have
+ * the same data model as JSON but are faster to encode and decode, and smaller.
+ */
+public enum HarFormat {
+    JSON("application/json"),
+    SMILE("application/x-jackson-smile"),
+    CBOR("application/cbor");
+
+    private final String mediaType;
+
+    HarFormat(String mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    /**
+     * @return the media type of the format, e.g. "application/cbor"
+     */
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * Creates a mapper for this format, with the same configuration as the specified JSON mapper.
+     *
+     * @param jsonMapper mapper to copy the configuration of
+     * @return a mapper that reads and writes this format
+     */
+    public ObjectMapper createMapper(ObjectMapper jsonMapper) {
+        switch (this) {
+            case SMILE:
+                return jsonMapper.copyWith(new SmileFactory());
+            case CBOR:
+                return jsonMapper.copyWith(new CBORFactory());
+            default:
+                return jsonMapper;
+        }
+    }
+
+    /**
+     * Selects the format to reply with for the value of an Accept header. The first supported media type in the header
+     * wins; media types with a quality of 0 are skipped.
+     *
+     * @param accept value of the Accept header, or null
+     * @return the selected format, or {@link #JSON} if the header does not name a binary format
+     */
+    public static HarFormat forAcceptHeader(String accept) {
+        if (accept == null) {
+            return JSON;
+        }
+
+        for (String range : accept.split(",")) {
+            String[] parts = range.split(";");
+            if (isRejected(parts)) {
+                continue;
+            }
+
+            HarFormat format = forMediaType(parts[0]);
+            if (format != null) {
+                return format;
+            }
+        }
+
+        return JSON;
+    }
+
+    /**
+     * @param mediaType a media type, without parameters
+     * @return the format with the specified media type, or null if no format has it
+     */
+    public static HarFormat forMediaType(String mediaType) {
+        String normalized = mediaType.trim().toLowerCase(Locale.ROOT);
+        for (HarFormat format : values()) {
+            if (format.mediaType.equals(normalized)) {
+                return format;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Detects the format of encoded HAR content from its first bytes. Smile content starts with the ":)\n" header, and a
+     * CBOR-encoded HAR starts with the self-describe tag or a map; anything else is assumed to be JSON.
+     *
+     * @param prefix first bytes of the content
+     * @param length number of bytes of the prefix that were read
+     * @return the detected format
+     */
+    public static HarFormat detect(byte[] prefix, int length) {
+        if (length >= 3 && prefix[0] == ':' && prefix[1] == ')' && prefix[2] == '\n') {
+            return SMILE;
+        }
+
+        if (length >= 1) {
+            int first = prefix[0] & 0xFF;
+            // 0xD9 starts the 0xD9D9F7 self-describe tag; 0xA0-0xBF start a map
+            if (first == 0xD9 || (first >= 0xA0 && first <= 0xBF)) {
+                return CBOR;
+            }
+        }
+
+        return JSON;
+    }
+
+    private static boolean isRejected(String[] mediaRangeParts) {
+        for (int i = 1; i < mediaRangeParts.length; i++) {
+            String parameter = mediaRangeParts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2)) <= 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+
+        return false;
+    }
+}
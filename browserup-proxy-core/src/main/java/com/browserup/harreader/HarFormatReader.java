@@ -0,0 +1,263 @@
+package com.browserup.harreader;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import de.sstoehr.harreader.model.Har;
+import de.sstoehr.harreader.model.HarEntry;
+
+/**
+ * Reads HARs encoded in any {@link HarFormat}, detecting the format from the content. The readers for each format are
+ * created once and reused, since creating a Jackson mapper is much more expensive than reading a small HAR.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class HarFormatReader {
+    /**
+     * Number of bytes needed by {@link HarFormat#detect(byte[], int)}.
+     */
+    private static final int PREFIX_LENGTH = 3;
+
+    private final Map<HarFormat, ObjectReader> readers = new EnumMap<>(HarFormat.class);
+    private final Map<HarFormat, ObjectReader> entryReaders = new EnumMap<>(HarFormat.class);
+
+    public HarFormatReader() {
+        this(new ObjectMapper());
+    }
+
+    /**
+     * @param jsonMapper mapper whose configuration is used for every format
+     */
+    public HarFormatReader(ObjectMapper jsonMapper) {
+        for (HarFormat format : HarFormat.values()) {
+            ObjectMapper mapper = format.createMapper(jsonMapper);
+            readers.put(format, mapper.readerFor(Har.class));
+            entryReaders.put(format, mapper.readerFor(HarEntry.class));
+        }
+    }
+
+    /**
+     * Reads a HAR from a file.
+     *
+     * @param file file to read
+     * @return the HAR, or null if the file contains a null value
+     * @throws IOException if the file cannot be read or parsed
+     */
+    public Har read(File file) throws IOException {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Reads a HAR from a stream, and closes the stream.
+     *
+     * @param in stream to read
+     * @return the HAR, or null if the stream contains a null value
+     * @throws IOException if the stream cannot be read or parsed
+     */
+    public Har read(InputStream in) throws IOException {
+        InputStream buffered = in.markSupported() ? in : new BufferedInputStream(in);
+
+        buffered.mark(PREFIX_LENGTH);
+        byte[] prefix = new byte[PREFIX_LENGTH];
+        int length = 0;
+        int read;
+        while (length < PREFIX_LENGTH && (read = buffered.read(prefix, length, PREFIX_LENGTH - length)) > 0) {
+            length += read;
+        }
+        buffered.reset();
+
+        return read(buffered, HarFormat.detect(prefix, length));
+    }
+
+    /**
+     * Reads a HAR in the specified format from a stream, and closes the stream.
+     *
+     * @param in stream to read
+     * @param format format of the HAR
+     * @return the HAR, or null if the stream contains a null value
+     * @throws IOException if the stream cannot be read or parsed
+     */
+    public Har read(InputStream in, HarFormat format) throws IOException {
+        return readers.get(format).readValue(in);
+    }
+
+    /**
+     * Reads a HAR from a byte array.
+     *
+     * @param content encoded HAR
+     * @return the HAR, or null if the content is a null value
+     * @throws IOException if the content cannot be parsed
+     */
+    public Har read(byte[] content) throws IOException {
+        return readers.get(HarFormat.detect(content, content.length)).readValue(content);
+    }
+
+    /**
+     * Reads a HAR from a file, except for its entries, which can then be read one at a time with
+     * {@link #readEntries(File)}. Only the pages and other fields of the HAR are held in memory.
+     *
+     * @param file file to read
+     * @return the HAR, with no entries, or null if the file contains a null value
+     * @throws IOException if the file cannot be read or parsed
+     */
+    public Har readWithoutEntries(File file) throws IOException {
+        ObjectReader reader = readers.get(detect(file));
+
+        try (JsonParser parser = reader.createParser(file)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return reader.readValue(parser);
+            }
+
+            ObjectNode har = JsonNodeFactory.instance.objectNode();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                if (parser.nextToken() != JsonToken.START_OBJECT || !"log".equals(name)) {
+                    har.set(name, reader.readTree(parser));
+                    continue;
+                }
+
+                ObjectNode log = har.putObject(name);
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String logName = parser.currentName();
+                    parser.nextToken();
+                    if ("entries".equals(logName)) {
+                        parser.skipChildren();
+                    } else {
+                        log.set(logName, reader.readTree(parser));
+                    }
+                }
+            }
+
+            return reader.readValue(har);
+        }
+    }
+
+    /**
+     * Reads the entries of a HAR file one at a time, as they are iterated over. The returned iterator must be closed,
+     * which closes the file. Errors reading the file while iterating are thrown as {@link UncheckedIOException}s.
+     *
+     * @param file file to read
+     * @return iterator over the entries of the HAR, in order
+     * @throws IOException if the file cannot be read, or its entries cannot be found
+     */
+    public EntryIterator readEntries(File file) throws IOException {
+        HarFormat format = detect(file);
+        JsonParser parser = readers.get(format).createParser(file);
+
+        try {
+            boolean found = findEntries(parser);
+
+            return new EntryIterator(parser, entryReaders.get(format), found ? null : JsonToken.END_ARRAY);
+        } catch (IOException | RuntimeException e) {
+            parser.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Advances the parser to the start of the array of entries.
+     *
+     * @return false if the HAR has no array of entries
+     */
+    private static boolean findEntries(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return false;
+        }
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            if (parser.nextToken() == JsonToken.START_OBJECT && "log".equals(name)) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String logName = parser.currentName();
+                    if (parser.nextToken() == JsonToken.START_ARRAY && "entries".equals(logName)) {
+                        return true;
+                    }
+                    parser.skipChildren();
+                }
+
+                return false;
+            }
+            parser.skipChildren();
+        }
+
+        return false;
+    }
+
+    private static HarFormat detect(File file) throws IOException {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            byte[] prefix = in.readNBytes(PREFIX_LENGTH);
+
+            return HarFormat.detect(prefix, prefix.length);
+        }
+    }
+
+    /**
+     * Iterator over the entries of a HAR file, which reads the next entry from the file when it is requested.
+     */
+    public static class EntryIterator implements Iterator<HarEntry>, Closeable {
+        private final JsonParser parser;
+        private final ObjectReader entryReader;
+
+        /**
+         * Token starting the next entry, or null if it has not been read yet.
+         */
+        private JsonToken next;
+
+        private EntryIterator(JsonParser parser, ObjectReader entryReader, JsonToken next) {
+            this.parser = parser;
+            this.entryReader = entryReader;
+            this.next = next;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                try {
+                    next = parser.nextToken();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            return next != null && next != JsonToken.END_ARRAY;
+        }
+
+        @Override
+        public HarEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            next = null;
+            try {
+                return entryReader.readValue(parser);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            next = JsonToken.END_ARRAY;
+            parser.close();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.browserup.harreader;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import de.sstoehr.harreader.model.Har;
+import de.sstoehr.harreader.model.HarCreatorBrowser;
+import de.sstoehr.harreader.model.HarEntry;
+import de.sstoehr.harreader.model.HarLog;
+
+/**
+ * Reassembles a HAR from files containing one JSON-encoded entry per line (NDJSON), such as the files written by
+ * {@link com.browserup.bup.har.HarNdjsonSink}. Entries are read one at a time, so only the reassembled HAR is held in
+ * memory, not the files.
+ * <p>
+ * A file that ends with an incomplete line, e.g. because the process writing it was killed, is read up to that line.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class HarNdjsonReader {
+    /**
+     * Glob matching the files written by {@link com.browserup.bup.har.HarNdjsonSink}.
+     */
+    public static final String DEFAULT_FILE_GLOB = "har-*.ndjson";
+
+    private final ObjectReader entryReader;
+
+    public HarNdjsonReader() {
+        this(new ObjectMapper());
+    }
+
+    /**
+     * @param objectMapper mapper used to deserialize entries
+     */
+    public HarNdjsonReader(ObjectMapper objectMapper) {
+        this.entryReader = objectMapper.readerFor(HarEntry.class);
+    }
+
+    /**
+     * Reassembles a HAR from the files in a directory matching {@link #DEFAULT_FILE_GLOB}, in order of their names.
+     *
+     * @param directory directory containing the files
+     * @return a HAR containing the entries of every file, and no pages
+     * @throws IOException if a file cannot be read
+     */
+    public Har readDirectory(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> matching = Files.newDirectoryStream(directory, DEFAULT_FILE_GLOB)) {
+            matching.forEach(files::add);
+        }
+
+        files.sort(null);
+
+        return read(files);
+    }
+
+    /**
+     * Reassembles a HAR from the specified files.
+     *
+     * @param files files to read, in order
+     * @return a HAR containing the entries of every file, in order, and no pages
+     * @throws IOException if a file cannot be read
+     */
+    public Har read(List<Path> files) throws IOException {
+        HarLog log = new HarLog();
+        for (Path file : files) {
+            readEntries(file, log.getEntries()::add);
+        }
+
+        Har har = new Har();
+        har.setLog(log);
+
+        HarCreatorBrowser creator = new HarCreatorBrowser();
+        creator.setName(HarNdjsonReader.class.getSimpleName());
+        creator.setVersion("1.0");
+        log.setCreator(creator);
+
+        return har;
+    }
+
+    /**
+     * Reads the entries of a file, one at a time.
+     *
+     * @param file file to read
+     * @param consumer consumer of each entry, in order
+     * @return number of entries read
+     * @throws IOException if the file cannot be read, or contains a malformed line that is not the last line
+     */
+    public long readEntries(Path file, Consumer<HarEntry> consumer) throws IOException {
+        long count = 0;
+
+        try (MappingIterator<HarEntry> entries = entryReader.readValues(file.toFile())) {
+            while (true) {
+                HarEntry entry;
+                try {
+                    if (!entries.hasNextValue()) {
+                        break;
+                    }
+
+                    entry = entries.nextValue();
+                } catch (JsonProcessingException e) {
+                    if (isIncompleteLastLine(file, e)) {
+                        break;
+                    }
+
+                    throw e;
+                }
+
+                consumer.accept(entry);
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return true if the parse error is in the last line of the file, and the file does not end with a line separator
+     */
+    private static boolean isIncompleteLastLine(Path file, JsonProcessingException e) throws IOException {
+        if (e.getLocation() == null) {
+            return false;
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+            long length = raf.length();
+            if (length == 0) {
+                return false;
+            }
+
+            raf.seek(length - 1);
+            if (raf.read() == '\n') {
+                return false;
+            }
+
+            // find the start of the last line, reading backwards from the end of the file
+            byte[] block = new byte[8192];
+            long lastLineStart = 0;
+            long blockEnd = length;
+            while (blockEnd > 0 && lastLineStart == 0) {
+                int blockLength = (int) Math.min(block.length, blockEnd);
+                raf.seek(blockEnd - blockLength);
+                raf.readFully(block, 0, blockLength);
+
+                for (int i = blockLength - 1; i >= 0; i--) {
+                    if (block[i] == '\n') {
+                        lastLineStart = blockEnd - blockLength + i + 1;
+                        break;
+                    }
+                }
+
+                blockEnd -= blockLength;
+            }
+
+            long errorOffset = e.getLocation().getByteOffset();
+
+            return errorOffset < 0 || errorOffset >= lastLineStart;
+        }
+    }
+}
@@ -0,0 +1,484 @@
+package com.browserup.harreader;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import de.sstoehr.harreader.model.Har;
+import de.sstoehr.harreader.model.HarEntry;
+import de.sstoehr.harreader.model.HarLog;
+import de.sstoehr.harreader.model.HarPage;
+
+/**
+ * Writes a {@link Har} (or a list of {@link HarEntry}s) as JSON directly to an {@link OutputStream}, one page and one
+ * entry at a time. Unlike serializing the whole {@link Har} to a String or byte array first, memory used by the
+ * writer does not depend on the size of the HAR, and the first bytes are sent to the client as soon as the first
+ * entries are encoded.
+ * <p>
+ * The output stream is flushed after every {@link #getFlushInterval()} entries, but it is never closed.
+ * <p>
+ * A writer created with {@link #withContentRefs()} writes each repeated response body only once, as described in
+ * {@link HarContentRefs}.
+ * <p>
+ * A writer created with {@link #withParallelEncoding(ForkJoinPool)} encodes the entries of large HARs in parallel: the
+ * entries are split into chunks, each chunk is encoded into its own buffer on the pool, and the buffers are written to
+ * the output stream in order, so the output is the same as when encoding on one thread (apart from whitespace, if the
+ * mapper indents its output). Only a bounded number of chunks is encoded ahead of the chunk being written, and the
+ * output stream is flushed after every chunk. Entries are only encoded in parallel when writing JSON to an output
+ * stream without content references; otherwise they are encoded on the calling thread.
+ */
+public class HarStreamingWriter {
+    /**
+     * Default number of entries to write between flushes of the output stream.
+     */
+    public static final int DEFAULT_FLUSH_INTERVAL = 100;
+
+    /**
+     * Default number of entries encoded together by one task, when encoding in parallel.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 256;
+
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter objectWriter;
+    private final int flushInterval;
+    private final boolean contentRefs;
+
+    /**
+     * Pool that entries are encoded on, or null to encode entries on the calling thread.
+     */
+    private final ForkJoinPool encodingPool;
+    private final int chunkSize;
+    private final int maxChunksInFlight;
+
+    public HarStreamingWriter() {
+        this(new ObjectMapper());
+    }
+
+    public HarStreamingWriter(ObjectMapper objectMapper) {
+        this(objectMapper, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    public HarStreamingWriter(ObjectMapper objectMapper, int flushInterval) {
+        this(objectMapper, flushInterval, false, null, DEFAULT_CHUNK_SIZE, 1);
+    }
+
+    private HarStreamingWriter(ObjectMapper objectMapper, int flushInterval, boolean contentRefs,
+                               ForkJoinPool encodingPool, int chunkSize, int maxChunksInFlight) {
+        if (flushInterval < 1) {
+            throw new IllegalArgumentException("Flush interval must be positive");
+        }
+
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+
+        if (maxChunksInFlight < 1) {
+            throw new IllegalArgumentException("Maximum number of chunks in flight must be positive");
+        }
+
+        this.objectMapper = objectMapper;
+        // flushing is controlled by this writer, not after every entry
+        this.objectWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.flushInterval = flushInterval;
+        this.contentRefs = contentRefs;
+        this.encodingPool = encodingPool;
+        this.chunkSize = chunkSize;
+        this.maxChunksInFlight = maxChunksInFlight;
+    }
+
+    /**
+     * @return a writer like this one, that writes each repeated response body only once
+     * @see HarContentRefs
+     */
+    public HarStreamingWriter withContentRefs() {
+        return new HarStreamingWriter(objectMapper, flushInterval, true, encodingPool, chunkSize, maxChunksInFlight);
+    }
+
+    /**
+     * Returns a writer like this one, that encodes entries in parallel on the specified pool, in chunks of
+     * {@link #DEFAULT_CHUNK_SIZE} entries, with up to two chunks per thread of the pool encoded ahead of the chunk being
+     * written.
+     *
+     * @param pool pool to encode entries on
+     * @return a writer that encodes entries in parallel
+     */
+    public HarStreamingWriter withParallelEncoding(ForkJoinPool pool) {
+        return withParallelEncoding(pool, DEFAULT_CHUNK_SIZE, pool.getParallelism() * 2);
+    }
+
+    /**
+     * Returns a writer like this one, that encodes entries in parallel on the specified pool. At most
+     * <code>maxChunksInFlight</code> encoded chunks (i.e. <code>chunkSize * maxChunksInFlight</code> entries) are held
+     * in memory at once.
+     *
+     * @param pool pool to encode entries on
+     * @param chunkSize number of entries encoded together by one task
+     * @param maxChunksInFlight maximum number of chunks being encoded or waiting to be written
+     * @return a writer that encodes entries in parallel
+     */
+    public HarStreamingWriter withParallelEncoding(ForkJoinPool pool, int chunkSize, int maxChunksInFlight) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool cannot be null");
+        }
+
+        return new HarStreamingWriter(objectMapper, flushInterval, contentRefs, pool, chunkSize, maxChunksInFlight);
+    }
+
+    public int getFlushInterval() {
+        return flushInterval;
+    }
+
+    public boolean isContentRefs() {
+        return contentRefs;
+    }
+
+    /**
+     * @return true if entries may be encoded in parallel
+     */
+    public boolean isParallelEncoding() {
+        return encodingPool != null;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getMaxChunksInFlight() {
+        return maxChunksInFlight;
+    }
+
+    /**
+     * Writes the specified HAR as a JSON document to the output stream.
+     *
+     * @param har HAR to write
+     * @param out stream to write to; will be flushed, but not closed
+     * @throws IOException if the stream cannot be written to
+     */
+    public void writeHar(Har har, OutputStream out) throws IOException {
+        try (JsonGenerator generator = createGenerator(out)) {
+            writeHar(har, null, generator, out);
+        }
+    }
+
+    /**
+     * Writes the specified HAR as a JSON document to the output stream, with the specified entries instead of the entries
+     * of its log. The entries are iterated over once, so they can be read lazily, e.g. from a file.
+     *
+     * @param har HAR to write
+     * @param entries entries to write
+     * @param out stream to write to; will be flushed, but not closed
+     * @throws IOException if the stream cannot be written to
+     */
+    public void writeHar(Har har, Iterable<HarEntry> entries, OutputStream out) throws IOException {
+        try (JsonGenerator generator = createGenerator(out)) {
+            writeHar(har, entries, generator, out);
+        }
+    }
+
+    /**
+     * Writes the specified entries as a JSON array to the output stream.
+     *
+     * @param entries entries to write
+     * @param out stream to write to; will be flushed, but not closed
+     * @throws IOException if the stream cannot be written to
+     */
+    public void writeEntries(Iterable<HarEntry> entries, OutputStream out) throws IOException {
+        try (JsonGenerator generator = createGenerator(out)) {
+            writeEntries(entries, generator, out);
+        }
+    }
+
+    /**
+     * Writes the specified HAR to an existing generator. The generator is neither flushed at the end nor closed.
+     *
+     * @param har HAR to write
+     * @param generator generator to write to
+     * @throws IOException if the generator cannot be written to
+     */
+    public void writeHar(Har har, JsonGenerator generator) throws IOException {
+        writeHar(har, null, generator, null);
+    }
+
+    /**
+     * Writes the specified entries as a JSON array to an existing generator. The generator is neither flushed at the end
+     * nor closed.
+     *
+     * @param entries entries to write
+     * @param generator generator to write to
+     * @throws IOException if the generator cannot be written to
+     */
+    public void writeEntries(Iterable<HarEntry> entries, JsonGenerator generator) throws IOException {
+        writeEntries(entries, generator, null);
+    }
+
+    /**
+     * Writes the HAR to a generator, with the specified entries, or the entries of its log if null. If the stream the
+     * generator writes to is specified, entries may be encoded in parallel and written to the stream directly.
+     */
+    private void writeHar(Har har, Iterable<HarEntry> entries, JsonGenerator generator, OutputStream out) throws IOException {
+        if (har == null) {
+            generator.writeNull();
+            return;
+        }
+
+        generator.writeStartObject();
+
+        HarLog log = har.getLog();
+        if (log != null) {
+            generator.writeFieldName("log");
+            writeLog(log, entries != null ? entries : log.getEntries(), generator, out);
+        }
+
+        writeAdditional(har.getAdditional(), generator);
+
+        generator.writeEndObject();
+    }
+
+    private void writeEntries(Iterable<HarEntry> entries, JsonGenerator generator, OutputStream out) throws IOException {
+        generator.writeStartArray();
+
+        if (out != null && isEncodedInParallel(entries, generator)) {
+            // the generator still considers the array empty, which is harmless, since it only writes the closing bracket
+            generator.flush();
+            writeEntriesInParallel(entries, out);
+            generator.writeEndArray();
+            return;
+        }
+
+        // references of the contents whose text has been written, when writing content references
+        Set<String> writtenContentRefs = contentRefs ? new HashSet<>() : null;
+
+        int written = 0;
+        for (HarEntry entry : entries) {
+            if (writtenContentRefs != null) {
+                writeEntry(entry, generator, writtenContentRefs);
+            } else {
+                writeEntry(entry, generator);
+            }
+
+            if (++written % flushInterval == 0) {
+                generator.flush();
+            }
+        }
+
+        generator.writeEndArray();
+    }
+
+    private boolean isEncodedInParallel(Iterable<HarEntry> entries, JsonGenerator generator) {
+        if (encodingPool == null || contentRefs) {
+            return false;
+        }
+
+        // chunks encoded by separate generators can only be concatenated in text formats; binary formats such as
+        // Smile refer back to names written earlier by the same generator
+        if (!JsonFactory.FORMAT_NAME_JSON.equals(objectMapper.getFactory().getFormatName())
+                || !(generator.getOutputTarget() instanceof OutputStream)) {
+            return false;
+        }
+
+        // a single chunk is not worth handing over to the pool
+        return !(entries instanceof Collection) || ((Collection<?>) entries).size() > chunkSize;
+    }
+
+    /**
+     * Encodes chunks of entries on the encoding pool, and writes the encoded chunks to the stream in order, separated by
+     * commas. Up to {@link #maxChunksInFlight} chunks are encoded ahead of the chunk being written.
+     */
+    private void writeEntriesInParallel(Iterable<HarEntry> entries, OutputStream out) throws IOException {
+        Deque<ForkJoinTask<byte[]>> inFlight = new ArrayDeque<>(maxChunksInFlight);
+        boolean first = true;
+
+        try {
+            List<HarEntry> chunk = new ArrayList<>(chunkSize);
+            for (HarEntry entry : entries) {
+                chunk.add(entry);
+                if (chunk.size() < chunkSize) {
+                    continue;
+                }
+
+                if (inFlight.size() == maxChunksInFlight) {
+                    writeChunk(inFlight.removeFirst(), out, first);
+                    first = false;
+                }
+
+                inFlight.addLast(submitChunk(chunk));
+                chunk = new ArrayList<>(chunkSize);
+            }
+
+            if (!chunk.isEmpty()) {
+                inFlight.addLast(submitChunk(chunk));
+            }
+
+            while (!inFlight.isEmpty()) {
+                writeChunk(inFlight.removeFirst(), out, first);
+                first = false;
+            }
+        } finally {
+            // stop encoding chunks that will not be written, e.g. because the client disconnected
+            inFlight.forEach(task -> task.cancel(false));
+        }
+    }
+
+    private ForkJoinTask<byte[]> submitChunk(List<HarEntry> chunk) {
+        return encodingPool.submit(() -> encodeChunk(chunk));
+    }
+
+    /**
+     * Encodes a chunk of entries as the contents of a JSON array, i.e. the entries separated by commas.
+     */
+    private byte[] encodeChunk(List<HarEntry> chunk) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(chunk.size() * 1024);
+        try (JsonGenerator generator = createGenerator(buffer)) {
+            generator.writeStartArray();
+            for (HarEntry entry : chunk) {
+                writeEntry(entry, generator);
+            }
+            generator.writeEndArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Waits for an encoded chunk and writes it to the stream, without its enclosing brackets. The stream is flushed
+     * after every chunk.
+     */
+    private void writeChunk(ForkJoinTask<byte[]> task, OutputStream out, boolean first) throws IOException {
+        byte[] encoded;
+        try {
+            encoded = task.join();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        if (!first) {
+            out.write(',');
+        }
+        out.write(encoded, 1, encoded.length - 2);
+        out.flush();
+    }
+
+    /**
+     * Writes a single entry to an existing generator.
+     *
+     * @param entry entry to write
+     * @param generator generator to write to
+     * @throws IOException if the generator cannot be written to
+     */
+    public void writeEntry(HarEntry entry, JsonGenerator generator) throws IOException {
+        objectWriter.writeValue(generator, entry);
+    }
+
+    /**
+     * Writes a single entry, replacing the response content text with a reference if the same text was already written.
+     */
+    private void writeEntry(HarEntry entry, JsonGenerator generator, Set<String> writtenContentRefs) throws IOException {
+        if (entry.getResponse() == null || entry.getResponse().getContent() == null) {
+            writeEntry(entry, generator);
+            return;
+        }
+
+        // the entry is converted to a tree, rather than modified, since it may still be part of a HAR being captured
+        ObjectNode entryNode = objectMapper.valueToTree(entry);
+        JsonNode contentNode = entryNode.path("response").path("content");
+        JsonNode textNode = contentNode.path("text");
+
+        if (contentNode.isObject() && textNode.isTextual() && textNode.textValue().length() >= HarContentRefs.MIN_CONTENT_REF_LENGTH) {
+            ObjectNode content = (ObjectNode) contentNode;
+            String ref = HarContentRefs.contentRef(textNode.textValue(), content.path("encoding").textValue());
+
+            if (!writtenContentRefs.add(ref)) {
+                content.remove("text");
+            }
+            content.put(HarContentRefs.CONTENT_REF_FIELD, ref);
+        }
+
+        objectWriter.writeValue(generator, entryNode);
+    }
+
+    /**
+     * Creates a generator that writes to the specified output stream, and does not close it.
+     *
+     * @param out stream to write to
+     * @return new generator
+     * @throws IOException if the generator cannot be created
+     */
+    public JsonGenerator createGenerator(OutputStream out) throws IOException {
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+        return generator;
+    }
+
+    private void writeLog(HarLog log, Iterable<HarEntry> entries, JsonGenerator generator, OutputStream out) throws IOException {
+        generator.writeStartObject();
+
+        if (log.getVersion() != null) {
+            generator.writeStringField("version", log.getVersion());
+        }
+
+        if (log.getCreator() != null) {
+            generator.writeFieldName("creator");
+            objectWriter.writeValue(generator, log.getCreator());
+        }
+
+        if (log.getBrowser() != null) {
+            generator.writeFieldName("browser");
+            objectWriter.writeValue(generator, log.getBrowser());
+        }
+
+        generator.writeFieldName("pages");
+        generator.writeStartArray();
+        for (HarPage page : log.getPages()) {
+            objectWriter.writeValue(generator, page);
+        }
+        generator.writeEndArray();
+
+        generator.writeFieldName("entries");
+        writeEntries(entries, generator, out);
+
+        if (log.getComment() != null) {
+            generator.writeStringField("comment", log.getComment());
+        }
+
+        writeAdditional(log.getAdditional(), generator);
+
+        generator.writeEndObject();
+    }
+
+    /**
+     * Writes the custom fields of a HAR object, which the object mapper writes after the standard fields.
+     */
+    private void writeAdditional(Map<String, Object> additional, JsonGenerator generator) throws IOException {
+        if (additional == null) {
+            return;
+        }
+
+        for (Map.Entry<String, Object> field : additional.entrySet()) {
+            generator.writeFieldName(field.getKey());
+            objectWriter.writeValue(generator, field.getValue());
+        }
+    }
+}
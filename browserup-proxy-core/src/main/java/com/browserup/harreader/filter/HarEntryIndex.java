@@ -0,0 +1,429 @@
+package com.browserup.harreader.filter;
+
+import com.google.common.collect.MapMaker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import de.sstoehr.harreader.model.HarEntry;
+import de.sstoehr.harreader.model.HarRequest;
+
+/**
+ * A secondary index of HAR entries, keyed by the host (authority) of the request URL and by the first segment of its
+ * path. Each bucket is kept ordered by the time the entry was started, so that the most recent entry is found quickly,
+ * while {@link #findEntries(Pattern)} returns the entries in the order of the list they were added from.
+ * <p>
+ * When a URL pattern begins with a literal scheme, host and (optionally) first path segment, such as
+ * <code>"^https?://example\\.com/products/.*"</code>, only the entries in the matching bucket are tested against the
+ * pattern. Other patterns are tested against all entries. The most recent matching entry is found by walking the
+ * candidate bucket backwards from the most recently started entry, so it is usually found without testing more than a
+ * few entries.
+ * <p>
+ * This class is thread-safe.
+ */
+public class HarEntryIndex {
+    private static final String SCHEME_SEPARATOR = "://";
+
+    /**
+     * Characters that end the authority and the first path segment of a URL.
+     */
+    private static final String URL_DELIMITERS = "/?#";
+
+    private final NavigableSet<IndexedEntry> allEntries = new ConcurrentSkipListSet<>();
+    private final ConcurrentMap<String, NavigableSet<IndexedEntry>> entriesByAuthority = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, NavigableSet<IndexedEntry>> entriesByPath = new ConcurrentHashMap<>();
+
+    /**
+     * Uses weak keys, which are compared by identity, since HarEntry implements value equality and is mutable.
+     */
+    private final ConcurrentMap<HarEntry, IndexedEntry> indexedEntries = new MapMaker().weakKeys().makeMap();
+
+    private final AtomicLong insertionCounter = new AtomicLong();
+
+    /**
+     * Adds an entry to the index, positioned after every entry added before it. Entries are indexed by their request URL
+     * and started date, so an entry should be added once both have been set. Entries without a request URL are not added.
+     *
+     * @param entry entry to add
+     * @return true if the entry was added, false if it was already in the index or does not have a request URL yet
+     */
+    public boolean add(HarEntry entry) {
+        return add(entry, insertionCounter.incrementAndGet());
+    }
+
+    /**
+     * Adds an entry to the index at its position in the list of entries being indexed. Entries may be added to the index
+     * in a different order than to the list, e.g. when their request URL is only known after they were added to the list.
+     * See {@link #add(HarEntry)}.
+     *
+     * @param entry entry to add
+     * @param position position of the entry in the list, which orders the entries returned by {@link #findEntries(Pattern)}
+     * @return true if the entry was added, false if it was already in the index or does not have a request URL yet
+     */
+    public boolean add(HarEntry entry, long position) {
+        HarRequest request = entry.getRequest();
+        String url = request == null ? null : request.getUrl();
+        if (url == null) {
+            return false;
+        }
+
+        String authority = getAuthority(url);
+        String pathKey = authority == null ? null : getPathKey(url, authority);
+
+        IndexedEntry indexedEntry = new IndexedEntry(entry, getStartedMillis(entry), position, authority, pathKey);
+        if (indexedEntries.putIfAbsent(entry, indexedEntry) != null) {
+            return false;
+        }
+
+        allEntries.add(indexedEntry);
+        if (authority != null) {
+            getBucket(entriesByAuthority, authority).add(indexedEntry);
+        }
+        if (pathKey != null) {
+            getBucket(entriesByPath, pathKey).add(indexedEntry);
+        }
+
+        // the entry may have been removed while it was being added to the buckets
+        if (indexedEntries.get(entry) != indexedEntry) {
+            removeFromBuckets(indexedEntry);
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes an entry from the index.
+     *
+     * @param entry entry to remove
+     */
+    public void remove(HarEntry entry) {
+        IndexedEntry indexedEntry = indexedEntries.remove(entry);
+        if (indexedEntry != null) {
+            removeFromBuckets(indexedEntry);
+        }
+    }
+
+    /**
+     * @param entry entry to check
+     * @return true if the entry has been added to this index
+     */
+    public boolean contains(HarEntry entry) {
+        return indexedEntries.containsKey(entry);
+    }
+
+    /**
+     * @return the most recently started entry in the index, if any
+     */
+    public Optional<HarEntry> findMostRecentEntry() {
+        Iterator<IndexedEntry> iterator = allEntries.descendingIterator();
+
+        return iterator.hasNext() ? Optional.of(iterator.next().entry) : Optional.empty();
+    }
+
+    /**
+     * @param urlPattern pattern the entire request URL must match
+     * @return the most recently started entry whose request URL matches the pattern, if any
+     * @see HarLogFilter#findMostRecentEntry(de.sstoehr.harreader.model.HarLog, Pattern)
+     */
+    public Optional<HarEntry> findMostRecentEntry(Pattern urlPattern) {
+        Iterator<IndexedEntry> iterator = getCandidates(urlPattern).descendingIterator();
+        while (iterator.hasNext()) {
+            HarEntry entry = iterator.next().entry;
+            if (matches(entry, urlPattern)) {
+                return Optional.of(entry);
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * @param urlPattern pattern the entire request URL must match
+     * @return entries whose request URL matches the pattern, in the order of the list, like the unindexed search
+     * @see HarLogFilter#findEntries(de.sstoehr.harreader.model.HarLog, Pattern)
+     */
+    public List<HarEntry> findEntries(Pattern urlPattern) {
+        List<IndexedEntry> matching = new ArrayList<>();
+        for (IndexedEntry indexedEntry : getCandidates(urlPattern)) {
+            if (matches(indexedEntry.entry, urlPattern)) {
+                matching.add(indexedEntry);
+            }
+        }
+
+        // the buckets are ordered by start time, which differs from the list order when entries start out of order
+        matching.sort(Comparator.comparingLong(indexedEntry -> indexedEntry.position));
+
+        List<HarEntry> entries = new ArrayList<>(matching.size());
+        for (IndexedEntry indexedEntry : matching) {
+            entries.add(indexedEntry.entry);
+        }
+
+        return entries;
+    }
+
+    private NavigableSet<IndexedEntry> getCandidates(Pattern urlPattern) {
+        UrlKeys keys = UrlKeys.fromPattern(urlPattern);
+        if (keys == null) {
+            return allEntries;
+        }
+
+        NavigableSet<IndexedEntry> candidates;
+        if (keys.pathKey != null) {
+            candidates = entriesByPath.get(keys.pathKey);
+        } else {
+            candidates = entriesByAuthority.get(keys.authority);
+        }
+
+        return candidates == null ? Collections.emptyNavigableSet() : candidates;
+    }
+
+    private void removeFromBuckets(IndexedEntry indexedEntry) {
+        allEntries.remove(indexedEntry);
+        if (indexedEntry.authority != null) {
+            NavigableSet<IndexedEntry> bucket = entriesByAuthority.get(indexedEntry.authority);
+            if (bucket != null) {
+                bucket.remove(indexedEntry);
+            }
+        }
+        if (indexedEntry.pathKey != null) {
+            NavigableSet<IndexedEntry> bucket = entriesByPath.get(indexedEntry.pathKey);
+            if (bucket != null) {
+                bucket.remove(indexedEntry);
+            }
+        }
+    }
+
+    private static NavigableSet<IndexedEntry> getBucket(ConcurrentMap<String, NavigableSet<IndexedEntry>> buckets, String key) {
+        return buckets.computeIfAbsent(key, k -> new ConcurrentSkipListSet<>());
+    }
+
+    private static boolean matches(HarEntry entry, Pattern urlPattern) {
+        String url = entry.getRequest().getUrl();
+
+        return url != null && urlPattern.matcher(url).matches();
+    }
+
+    private static long getStartedMillis(HarEntry entry) {
+        Date startedDateTime = entry.getStartedDateTime();
+
+        return startedDateTime == null ? 0L : startedDateTime.getTime();
+    }
+
+    /**
+     * @return the authority (host and optional port) of the URL, or null if the URL does not start with a scheme
+     */
+    static String getAuthority(String url) {
+        // the scheme cannot contain a colon, so the first colon must start the scheme separator
+        int colon = url.indexOf(':');
+        if (colon < 0 || !url.startsWith(SCHEME_SEPARATOR, colon)) {
+            return null;
+        }
+
+        int start = colon + SCHEME_SEPARATOR.length();
+        int end = indexOfAny(url, URL_DELIMITERS, start);
+
+        return url.substring(start, end < 0 ? url.length() : end);
+    }
+
+    /**
+     * @return the authority and the first segment of the path of the URL, or null if the URL has no path
+     */
+    static String getPathKey(String url, String authority) {
+        int pathStart = url.indexOf(SCHEME_SEPARATOR) + SCHEME_SEPARATOR.length() + authority.length();
+        if (pathStart >= url.length() || url.charAt(pathStart) != '/') {
+            return null;
+        }
+
+        int end = indexOfAny(url, URL_DELIMITERS, pathStart + 1);
+
+        return authority + url.substring(pathStart, end < 0 ? url.length() : end);
+    }
+
+    private static int indexOfAny(String s, String chars, int fromIndex) {
+        for (int i = fromIndex; i < s.length(); i++) {
+            if (chars.indexOf(s.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * The bucket keys that every URL matching a pattern must have, determined from the literal text at the start of the
+     * pattern.
+     */
+    static class UrlKeys {
+        private static final String SCHEME_PATTERN_CHARACTERS =
+                "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789+-|()?:^";
+
+        final String authority;
+        final String pathKey;
+
+        private UrlKeys(String authority, String pathKey) {
+            this.authority = authority;
+            this.pathKey = pathKey;
+        }
+
+        /**
+         * @return the keys of the bucket that contains every URL the pattern can match, or null if the pattern may
+         * match URLs in more than one bucket
+         */
+        static UrlKeys fromPattern(Pattern urlPattern) {
+            // flags such as CASE_INSENSITIVE allow the literal text to match URLs in other buckets
+            if (urlPattern.flags() != 0) {
+                return null;
+            }
+
+            String regex = urlPattern.pattern();
+            int separator = regex.indexOf(SCHEME_SEPARATOR);
+            if (separator < 0 || !isSchemePattern(regex.substring(0, separator)) || hasTopLevelAlternation(regex, separator)) {
+                return null;
+            }
+
+            StringBuilder literal = new StringBuilder();
+            int i = separator + SCHEME_SEPARATOR.length();
+            while (i < regex.length()) {
+                char c = regex.charAt(i);
+                if (c == '\\') {
+                    // escaped letters and digits are character classes, back references or quoting, not literals
+                    if (i + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                        break;
+                    }
+
+                    literal.append(regex.charAt(i + 1));
+                    i += 2;
+                } else if ("?*+{".indexOf(c) >= 0) {
+                    // a quantifier applies to the preceding character, so that character is not a required literal
+                    if (literal.length() > 0) {
+                        literal.setLength(literal.length() - 1);
+                    }
+                    break;
+                } else if (".[]()^$|}".indexOf(c) >= 0) {
+                    break;
+                } else {
+                    literal.append(c);
+                    i++;
+                }
+            }
+
+            boolean endOfPattern = i == regex.length() || (i == regex.length() - 1 && regex.charAt(i) == '$');
+
+            String text = literal.toString();
+            int authorityEnd = indexOfAny(text, URL_DELIMITERS, 0);
+            String authority;
+            if (authorityEnd >= 0) {
+                authority = text.substring(0, authorityEnd);
+            } else if (endOfPattern) {
+                authority = text;
+            } else {
+                return null;
+            }
+
+            if (authority.isEmpty()) {
+                return null;
+            }
+
+            String pathKey = null;
+            if (authorityEnd >= 0 && text.charAt(authorityEnd) == '/') {
+                int segmentEnd = indexOfAny(text, URL_DELIMITERS, authorityEnd + 1);
+                if (segmentEnd >= 0) {
+                    pathKey = authority + text.substring(authorityEnd, segmentEnd);
+                } else if (endOfPattern) {
+                    pathKey = authority + text.substring(authorityEnd);
+                }
+            }
+
+            return new UrlKeys(authority, pathKey);
+        }
+
+        /**
+         * @return true if the part of the pattern before "://" can only match scheme characters, so that the "://" in
+         * the pattern always matches the first "://" in the URL
+         */
+        private static boolean isSchemePattern(String prefix) {
+            int depth = 0;
+            for (int i = 0; i < prefix.length(); i++) {
+                char c = prefix.charAt(i);
+                if (SCHEME_PATTERN_CHARACTERS.indexOf(c) < 0) {
+                    return false;
+                }
+
+                if (c == '(') {
+                    // only non-capturing groups are allowed; inline flags such as (?i) change how the rest is matched
+                    if (prefix.startsWith("(?", i) && !prefix.startsWith("(?:", i)) {
+                        return false;
+                    }
+                    depth++;
+                } else if (c == ')') {
+                    depth--;
+                } else if (c == '|' && depth == 0) {
+                    return false;
+                }
+
+                if (depth < 0) {
+                    return false;
+                }
+            }
+
+            return depth == 0;
+        }
+
+        private static boolean hasTopLevelAlternation(String regex, int from) {
+            int depth = 0;
+            boolean inCharacterClass = false;
+            for (int i = from; i < regex.length(); i++) {
+                char c = regex.charAt(i);
+                if (c == '\\') {
+                    i++;
+                } else if (inCharacterClass) {
+                    inCharacterClass = c != ']';
+                } else if (c == '[') {
+                    inCharacterClass = true;
+                } else if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    depth--;
+                } else if (c == '|' && depth <= 0) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    private static class IndexedEntry implements Comparable<IndexedEntry> {
+        private final HarEntry entry;
+        private final long startedMillis;
+        private final long position;
+        private final String authority;
+        private final String pathKey;
+
+        private IndexedEntry(HarEntry entry, long startedMillis, long position, String authority, String pathKey) {
+            this.entry = entry;
+            this.startedMillis = startedMillis;
+            this.position = position;
+            this.authority = authority;
+            this.pathKey = pathKey;
+        }
+
+        @Override
+        public int compareTo(IndexedEntry other) {
+            int result = Long.compare(startedMillis, other.startedMillis);
+
+            return result != 0 ? result : Long.compare(position, other.position);
+        }
+    }
+}
@@ -21,6 +21,11 @@ public final class HarLogFilter {
      * @return <code>HarEntry</code> for the most recently requested URL.
      */
     public static Optional<HarEntry> findMostRecentEntry(HarLog log) {
+        HarEntryIndex index = getEntryIndex(log);
+        if (index != null) {
+            return index.findMostRecentEntry();
+        }
+
         return log.getEntries().stream().max(Comparator.comparing(HarEntry::getStartedDateTime));
     }
 
@@ -47,6 +52,11 @@ public final class HarLogFilter {
      * pattern.
      */
     public static Optional<HarEntry> findMostRecentEntry(HarLog log, Pattern urlPattern) {
+        HarEntryIndex index = getEntryIndex(log);
+        if (index != null) {
+            return index.findMostRecentEntry(urlPattern);
+        }
+
         return findEntries(log, urlPattern).stream().max(Comparator.comparing(HarEntry::getStartedDateTime));
     }
 
@@ -73,8 +83,24 @@ public final class HarLogFilter {
      * pattern, or an empty list if none match.
      */
     public static List<HarEntry> findEntries(HarLog log, Pattern urlPattern) {
+        HarEntryIndex index = getEntryIndex(log);
+        if (index != null) {
+            return index.findEntries(urlPattern);
+        }
+
         return log.getEntries().stream()
                 .filter(e -> urlPattern.matcher(e.getRequest().getUrl()).matches())
                 .collect(Collectors.toList());
     }
+
+    /**
+     * @return the index maintained by the log's entry list, or null if the entries are not indexed
+     */
+    private static HarEntryIndex getEntryIndex(HarLog log) {
+        if (log.getEntries() instanceof IndexedHarEntryList) {
+            return ((IndexedHarEntryList) log.getEntries()).getEntryIndex();
+        }
+
+        return null;
+    }
 }
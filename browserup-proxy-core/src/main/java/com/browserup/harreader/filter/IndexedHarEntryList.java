@@ -0,0 +1,16 @@
+package com.browserup.harreader.filter;
+
+import java.util.List;
+
+import de.sstoehr.harreader.model.HarEntry;
+
+/**
+ * A list of HAR entries that maintains a {@link HarEntryIndex} of its entries. {@link HarLogFilter} uses the index
+ * instead of scanning every entry when the entries of a {@link de.sstoehr.harreader.model.HarLog} implement this interface.
+ */
+public interface IndexedHarEntryList extends List<HarEntry> {
+    /**
+     * @return index of the entries in this list
+     */
+    HarEntryIndex getEntryIndex();
+}
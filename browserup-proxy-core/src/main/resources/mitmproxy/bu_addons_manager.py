@@ -3,11 +3,17 @@ import _thread
 
 from mitmproxy import ctx
 
-from wsgiref.simple_server import make_server
+from socketserver import ThreadingMixIn
+from wsgiref.simple_server import make_server, WSGIServer
 
 initialized = False
 
 
+class ThreadingWSGIServer(ThreadingMixIn, WSGIServer):
+    # requests that wait for HAR changes must not block the other requests
+    daemon_threads = True
+
+
 def load(l):
     ctx.log.info('Loading addons manager add-on...')
     l.add_option(
@@ -60,7 +66,7 @@ def start_falcon(resources):
     for resource in resources:
         app.add_route("/" + resource.addon_path() + "/{method_name}", resource)
 
-    with make_server('', ctx.options.addons_management_port, app) as httpd:
+    with make_server('', ctx.options.addons_management_port, app, server_class=ThreadingWSGIServer) as httpd:
         print('Starting REST API management on port: {}'.format(ctx.options.addons_management_port))
         httpd.serve_forever()
 
@@ -8,6 +8,8 @@ from datetime import timezone
 import dateutil.parser
 
 import copy
+import collections
+import threading
 
 import asyncio
 
@@ -31,6 +33,11 @@ DEFAULT_PAGE_TITLE = "Default"
 
 REQUEST_SUBMITTED_FLAG = "_request_submitted"
 
+# the last change to an entry of the HAR: the sequence number of the change, the entry, and the sequence numbers of the
+# changes that added the entry and that completed it (0 while its response, or the error that ended its request, has
+# not been captured)
+HarEntryChange = collections.namedtuple('HarEntryChange', ['sequence', 'entry', 'added_sequence', 'completed_sequence'])
+
 class HarCaptureTypes(Enum):
     REQUEST_HEADERS = auto()
     REQUEST_COOKIES = auto()
@@ -93,9 +100,12 @@ class HarDumpAddonResource:
 
     def on_get_har(self, req, resp):
         clean_har = req.get_param('cleanHar') == 'true'
-        har = self.harDumpAddOn.get_har(clean_har)
+        # clients that read the HAR from the file can skip the copy in the response
+        include_json = req.get_param('includeJson') != 'false'
+        with self.harDumpAddOn.har_changed:
+            har = self.harDumpAddOn.get_har(clean_har)
 
-        filtered_har = self.harDumpAddOn.filter_har_for_report(har)
+            filtered_har = self.harDumpAddOn.filter_har_for_report(har)
 
         har_file = self.harDumpAddOn.save_har(filtered_har)
 
@@ -104,9 +114,35 @@ class HarDumpAddonResource:
 
         resp.status = falcon.HTTP_200
         resp.content_type = falcon.MEDIA_JSON
-        resp.text = json.dumps({
+        result = {
             "path": har_file.name,
-            "json": filtered_har
+            "evictedEntries": self.harDumpAddOn.evicted_entries
+        }
+        if include_json:
+            result["json"] = filtered_har
+        resp.text = json.dumps(result, ensure_ascii=False)
+
+    def on_get_har_entries_since(self, req, resp):
+        try:
+            generation = int(req.get_param('generation') or 0)
+            sequence = int(req.get_param('sequence') or 0)
+            timeout_millis = int(req.get_param('timeoutMillis') or 0)
+        except ValueError:
+            resp.status = falcon.HTTP_400
+            resp.text = "Invalid HAR cursor"
+            return
+
+        generation, sequence, har, changes = self.harDumpAddOn.get_har_entries_since(
+            generation, sequence, timeout_millis / 1000)
+
+        resp.status = falcon.HTTP_200
+        resp.content_type = falcon.MEDIA_JSON
+        resp.text = json.dumps({
+            "generation": generation,
+            "sequence": sequence,
+            "json": har,
+            "addedSequences": [change.added_sequence for change in changes],
+            "completedSequences": [change.completed_sequence for change in changes]
         }, ensure_ascii=False)
 
     def on_new_har(self, req, resp):
@@ -179,6 +215,17 @@ class HarDumpAddonResource:
         self.harDumpAddOn.har_capture_types = capture_types_parsed
         resp.status = falcon.HTTP_200
 
+    def on_set_har_capture_limits(self, req, resp):
+        try:
+            max_entries = int(req.get_param('maxEntries') or 0)
+        except ValueError:
+            resp.status = falcon.HTTP_400
+            resp.text = "Invalid maximum number of entries"
+            return
+
+        self.harDumpAddOn.max_entries = max(max_entries, 0)
+        resp.status = falcon.HTTP_200
+
 
 class HarDumpAddOn:
 
@@ -194,6 +241,16 @@ class HarDumpAddOn:
         self.send_finished_nanos = 0
         self.response_receive_started_nanos = 0
         self.http_connect_timings = {}
+        # maximum number of entries kept in the HAR, or 0 to keep every entry
+        self.max_entries = 0
+        self.evicted_entries = 0
+        # each HAR has a new generation; within a HAR, each change to an entry is assigned the next sequence number
+        self.har_generation = 0
+        self.har_sequence = 0
+        # id of each entry in the current HAR -> HarEntryChange of its last change, ordered by sequence number
+        self.har_entry_sequences = collections.OrderedDict()
+        # guards the HAR while it is changed or copied, and is notified after each change
+        self.har_changed = threading.Condition()
 
     def get_har_entry(self, flow):
         return flow.request.har_entry
@@ -454,16 +511,23 @@ class HarDumpAddOn:
         else:
             ctx.log.info('Creating new har without initial page')
 
-        old_har = self.end_har()
+        with self.har_changed:
+            old_har = self.end_har()
 
-        self.har_page_count = 0
+            self.har_page_count = 0
+            self.evicted_entries = 0
 
-        self.har = self.generate_new_har()
+            self.har = self.generate_new_har()
+            self.har_generation += 1
+            self.har_sequence = 0
+            self.har_entry_sequences.clear()
 
-        if create_page:
-            self.new_page(initial_page_ref, initial_page_title)
+            if create_page:
+                self.new_page(initial_page_ref, initial_page_title)
+
+            self.copy_entries_without_response(old_har)
 
-        self.copy_entries_without_response(old_har)
+            self.har_changed.notify_all()
 
         return old_har
 
@@ -472,6 +536,7 @@ class HarDumpAddOn:
             for entry in old_har['log']['entries']:
                 if not self.har_entry_has_response(entry):
                     self.har['log']['entries'].append(entry)
+                    self.har_entry_added(entry)
 
     def end_har(self):
         ctx.log.info('Ending current har...')
@@ -528,14 +593,11 @@ class HarDumpAddOn:
         return HarDumpAddonResource(self)
 
     def save_har(self, har):
-        json_dump: str = json.dumps(har, indent=2)
-
-        tmp_file = tempfile.NamedTemporaryFile(mode="wb", prefix="har_dump_",
+        tmp_file = tempfile.NamedTemporaryFile(mode="w", encoding="utf-8", prefix="har_dump_",
                                                delete=False)
 
-        raw: bytes = json_dump.encode()
-
-        tmp_file.write(raw)
+        # written to the file as it is encoded, rather than encoded into a string first
+        json.dump(har, tmp_file, indent=2)
         tmp_file.flush()
         tmp_file.close()
 
@@ -579,13 +641,100 @@ class HarDumpAddOn:
         har_entry['request'] = har_request
 
     def append_har_entry(self, har_entry):
-        har = self.get_or_create_har(DEFAULT_PAGE_REF, DEFAULT_PAGE_TITLE, True)
-        har['log']['entries'].append(har_entry)
+        with self.har_changed:
+            har = self.get_or_create_har(DEFAULT_PAGE_REF, DEFAULT_PAGE_TITLE, True)
+            har['log']['entries'].append(har_entry)
+            self.har_entry_added(har_entry)
+            self.evict_har_entries(har)
+
+    def har_entry_added(self, har_entry):
+        with self.har_changed:
+            self.har_sequence += 1
+            self.har_entry_sequences[id(har_entry)] = HarEntryChange(self.har_sequence, har_entry, self.har_sequence, 0)
+            self.har_changed.notify_all()
+
+    def har_entry_updated(self, har_entry, completed=False):
+        with self.har_changed:
+            key = id(har_entry)
+            change = self.har_entry_sequences.get(key)
+            # entries evicted or left in a previous HAR are not tracked
+            if change is None:
+                return
+
+            self.har_sequence += 1
+            completed_sequence = change.completed_sequence
+            if completed and not completed_sequence:
+                completed_sequence = self.har_sequence
+            self.har_entry_sequences[key] = change._replace(sequence=self.har_sequence,
+                                                            completed_sequence=completed_sequence)
+            self.har_entry_sequences.move_to_end(key)
+            self.har_changed.notify_all()
+
+    def har_entry_completed(self, har_entry):
+        """
+            Records that the response of the entry, or the error that ended its request, has been captured.
+        """
+        self.har_entry_updated(har_entry, True)
+
+    def get_har_entries_since(self, generation, sequence, timeout):
+        """
+            Returns a copy of the current HAR with only the entries changed after the specified sequence number, waiting
+            up to the specified number of seconds for a change if there is none yet. A cursor from another HAR returns
+            every entry of the current one. Also returns the generation and sequence number of the returned changes, and
+            the HarEntryChange of each returned entry.
+        """
+        deadline = time.monotonic() + timeout
+
+        with self.har_changed:
+            while generation == self.har_generation and self.har_sequence <= sequence:
+                remaining = deadline - time.monotonic()
+                if remaining <= 0:
+                    break
+                self.har_changed.wait(remaining)
+
+            if generation != self.har_generation:
+                sequence = 0
+
+            changed = []
+            for change in reversed(self.har_entry_sequences.values()):
+                if change.sequence <= sequence:
+                    break
+                changed.append(change)
+            changed.reverse()
+
+            har = None
+            if self.har is not None:
+                log = self.generate_new_har_log()
+                log['pages'] = copy.deepcopy(self.har['log']['pages'])
+                log['entries'] = [copy.deepcopy(change.entry) for change in changed]
+                for entry in log['entries']:
+                    entry.pop(REQUEST_SUBMITTED_FLAG, None)
+                har = {"log": log}
+
+            return self.har_generation, self.har_sequence, har, changed
+
+    def evict_har_entries(self, har):
+        # the oldest entries are evicted in batches, so that the entries are not shifted on every append; the exact
+        # limit is applied when the HAR is retrieved
+        entries = har['log']['entries']
+        if self.max_entries <= 0 or len(entries) <= self.max_entries + max(1, self.max_entries // 4):
+            return
+
+        evicted = len(entries) - self.max_entries
+        for entry in entries[:evicted]:
+            self.har_entry_sequences.pop(id(entry), None)
+        del entries[:evicted]
+        self.evicted_entries += evicted
 
     def request(self, flow):
         if 'AllowListFiltered' in flow.metadata or 'BlockListFiltered' in flow.metadata:
             return
 
+        with self.har_changed:
+            self.populate_har_entry_request(flow)
+            self.har_entry_updated(self.get_har_entry(flow))
+
+    def populate_har_entry_request(self, flow):
         har_entry = self.get_har_entry(flow)
 
         self.populate_har_entry_with_default_response(flow)
@@ -640,14 +789,19 @@ class HarDumpAddOn:
         }
 
     def response(self, flow):
-        har_entry = self.get_har_entry(flow)
-
         ctx.log.debug('Incoming response for request to url: {}'.format(flow.request.url))
 
         if 'AllowListFiltered' in flow.metadata or 'BlockListFiltered' in flow.metadata:
             ctx.log.debug('Block/Allow list filtered, return nothing.')
             return
 
+        with self.har_changed:
+            self.populate_har_entry_response(flow)
+            self.har_entry_completed(self.get_har_entry(flow))
+
+    def populate_har_entry_response(self, flow):
+        har_entry = self.get_har_entry(flow)
+
         # -1 indicates that these values do not apply to current request
         self.get_or_create_har(DEFAULT_PAGE_REF, DEFAULT_PAGE_TITLE, True)
 
@@ -148,6 +148,8 @@ class HttpConnectCaptureAddOn:
         else:
             self.proxy_to_server_connection_failed(flow, original_error)
 
+        self.har_dump_addon.har_entry_completed(self.get_har_entry(flow))
+
     def is_dns_resolution_error(self, error_msg):
         return 'getaddrinfo failed' in error_msg \
                or 'Name or service not known' in error_msg
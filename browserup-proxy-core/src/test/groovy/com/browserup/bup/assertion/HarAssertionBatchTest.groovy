@@ -0,0 +1,123 @@
+package com.browserup.bup.assertion
+
+import com.browserup.bup.assertion.model.HarEntryAssertionSpec
+import com.browserup.bup.assertion.model.filter.AssertionUrlFilterInfo
+import com.browserup.bup.util.HttpStatusClass
+import de.sstoehr.harreader.model.Har
+import de.sstoehr.harreader.model.HarEntry
+import de.sstoehr.harreader.model.HarRequest
+import de.sstoehr.harreader.model.HarResponse
+import org.junit.Test
+
+import java.time.Instant
+
+import static com.browserup.bup.assertion.model.HarEntryAssertionSpec.Type.RESPONSE_TIME_LESS_THAN_OR_EQUAL
+import static com.browserup.bup.assertion.model.HarEntryAssertionSpec.Type.STATUS_BELONGS_TO_CLASS
+import static com.browserup.bup.assertion.model.HarEntryAssertionSpec.Type.STATUS_EQUALS
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertNull
+import static org.junit.Assert.assertTrue
+
+class HarAssertionBatchTest {
+
+    @Test
+    void testAssertionsAreCheckedAgainstTheirFilteredEntries() {
+        def har = newHar([
+                newEntry('http://www.example.com/a', 1, 200, 100),
+                newEntry('http://www.example.com/b', 2, 404, 50),
+                newEntry('http://static.example.com/c.js', 3, 200, 900)
+        ])
+
+        def allStatuses = new HarEntryAssertionSpec(STATUS_BELONGS_TO_CLASS, null)
+        allStatuses.setStatusClass(HttpStatusClass.SUCCESS)
+
+        def wwwTime = new HarEntryAssertionSpec(RESPONSE_TIME_LESS_THAN_OR_EQUAL, '^http://www\\.example\\.com/.*')
+        wwwTime.setMilliseconds(100)
+
+        def mostRecentWwwStatus = new HarEntryAssertionSpec(STATUS_EQUALS, '^http://www\\.example\\.com/.*')
+        mostRecentWwwStatus.setMostRecent(true)
+        mostRecentWwwStatus.setStatus(404)
+
+        def results = HarAssertionBatch.evaluate(har, [allStatuses, wwwTime, mostRecentWwwStatus])
+
+        assertEquals(3, results.size())
+
+        assertTrue(results[0].failed)
+        assertEquals('2 passed, 3 total', results[0].message)
+        assertEquals(['http://www.example.com/b'], results[0].failedRequests*.url)
+
+        assertTrue(results[1].passed)
+        assertEquals(['http://www.example.com/a', 'http://www.example.com/b'], results[1].requests*.url)
+        assertEquals('^http://www\\.example\\.com/.*', (results[1].filter as AssertionUrlFilterInfo).urlPattern)
+
+        assertTrue(results[2].passed)
+        assertEquals(['http://www.example.com/b'], results[2].requests*.url)
+    }
+
+    @Test
+    void testResultsMatchSingleAssertions() {
+        def har = newHar([
+                newEntry('http://www.example.com/a', 1, 200, 100),
+                newEntry('http://www.example.com/b', 2, 500, 50)
+        ])
+
+        def spec = new HarEntryAssertionSpec(STATUS_EQUALS, '.*/b')
+        spec.setStatus(200)
+
+        def batchResult = HarAssertionBatch.evaluate(har, [spec])[0]
+        def singleResult = HarAssertionBatch.checkAssertion(har.log.entries.findAll { it.request.url.endsWith('/b') },
+                new AssertionUrlFilterInfo('.*/b'), new StatusEqualsAssertion(200))
+
+        assertEquals(singleResult.message, batchResult.message)
+        assertEquals(singleResult.failed, batchResult.failed)
+        assertEquals(singleResult.requests*.message, batchResult.requests*.message)
+    }
+
+    @Test
+    void testInvalidAssertionsHaveErroredResults() {
+        def har = newHar([newEntry('http://www.example.com/a', 1, 200, 100)])
+
+        def missingParameter = new HarEntryAssertionSpec(STATUS_EQUALS, null)
+        def invalidPattern = new HarEntryAssertionSpec(STATUS_EQUALS, '[')
+        invalidPattern.setStatus(200)
+        def valid = new HarEntryAssertionSpec(STATUS_EQUALS, null)
+        valid.setStatus(200)
+
+        def results = HarAssertionBatch.evaluate(har, [missingParameter, invalidPattern, valid])
+
+        assertTrue(results[0].errored)
+        assertTrue(results[0].failed)
+        assertFalse(results[0].passed)
+        assertTrue(results[0].message.contains('status'))
+
+        assertTrue(results[1].errored)
+        assertEquals('[', (results[1].filter as AssertionUrlFilterInfo).urlPattern)
+
+        assertNull(results[2].errored)
+        assertTrue(results[2].passed)
+    }
+
+    private static Har newHar(List<HarEntry> entries) {
+        def har = new Har()
+        har.getLog().setEntries(entries)
+
+        return har
+    }
+
+    private static HarEntry newEntry(String url, long startedSeconds, int status, int time) {
+        def request = new HarRequest()
+        request.setUrl(url)
+
+        def response = new HarResponse()
+        response.setStatus(status)
+
+        def entry = new HarEntry()
+        entry.setRequest(request)
+        entry.setResponse(response)
+        entry.setStartedDateTime(Date.from(Instant.ofEpochSecond(startedSeconds)))
+        entry.setTime(time)
+
+        return entry
+    }
+}
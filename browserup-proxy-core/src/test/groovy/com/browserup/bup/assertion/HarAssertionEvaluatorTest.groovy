@@ -0,0 +1,61 @@
+package com.browserup.bup.assertion
+
+import com.browserup.bup.assertion.field.content.ContentContainsStringAssertion
+import com.browserup.bup.assertion.model.filter.AssertionFilterInfo
+import de.sstoehr.harreader.model.HarEntry
+import de.sstoehr.harreader.model.HarRequest
+import org.junit.After
+import org.junit.Test
+
+import java.util.concurrent.ForkJoinPool
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertTrue
+
+class HarAssertionEvaluatorTest {
+    private final ForkJoinPool pool = new ForkJoinPool(4)
+
+    @After
+    void tearDown() {
+        pool.shutdown()
+    }
+
+    @Test
+    void testParallelResultsAreInEntryOrder() {
+        def entries = (0..<1000).collect { newEntry("http://www.example.com/${it}", it % 7 == 0 ? 'error' : 'ok') }
+        def assertion = new ContentContainsStringAssertion('ok')
+
+        def parallel = new HarAssertionEvaluator(pool, 10, 8).evaluate(entries, new AssertionFilterInfo(), assertion)
+        def sequential = new HarAssertionEvaluator(pool, Integer.MAX_VALUE, 8).evaluate(entries, new AssertionFilterInfo(), assertion)
+
+        assertEquals(entries*.request*.url, parallel.requests*.url)
+        assertEquals(sequential.requests*.failed, parallel.requests*.failed)
+        assertEquals(sequential.requests*.message, parallel.requests*.message)
+
+        assertEquals('857 passed, 1000 total', parallel.message)
+        assertTrue(parallel.failed)
+        assertFalse(parallel.passed)
+        assertEquals(143, parallel.failedRequests.size())
+    }
+
+    @Test
+    void testNoEntries() {
+        def result = new HarAssertionEvaluator(pool, 1, 1).evaluate([], new AssertionFilterInfo(), new ContentContainsStringAssertion('ok'))
+
+        assertEquals('0 passed, 0 total', result.message)
+        assertTrue(result.passed)
+        assertTrue(result.requests.isEmpty())
+    }
+
+    private static HarEntry newEntry(String url, String content) {
+        def request = new HarRequest()
+        request.setUrl(url)
+
+        def entry = new HarEntry()
+        entry.setRequest(request)
+        entry.getResponse().getContent().setText(content)
+
+        return entry
+    }
+}
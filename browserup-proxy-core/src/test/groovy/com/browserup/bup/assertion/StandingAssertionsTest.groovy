@@ -0,0 +1,150 @@
+package com.browserup.bup.assertion
+
+import com.browserup.bup.assertion.model.HarEntryAssertionSpec
+import com.browserup.bup.util.HttpStatusClass
+import de.sstoehr.harreader.model.HarEntry
+import de.sstoehr.harreader.model.HarRequest
+import de.sstoehr.harreader.model.HarResponse
+import org.junit.Test
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import static com.browserup.bup.assertion.model.HarEntryAssertionSpec.Type.CONTENT_CONTAINS
+import static com.browserup.bup.assertion.model.HarEntryAssertionSpec.Type.RESPONSE_TIME_LESS_THAN_OR_EQUAL
+import static com.browserup.bup.assertion.model.HarEntryAssertionSpec.Type.STATUS_BELONGS_TO_CLASS
+import static com.browserup.bup.assertion.model.HarEntryAssertionSpec.Type.STATUS_EQUALS
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertNull
+import static org.junit.Assert.assertTrue
+
+class StandingAssertionsTest {
+
+    @Test
+    void testEntriesAreCountedAsTheyAreRecorded() {
+        def assertions = new StandingAssertions()
+
+        def noServerErrors = new HarEntryAssertionSpec(STATUS_BELONGS_TO_CLASS, null)
+        noServerErrors.setStatusClass(HttpStatusClass.SUCCESS)
+        long noServerErrorsId = assertions.add(noServerErrors)
+
+        def apiTime = new HarEntryAssertionSpec(RESPONSE_TIME_LESS_THAN_OR_EQUAL, '.*/api/.*')
+        apiTime.setMilliseconds(100)
+        long apiTimeId = assertions.add(apiTime)
+
+        assertions.record(newEntry('http://www.example.com/api/a', 200, 50))
+        assertions.record(newEntry('http://www.example.com/b.js', 503, 500))
+        assertions.record(newEntry('http://www.example.com/api/c', 500, 150))
+
+        def results = assertions.getResults()
+        assertEquals([noServerErrorsId, apiTimeId], results*.id)
+
+        assertEquals(3, results[0].checkedEntries)
+        assertEquals(2, results[0].failedEntries)
+        assertEquals(1, results[0].passedEntries)
+        assertTrue(results[0].failed)
+        assertEquals('http://www.example.com/b.js', results[0].firstFailure.url)
+
+        assertEquals(2, results[1].checkedEntries)
+        assertEquals(1, results[1].failedEntries)
+        assertEquals('http://www.example.com/api/c', results[1].firstFailure.url)
+    }
+
+    @Test
+    void testResetAndRemove() {
+        def assertions = new StandingAssertions()
+
+        def spec = new HarEntryAssertionSpec(STATUS_EQUALS, null)
+        spec.setStatus(200)
+        long id = assertions.add(spec)
+
+        assertions.record(newEntry('http://www.example.com/', 404, 10))
+        assertTrue(assertions.getResult(id).failed)
+
+        assertions.resetResults()
+        def result = assertions.getResult(id)
+        assertEquals(0, result.checkedEntries)
+        assertTrue(result.passed)
+        assertNull(result.firstFailure)
+
+        assertTrue(assertions.remove(id))
+        assertFalse(assertions.remove(id))
+        assertNull(assertions.getResult(id))
+        assertTrue(assertions.getResults().isEmpty())
+    }
+
+    @Test
+    void testContentIsCheckedOffTheCallingThreadBeforeTheContinuation() {
+        def assertions = new StandingAssertions()
+
+        def status = new HarEntryAssertionSpec(STATUS_EQUALS, null)
+        status.setStatus(200)
+        long statusId = assertions.add(status)
+
+        def content = new HarEntryAssertionSpec(CONTENT_CONTAINS, null)
+        content.setContentText('success')
+        long contentId = assertions.add(content)
+
+        assertTrue(assertions.hasContentAssertions())
+
+        def entry = newEntry('http://www.example.com/', 200, 10)
+        entry.response.content.setText('failure')
+
+        assertions.recordWithoutContent(entry)
+        assertEquals(1, assertions.getResult(statusId).checkedEntries)
+        assertEquals(0, assertions.getResult(contentId).checkedEntries)
+
+        Thread checkingThread = null
+        def checked = new CountDownLatch(1)
+        assertions.recordContentLater(entry, { true }, {
+            checkingThread = Thread.currentThread()
+            checked.countDown()
+        })
+        assertTrue(checked.await(5, TimeUnit.SECONDS))
+
+        assertTrue(Thread.currentThread() != checkingThread)
+        assertEquals(1, assertions.getResult(contentId).checkedEntries)
+        assertEquals(1, assertions.getResult(contentId).failedEntries)
+        assertEquals(1, assertions.getResult(statusId).checkedEntries)
+
+        // the content of an evicted entry is not checked
+        def skipped = new CountDownLatch(1)
+        assertions.recordContentLater(entry, { false }, { skipped.countDown() })
+        assertTrue(skipped.await(5, TimeUnit.SECONDS))
+
+        assertEquals(1, assertions.getResult(contentId).checkedEntries)
+        assertEquals(1, assertions.getResult(contentId).skippedEntries)
+
+        assertions.shutdown()
+    }
+
+    @Test(expected = IllegalArgumentException)
+    void testInvalidAssertionIsRejected() {
+        new StandingAssertions().add(new HarEntryAssertionSpec(STATUS_EQUALS, null))
+    }
+
+    @Test(expected = IllegalArgumentException)
+    void testMostRecentAssertionIsRejected() {
+        def spec = new HarEntryAssertionSpec(STATUS_EQUALS, null)
+        spec.setStatus(200)
+        spec.setMostRecent(true)
+
+        new StandingAssertions().add(spec)
+    }
+
+    private static HarEntry newEntry(String url, int status, int time) {
+        def request = new HarRequest()
+        request.setUrl(url)
+
+        def response = new HarResponse()
+        response.setStatus(status)
+
+        def entry = new HarEntry()
+        entry.setRequest(request)
+        entry.setResponse(response)
+        entry.setTime(time)
+
+        return entry
+    }
+}
@@ -0,0 +1,206 @@
+package com.browserup.bup.filters
+
+import com.browserup.bup.proxy.CaptureType
+import de.sstoehr.harreader.model.Har
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.PooledByteBufAllocator
+import io.netty.channel.ChannelInboundHandlerAdapter
+import io.netty.channel.embedded.EmbeddedChannel
+import io.netty.handler.codec.http.DefaultHttpContent
+import io.netty.handler.codec.http.DefaultHttpRequest
+import io.netty.handler.codec.http.DefaultHttpResponse
+import io.netty.handler.codec.http.DefaultLastHttpContent
+import io.netty.handler.codec.http.HttpContent
+import io.netty.handler.codec.http.HttpHeaderNames
+import io.netty.handler.codec.http.HttpMethod
+import io.netty.handler.codec.http.HttpRequest
+import io.netty.handler.codec.http.HttpResponse
+import io.netty.handler.codec.http.HttpResponseStatus
+import io.netty.handler.codec.http.HttpVersion
+import io.netty.util.ResourceLeakDetector
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.zip.GZIPOutputStream
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertTrue
+import static org.junit.Assert.fail
+
+class HarCaptureFilterLeakTest {
+    private static final byte[] CONTENT = ("The quick brown fox jumps over the lazy dog. " * 2000).getBytes("UTF-8")
+
+    private ResourceLeakDetector.Level originalLevel
+
+    private PooledByteBufAllocator allocator
+
+    private EmbeddedChannel clientChannel
+
+    private final List<ByteBuf> chunks = []
+
+    @Before
+    void setUp() {
+        originalLevel = ResourceLeakDetector.getLevel()
+        ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID)
+
+        // without thread caches, every buffer that was not released back to the pool is an active allocation
+        allocator = new PooledByteBufAllocator(false, 1, 0, 8192, 9, 0, 0, false)
+
+        clientChannel = new EmbeddedChannel(new ChannelInboundHandlerAdapter()) {
+            @Override
+            protected SocketAddress remoteAddress0() {
+                return new InetSocketAddress(InetAddress.getLoopbackAddress(), 50000)
+            }
+        }
+    }
+
+    @After
+    void tearDown() {
+        clientChannel.finishAndReleaseAll()
+        ResourceLeakDetector.setLevel(originalLevel)
+    }
+
+    @Test
+    void testBuffersAreReleasedWhenResponseIsCaptured() {
+        Har har = new Har()
+        HarCaptureFilter filter = newFilter(har)
+
+        sendRequest(filter, true)
+        sendResponse(filter, true)
+
+        assertAllBuffersReleased()
+        assertEquals(new String(CONTENT, 'UTF-8'), har.getLog().getEntries()[0].getResponse().getContent().getText())
+    }
+
+    @Test
+    void testBuffersAreReleasedWhenResponseTimesOut() {
+        HarCaptureFilter filter = newFilter(new Har())
+
+        sendRequest(filter, true)
+        sendResponse(filter, false)
+        filter.serverToProxyResponseTimedOut()
+
+        assertAllBuffersReleased()
+    }
+
+    @Test
+    void testBuffersAreReleasedWhenClientDisconnects() {
+        HarCaptureFilter filter = newFilter(new Har())
+
+        sendRequest(filter, false)
+        sendResponse(filter, false)
+        clientChannel.close()
+
+        assertAllBuffersReleased()
+    }
+
+    @Test
+    void testBuffersAreReleasedWhenServerDisconnects() {
+        EmbeddedChannel serverChannel = new EmbeddedChannel(new ChannelInboundHandlerAdapter())
+        HarCaptureFilter filter = newFilter(new Har())
+
+        sendRequest(filter, true)
+        filter.proxyToServerConnectionSucceeded(serverChannel.pipeline().firstContext())
+        sendResponse(filter, false)
+        serverChannel.close()
+
+        assertAllBuffersReleased()
+    }
+
+    @Test
+    void testBuffersAreReleasedAndEntryIsCompletedWhenResponseCaptureFails() {
+        AtomicBoolean completed = new AtomicBoolean()
+        HarCaptureFilter filter = new HarCaptureFilter(newRequest(), clientChannel.pipeline().firstContext(), new Har(), null,
+                EnumSet.of(CaptureType.REQUEST_CONTENT, CaptureType.RESPONSE_CONTENT)) {
+            @Override
+            protected void captureResponseContent(HttpResponse httpResponse, byte[] fullMessage) {
+                throw new IllegalStateException('capture failed')
+            }
+
+            @Override
+            protected void onEntryCompleted() {
+                completed.set(true)
+            }
+        }
+
+        sendRequest(filter, true)
+        try {
+            sendResponse(filter, true)
+            fail('Expected the capture failure to propagate')
+        } catch (IllegalStateException e) {
+            assertEquals('capture failed', e.getMessage())
+        }
+
+        assertTrue(completed.get())
+        assertAllBuffersReleased()
+    }
+
+    private HarCaptureFilter newFilter(Har har) {
+        return new HarCaptureFilter(newRequest(), clientChannel.pipeline().firstContext(), har, null,
+                EnumSet.of(CaptureType.REQUEST_CONTENT, CaptureType.RESPONSE_CONTENT))
+    }
+
+    private static HttpRequest newRequest() {
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, 'http://example.com/upload')
+        request.headers().set(HttpHeaderNames.CONTENT_TYPE, 'text/plain')
+
+        return request
+    }
+
+    private void sendRequest(HarCaptureFilter filter, boolean complete) {
+        filter.clientToProxyRequest(newRequest())
+
+        int half = CONTENT.length.intdiv(2)
+        forward(new DefaultHttpContent(buffer(CONTENT, 0, half))) { filter.clientToProxyRequest(it) }
+        if (complete) {
+            forward(new DefaultLastHttpContent(buffer(CONTENT, half, CONTENT.length - half))) { filter.clientToProxyRequest(it) }
+        }
+    }
+
+    private void sendResponse(HarCaptureFilter filter, boolean complete) {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK)
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, 'text/plain')
+        response.headers().set(HttpHeaderNames.CONTENT_ENCODING, 'gzip')
+        filter.serverToProxyResponse(response)
+
+        byte[] compressed = gzip(CONTENT)
+        int half = compressed.length.intdiv(2)
+        forward(new DefaultHttpContent(buffer(compressed, 0, half))) { filter.serverToProxyResponse(it) }
+        if (complete) {
+            forward(new DefaultLastHttpContent(buffer(compressed, half, compressed.length - half))) { filter.serverToProxyResponse(it) }
+        }
+    }
+
+    /**
+     * Passes the content to the filter, then releases it, as the proxy does once it has written the content.
+     */
+    private static void forward(HttpContent content, Closure filter) {
+        try {
+            filter(content)
+        } finally {
+            content.release()
+        }
+    }
+
+    private ByteBuf buffer(byte[] bytes, int offset, int length) {
+        ByteBuf buffer = allocator.heapBuffer(length)
+        buffer.writeBytes(bytes, offset, length)
+        chunks.add(buffer)
+
+        return buffer
+    }
+
+    private void assertAllBuffersReleased() {
+        chunks.each { assertEquals(0, it.refCnt()) }
+        assertEquals(0L, allocator.metric().heapArenas().sum { it.numActiveAllocations() })
+    }
+
+    private static byte[] gzip(byte[] content) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream()
+        new GZIPOutputStream(bytes).withCloseable { it.write(content) }
+
+        return bytes.toByteArray()
+    }
+}
@@ -0,0 +1,63 @@
+package com.browserup.bup.filters.util
+
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.PooledByteBufAllocator
+import io.netty.buffer.Unpooled
+import org.junit.Test
+
+import java.nio.charset.StandardCharsets
+
+import static org.junit.Assert.assertArrayEquals
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertTrue
+
+class CapturedContentBufferTest {
+    @Test
+    void testContentIsCapturedWithoutConsumingBuffers() {
+        CapturedContentBuffer captured = new CapturedContentBuffer()
+        ByteBuf first = Unpooled.copiedBuffer("hello, ", StandardCharsets.UTF_8)
+        ByteBuf second = Unpooled.copiedBuffer("world", StandardCharsets.UTF_8)
+
+        captured.add(first)
+        captured.add(Unpooled.EMPTY_BUFFER)
+        captured.add(second)
+
+        assertEquals(0, first.readerIndex())
+        assertEquals(12, captured.readableBytes())
+        assertArrayEquals("hello, world".getBytes(StandardCharsets.UTF_8), captured.toByteArray())
+
+        captured.release()
+        first.release()
+        second.release()
+    }
+
+    @Test
+    void testCapturedBuffersAreRetainedUntilReleased() {
+        CapturedContentBuffer captured = new CapturedContentBuffer()
+        ByteBuf content = PooledByteBufAllocator.DEFAULT.buffer()
+        content.writeBytes([1, 2, 3] as byte[])
+
+        captured.add(content)
+
+        // the proxy releases the buffer after writing it to the client
+        content.release()
+        assertEquals(1, content.refCnt())
+        assertArrayEquals([1, 2, 3] as byte[], captured.toByteArray())
+
+        captured.release()
+        assertEquals(0, content.refCnt())
+        assertTrue(captured.isReleased())
+
+        // releasing again does nothing
+        captured.release()
+    }
+
+    @Test(expected = IllegalStateException)
+    void testReleasedContentCannotBeRead() {
+        CapturedContentBuffer captured = new CapturedContentBuffer()
+        captured.add(Unpooled.wrappedBuffer([1] as byte[]))
+        captured.release()
+
+        captured.toByteArray()
+    }
+}
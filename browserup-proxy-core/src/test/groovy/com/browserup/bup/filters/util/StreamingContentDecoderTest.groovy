@@ -0,0 +1,142 @@
+package com.browserup.bup.filters.util
+
+import io.netty.buffer.Unpooled
+import org.junit.Test
+
+import java.util.zip.Deflater
+import java.util.zip.DeflaterOutputStream
+import java.util.zip.GZIPOutputStream
+
+import static org.junit.Assert.assertArrayEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertNull
+import static org.junit.Assert.assertTrue
+
+class StreamingContentDecoderTest {
+    private static final byte[] CONTENT = ("The quick brown fox jumps over the lazy dog. " * 2000).getBytes("UTF-8")
+
+    @Test
+    void testGzipContentIsDecodedChunkByChunk() {
+        StreamingContentDecoder decoder = StreamingContentDecoder.forContentEncoding("gzip", Long.MAX_VALUE)
+
+        decodeInChunks(decoder, gzip(CONTENT), 100)
+
+        assertTrue(decoder.finish())
+        assertArrayEquals(CONTENT, decoder.toByteArray())
+        decoder.release()
+    }
+
+    @Test
+    void testZlibAndRawDeflateContentIsDecoded() {
+        [true, false].each { boolean raw ->
+            StreamingContentDecoder decoder = StreamingContentDecoder.forContentEncoding("deflate", Long.MAX_VALUE)
+
+            decodeInChunks(decoder, deflate(CONTENT, raw), 100)
+
+            assertTrue(decoder.finish())
+            assertArrayEquals(CONTENT, decoder.toByteArray())
+            decoder.release()
+        }
+    }
+
+    @Test
+    void testDecodingStopsWhenMaximumSizeIsExceeded() {
+        StreamingContentDecoder decoder = StreamingContentDecoder.forContentEncoding("gzip", 1024)
+
+        decodeInChunks(decoder, gzip(CONTENT), 100)
+
+        assertFalse(decoder.finish())
+        assertTrue(decoder.isFailed())
+        assertTrue(decoder.isSizeLimitExceeded())
+    }
+
+    @Test
+    void testChunkExpandingPastMaximumSizeFails() {
+        StreamingContentDecoder decoder = StreamingContentDecoder.forContentEncoding("gzip", 1024)
+
+        decoder.decode(Unpooled.wrappedBuffer(gzip(CONTENT)))
+
+        assertFalse(decoder.finish())
+        assertTrue(decoder.isFailed())
+        assertTrue(decoder.isSizeLimitExceeded())
+    }
+
+    @Test
+    void testChunkExpandingPastMaximumCapturedSizeIsTruncated() {
+        StreamingContentDecoder decoder = StreamingContentDecoder.forContentEncoding("gzip", Long.MAX_VALUE, 1024)
+
+        decoder.decode(Unpooled.wrappedBuffer(gzip(CONTENT)))
+
+        assertTrue(decoder.finish())
+        assertTrue(decoder.isTruncated())
+        assertFalse(decoder.isFailed())
+        assertTrue(decoder.toByteArray().length <= 1024)
+        decoder.release()
+    }
+
+    @Test
+    void testCorruptContentFails() {
+        StreamingContentDecoder decoder = StreamingContentDecoder.forContentEncoding("gzip", Long.MAX_VALUE)
+
+        decoder.decode(Unpooled.wrappedBuffer("not gzipped at all".getBytes("UTF-8")))
+        decoder.finish()
+
+        assertTrue(decoder.isFailed())
+        assertFalse(decoder.isSizeLimitExceeded())
+    }
+
+    @Test
+    void testFailureReasonDistinguishesCorruptContentFromExceededSize() {
+        StreamingContentDecoder corrupt = StreamingContentDecoder.forContentEncoding("gzip", 1024)
+        // a valid gzip header followed by an invalid deflate block
+        byte[] corrupted = gzip(CONTENT)
+        (10..<corrupted.length).each { corrupted[it] = (byte) 0xff }
+        corrupt.decode(Unpooled.wrappedBuffer(corrupted))
+        corrupt.finish()
+
+        assertTrue(corrupt.isFailed())
+        assertFalse(corrupt.isSizeLimitExceeded())
+        assertTrue(corrupt.getFailureReason().startsWith("Failed to decompress content with encoding gzip"))
+
+        StreamingContentDecoder exceeded = StreamingContentDecoder.forContentEncoding("gzip", 1024)
+        exceeded.decode(Unpooled.wrappedBuffer(gzip(CONTENT)))
+        exceeded.finish()
+
+        assertTrue(exceeded.isSizeLimitExceeded())
+        assertTrue(exceeded.getFailureReason().contains("exceeded the maximum size of 1024 bytes"))
+
+        StreamingContentDecoder decoded = StreamingContentDecoder.forContentEncoding("gzip", Long.MAX_VALUE)
+        decoded.decode(Unpooled.wrappedBuffer(gzip(CONTENT)))
+        assertTrue(decoded.finish())
+        assertNull(decoded.getFailureReason())
+        decoded.release()
+    }
+
+    @Test
+    void testUnsupportedEncodingsHaveNoDecoder() {
+        assertNull(StreamingContentDecoder.forContentEncoding("br", Long.MAX_VALUE))
+        assertNull(StreamingContentDecoder.forContentEncoding("identity", Long.MAX_VALUE))
+        assertNull(StreamingContentDecoder.forContentEncoding(null, Long.MAX_VALUE))
+    }
+
+    private static void decodeInChunks(StreamingContentDecoder decoder, byte[] compressed, int chunkSize) {
+        for (int offset = 0; offset < compressed.length; offset += chunkSize) {
+            int length = Math.min(chunkSize, compressed.length - offset)
+            decoder.decode(Unpooled.wrappedBuffer(compressed, offset, length))
+        }
+    }
+
+    private static byte[] gzip(byte[] content) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream()
+        new GZIPOutputStream(compressed).withCloseable { it.write(content) }
+
+        return compressed.toByteArray()
+    }
+
+    private static byte[] deflate(byte[] content, boolean raw) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream()
+        new DeflaterOutputStream(compressed, new Deflater(Deflater.DEFAULT_COMPRESSION, raw)).withCloseable { it.write(content) }
+
+        return compressed.toByteArray()
+    }
+}
@@ -0,0 +1,242 @@
+package com.browserup.bup.har
+
+import com.browserup.bup.har.body.BodyHandle
+import com.browserup.bup.har.body.DeduplicatingBodyStore
+import com.browserup.bup.har.body.MappedFileBodyStore
+import com.browserup.bup.har.body.StoredHarContent
+import de.sstoehr.harreader.model.HarEntry
+import de.sstoehr.harreader.model.HarResponse
+import org.junit.Test
+
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.TimeUnit
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertNull
+import static org.junit.Assert.assertTrue
+
+class BoundedHarEntryListTest {
+    @Test
+    void testUnlimitedListKeepsAllEntries() {
+        BoundedHarEntryList entries = new BoundedHarEntryList()
+
+        (0..<100).each { entries.add(newEntry(it)) }
+
+        assertEquals(100, entries.size())
+        assertEquals(0, entries.getEvictionStats().getEvictedEntries())
+    }
+
+    @Test
+    void testOldestEntriesAreEvictedByEntryLimit() {
+        BoundedHarEntryList entries = new BoundedHarEntryList(new HarCaptureLimits.Builder()
+                .setMaxEntries(3)
+                .create())
+
+        (0..<10).each { entries.add(newEntry(it)) }
+
+        assertEquals(3, entries.size())
+        assertEquals(['http://example.com/7', 'http://example.com/8', 'http://example.com/9'],
+                entries.collect { it.getRequest().getUrl() })
+        assertEquals(7, entries.getEvictionStats().getEvictedByEntryLimit())
+        assertEquals(7, entries.getEvictionStats().getEvictedEntries())
+    }
+
+    @Test
+    void testOldestEntriesAreEvictedByBodyBytesLimit() {
+        BoundedHarEntryList entries = new BoundedHarEntryList(new HarCaptureLimits.Builder()
+                .setMaxBodyBytes(250)
+                .create())
+
+        (0..<5).each {
+            HarEntry entry = newEntry(it)
+            entries.add(entry)
+            entries.onBodyCaptured(entry, 100)
+        }
+
+        assertEquals(2, entries.size())
+        assertEquals('http://example.com/3', entries.get(0).getRequest().getUrl())
+
+        HarEvictionStats stats = entries.getEvictionStats()
+        assertEquals(3, stats.getEvictedByBodyBytesLimit())
+        assertEquals(300, stats.getEvictedBodyBytes())
+        assertEquals(200, stats.getCapturedBodyBytes())
+    }
+
+    @Test
+    void testExpiredEntriesAreEvicted() {
+        BoundedHarEntryList entries = new BoundedHarEntryList(new HarCaptureLimits.Builder()
+                .setMaxAge(1, TimeUnit.MINUTES)
+                .create())
+
+        HarEntry old = newEntry(0)
+        old.setStartedDateTime(new Date(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(5)))
+        entries.add(old)
+        entries.add(newEntry(1))
+
+        assertEquals(1, entries.size())
+        assertEquals('http://example.com/1', entries.get(0).getRequest().getUrl())
+        assertEquals(1, entries.getEvictionStats().getEvictedByAge())
+    }
+
+    @Test
+    void testNewLimitsAreAppliedImmediately() {
+        BoundedHarEntryList entries = new BoundedHarEntryList()
+        (0..<10).each { entries.add(newEntry(it)) }
+
+        entries.setLimits(new HarCaptureLimits.Builder().setMaxEntries(4).create())
+
+        assertEquals(4, entries.size())
+        assertEquals('http://example.com/6', entries.get(0).getRequest().getUrl())
+    }
+
+    @Test
+    void testStoredBodiesOfEvictedEntriesAreReleased() {
+        MappedFileBodyStore store = MappedFileBodyStore.createTemporary(0)
+        try {
+            BoundedHarEntryList entries = new BoundedHarEntryList(new HarCaptureLimits.Builder()
+                    .setMaxEntries(1)
+                    .create())
+
+            HarEntry first = newEntry(0)
+            BodyHandle handle = store.store('first body'.getBytes(StandardCharsets.UTF_8))
+            StoredHarContent content = new StoredHarContent()
+            content.setBody(handle, StandardCharsets.UTF_8, false)
+            first.getResponse().setContent(content)
+
+            entries.add(first)
+            assertEquals('first body', first.getResponse().getContent().getText())
+
+            entries.add(newEntry(1))
+
+            assertEquals(1, entries.size())
+            assertNull(first.getResponse().getContent().getText())
+        } finally {
+            store.close()
+        }
+    }
+
+    @Test
+    void testDetachedBodiesAreReleasedAndRemainReadable() {
+        DeduplicatingBodyStore store = new DeduplicatingBodyStore(null, 0)
+        BoundedHarEntryList entries = new BoundedHarEntryList()
+
+        HarEntry first = newEntry(0)
+        StoredHarContent firstContent = new StoredHarContent()
+        firstContent.setBody(store.store('first body'.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8, false)
+        first.getResponse().setContent(firstContent)
+        entries.add(first)
+
+        // a request that is still in progress when the HAR is ended
+        HarEntry second = newEntry(1)
+        StoredHarContent secondContent = new StoredHarContent()
+        second.getResponse().setContent(secondContent)
+        entries.add(second)
+
+        entries.detachBodies()
+
+        assertNull(firstContent.getBodyHandle())
+        assertEquals(0, store.getDistinctBodies())
+
+        secondContent.setBody(store.store('second body'.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8, false)
+        entries.onBodyCaptured(second, 11)
+
+        assertNull(secondContent.getBodyHandle())
+        assertEquals(0, store.getDistinctBodies())
+
+        store.close()
+
+        assertEquals('first body', first.getResponse().getContent().getText())
+        assertEquals('second body', second.getResponse().getContent().getText())
+    }
+
+    @Test
+    void testEntriesSinceCursorIncludeNewAndUpdatedEntries() {
+        BoundedHarEntryList entries = new BoundedHarEntryList()
+        HarEntry first = newEntry(0)
+        HarEntry second = newEntry(1)
+        entries.add(first)
+        entries.add(second)
+
+        long cursor = entries.getSequence()
+        assertEquals([first, second], entries.getEntriesSince(0))
+        assertEquals([], entries.getEntriesSince(cursor))
+
+        HarEntry third = newEntry(2)
+        entries.add(third)
+        entries.onEntryUpdated(first)
+
+        assertEquals([first, third], entries.getEntriesSince(cursor))
+        assertEquals([], entries.getEntriesSince(entries.getSequence()))
+    }
+
+    @Test
+    void testEntriesSinceCursorExcludeEvictedEntries() {
+        BoundedHarEntryList entries = new BoundedHarEntryList(new HarCaptureLimits.Builder()
+                .setMaxEntries(2)
+                .create())
+        HarEntry first = newEntry(0)
+        HarEntry second = newEntry(1)
+        entries.add(first)
+        entries.add(second)
+
+        long cursor = entries.getSequence()
+        entries.onEntryUpdated(first)
+        HarEntry third = newEntry(2)
+        entries.add(third)
+
+        assertEquals([third], entries.getEntriesSince(cursor))
+        assertEquals([second, third], entries.getEntriesSince(0))
+
+        entries.onEntryUpdated(first)
+        assertEquals([], entries.getEntriesSince(entries.getSequence()))
+    }
+
+    @Test
+    void testSequenceContinuesFromInitialSequence() {
+        BoundedHarEntryList entries = new BoundedHarEntryList(HarCaptureLimits.UNLIMITED, 10)
+        HarEntry entry = newEntry(0)
+        entries.add(entry)
+
+        assertEquals(11, entries.getSequence())
+        assertEquals([entry], entries.getEntriesSince(10))
+    }
+
+    @Test(expected = IllegalArgumentException)
+    void testInvalidLimitsAreRejected() {
+        new HarCaptureLimits.Builder().setMaxEntries(0).create()
+    }
+
+    @Test
+    void testDefaultLimitsAreUnlimited() {
+        assertTrue(new HarCaptureLimits.Builder().create().isUnlimited())
+    }
+
+    @Test
+    void testEntriesAreGroupedByPage() {
+        BoundedHarEntryList entries = new BoundedHarEntryList(new HarCaptureLimits.Builder()
+                .setMaxEntries(4)
+                .create())
+
+        (0..<6).each {
+            HarEntry entry = newEntry(it)
+            entry.setPageref(it % 2 == 0 ? 'even' : 'odd')
+            entries.add(entry)
+        }
+
+        // entries 0 and 1 were evicted
+        assertEquals(['http://example.com/2', 'http://example.com/4'],
+                entries.getPageEntries('even').collect { it.getRequest().getUrl() })
+        assertEquals(['http://example.com/2', 'http://example.com/3', 'http://example.com/4', 'http://example.com/5'],
+                entries.getPageEntries(['odd', 'even']).collect { it.getRequest().getUrl() })
+        assertTrue(entries.getPageEntries('missing').isEmpty())
+    }
+
+    private static HarEntry newEntry(int index) {
+        HarEntry entry = new HarEntry()
+        entry.setStartedDateTime(new Date())
+        entry.getRequest().setUrl("http://example.com/${index}".toString())
+        entry.setResponse(new HarResponse())
+
+        return entry
+    }
+}
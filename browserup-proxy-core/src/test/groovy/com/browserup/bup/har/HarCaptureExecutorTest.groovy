@@ -0,0 +1,134 @@
+package com.browserup.bup.har
+
+import org.junit.After
+import org.junit.Test
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertNotEquals
+import static org.junit.Assert.assertTrue
+
+class HarCaptureExecutorTest {
+    HarCaptureExecutor executor
+
+    @After
+    void tearDown() {
+        executor?.shutdown()
+    }
+
+    @Test
+    void testAwaitCompletionWaitsForSubmittedTasks() {
+        executor = new HarCaptureExecutor(2, 16)
+        AtomicBoolean finished = new AtomicBoolean()
+
+        executor.execute {
+            Thread.sleep(200)
+            finished.set(true)
+        }
+
+        assertTrue(executor.awaitCompletion(5, TimeUnit.SECONDS))
+        assertTrue(finished.get())
+        assertEquals(0, executor.getPendingTaskCount())
+    }
+
+    @Test
+    void testAwaitCompletionTimesOut() {
+        executor = new HarCaptureExecutor(1, 16)
+        CountDownLatch release = new CountDownLatch(1)
+
+        executor.execute { release.await() }
+
+        assertFalse(executor.awaitCompletion(50, TimeUnit.MILLISECONDS))
+
+        release.countDown()
+        assertTrue(executor.awaitCompletion(5, TimeUnit.SECONDS))
+    }
+
+    @Test
+    void testAwaitCompletionDoesNotWaitForLaterTasks() {
+        executor = new HarCaptureExecutor(2, 16)
+        CountDownLatch release = new CountDownLatch(1)
+
+        executor.execute { }
+        assertTrue(executor.awaitCompletion(5, TimeUnit.SECONDS))
+
+        executor.execute { release.await() }
+        assertFalse(executor.awaitCompletion(50, TimeUnit.MILLISECONDS))
+
+        release.countDown()
+    }
+
+    @Test
+    void testTasksRunOnOverflowThreadWhenQueueIsFull() {
+        executor = new HarCaptureExecutor(1, 1)
+        CountDownLatch release = new CountDownLatch(1)
+        CountDownLatch overflowed = new CountDownLatch(1)
+        Thread caller = Thread.currentThread()
+        Thread overflowThread = null
+
+        // occupies the only thread
+        executor.execute { release.await() }
+        // fills the queue
+        executor.execute { }
+        // rejected, so runs on the overflow thread rather than on this (event loop) thread
+        executor.execute {
+            overflowThread = Thread.currentThread()
+            overflowed.countDown()
+        }
+
+        assertTrue(overflowed.await(5, TimeUnit.SECONDS))
+        assertNotEquals(caller, overflowThread)
+        assertEquals(1, executor.getOverflowedTaskCount())
+
+        release.countDown()
+        assertTrue(executor.awaitCompletion(5, TimeUnit.SECONDS))
+    }
+
+    @Test
+    void testTasksRunOnSubmittingThreadWhenOverflowQueueIsFull() {
+        executor = new HarCaptureExecutor(1, 1, 1)
+        CountDownLatch release = new CountDownLatch(1)
+        CountDownLatch overflowStarted = new CountDownLatch(1)
+        Thread caller = Thread.currentThread()
+        Thread rejectedThread = null
+
+        // occupies the only thread
+        executor.execute { release.await() }
+        // fills the queue
+        executor.execute { }
+        // occupies the overflow thread
+        executor.execute {
+            overflowStarted.countDown()
+            release.await()
+        }
+        assertTrue(overflowStarted.await(5, TimeUnit.SECONDS))
+        // fills the overflow queue
+        executor.execute { }
+        // rejected by both, so runs on this thread instead of being queued without bound
+        executor.execute { rejectedThread = Thread.currentThread() }
+
+        assertEquals(caller, rejectedThread)
+        assertEquals(3, executor.getOverflowedTaskCount())
+        assertEquals(1, executor.getRejectedTaskCount())
+
+        release.countDown()
+        assertTrue(executor.awaitCompletion(5, TimeUnit.SECONDS))
+        assertEquals(0, executor.getPendingTaskCount())
+    }
+
+    @Test
+    void testTasksSubmittedAfterShutdownAreRun() {
+        executor = new HarCaptureExecutor(1, 16)
+        executor.shutdown()
+
+        AtomicBoolean ran = new AtomicBoolean()
+        executor.execute { ran.set(true) }
+
+        assertTrue(ran.get())
+        assertTrue(executor.awaitCompletion(1, TimeUnit.SECONDS))
+    }
+}
@@ -0,0 +1,86 @@
+package com.browserup.bup.har
+
+import com.browserup.bup.proxy.CaptureType
+import org.junit.Test
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertNull
+import static org.junit.Assert.assertSame
+import static org.junit.Assert.assertTrue
+
+class HarCapturePoliciesTest {
+    private static final EnumSet<CaptureType> DEFAULTS = EnumSet.of(CaptureType.REQUEST_HEADERS, CaptureType.RESPONSE_HEADERS,
+            CaptureType.RESPONSE_CONTENT)
+
+    @Test
+    void testFirstMatchingPolicyApplies() {
+        HarCapturePolicy images = new HarCapturePolicy.Builder()
+                .setHost("cdn.example.com")
+                .setCaptureTypes(EnumSet.noneOf(CaptureType))
+                .create()
+        HarCapturePolicy api = new HarCapturePolicy.Builder()
+                .setUrlPattern("https?://[^/]+/api/.*")
+                .setMethod("post")
+                .setCaptureTypes(EnumSet.allOf(CaptureType))
+                .setMaxBodySize(1024)
+                .create()
+        HarCapturePolicies policies = new HarCapturePolicies([images, api])
+
+        HarCapturePolicies.Match cdn = policies.match("POST", "https://user@CDN.example.com:8443/api/upload")
+        assertSame(images, cdn.getRequestPolicy())
+        assertEquals(EnumSet.noneOf(CaptureType), cdn.getCaptureTypes(DEFAULTS, "image/png"))
+
+        HarCapturePolicies.Match post = policies.match("POST", "https://example.com/api/orders")
+        assertSame(api, post.getRequestPolicy())
+        assertEquals(1024L, post.getMaxRequestBodySize())
+        assertEquals(EnumSet.allOf(CaptureType), post.getCaptureTypes(DEFAULTS, "application/json"))
+
+        HarCapturePolicies.Match get = policies.match("GET", "https://example.com/api/orders")
+        assertTrue(get.isEmpty())
+        assertEquals(DEFAULTS, get.getCaptureTypes(DEFAULTS, "application/json"))
+        assertEquals(Long.MAX_VALUE, get.getMaxRequestBodySize())
+    }
+
+    @Test
+    void testMimeTypePolicyOnlyAppliesToResponse() {
+        HarCapturePolicy media = new HarCapturePolicy.Builder()
+                .setMimeTypePattern("video/.*|font/.*")
+                .setCaptureTypes(EnumSet.of(CaptureType.RESPONSE_HEADERS))
+                .create()
+        HarCapturePolicies policies = new HarCapturePolicies([media])
+
+        HarCapturePolicies.Match match = policies.match("GET", "http://example.com/movie.mp4")
+
+        assertNull(match.getRequestPolicy())
+        assertSame(media, match.getResponsePolicy("video/mp4"))
+        assertNull(match.getResponsePolicy("text/html; charset=UTF-8"))
+
+        // request types come from the defaults, response types from the policy
+        assertEquals(EnumSet.of(CaptureType.REQUEST_HEADERS, CaptureType.RESPONSE_HEADERS), match.getCaptureTypes(DEFAULTS, "video/mp4"))
+        assertEquals(DEFAULTS, match.getCaptureTypes(DEFAULTS, "text/html"))
+
+        // response content is only known not to be captured once the response is received
+        assertTrue(match.mayCapture(CaptureType.RESPONSE_CONTENT, DEFAULTS))
+    }
+
+    @Test
+    void testPolicyWithoutCaptureTypesUsesDefaults() {
+        HarCapturePolicy capped = new HarCapturePolicy.Builder()
+                .setHost("example.com")
+                .setMaxBodySize(10)
+                .create()
+        HarCapturePolicies policies = new HarCapturePolicies([capped])
+
+        HarCapturePolicies.Match match = policies.match("GET", "http://example.com")
+
+        assertEquals(DEFAULTS, match.getCaptureTypes(DEFAULTS, "text/html"))
+        assertEquals(10L, match.getMaxResponseBodySize("text/html"))
+        assertFalse(match.mayCapture(CaptureType.REQUEST_CONTENT, DEFAULTS))
+    }
+
+    @Test(expected = IllegalArgumentException)
+    void testInvalidPatternIsRejected() {
+        new HarCapturePolicy.Builder().setUrlPattern("(").create()
+    }
+}
@@ -0,0 +1,163 @@
+package com.browserup.bup.har
+
+import de.sstoehr.harreader.model.HarEntry
+import org.junit.After
+import org.junit.Test
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertTrue
+
+class HarEntryDispatcherTest {
+    HarEntryDispatcher dispatcher
+
+    @After
+    void tearDown() {
+        dispatcher?.close()
+    }
+
+    @Test
+    void testEventsFromEntryListAreDeliveredInOrder() {
+        dispatcher = new HarEntryDispatcher()
+        List<String> events = new CopyOnWriteArrayList<>()
+        dispatcher.addListener(new HarEntryListener() {
+            @Override
+            void onEntryStarted(HarEntry entry) {
+                events.add("started ${entry.getRequest().getUrl()}".toString())
+            }
+
+            @Override
+            void onEntryCompleted(HarEntry entry) {
+                events.add("completed ${entry.getRequest().getUrl()}".toString())
+            }
+        })
+
+        BoundedHarEntryList entries = new BoundedHarEntryList()
+        entries.setDispatcher(dispatcher)
+
+        HarEntry first = newEntry(0)
+        HarEntry second = newEntry(1)
+        entries.add(first)
+        entries.onEntryStarted(first)
+        entries.add(second)
+        entries.onEntryStarted(second)
+        entries.onEntryCompleted(second)
+        entries.onEntryCompleted(first)
+
+        dispatcher.close()
+
+        assertEquals(['started http://example.com/0', 'started http://example.com/1',
+                      'completed http://example.com/1', 'completed http://example.com/0'], events)
+        assertEquals(4, dispatcher.getDispatchedEvents())
+    }
+
+    @Test
+    void testNewestEventsAreDroppedWhenQueueIsFull() {
+        dispatcher = new HarEntryDispatcher(2, HarEntryDispatcher.OverflowPolicy.DROP_NEWEST)
+        List<Integer> completed = blockedListener(dispatcher)
+
+        // the first entry is taken by the blocked listener, the next two fill the queue
+        (0..<6).each { publishWhenQueued(dispatcher, it) }
+        release(dispatcher)
+
+        assertEquals([0, 1, 2], completed)
+        assertEquals(3, dispatcher.getDroppedEvents())
+    }
+
+    @Test
+    void testOldestEventsAreDroppedWhenQueueIsFull() {
+        dispatcher = new HarEntryDispatcher(2, HarEntryDispatcher.OverflowPolicy.DROP_OLDEST)
+        List<Integer> completed = blockedListener(dispatcher)
+
+        (0..<6).each { publishWhenQueued(dispatcher, it) }
+        release(dispatcher)
+
+        assertEquals([0, 4, 5], completed)
+        assertEquals(3, dispatcher.getDroppedEvents())
+    }
+
+    @Test
+    void testFailingListenerDoesNotAffectOtherListeners() {
+        dispatcher = new HarEntryDispatcher()
+        CountDownLatch delivered = new CountDownLatch(2)
+        dispatcher.addListener(new HarEntryListener() {
+            @Override
+            void onEntryCompleted(HarEntry entry) {
+                throw new RuntimeException('listener failure')
+            }
+        })
+        dispatcher.addListener(new HarEntryListener() {
+            @Override
+            void onEntryCompleted(HarEntry entry) {
+                delivered.countDown()
+            }
+        })
+
+        dispatcher.entryCompleted(newEntry(0))
+        dispatcher.entryCompleted(newEntry(1))
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS))
+        dispatcher.close()
+        assertEquals(2, dispatcher.getFailedListenerCalls())
+    }
+
+    @Test
+    void testEventsAreNotQueuedWithoutListeners() {
+        dispatcher = new HarEntryDispatcher(1, HarEntryDispatcher.OverflowPolicy.DROP_NEWEST)
+
+        (0..<3).each { dispatcher.entryCompleted(newEntry(it)) }
+
+        assertEquals(0, dispatcher.getQueuedEvents())
+        assertEquals(0, dispatcher.getDroppedEvents())
+    }
+
+    private CountDownLatch releaseListener
+
+    /**
+     * Adds a listener that blocks on the first completed entry until {@link #release} is called.
+     */
+    private List<Integer> blockedListener(HarEntryDispatcher dispatcher) {
+        releaseListener = new CountDownLatch(1)
+        List<Integer> completed = new CopyOnWriteArrayList<>()
+        dispatcher.addListener(new HarEntryListener() {
+            @Override
+            void onEntryCompleted(HarEntry entry) {
+                releaseListener.await()
+                completed.add(entry.getRequest().getUrl().tokenize('/').last() as Integer)
+            }
+        })
+
+        return completed
+    }
+
+    private void release(HarEntryDispatcher dispatcher) {
+        releaseListener.countDown()
+        dispatcher.close()
+    }
+
+    /**
+     * Publishes an entry, and waits until the dispatcher thread has taken the first entry off the queue, so that the
+     * number of queued events is predictable.
+     */
+    private static void publishWhenQueued(HarEntryDispatcher dispatcher, int index) {
+        dispatcher.entryCompleted(newEntry(index))
+
+        if (index == 0) {
+            long deadline = System.currentTimeMillis() + 5000
+            while (dispatcher.getQueuedEvents() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10)
+            }
+        }
+    }
+
+    private static HarEntry newEntry(int index) {
+        HarEntry entry = new HarEntry()
+        entry.setStartedDateTime(new Date())
+        entry.getRequest().setUrl("http://example.com/${index}".toString())
+
+        return entry
+    }
+}
@@ -0,0 +1,182 @@
+package com.browserup.bup.har
+
+import com.browserup.harreader.HarNdjsonReader
+import com.fasterxml.jackson.databind.ObjectMapper
+import de.sstoehr.harreader.model.Har
+import de.sstoehr.harreader.model.HarEntry
+import de.sstoehr.harreader.model.HarResponse
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertTrue
+
+class HarNdjsonSinkTest {
+    private Path directory
+
+    @Before
+    void setUp() {
+        directory = Files.createTempDirectory('har-sink-test')
+    }
+
+    @After
+    void tearDown() {
+        directory.toFile().deleteDir()
+    }
+
+    @Test
+    void testPersistedEntriesAreReleasedFromList() {
+        HarNdjsonSink sink = new HarNdjsonSink(directory)
+        BoundedHarEntryList entries = new BoundedHarEntryList()
+        entries.setSink(sink)
+
+        List<HarEntry> added = (0..<5).collect { newEntry(it) }
+        added.each { entries.add(it) }
+
+        // entries completed out of order are released as soon as they are persisted
+        entries.onEntryCompleted(added[1])
+        entries.onEntryCompleted(added[2])
+        assertTrue(sink.flush())
+        assertEquals(['http://example.com/0', 'http://example.com/3', 'http://example.com/4'], entries.collect { it.getRequest().getUrl() })
+        assertEquals(2, entries.getReleasedPersistedEntries())
+
+        entries.onEntryCompleted(added[0])
+        assertTrue(sink.flush())
+        assertEquals(['http://example.com/3', 'http://example.com/4'], entries.collect { it.getRequest().getUrl() })
+        assertEquals(3, entries.getReleasedPersistedEntries())
+
+        sink.close()
+
+        assertEquals(3, sink.getWrittenEntries())
+        assertEquals(['http://example.com/1', 'http://example.com/2', 'http://example.com/0'],
+                new HarNdjsonReader().readDirectory(directory).getLog().getEntries().collect { it.getRequest().getUrl() })
+    }
+
+    @Test
+    void testPersistedEntriesAreRemovedFromTheirPageBehindAnEntryInFlight() {
+        HarNdjsonSink sink = new HarNdjsonSink(directory)
+        BoundedHarEntryList entries = new BoundedHarEntryList()
+        entries.setSink(sink)
+
+        List<HarEntry> added = (0..<5).collect { newEntry(it) }
+        added.each {
+            it.setPageref('page_1')
+            entries.add(it)
+        }
+        assertEquals(5, entries.getPageEntryCount('page_1'))
+
+        // the first entry is still in flight
+        added.subList(1, 5).each { entries.onEntryCompleted(it) }
+        assertTrue(sink.flush())
+
+        assertEquals(1, entries.getPageEntryCount('page_1'))
+        assertEquals([added[0]], entries.getPageEntries('page_1'))
+
+        sink.close()
+    }
+
+    @Test
+    void testFilesRollOverAtMaximumSize() {
+        HarNdjsonSink sink = new HarNdjsonSink(directory, new ObjectMapper(), 1000, HarNdjsonSink.DEFAULT_MAX_BATCH_SIZE,
+                HarNdjsonSink.DEFAULT_QUEUE_CAPACITY)
+
+        (0..<10).each { sink.append(newEntry(it), null) }
+        sink.close()
+
+        List<Path> files = sink.getFiles()
+        assertTrue(files.size() > 1)
+        // a file only exceeds the maximum size if its single entry does
+        files.each { assertTrue(Files.size(it) <= 1000 || Files.readAllLines(it).size() == 1) }
+
+        Har har = new HarNdjsonReader().read(files)
+        assertEquals((0..<10).collect { "http://example.com/${it}".toString() },
+                har.getLog().getEntries().collect { it.getRequest().getUrl() })
+    }
+
+    @Test
+    void testNewSinkContinuesNumberingOfExistingFiles() {
+        HarNdjsonSink first = new HarNdjsonSink(directory)
+        first.append(newEntry(0), null)
+        first.close()
+
+        HarNdjsonSink second = new HarNdjsonSink(directory)
+        second.append(newEntry(1), null)
+        second.close()
+
+        assertEquals(['har-000001.ndjson'], first.getFiles().collect { it.getFileName().toString() })
+        assertEquals(['har-000002.ndjson'], second.getFiles().collect { it.getFileName().toString() })
+        assertEquals(2, new HarNdjsonReader().readDirectory(directory).getLog().getEntries().size())
+    }
+
+    @Test
+    void testIncompleteLastLineIsIgnored() {
+        HarNdjsonSink sink = new HarNdjsonSink(directory)
+        (0..<2).each { sink.append(newEntry(it), null) }
+        sink.close()
+
+        Path file = sink.getFiles()[0]
+        Files.write(file, '{"startedDateTime":"2020-01-'.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND)
+
+        assertEquals(2, new HarNdjsonReader().readDirectory(directory).getLog().getEntries().size())
+    }
+
+    @Test
+    void testEntriesAreSpilledAndStillReleasedWhenQueueIsFull() {
+        HarNdjsonSink sink = new HarNdjsonSink(directory, new ObjectMapper(), HarNdjsonSink.DEFAULT_MAX_FILE_BYTES, 1, 1)
+        BoundedHarEntryList entries = new BoundedHarEntryList()
+        entries.setSink(sink)
+        CountDownLatch writerBlocked = new CountDownLatch(1)
+        CountDownLatch releaseWriter = new CountDownLatch(1)
+
+        // keep the writer thread busy, so that the queue fills up
+        assertTrue(sink.append(newEntry(-1), { writerBlocked.countDown(); releaseWriter.await() }))
+        assertTrue(writerBlocked.await(5, TimeUnit.SECONDS))
+
+        List<HarEntry> added = (0..<3).collect { newEntry(it) }
+        added.each {
+            entries.add(it)
+            entries.onEntryCompleted(it)
+        }
+        assertEquals(2, sink.getSpilledEntries())
+        assertEquals(2, sink.getOverflowSize())
+        assertEquals(2, entries.getEvictionStats().getSpilledSinkEntries())
+
+        releaseWriter.countDown()
+        assertTrue(sink.flush())
+
+        assertEquals(0, sink.getOverflowSize())
+        assertEquals(4, sink.getWrittenEntries())
+        assertTrue(entries.isEmpty())
+        assertEquals(3, entries.getEvictionStats().getReleasedPersistedEntries())
+
+        sink.close()
+    }
+
+    @Test
+    void testClosedSinkRejectsEntries() {
+        HarNdjsonSink sink = new HarNdjsonSink(directory)
+        sink.close()
+
+        assertFalse(sink.append(newEntry(0), null))
+        assertFalse(sink.flush())
+        assertTrue(sink.getFiles().isEmpty())
+    }
+
+    private static HarEntry newEntry(int index) {
+        HarEntry entry = new HarEntry()
+        entry.setStartedDateTime(new Date())
+        entry.getRequest().setUrl("http://example.com/${index}".toString())
+        entry.setResponse(new HarResponse())
+
+        return entry
+    }
+}
@@ -0,0 +1,55 @@
+package com.browserup.bup.har
+
+import de.sstoehr.harreader.model.HarPage
+import org.junit.Test
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertNull
+import static org.junit.Assert.assertSame
+
+class HarPageListTest {
+    @Test
+    void testPagesAreIndexedById() {
+        HarPageList pages = new HarPageList()
+        HarPage first = newPage('Page 0')
+        HarPage second = newPage('Page 1')
+        pages.add(first)
+        pages.add(second)
+        pages.add(newPage('Page 0'))
+
+        assertSame(first, pages.getPage('Page 0'))
+        assertSame(second, pages.getPage('Page 1'))
+        assertNull(pages.getPage('Page 2'))
+    }
+
+    @Test
+    void testGetPagesThrough() {
+        HarPageList pages = new HarPageList()
+        (0..<4).each { pages.add(newPage("Page ${it}".toString())) }
+
+        assertEquals(['Page 0', 'Page 1'], pages.getPagesThrough('Page 1').collect { it.getId() })
+        assertEquals(4, pages.getPagesThrough('unknown').size())
+    }
+
+    @Test
+    void testReplacedPageIsReindexed() {
+        HarPageList pages = new HarPageList()
+        pages.add(newPage('a'))
+        HarPage duplicate = newPage('a')
+        pages.add(duplicate)
+
+        HarPage replacement = newPage('b')
+        pages.set(0, replacement)
+
+        assertSame(replacement, pages.getPage('b'))
+        assertSame(duplicate, pages.getPage('a'))
+    }
+
+    private static HarPage newPage(String id) {
+        HarPage page = new HarPage()
+        page.setId(id)
+        page.setTitle(id)
+
+        return page
+    }
+}
@@ -0,0 +1,178 @@
+package com.browserup.bup.har
+
+import com.browserup.bup.assertion.model.AssertionEntryResult
+import com.browserup.bup.assertion.model.AssertionResult
+import com.browserup.bup.assertion.model.filter.AssertionFilterInfo
+import de.sstoehr.harreader.model.Har
+import de.sstoehr.harreader.model.HarEntry
+import de.sstoehr.harreader.model.HarLog
+import de.sstoehr.harreader.model.HarResponse
+import org.junit.Test
+
+import java.util.regex.Pattern
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertNotEquals
+import static org.junit.Assert.assertSame
+
+class HarQueryCacheTest {
+    @Test
+    void testResultIsReusedUntilHarChanges() {
+        HarQueryCache cache = new HarQueryCache()
+        Har har = newHar()
+        BoundedHarEntryList entries = har.getLog().getEntries() as BoundedHarEntryList
+        entries.add(newEntry(0))
+
+        int computations = 0
+        def count = { cache.get(HarQueryCache.query('count'), har, { computations++; entries.size() }) }
+
+        assertEquals(1, count())
+        assertEquals(1, count())
+        assertEquals(1, computations)
+
+        entries.add(newEntry(1))
+        assertEquals(2, count())
+        assertEquals(2, computations)
+
+        entries.onEntryUpdated(entries.get(0))
+        assertEquals(2, count())
+        assertEquals(3, computations)
+
+        assertEquals(2, cache.getHits())
+        assertEquals(3, cache.getMisses())
+    }
+
+    @Test
+    void testResultOfPreviousHarIsNotReused() {
+        HarQueryCache cache = new HarQueryCache()
+        Har first = newHar()
+        Har second = newHar()
+
+        assertEquals('first', cache.get(HarQueryCache.query('name'), first, { 'first' }))
+        assertEquals('second', cache.get(HarQueryCache.query('name'), second, { 'second' }))
+    }
+
+    @Test
+    void testLeastRecentlyUsedResultIsEvicted() {
+        HarQueryCache cache = new HarQueryCache(2)
+        Har har = newHar()
+
+        cache.get(HarQueryCache.query('a'), har, { 'a' })
+        cache.get(HarQueryCache.query('b'), har, { 'b' })
+        cache.get(HarQueryCache.query('a'), har, { 'a' })
+        cache.get(HarQueryCache.query('c'), har, { 'c' })
+
+        assertEquals(2, cache.size())
+        assertEquals('a', cache.get(HarQueryCache.query('a'), har, { 'not cached' }))
+        assertEquals('not cached', cache.get(HarQueryCache.query('b'), har, { 'not cached' }))
+    }
+
+    @Test
+    void testHarWithoutBoundedEntriesIsNotCached() {
+        HarQueryCache cache = new HarQueryCache()
+        HarLog log = new HarLog()
+        log.setEntries([newEntry(0)])
+        Har har = new Har()
+        har.setLog(log)
+
+        cache.get(HarQueryCache.query('a'), har, { 'a' })
+
+        assertEquals(0, cache.size())
+    }
+
+    @Test
+    void testPatternsAreComparedByExpressionAndFlags() {
+        assertEquals(HarQueryCache.query('q', Pattern.compile('.*a.*')), HarQueryCache.query('q', Pattern.compile('.*a.*')))
+        assertNotEquals(HarQueryCache.query('q', Pattern.compile('.*a.*')),
+                HarQueryCache.query('q', Pattern.compile('.*a.*', Pattern.CASE_INSENSITIVE)))
+    }
+
+    @Test
+    void testCollectionArgumentsAreCopied() {
+        List<String> texts = ['a', 'b']
+        List<Object> query = HarQueryCache.query('q', texts)
+        texts.add('c')
+
+        assertEquals(HarQueryCache.query('q', ['a', 'b']), query)
+    }
+
+    @Test
+    void testVersionIsIncrementedByModifications() {
+        BoundedHarEntryList entries = new BoundedHarEntryList(new HarCaptureLimits.Builder()
+                .setMaxEntries(1)
+                .create())
+        HarEntry entry = newEntry(0)
+
+        List<Long> versions = [entries.getVersion()]
+        entries.add(entry)
+        versions << entries.getVersion()
+        entries.onEntryUpdated(entry)
+        versions << entries.getVersion()
+        entries.onEntryCompleted(entry)
+        versions << entries.getVersion()
+        // evicts the first entry
+        entries.add(newEntry(1))
+        versions << entries.getVersion()
+
+        assertEquals(versions.toSorted(), versions)
+        assertEquals(versions.size(), versions.toSet().size())
+        assertEquals(versions.last(), entries.getVersion())
+    }
+
+    @Test
+    void testResultIsReusedWhileVersionOfSourceIsUnchanged() {
+        HarQueryCache cache = new HarQueryCache()
+        Object source = new Object()
+
+        int computations = 0
+        def count = { Object version -> cache.get(HarQueryCache.query('count'), source, version, { ++computations }) }
+
+        assertEquals(1, count([1, 1]))
+        assertEquals(1, count([1, 1]))
+        assertEquals(2, count([1, 2]))
+        assertEquals(3, cache.get(HarQueryCache.query('count'), new Object(), [1, 2], { ++computations }))
+
+        // a source without a version is never cached
+        assertEquals(4, count(null))
+        assertEquals(5, count(null))
+    }
+
+    @Test(expected = UnsupportedOperationException)
+    void testCachedAssertionResultsCannotBeModified() {
+        HarQueryCache cache = new HarQueryCache()
+        Har har = newHar()
+        def check = {
+            new AssertionResult.Builder()
+                    .setMessage('passed')
+                    .setFailed(false)
+                    .setPassed(true)
+                    .setFilter(new AssertionFilterInfo())
+                    .addRequest(new AssertionEntryResult.Builder().setUrl('http://example.com').setFailed(false).create())
+                    .create()
+        }
+
+        AssertionResult result = cache.get(HarQueryCache.query('assert'), har, check)
+        assertSame(result, cache.get(HarQueryCache.query('assert'), har, check))
+
+        result.getRequests().clear()
+    }
+
+    private static Har newHar() {
+        HarLog log = new HarLog()
+        log.setEntries(new BoundedHarEntryList())
+
+        Har har = new Har()
+        har.setLog(log)
+
+        return har
+    }
+
+    private static HarEntry newEntry(int index) {
+        HarEntry entry = new HarEntry()
+        entry.setStartedDateTime(new Date())
+        entry.getRequest().setUrl("http://example.com/${index}".toString())
+        entry.setResponse(new HarResponse())
+
+        return entry
+    }
+}
@@ -0,0 +1,62 @@
+package com.browserup.bup.har
+
+import org.junit.Test
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertNotSame
+import static org.junit.Assert.assertNull
+import static org.junit.Assert.assertSame
+
+class HarStringPoolTest {
+    @Test
+    void testEqualStringsAreShared() {
+        HarStringPool pool = new HarStringPool()
+
+        String first = pool.intern(new String('Cache-Control'))
+        String second = pool.intern(new String('Cache-Control'))
+
+        assertSame(first, second)
+
+        HarStringPoolStats stats = pool.getStats()
+        assertEquals(2, stats.getLookups())
+        assertEquals(1, stats.getHits())
+        assertEquals(0.5d, stats.getDedupRatio(), 0.0001d)
+        assertEquals(1, stats.getPooledStrings())
+        assertEquals(40 + 'Cache-Control'.length(), stats.getSavedBytes())
+    }
+
+    @Test
+    void testLongStringsAreNotPooled() {
+        HarStringPool pool = new HarStringPool(10, 4)
+
+        String value = new String('abcde')
+
+        assertSame(value, pool.intern(value))
+        assertNull(pool.intern(null))
+        assertEquals(0, pool.getStats().getLookups())
+    }
+
+    @Test
+    void testOnlyLowCardinalityHeaderValuesArePooled() {
+        HarStringPool pool = new HarStringPool()
+
+        assertSame(pool.internHeaderValue('Accept-Encoding', new String('gzip')), pool.internHeaderValue('accept-encoding', new String('gzip')))
+        assertNotSame(pool.internHeaderValue('Authorization', new String('Bearer abc')), pool.internHeaderValue('Authorization', new String('Bearer abc')))
+
+        assertEquals(2, pool.getStats().getLookups())
+        assertEquals(1, pool.getStats().getPooledStrings())
+    }
+
+    @Test
+    void testPoolIsClearedWhenFull() {
+        HarStringPool pool = new HarStringPool(2, 10)
+
+        pool.intern('a')
+        pool.intern('b')
+        pool.intern('c')
+
+        HarStringPoolStats stats = pool.getStats()
+        assertEquals(1, stats.getResets())
+        assertEquals(1, stats.getPooledStrings())
+    }
+}
@@ -0,0 +1,87 @@
+package com.browserup.bup.har
+
+import de.sstoehr.harreader.model.HarEntry
+import de.sstoehr.harreader.model.HarTiming
+import org.junit.Test
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertTrue
+
+class HarTimingHistogramsTest {
+    @Test
+    void testTimingsAreGroupedByHostAndPage() {
+        HarTimingHistograms histograms = new HarTimingHistograms()
+
+        (1..100).each { histograms.record(newEntry('http://www.example.com/' + it, 'page_1', it)) }
+        histograms.record(newEntry('https://Other.example.com:8443/', 'page_2', 200))
+
+        HarTimingReport report = histograms.getReport()
+
+        assertEquals(['other.example.com', 'www.example.com'], report.hosts.keySet() as List)
+        assertEquals(['page_1', 'page_2'], report.pages.keySet() as List)
+
+        HarTimingPercentiles wait = report.hosts['www.example.com']['wait']
+        assertEquals(100, wait.count)
+        assertEquals(1, wait.min)
+        assertEquals(100, wait.max)
+        assertEquals(50.5d, wait.mean, 1d)
+        assertEquals(50, wait.p50)
+        assertEquals(95, wait.p95)
+        assertEquals(99, wait.p99)
+
+        assertEquals(200, report.pages['page_2']['wait'].p99)
+        // timings an entry does not have are not aggregated
+        assertFalse(report.hosts['www.example.com'].containsKey('ssl'))
+        assertTrue(report.hosts['www.example.com'].containsKey('time'))
+    }
+
+    @Test
+    void testResetStartsNewInterval() {
+        HarTimingHistograms histograms = new HarTimingHistograms()
+        histograms.record(newEntry('http://www.example.com/', 'page_1', 10))
+
+        HarTimingReport firstInterval = histograms.reset()
+        assertEquals(1, firstInterval.hosts['www.example.com']['wait'].count)
+
+        HarTimingReport emptyInterval = histograms.getReport()
+        assertTrue(emptyInterval.hosts.isEmpty())
+        assertEquals(firstInterval.intervalEnd, emptyInterval.intervalStart)
+
+        histograms.record(newEntry('http://www.example.com/', 'page_1', 20))
+        HarTimingPercentiles wait = histograms.getReport().hosts['www.example.com']['wait']
+        assertEquals(1, wait.count)
+        assertEquals(20, wait.max)
+    }
+
+    @Test
+    void testKeysBeyondMaximumAreAggregatedTogether() {
+        HarTimingHistograms histograms = new HarTimingHistograms(2)
+
+        (1..4).each { histograms.record(newEntry("http://host${it}.example.com/".toString(), null, it)) }
+
+        HarTimingReport report = histograms.getReport()
+        assertEquals([HarTimingHistograms.OTHER_KEY, 'host1.example.com', 'host2.example.com'], report.hosts.keySet() as List)
+        assertEquals(2, report.hosts[HarTimingHistograms.OTHER_KEY]['wait'].count)
+        assertTrue(report.pages.isEmpty())
+    }
+
+    private static HarEntry newEntry(String url, String pageRef, int wait) {
+        HarTiming timings = new HarTiming()
+        timings.setBlocked(0)
+        timings.setDns(-1)
+        timings.setConnect(-1)
+        timings.setSsl(-1)
+        timings.setSend(1)
+        timings.setWait(wait)
+        timings.setReceive(2)
+
+        HarEntry entry = new HarEntry()
+        entry.getRequest().setUrl(url)
+        entry.setPageref(pageRef)
+        entry.setTimings(timings)
+        entry.setTime(wait + 3)
+
+        return entry
+    }
+}
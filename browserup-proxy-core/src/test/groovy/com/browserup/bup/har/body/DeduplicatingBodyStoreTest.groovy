@@ -0,0 +1,83 @@
+package com.browserup.bup.har.body
+
+import org.junit.Test
+
+import java.nio.charset.StandardCharsets
+
+import static org.junit.Assert.assertArrayEquals
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertTrue
+
+class DeduplicatingBodyStoreTest {
+    @Test
+    void testIdenticalBodiesAreStoredOnce() {
+        DeduplicatingBodyStore store = new DeduplicatingBodyStore(null, 0)
+        byte[] body = 'var bundle = 1;'.getBytes(StandardCharsets.UTF_8)
+
+        BodyHandle first = store.store(body)
+        BodyHandle second = store.store(body.clone())
+        BodyHandle other = store.store('{"config": true}'.getBytes(StandardCharsets.UTF_8))
+
+        assertEquals(2, store.getDistinctBodies())
+        assertEquals(1, store.getDeduplicatedBodies())
+        assertEquals(body.length, store.getDeduplicatedBytes())
+
+        assertArrayEquals(body, first.getBytes())
+        assertArrayEquals(body, second.getBytes())
+        assertEquals('{"config": true}', new String(other.getBytes(), StandardCharsets.UTF_8))
+    }
+
+    @Test
+    void testBodyIsDiscardedWhenLastHandleIsReleased() {
+        DeduplicatingBodyStore store = new DeduplicatingBodyStore(null, 0)
+        byte[] body = 'font data'.getBytes(StandardCharsets.UTF_8)
+
+        BodyHandle first = store.store(body)
+        BodyHandle second = store.store(body)
+
+        first.release()
+        // releasing twice has no effect
+        first.release()
+        assertEquals(1, store.getDistinctBodies())
+        assertArrayEquals(body, second.getBytes())
+
+        second.release()
+        assertEquals(0, store.getDistinctBodies())
+
+        // the body can be stored again after it was discarded
+        BodyHandle third = store.store(body)
+        assertArrayEquals(body, third.getBytes())
+    }
+
+    @Test(expected = IllegalStateException)
+    void testReleasedHandleCannotBeRead() {
+        DeduplicatingBodyStore store = new DeduplicatingBodyStore(null, 0)
+
+        BodyHandle handle = store.store([1, 2, 3] as byte[])
+        store.store([1, 2, 3] as byte[])
+        handle.release()
+
+        handle.getBytes()
+    }
+
+    @Test
+    void testDistinctBodiesAreKeptInDelegate() {
+        MappedFileBodyStore delegate = MappedFileBodyStore.createTemporary(4)
+        DeduplicatingBodyStore store = new DeduplicatingBodyStore(delegate, 2)
+
+        try {
+            BodyHandle large = store.store('large body'.getBytes(StandardCharsets.UTF_8))
+            BodyHandle small = store.store([1, 2] as byte[])
+
+            assertEquals('large body', new String(large.getBytes(), StandardCharsets.UTF_8))
+            assertArrayEquals([1, 2] as byte[], small.getBytes())
+            assertFalse(store.shouldStore(1))
+            assertTrue(store.shouldStore(2))
+        } finally {
+            store.close()
+        }
+
+        assertFalse(delegate.shouldStore(10))
+    }
+}
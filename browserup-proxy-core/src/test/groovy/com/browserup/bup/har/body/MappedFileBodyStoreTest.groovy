@@ -0,0 +1,102 @@
+package com.browserup.bup.har.body
+
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertNull
+import static org.junit.Assert.assertTrue
+
+class MappedFileBodyStoreTest {
+    MappedFileBodyStore store
+
+    @Before
+    void setUp() {
+        store = MappedFileBodyStore.createTemporary(4)
+    }
+
+    @After
+    void tearDown() {
+        store.close()
+    }
+
+    @Test
+    void testSmallBodiesAreNotStored() {
+        assertFalse(store.shouldStore(3))
+        assertTrue(store.shouldStore(4))
+    }
+
+    @Test
+    void testStoredBodyCanBeRead() {
+        byte[] body = 'some captured body'.getBytes(StandardCharsets.UTF_8)
+
+        BodyHandle handle = store.store(body)
+
+        assertEquals(body.length, handle.length())
+        assertEquals('some captured body', new String(handle.getBytes(), StandardCharsets.UTF_8))
+    }
+
+    @Test
+    void testBodiesSpanMultipleSegments() {
+        Path directory = Files.createTempDirectory('body-store-test')
+        MappedFileBodyStore smallSegmentStore = new MappedFileBodyStore(directory, 0, 8)
+
+        try {
+            BodyHandle first = smallSegmentStore.store('12345'.bytes)
+            BodyHandle second = smallSegmentStore.store('67890'.bytes)
+            BodyHandle large = smallSegmentStore.store('larger than a segment'.bytes)
+
+            assertEquals('12345', new String(first.getBytes()))
+            assertEquals('67890', new String(second.getBytes()))
+            assertEquals('larger than a segment', new String(large.getBytes()))
+            assertEquals(3, Files.list(directory).count())
+
+            // the first segment is full and has no more live bodies, so it is deleted
+            first.release()
+            assertEquals(2, Files.list(directory).count())
+        } finally {
+            smallSegmentStore.close()
+        }
+
+        assertEquals(0, Files.list(directory).count())
+        Files.delete(directory)
+    }
+
+    @Test(expected = IllegalStateException)
+    void testReleasedBodyCannotBeRead() {
+        BodyHandle handle = store.store('released body'.bytes)
+        handle.release()
+
+        handle.getBytes()
+    }
+
+    @Test
+    void testTemporaryDirectoryIsDeletedOnClose() {
+        MappedFileBodyStore temporaryStore = MappedFileBodyStore.createTemporary(0)
+        temporaryStore.store('body'.bytes)
+
+        temporaryStore.close()
+
+        assertFalse(Files.exists(temporaryStore.getDirectory()))
+    }
+
+    @Test
+    void testStoredHarContentReadsFromStore() {
+        StoredHarContent content = new StoredHarContent()
+        content.setBody(store.store('text body'.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8, false)
+        assertEquals('text body', content.getText())
+
+        content.setBody(store.store([1, 2, 3, 4] as byte[]), StandardCharsets.UTF_8, true)
+        assertEquals('AQIDBA==', content.getText())
+
+        content.setText('inline')
+        assertEquals('inline', content.getText())
+        assertNull(content.getBodyHandle())
+    }
+}
@@ -1,9 +1,12 @@
 package com.browserup.bup.mitmproxy
 
 import com.browserup.bup.MitmProxyServer
+import com.browserup.bup.mitmproxy.management.HarSnapshot
 import com.browserup.bup.proxy.CaptureType
 import com.browserup.bup.proxy.test.util.MockServerTest
 import com.browserup.bup.proxy.test.util.NewProxyServerTestUtil
+import com.browserup.harreader.HarStreamingWriter
+import com.fasterxml.jackson.databind.ObjectMapper
 import de.sstoehr.harreader.model.Har
 import org.apache.http.client.methods.HttpGet
 import org.junit.After
@@ -14,6 +17,7 @@ import static org.hamcrest.Matchers.empty
 import static org.hamcrest.MatcherAssert.assertThat
 import static org.hamcrest.Matchers.not
 import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertTrue
 
 class GetHarTest extends MockServerTest {
     private MitmProxyServer proxy
@@ -58,5 +62,39 @@ class GetHarTest extends MockServerTest {
         verify(1, getRequestedFor(urlEqualTo(stubUrl)))
     }
 
+    @Test
+    void testHarSnapshotReadsEntriesFromFileWhenWritten() {
+        def stubUrl = "/testHarSnapshotReadsEntriesFromFileWhenWritten"
+        stubFor(get(urlEqualTo(stubUrl))
+                .willReturn(ok()
+                .withBody("success"))
+        )
+
+        proxy = new MitmProxyServer()
+        proxy.setTrustAllServers(true)
+        proxy.start()
+
+        proxy.newHar()
 
+        NewProxyServerTestUtil.getNewHttpClient(proxy.port).withCloseable {
+            String responseBody = NewProxyServerTestUtil.toStringAndClose(it.execute(new HttpGet("https://localhost:${mockServerHttpsPort}${stubUrl}")).getEntity().getContent())
+            assertEquals("Did not receive expected response from mock server", "success", responseBody)
+        }
+
+        Thread.sleep(500)
+        HarSnapshot snapshot = proxy.getHarSnapshot(true)
+
+        assertTrue(snapshot.isBackedByFile())
+        assertThat("Expected the entries not to be read before the snapshot is written", snapshot.getHar().getLog().getEntries(), empty())
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        snapshot.writeTo(new HarStreamingWriter(), out)
+        Har har = new ObjectMapper().readValue(out.toByteArray(), Har)
+
+        assertEquals(1, har.getLog().getEntries().size())
+        assertEquals("https://localhost:${mockServerHttpsPort}${stubUrl}".toString(), har.getLog().getEntries()[0].getRequest().getUrl())
+        assertThat("Expected pages in the written HAR", har.getLog().getPages(), not(empty()))
+
+        assertThat("Expected to find no entries in the HAR", proxy.getHar().getLog().getEntries(), empty())
+    }
 }
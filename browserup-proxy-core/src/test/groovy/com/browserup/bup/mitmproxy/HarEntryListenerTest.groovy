@@ -0,0 +1,123 @@
+package com.browserup.bup.mitmproxy
+
+import com.browserup.bup.MitmProxyServer
+import com.browserup.bup.har.HarEntryListener
+import com.browserup.bup.proxy.test.util.MockServerTest
+import com.browserup.bup.proxy.test.util.NewProxyServerTestUtil
+import de.sstoehr.harreader.model.HarEntry
+import org.apache.http.client.methods.HttpGet
+import org.junit.After
+import org.junit.Test
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertTrue
+
+class HarEntryListenerTest extends MockServerTest {
+    private MitmProxyServer proxy
+
+    @After
+    void tearDown() {
+        if (proxy?.started) {
+            proxy.abort()
+        }
+    }
+
+    @Test
+    void testListenerIsNotifiedOnceOfEachStartedAndCompletedEntry() {
+        def stubUrl = "/testHarEntryListener"
+        stubFor(get(urlEqualTo(stubUrl))
+                .willReturn(ok()
+                .withBody("success"))
+        )
+
+        proxy = new MitmProxyServer()
+        proxy.setTrustAllServers(true)
+        proxy.start()
+
+        proxy.newHar()
+
+        List<String> started = new CopyOnWriteArrayList<>()
+        List<String> completed = new CopyOnWriteArrayList<>()
+        CountDownLatch allCompleted = new CountDownLatch(2)
+        proxy.addHarEntryListener(new HarEntryListener() {
+            @Override
+            void onEntryStarted(HarEntry entry) {
+                started.add(entry.request.url)
+            }
+
+            @Override
+            void onEntryCompleted(HarEntry entry) {
+                completed.add(entry.request.url)
+                allCompleted.countDown()
+            }
+        })
+
+        NewProxyServerTestUtil.getNewHttpClient(proxy.port).withCloseable {
+            2.times {
+                String responseBody = NewProxyServerTestUtil.toStringAndClose(it.execute(new HttpGet("https://localhost:${mockServerHttpsPort}${stubUrl}")).getEntity().getContent())
+                assertEquals("Did not receive expected response from mock server", "success", responseBody)
+            }
+        }
+
+        assertTrue("Expected listener to be notified of the completed entries", allCompleted.await(10, TimeUnit.SECONDS))
+
+        // give the feed time to report any duplicate notification
+        Thread.sleep(1500)
+
+        assertEquals("Expected each entry to be reported as started once", 2, started.size())
+        assertEquals("Expected each entry to be reported as completed once", 2, completed.size())
+        assertTrue("Expected the reported entries to be the requests to the mock server",
+                (started + completed).every { it.endsWith(stubUrl) })
+
+        verify(2, getRequestedFor(urlEqualTo(stubUrl)))
+    }
+
+    @Test
+    void testListenerAddedAfterRestartIsNotified() {
+        def stubUrl = "/testHarEntryListenerAfterRestart"
+        stubFor(get(urlEqualTo(stubUrl))
+                .willReturn(ok()
+                .withBody("success"))
+        )
+
+        proxy = new MitmProxyServer()
+        proxy.setTrustAllServers(true)
+        proxy.start()
+
+        List<String> beforeRestart = new CopyOnWriteArrayList<>()
+        CountDownLatch completedBeforeRestart = new CountDownLatch(1)
+        proxy.addHarEntryListener(new HarEntryListener() {
+            @Override
+            void onEntryCompleted(HarEntry entry) {
+                beforeRestart.add(entry.request.url)
+                completedBeforeRestart.countDown()
+            }
+        })
+
+        proxy.stop()
+        proxy.start()
+        proxy.newHar()
+
+        CountDownLatch completedAfterRestart = new CountDownLatch(1)
+        proxy.addHarEntryListener(new HarEntryListener() {
+            @Override
+            void onEntryCompleted(HarEntry entry) {
+                completedAfterRestart.countDown()
+            }
+        })
+
+        NewProxyServerTestUtil.getNewHttpClient(proxy.port).withCloseable {
+            String responseBody = NewProxyServerTestUtil.toStringAndClose(it.execute(new HttpGet("https://localhost:${mockServerHttpsPort}${stubUrl}")).getEntity().getContent())
+            assertEquals("Did not receive expected response from mock server", "success", responseBody)
+        }
+
+        assertTrue("Expected listener added after the restart to be notified", completedAfterRestart.await(10, TimeUnit.SECONDS))
+        assertTrue("Expected listener added before the restart to still be notified", completedBeforeRestart.await(10, TimeUnit.SECONDS))
+        assertTrue(beforeRestart.every { it.endsWith(stubUrl) })
+    }
+}
@@ -87,6 +87,25 @@ class DefaultStepIdTest extends MockServerTest {
         assertNotNull("Expected to find default page among pages", proxy.har.log.pages.find {it.id = DEFAULT_STEP_NAME})
     }
 
+    @Test
+    void testDefaultPageWithAnotherTitleIsReused() {
+        proxy.newHar(DEFAULT_STEP_NAME, "Another title")
+        proxy.endPage()
+
+        mockResponseForPath(FIRST_URL)
+        mockResponseForPath(SECOND_URL)
+
+        [FIRST_URL, SECOND_URL].each { path ->
+            def respBody = toStringAndClose(clientToProxy.execute(new HttpGet("http://localhost:${mockServerPort}/${path}")).entity.content)
+            assertEquals("Did not receive expected response from mock server", SUCCESSFUL_RESPONSE_BODY, respBody)
+        }
+
+        assertThat("Expected the default page to be reused", proxy.har.log.pages, Matchers.hasSize(1))
+        assertEquals("Expected the default page to keep its title", "Another title", proxy.har.log.pages[0].title)
+        assertThat("Expected every entry to have the default page ref",
+                proxy.har.log.entries.collect { it.pageref }, Matchers.everyItem(Matchers.equalTo(DEFAULT_STEP_NAME)))
+    }
+
     @Test
     void testHarIsCreatedAfterFirstRequestIfNoNewHarCalled() {
         mockResponseForPath(FIRST_URL)
@@ -0,0 +1,59 @@
+package com.browserup.bup.util
+
+import org.junit.Test
+
+import static org.junit.Assert.assertArrayEquals
+import static org.junit.Assert.assertEquals
+
+class AhoCorasickMatcherTest {
+    @Test
+    void testFindsOverlappingNeedles() {
+        def matcher = new AhoCorasickMatcher(['he', 'she', 'his', 'hers'])
+
+        assertArrayEquals([2, 1, AhoCorasickMatcher.NOT_FOUND, 2] as int[], matcher.findFirstOccurrences('ushers'))
+    }
+
+    @Test
+    void testReportsFirstOccurrence() {
+        def matcher = new AhoCorasickMatcher(['ab', 'b'])
+
+        assertArrayEquals([0, 1] as int[], matcher.findFirstOccurrences('abab'))
+    }
+
+    @Test
+    void testFindsNonAsciiNeedles() {
+        def matcher = new AhoCorasickMatcher(['stra\u00dfe', 'caf\u00e9', '\u0442\u0435\u0441\u0442'])
+
+        assertArrayEquals([AhoCorasickMatcher.NOT_FOUND, 4, 13] as int[],
+                matcher.findFirstOccurrences('the caf\u00e9 and \u0442\u0435\u0441\u0442'))
+    }
+
+    @Test
+    void testMatchingIsCaseSensitive() {
+        def matcher = new AhoCorasickMatcher(['Body'])
+
+        assertArrayEquals([AhoCorasickMatcher.NOT_FOUND] as int[], matcher.findFirstOccurrences('body'))
+    }
+
+    @Test
+    void testEmptyText() {
+        def matcher = new AhoCorasickMatcher(['a'])
+
+        assertArrayEquals([AhoCorasickMatcher.NOT_FOUND] as int[], matcher.findFirstOccurrences(''))
+    }
+
+    @Test
+    void testNeedlesKeepTheirOrder() {
+        assertEquals(['b', 'a', 'b'], new AhoCorasickMatcher(['b', 'a', 'b']).needles)
+    }
+
+    @Test(expected = IllegalArgumentException)
+    void testRejectsNoNeedles() {
+        new AhoCorasickMatcher([])
+    }
+
+    @Test(expected = IllegalArgumentException)
+    void testRejectsEmptyNeedle() {
+        new AhoCorasickMatcher(['a', ''])
+    }
+}
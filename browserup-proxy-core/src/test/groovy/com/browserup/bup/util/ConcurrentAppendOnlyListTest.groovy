@@ -0,0 +1,181 @@
+package com.browserup.bup.util
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import org.junit.Test
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertTrue
+
+class ConcurrentAppendOnlyListTest {
+    @Test
+    void testAddAndGetAcrossChunks() {
+        ConcurrentAppendOnlyList<Integer> list = new ConcurrentAppendOnlyList<>()
+
+        (0..<1000).each { list.add(it) }
+
+        assertEquals(1000, list.size())
+        (0..<1000).each { assertEquals(it, list.get(it)) }
+        assertEquals(500, list.indexOf(500))
+    }
+
+    @Test
+    void testSetReplacesElement() {
+        ConcurrentAppendOnlyList<String> list = new ConcurrentAppendOnlyList<>()
+        list.add('a')
+        list.add('b')
+
+        assertEquals('b', list.set(1, 'c'))
+        assertEquals(['a', 'c'], list)
+    }
+
+    @Test(expected = IndexOutOfBoundsException)
+    void testGetBeyondSizeFails() {
+        ConcurrentAppendOnlyList<String> list = new ConcurrentAppendOnlyList<>()
+        list.add('a')
+
+        list.get(1)
+    }
+
+    @Test(expected = UnsupportedOperationException)
+    void testRemoveIsUnsupported() {
+        ConcurrentAppendOnlyList<String> list = new ConcurrentAppendOnlyList<>()
+        list.add('a')
+
+        list.remove(0)
+    }
+
+    @Test
+    void testIteratorIsSnapshotOfSizeAtCreation() {
+        ConcurrentAppendOnlyList<String> list = new ConcurrentAppendOnlyList<>()
+        list.add('a')
+        list.add('b')
+
+        Iterator<String> iterator = list.iterator()
+        list.add('c')
+
+        assertEquals('a', iterator.next())
+        assertEquals('b', iterator.next())
+        assertFalse(iterator.hasNext())
+        assertEquals(3, list.size())
+    }
+
+    @Test
+    void testRemoveAtPositionLeavesOtherElementsInPlace() {
+        ConcurrentAppendOnlyList<String> list = new ConcurrentAppendOnlyList<>()
+        List<Long> positions = ['a', 'b', 'c', 'd'].collect { list.append(it) }
+
+        assertTrue(list.removeAtPosition(positions[2], 'c'))
+        assertFalse(list.removeAtPosition(positions[2], 'c'))
+        assertFalse(list.removeAtPosition(positions[1], 'x'))
+
+        assertEquals(['a', 'b', 'd'], list)
+        assertEquals(3, list.size())
+        assertEquals('d', list.get(2))
+
+        assertTrue(list.removeAtPosition(positions[0], 'a'))
+        assertTrue(list.removeAtPosition(positions[1], 'b'))
+        assertEquals(['d'], list)
+        assertEquals('d', list.pollFirst())
+        assertEquals(0, list.size())
+    }
+
+    @Test
+    void testRemovedElementsReleaseTheirChunks() {
+        ConcurrentAppendOnlyList<Integer> list = new ConcurrentAppendOnlyList<>()
+
+        100000.times {
+            long position = list.append(it)
+            assertTrue(list.removeAtPosition(position, it))
+
+            assertTrue(list.getAllocatedChunks() <= 1)
+        }
+
+        assertEquals(0, list.size())
+    }
+
+    @Test
+    void testRetainedMemoryStaysFlatWhenOldestElementsAreEvicted() {
+        int maxElements = 100
+        ConcurrentAppendOnlyList<Integer> list = new ConcurrentAppendOnlyList<>()
+
+        200000.times {
+            list.add(it)
+            while (list.size() > maxElements) {
+                list.pollFirst()
+            }
+
+            assertTrue(list.getAllocatedChunks() <= 3)
+            assertTrue(list.getRingSize() <= 4)
+        }
+
+        assertEquals(maxElements, list.size())
+        assertEquals(199900, list.get(0))
+        assertEquals(199999, list.get(maxElements - 1))
+    }
+
+    @Test
+    void testConcurrentAppends() {
+        int threads = 8
+        int perThread = 10000
+        ConcurrentAppendOnlyList<Integer> list = new ConcurrentAppendOnlyList<>()
+        ExecutorService executor = Executors.newFixedThreadPool(threads)
+        CountDownLatch start = new CountDownLatch(1)
+
+        threads.times { t ->
+            executor.submit {
+                start.await()
+                perThread.times { list.add(t * perThread + it) }
+            }
+        }
+        start.countDown()
+        executor.shutdown()
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS))
+
+        assertEquals(threads * perThread, list.size())
+        assertEquals((0..<threads * perThread).toSet(), list.toSet())
+    }
+
+    @Test
+    void testSerializationWhileElementsAreEvicted() {
+        ConcurrentAppendOnlyList<Integer> list = new ConcurrentAppendOnlyList<>()
+        ObjectMapper mapper = new ObjectMapper()
+        AtomicBoolean stop = new AtomicBoolean()
+
+        // serializers must iterate, since indexed access is neither O(1) nor stable once elements are removed
+        assertFalse(list instanceof RandomAccess)
+
+        Thread evictor = Thread.start {
+            int next = 0
+            while (!stop.get()) {
+                long position = list.append(next)
+                // leave tombstones behind the head, as entries released by the HAR sink do
+                if (next % 2 == 1) {
+                    list.removeAtPosition(position, next)
+                }
+                next++
+
+                while (list.size() > 1000) {
+                    list.pollFirst()
+                }
+            }
+        }
+
+        try {
+            200.times {
+                List<Integer> serialized = mapper.readValue(mapper.writeValueAsString(list), List)
+
+                (1..<serialized.size()).each { assertTrue(serialized[it - 1] < serialized[it]) }
+            }
+        } finally {
+            stop.set(true)
+            evictor.join()
+        }
+    }
+}
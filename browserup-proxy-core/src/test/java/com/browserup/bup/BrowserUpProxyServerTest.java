@@ -1,9 +1,13 @@
 package com.browserup.bup;
 
+import com.browserup.bup.har.HarCaptureLimits;
+import de.sstoehr.harreader.model.HarEntry;
 import io.netty.handler.codec.http.HttpRequest;
 import org.junit.jupiter.api.Test;
 
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
@@ -48,6 +52,23 @@ class BrowserUpProxyServerTest {
         assertThat(proxy.isNonProxyHost(request("https://foo.example.com")), equalTo(false));
     }
 
+    @Test
+    void getHarEvictsExpiredEntriesWhetherOrNotTheHarIsCleaned() throws InterruptedException {
+        BrowserUpProxyServer proxy = new BrowserUpProxyServer();
+        proxy.setHarCaptureLimits(new HarCaptureLimits.Builder().setMaxAge(50, TimeUnit.MILLISECONDS).create());
+
+        for (boolean cleanHar : new boolean[] {false, true}) {
+            proxy.newHar();
+            HarEntry entry = new HarEntry();
+            entry.setStartedDateTime(new Date());
+            proxy.getHar().getLog().getEntries().add(entry);
+
+            Thread.sleep(100);
+
+            assertThat(proxy.getHar(cleanHar).getLog().getEntries().isEmpty(), equalTo(true));
+        }
+    }
+
     private HttpRequest request(String url) {
         HttpRequest request = mock();
         when(request.uri()).thenReturn(url);
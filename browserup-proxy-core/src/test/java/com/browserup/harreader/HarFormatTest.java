@@ -0,0 +1,76 @@
+package com.browserup.harreader;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.sstoehr.harreader.model.Har;
+import de.sstoehr.harreader.model.HarEntry;
+import de.sstoehr.harreader.model.HarLog;
+import de.sstoehr.harreader.model.HarRequest;
+import de.sstoehr.harreader.model.HttpMethod;
+
+public class HarFormatTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void testFormatIsNegotiatedFromAcceptHeader() {
+        assertEquals(HarFormat.JSON, HarFormat.forAcceptHeader(null));
+        assertEquals(HarFormat.JSON, HarFormat.forAcceptHeader("*/*"));
+        assertEquals(HarFormat.SMILE, HarFormat.forAcceptHeader("application/x-jackson-smile"));
+        assertEquals(HarFormat.CBOR, HarFormat.forAcceptHeader("text/html, Application/CBOR;q=0.9, application/json"));
+        assertEquals(HarFormat.JSON, HarFormat.forAcceptHeader("application/cbor;q=0, application/json"));
+    }
+
+    @Test
+    public void testBinaryFormatsRoundTrip() throws IOException {
+        HarFormatReader reader = new HarFormatReader(objectMapper);
+
+        for (HarFormat format : HarFormat.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new HarStreamingWriter(format.createMapper(objectMapper)).writeHar(createHar(), out);
+
+            byte[] encoded = out.toByteArray();
+            assertEquals(format, HarFormat.detect(encoded, encoded.length));
+
+            Har read = reader.read(new ByteArrayInputStream(encoded));
+            assertEquals(format.name(), 2, read.getLog().getEntries().size());
+            assertEquals(format.name(), "http://abc.com/1", read.getLog().getEntries().get(1).getRequest().getUrl());
+        }
+    }
+
+    @Test
+    public void testJsonWithLeadingWhitespaceIsDetected() throws IOException {
+        byte[] json = ("  " + objectMapper.writeValueAsString(createHar())).getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(HarFormat.JSON, HarFormat.detect(json, json.length));
+        assertEquals(2, new HarFormatReader().read(json).getLog().getEntries().size());
+    }
+
+    private static Har createHar() {
+        HarLog log = new HarLog();
+
+        for (int i = 0; i < 2; i++) {
+            HarRequest request = new HarRequest();
+            request.setUrl("http://abc.com/" + i);
+            request.setMethod(HttpMethod.GET);
+
+            HarEntry entry = new HarEntry();
+            entry.setStartedDateTime(new Date(i * 1000L));
+            entry.setRequest(request);
+            log.getEntries().add(entry);
+        }
+
+        Har har = new Har();
+        har.setLog(log);
+        return har;
+    }
+}
@@ -0,0 +1,249 @@
+package com.browserup.harreader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import de.sstoehr.harreader.model.Har;
+import de.sstoehr.harreader.model.HarContent;
+import de.sstoehr.harreader.model.HarCreatorBrowser;
+import de.sstoehr.harreader.model.HarEntry;
+import de.sstoehr.harreader.model.HarLog;
+import de.sstoehr.harreader.model.HarPage;
+import de.sstoehr.harreader.model.HarRequest;
+import de.sstoehr.harreader.model.HarResponse;
+import de.sstoehr.harreader.model.HttpMethod;
+
+public class HarStreamingWriterTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void testWriteHarMatchesObjectMapper() throws IOException {
+        Har har = createHar(250);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new HarStreamingWriter(objectMapper, 7).writeHar(har, out);
+
+        JsonNode expected = objectMapper.readTree(objectMapper.writeValueAsBytes(har));
+        JsonNode actual = objectMapper.readTree(out.toByteArray());
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testWriteHarWritesCustomFields() throws IOException {
+        Har har = createHar(2);
+        har.setAdditionalField("_harComment", "custom");
+        har.getLog().setAdditionalField("_logNumber", 42);
+        har.getLog().setAdditionalField("_logObject", Collections.singletonMap("key", "value"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new HarStreamingWriter(objectMapper).writeHar(har, out);
+
+        JsonNode expected = objectMapper.readTree(objectMapper.writeValueAsString(har));
+        JsonNode actual = objectMapper.readTree(out.toByteArray());
+
+        assertEquals(expected, actual);
+        assertEquals("custom", actual.path("_harComment").textValue());
+        assertEquals(42, actual.path("log").path("_logNumber").intValue());
+        assertEquals("value", actual.path("log").path("_logObject").path("key").textValue());
+    }
+
+    @Test
+    public void testWriteEntriesMatchesObjectMapper() throws IOException {
+        Har har = createHar(10);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new HarStreamingWriter(objectMapper).writeEntries(har.getLog().getEntries(), out);
+
+        JsonNode expected = objectMapper.readTree(objectMapper.writeValueAsBytes(har.getLog().getEntries()));
+        JsonNode actual = objectMapper.readTree(out.toByteArray());
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testWrittenHarCanBeRead() throws IOException {
+        Har har = createHar(3);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new HarStreamingWriter().writeHar(har, out);
+
+        Har read = objectMapper.readValue(out.toByteArray(), Har.class);
+        assertEquals(3, read.getLog().getEntries().size());
+        assertEquals("http://abc.com/2", read.getLog().getEntries().get(2).getRequest().getUrl());
+        assertEquals("page_1", read.getLog().getPages().get(0).getId());
+    }
+
+    @Test
+    public void testEntriesAreStreamedFromHarFile() throws IOException {
+        Har har = createHar(250);
+        har.getLog().setAdditionalField("_logNumber", 42);
+
+        // the mitmproxy addon writes the entries before the pages
+        ObjectNode log = objectMapper.createObjectNode();
+        log.set("entries", objectMapper.valueToTree(har.getLog().getEntries()));
+        log.setAll((ObjectNode) objectMapper.valueToTree(har.getLog()));
+        ObjectNode root = objectMapper.createObjectNode();
+        root.set("log", log);
+
+        File file = File.createTempFile("har-streaming-writer-test", ".har");
+        try {
+            objectMapper.writeValue(file, root);
+
+            HarFormatReader reader = new HarFormatReader(objectMapper);
+            Har withoutEntries = reader.readWithoutEntries(file);
+            assertTrue(withoutEntries.getLog().getEntries().isEmpty());
+            assertEquals("page_1", withoutEntries.getLog().getPages().get(0).getId());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (HarFormatReader.EntryIterator entries = reader.readEntries(file)) {
+                new HarStreamingWriter(objectMapper, 7).withParallelEncoding(ForkJoinPool.commonPool(), 16, 2)
+                        .writeHar(withoutEntries, () -> entries, out);
+                assertFalse(entries.hasNext());
+            }
+
+            JsonNode expected = objectMapper.readTree(objectMapper.writeValueAsBytes(har));
+            JsonNode actual = objectMapper.readTree(out.toByteArray());
+
+            assertEquals(expected, actual);
+        } finally {
+            Files.delete(file.toPath());
+        }
+    }
+
+    @Test
+    public void testRepeatedContentIsWrittenOnce() throws IOException {
+        Har har = createHar(3);
+        String bundle = String.join("", Collections.nCopies(HarContentRefs.MIN_CONTENT_REF_LENGTH, "x"));
+        setResponseText(har.getLog().getEntries().get(0), bundle);
+        setResponseText(har.getLog().getEntries().get(1), "short");
+        setResponseText(har.getLog().getEntries().get(2), bundle);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new HarStreamingWriter(objectMapper).withContentRefs().writeHar(har, out);
+
+        JsonNode entries = objectMapper.readTree(out.toByteArray()).path("log").path("entries");
+        JsonNode first = entries.get(0).path("response").path("content");
+        JsonNode third = entries.get(2).path("response").path("content");
+
+        assertEquals(bundle, first.path("text").textValue());
+        assertEquals(first.path(HarContentRefs.CONTENT_REF_FIELD), third.path(HarContentRefs.CONTENT_REF_FIELD));
+        assertFalse(third.has("text"));
+        assertFalse(entries.get(1).path("response").path("content").has(HarContentRefs.CONTENT_REF_FIELD));
+
+        // the original HAR is not modified
+        assertEquals(bundle, har.getLog().getEntries().get(2).getResponse().getContent().getText());
+
+        Har read = HarContentRefs.expand(objectMapper.readValue(out.toByteArray(), Har.class));
+        assertEquals(bundle, read.getLog().getEntries().get(2).getResponse().getContent().getText());
+        assertEquals("short", read.getLog().getEntries().get(1).getResponse().getContent().getText());
+    }
+
+    @Test
+    public void testParallelEncodingMatchesSequentialEncoding() throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            for (int entriesNumber : new int[] {0, 1, 64, 65, 1000}) {
+                Har har = createHar(entriesNumber);
+
+                ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+                new HarStreamingWriter(objectMapper).writeHar(har, sequential);
+
+                ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+                new HarStreamingWriter(objectMapper).withParallelEncoding(pool, 64, 3).writeHar(har, parallel);
+
+                assertArrayEquals(sequential.toByteArray(), parallel.toByteArray());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelEncodingFallsBackForContentRefsAndBinaryFormats() throws IOException {
+        Har har = createHar(200);
+        String bundle = String.join("", Collections.nCopies(HarContentRefs.MIN_CONTENT_REF_LENGTH, "x"));
+        setResponseText(har.getLog().getEntries().get(0), bundle);
+        setResponseText(har.getLog().getEntries().get(150), bundle);
+
+        HarStreamingWriter parallelWriter = new HarStreamingWriter(objectMapper).withParallelEncoding(ForkJoinPool.commonPool(), 16, 2);
+        assertTrue(parallelWriter.isParallelEncoding());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        parallelWriter.withContentRefs().writeHar(har, out);
+        JsonNode entries = objectMapper.readTree(out.toByteArray()).path("log").path("entries");
+        assertEquals(200, entries.size());
+        assertFalse(entries.get(150).path("response").path("content").has("text"));
+
+        ObjectMapper smileMapper = HarFormat.SMILE.createMapper(objectMapper);
+        ByteArrayOutputStream smile = new ByteArrayOutputStream();
+        new HarStreamingWriter(smileMapper).withParallelEncoding(ForkJoinPool.commonPool(), 16, 2).writeHar(har, smile);
+        assertEquals(200, smileMapper.readValue(smile.toByteArray(), Har.class).getLog().getEntries().size());
+    }
+
+    @Test
+    public void testContentRefDependsOnEncoding() {
+        assertEquals(HarContentRefs.contentRef("abc", null), HarContentRefs.contentRef("abc", null));
+        assertTrue(HarContentRefs.contentRef("abc", null).startsWith("sha256:"));
+        assertFalse(HarContentRefs.contentRef("abc", null).equals(HarContentRefs.contentRef("abc", "base64")));
+        assertNull(HarContentRefs.expand(null));
+    }
+
+    private static void setResponseText(HarEntry entry, String text) {
+        HarContent content = new HarContent();
+        content.setText(text);
+        content.setMimeType("application/javascript");
+
+        HarResponse response = new HarResponse();
+        response.setContent(content);
+        entry.setResponse(response);
+    }
+
+    private static Har createHar(int entriesNumber) {
+        HarLog log = new HarLog();
+        HarCreatorBrowser creator = new HarCreatorBrowser();
+        creator.setName("BrowserUp Proxy");
+        creator.setVersion("test");
+        log.setCreator(creator);
+
+        HarPage page = new HarPage();
+        page.setId("page_1");
+        page.setTitle("Page 1");
+        page.setStartedDateTime(new Date(0));
+        log.getPages().add(page);
+
+        for (int i = 0; i < entriesNumber; i++) {
+            HarRequest request = new HarRequest();
+            request.setUrl("http://abc.com/" + i);
+            request.setMethod(HttpMethod.GET);
+
+            HarEntry entry = new HarEntry();
+            entry.setPageref("page_1");
+            entry.setStartedDateTime(new Date(i * 1000L));
+            entry.setRequest(request);
+            log.getEntries().add(entry);
+        }
+
+        Har har = new Har();
+        har.setLog(log);
+        return har;
+    }
+}
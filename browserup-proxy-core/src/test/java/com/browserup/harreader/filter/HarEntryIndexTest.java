@@ -0,0 +1,184 @@
+package com.browserup.harreader.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.browserup.bup.har.BoundedHarEntryList;
+import com.browserup.bup.har.HarCaptureLimits;
+
+import de.sstoehr.harreader.model.HarEntry;
+import de.sstoehr.harreader.model.HarLog;
+import de.sstoehr.harreader.model.HarRequest;
+
+public class HarEntryIndexTest {
+    @Test
+    public void testFindEntriesInBucket() {
+        HarEntryIndex index = new HarEntryIndex();
+        index.add(createEntry("http://abc.com/a/1", 1));
+        index.add(createEntry("http://abc.com/b/2", 2));
+        index.add(createEntry("http://xyz.com/a/3", 3));
+        index.add(createEntry("http://abc.com/a/4", 4));
+
+        assertEquals(urls("http://abc.com/a/1", "http://abc.com/a/4"),
+                urls(index.findEntries(Pattern.compile("^https?://abc\\.com/a/.*"))));
+        assertEquals(urls("http://abc.com/a/1", "http://abc.com/b/2", "http://abc.com/a/4"),
+                urls(index.findEntries(Pattern.compile("http://abc\\.com/.*"))));
+        assertEquals(4, index.findEntries(Pattern.compile(".*/a/.*|.*/b/.*")).size());
+    }
+
+    @Test
+    public void testFindMostRecentEntryIsOrderedByStartTime() {
+        HarEntryIndex index = new HarEntryIndex();
+        index.add(createEntry("http://abc.com/a?id=2", 2000));
+        index.add(createEntry("http://abc.com/a?id=3", 3000));
+        index.add(createEntry("http://abc.com/a?id=1", 1000));
+
+        assertEquals("http://abc.com/a?id=3",
+                index.findMostRecentEntry(Pattern.compile("http://abc\\.com/a\\?id=\\d")).get().getRequest().getUrl());
+        assertEquals("http://abc.com/a?id=3", index.findMostRecentEntry().get().getRequest().getUrl());
+        assertFalse(index.findMostRecentEntry(Pattern.compile("http://abc\\.com/b.*")).isPresent());
+    }
+
+    @Test
+    public void testFindEntriesKeepsInsertionOrderWhenStartTimesAreOutOfOrder() {
+        HarEntryIndex index = new HarEntryIndex();
+        index.add(createEntry("http://abc.com/a?id=3", 3000));
+        index.add(createEntry("http://abc.com/a?id=1", 1000));
+        index.add(createEntry("http://abc.com/b?id=4", 4000));
+        index.add(createEntry("http://abc.com/a?id=2", 2000));
+
+        assertEquals(urls("http://abc.com/a?id=3", "http://abc.com/a?id=1", "http://abc.com/a?id=2"),
+                urls(index.findEntries(Pattern.compile("http://abc\\.com/a\\?id=\\d"))));
+        assertEquals(urls("http://abc.com/a?id=3", "http://abc.com/a?id=1", "http://abc.com/b?id=4", "http://abc.com/a?id=2"),
+                urls(index.findEntries(Pattern.compile(".*id=\\d"))));
+        assertEquals("http://abc.com/b?id=4", index.findMostRecentEntry().get().getRequest().getUrl());
+    }
+
+    @Test
+    public void testFindEntriesFollowsListOrderWhenEntriesAreIndexedOutOfOrder() {
+        BoundedHarEntryList entries = new BoundedHarEntryList();
+        HarLog log = new HarLog();
+        log.setEntries(entries);
+
+        HarEntry first = new HarEntry();
+        first.setStartedDateTime(Date.from(Instant.ofEpochSecond(2)));
+        entries.add(first);
+        entries.add(createEntry("http://abc.com/a?id=2", 1));
+
+        // the first entry's URL is only captured after the second entry was added
+        first.getRequest().setUrl("http://abc.com/a?id=1");
+        entries.onEntryUpdated(first);
+
+        List<String> expected = urls("http://abc.com/a?id=1", "http://abc.com/a?id=2");
+        assertEquals(expected, urls(HarLogFilter.findEntries(log, Pattern.compile("http://abc\\.com/a\\?id=\\d"))));
+        assertEquals(expected, urls(HarLogFilter.findEntries(log, Pattern.compile(".*id=\\d"))));
+    }
+
+    @Test
+    public void testRemovedEntriesAreNotFound() {
+        HarEntryIndex index = new HarEntryIndex();
+        HarEntry first = createEntry("http://abc.com/a", 1);
+        HarEntry second = createEntry("http://abc.com/a", 2);
+        index.add(first);
+        index.add(second);
+
+        index.remove(second);
+
+        assertEquals(1, index.findEntries(Pattern.compile("http://abc\\.com/a")).size());
+        assertEquals(first, index.findMostRecentEntry(Pattern.compile("http://abc\\.com/a")).get());
+    }
+
+    @Test
+    public void testEntriesWithoutUrlAreNotIndexed() {
+        HarEntryIndex index = new HarEntryIndex();
+        HarEntry entry = new HarEntry();
+
+        assertFalse(index.add(entry));
+
+        entry.getRequest().setUrl("http://abc.com");
+        assertTrue(index.add(entry));
+        assertFalse(index.add(entry));
+    }
+
+    @Test
+    public void testUrlKeysFromPattern() {
+        assertKeys("^(http|https)://example\\.com/index\\.html$", "example.com", "example.com/index.html");
+        assertKeys("^http://example\\.com/customer\\?.*", "example.com", "example.com/customer");
+        assertKeys("http://abc\\.com\\?param=\\d?", "abc.com", null);
+        assertKeys("http://abc\\.com:8080/x/.*", "abc.com:8080", "abc.com:8080/x");
+
+        assertNull(HarEntryIndex.UrlKeys.fromPattern(Pattern.compile(".*://abc\\.com/")));
+        assertNull(HarEntryIndex.UrlKeys.fromPattern(Pattern.compile("http://abc\\.co?m/x")));
+        assertNull(HarEntryIndex.UrlKeys.fromPattern(Pattern.compile("(?i)http://abc\\.com/x")));
+        assertNull(HarEntryIndex.UrlKeys.fromPattern(Pattern.compile("http://abc\\.com/x|.*")));
+        assertNull(HarEntryIndex.UrlKeys.fromPattern(Pattern.compile("http://abc\\.com/x", Pattern.CASE_INSENSITIVE)));
+    }
+
+    @Test
+    public void testHarLogFilterUsesIndexOfBoundedEntryList() {
+        BoundedHarEntryList entries = new BoundedHarEntryList(new HarCaptureLimits.Builder().setMaxEntries(2).create());
+        HarLog log = new HarLog();
+        log.setEntries(entries);
+
+        entries.add(createEntry("http://abc.com/a", 1));
+        entries.add(createEntry("http://abc.com/a", 2));
+        entries.add(createEntry("http://abc.com/a", 3));
+
+        assertEquals(2, HarLogFilter.findEntries(log, Pattern.compile("http://abc\\.com/a")).size());
+        assertEquals(3L, HarLogFilter.findMostRecentEntry(log).get().getStartedDateTime().toInstant().getEpochSecond());
+    }
+
+    @Test
+    public void testEntryIsIndexedWhenUrlIsCapturedAfterItWasAdded() {
+        BoundedHarEntryList entries = new BoundedHarEntryList();
+        HarLog log = new HarLog();
+        log.setEntries(entries);
+
+        HarEntry entry = new HarEntry();
+        entry.setStartedDateTime(new Date());
+        entries.add(entry);
+
+        entry.getRequest().setUrl("http://abc.com/a");
+        entries.onEntryUpdated(entry);
+
+        assertNotNull(HarLogFilter.findMostRecentEntry(log, Pattern.compile("http://abc\\.com/a")).orElse(null));
+    }
+
+    private static void assertKeys(String pattern, String authority, String pathKey) {
+        HarEntryIndex.UrlKeys keys = HarEntryIndex.UrlKeys.fromPattern(Pattern.compile(pattern));
+
+        assertNotNull("Expected keys for " + pattern, keys);
+        assertEquals(authority, keys.authority);
+        assertEquals(pathKey, keys.pathKey);
+    }
+
+    private static HarEntry createEntry(String url, long startedSeconds) {
+        HarEntry entry = new HarEntry();
+        HarRequest request = new HarRequest();
+        request.setUrl(url);
+        entry.setRequest(request);
+        entry.setStartedDateTime(Date.from(Instant.ofEpochSecond(startedSeconds)));
+
+        return entry;
+    }
+
+    private static List<String> urls(String... urls) {
+        return Arrays.asList(urls);
+    }
+
+    private static List<String> urls(List<HarEntry> entries) {
+        return entries.stream().map(e -> e.getRequest().getUrl()).collect(Collectors.toList());
+    }
+}
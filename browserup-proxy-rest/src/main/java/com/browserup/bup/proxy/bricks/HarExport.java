@@ -0,0 +1,54 @@
+package com.browserup.bup.proxy.bricks;
+
+import com.browserup.bup.mitmproxy.management.HarSnapshot;
+import com.browserup.harreader.HarFormat;
+
+import de.sstoehr.harreader.model.Har;
+
+/**
+ * A HAR to reply with, and how {@link HarJsonTransport} should encode it.
+ */
+public class HarExport {
+    private final HarSnapshot snapshot;
+    private final HarFormat format;
+    private final boolean contentRefs;
+
+    /**
+     * @param har HAR to reply with, or null
+     * @param format encoding of the reply
+     * @param contentRefs true to write each repeated response body only once
+     */
+    public HarExport(Har har, HarFormat format, boolean contentRefs) {
+        this(new HarSnapshot(har), format, contentRefs);
+    }
+
+    /**
+     * @param snapshot HAR to reply with, whose entries may only be read while it is written, or null
+     * @param format encoding of the reply
+     * @param contentRefs true to write each repeated response body only once
+     */
+    public HarExport(HarSnapshot snapshot, HarFormat format, boolean contentRefs) {
+        this.snapshot = snapshot != null ? snapshot : new HarSnapshot(null);
+        this.format = format;
+        this.contentRefs = contentRefs;
+    }
+
+    /**
+     * @return the HAR to reply with; if the snapshot is backed by a file, the HAR has no entries
+     */
+    public Har getHar() {
+        return snapshot.getHar();
+    }
+
+    public HarSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public HarFormat getFormat() {
+        return format;
+    }
+
+    public boolean isContentRefs() {
+        return contentRefs;
+    }
+}
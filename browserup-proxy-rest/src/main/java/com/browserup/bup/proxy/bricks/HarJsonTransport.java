@@ -0,0 +1,66 @@
+package com.browserup.bup.proxy.bricks;
+
+import com.browserup.harreader.HarFormat;
+import com.browserup.harreader.HarStreamingWriter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.inject.Inject;
+import com.google.inject.TypeLiteral;
+import com.google.sitebricks.client.transport.Json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import de.sstoehr.harreader.model.Har;
+
+/**
+ * Sitebricks JSON transport that streams {@link Har}s to the response with a {@link HarStreamingWriter}, instead of
+ * letting the default transport serialize the whole HAR at once. Other types are serialized as usual.
+ * <p>
+ * A {@link HarExport} is written in the {@link HarFormat} it specifies, which may be a binary format. The reply's content
+ * type must be set to the format's media type. The entries of an export backed by mitmproxy's HAR file are read from the
+ * file while they are written.
+ * <p>
+ * The entries of large JSON HARs are encoded in parallel on the common fork-join pool.
+ */
+public class HarJsonTransport extends Json {
+    private final ObjectMapper objectMapper;
+
+    private final Map<HarFormat, HarStreamingWriter> harWriters = new EnumMap<>(HarFormat.class);
+    private final Map<HarFormat, HarStreamingWriter> contentRefsHarWriters = new EnumMap<>(HarFormat.class);
+
+    @Inject
+    public HarJsonTransport(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+
+        for (HarFormat format : HarFormat.values()) {
+            HarStreamingWriter writer = new HarStreamingWriter(format.createMapper(objectMapper))
+                    .withParallelEncoding(ForkJoinPool.commonPool());
+            harWriters.put(format, writer);
+            contentRefsHarWriters.put(format, writer.withContentRefs());
+        }
+    }
+
+    public <T> T in(InputStream in, Class<T> type) throws IOException {
+        return objectMapper.readValue(in, type);
+    }
+
+    public <T> T in(InputStream in, TypeLiteral<T> type) throws IOException {
+        return objectMapper.readValue(in, objectMapper.getTypeFactory().constructType(type.getType()));
+    }
+
+    public <T> void out(OutputStream out, Class<T> type, T data) throws IOException {
+        if (data instanceof HarExport) {
+            HarExport export = (HarExport) data;
+            Map<HarFormat, HarStreamingWriter> writers = export.isContentRefs() ? contentRefsHarWriters : harWriters;
+            export.getSnapshot().writeTo(writers.get(export.getFormat()), out);
+        } else if (data instanceof Har) {
+            harWriters.get(HarFormat.JSON).writeHar((Har) data, out);
+        } else {
+            objectMapper.writeValue(out, data);
+        }
+    }
+}
@@ -5,11 +5,16 @@ import com.browserup.bup.exception.ProxyExistsException;
 import com.browserup.bup.exception.ProxyPortsExhaustedException;
 import com.browserup.bup.exception.UnsupportedCharsetException;
 import com.browserup.bup.filters.JavascriptRequestResponseFilter;
+import com.browserup.bup.har.HarCaptureLimits;
+import com.browserup.bup.har.HarCapturePolicy;
+import com.browserup.bup.har.HarDelta;
 import com.browserup.bup.mitmproxy.MitmProxyProcessManager.MitmProxyLoggingLevel;
+import com.browserup.bup.mitmproxy.management.HarSnapshot;
 import com.browserup.bup.proxy.CaptureType;
 import com.browserup.bup.proxy.MitmProxyManager;
 import com.browserup.bup.proxy.auth.AuthType;
 import com.browserup.bup.util.BrowserUpHttpUtil;
+import com.browserup.harreader.HarFormat;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import com.google.sitebricks.At;
@@ -34,6 +39,9 @@ import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
@@ -53,6 +61,11 @@ public class ProxyResource {
 
     private static final Logger LOG = LoggerFactory.getLogger(ProxyResource.class);
 
+    /**
+     * Response header containing the cursor to pass as the "since" parameter of the next GET /proxy/{port}/har request.
+     */
+    public static final String HAR_CURSOR_HEADER = "X-Har-Cursor";
+
     private final MitmProxyManager proxyManager;
 
     @Inject
@@ -148,10 +161,49 @@ public class ProxyResource {
             return Reply.saying().notFound();
         }
 
+        HarFormat format = HarFormat.forAcceptHeader(request.header("Accept"));
+        // repeated response bodies are written once when the client asks for content references
+        boolean contentRefs = "true".equals(request.param("contentRefs"));
+
+        String since = request.param("since");
+        if (since != null) {
+            return getHarSince(proxy, since, format, contentRefs);
+        }
+
         boolean cleanHar = "true".equals(request.param("cleanHar"));
-        Har har = proxy.getHar(cleanHar);
+        // the entries are read from mitmproxy's HAR file while the reply is written, rather than held in memory
+        HarSnapshot har = proxy.getHarSnapshot(cleanHar);
+
+        return replyWithHar(new HarExport(har, format, contentRefs));
+    }
+
+    /**
+     * Replies with a HAR containing only the entries added or updated since the cursor. The cursor for the next request is
+     * returned in the {@value #HAR_CURSOR_HEADER} header.
+     */
+    private Reply<?> getHarSince(MitmProxyServer proxy, String since, HarFormat format, boolean contentRefs) {
+        long cursor;
+        try {
+            cursor = Long.parseLong(since);
+        } catch (NumberFormatException e) {
+            LOG.warn("Invalid since value");
+            return Reply.saying().badRequest();
+        }
+
+        HarDelta delta = proxy.getHarSince(cursor);
+        if (delta == null) {
+            return replyWithHar(new HarExport((Har) null, format, contentRefs));
+        }
 
-        return Reply.with(har).as(Json.class);
+        return replyWithHar(new HarExport(delta.getHar(), format, contentRefs))
+                .headers(Collections.singletonMap(HAR_CURSOR_HEADER, String.valueOf(delta.getCursor())));
+    }
+
+    /**
+     * Replies with a HAR encoded in the format of the export, which was negotiated with the Accept header.
+     */
+    private static Reply<HarExport> replyWithHar(HarExport export) {
+        return Reply.with(export).type(export.getFormat().getMediaType()).as(HarJsonTransport.class);
     }
 
     @Put
@@ -164,10 +216,22 @@ public class ProxyResource {
             return Reply.saying().notFound();
         }
 
+        HarCaptureLimits harCaptureLimits;
+        try {
+            harCaptureLimits = parseHarCaptureLimits(request);
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Invalid HAR capture limits: {}", e.getMessage());
+            return Reply.saying().badRequest();
+        }
+
         String initialPageRef = request.param("initialPageRef");
         String initialPageTitle = request.param("initialPageTitle");
         Har oldHar = proxy.newHar(initialPageRef, initialPageTitle);
 
+        if (harCaptureLimits != null) {
+            proxy.setHarCaptureLimits(harCaptureLimits);
+        }
+
         String captureHeaders = request.param("captureHeaders");
         String captureContent = request.param("captureContent");
         String captureBinaryContent = request.param("captureBinaryContent");
@@ -189,12 +253,162 @@ public class ProxyResource {
         }
 
         if (oldHar != null) {
-            return Reply.with(oldHar).as(Json.class);
+            return replyWithHar(new HarExport(oldHar, HarFormat.forAcceptHeader(request.header("Accept")), false));
         } else {
             return Reply.saying().noContent();
         }
     }
 
+    @Get
+    @At("/:port/har/evictions")
+    public Reply<?> getHarEvictions(@Named("port") int port) {
+        LOG.info("GET /{}/har/evictions", port);
+        MitmProxyServer proxy = proxyManager.get(port);
+        if (proxy == null) {
+            return Reply.saying().notFound();
+        }
+
+        return Reply.with(proxy.getHarEvictionStats()).as(Json.class);
+    }
+
+    @Get
+    @At("/:port/har/timings")
+    public Reply<?> getHarTimings(@Named("port") int port) {
+        LOG.info("GET /{}/har/timings", port);
+        MitmProxyServer proxy = proxyManager.get(port);
+        if (proxy == null) {
+            return Reply.saying().notFound();
+        }
+
+        return Reply.with(proxy.getHarTimingReport()).as(Json.class);
+    }
+
+    @Delete
+    @At("/:port/har/timings")
+    public Reply<?> resetHarTimings(@Named("port") int port) {
+        LOG.info("DELETE /{}/har/timings", port);
+        MitmProxyServer proxy = proxyManager.get(port);
+        if (proxy == null) {
+            return Reply.saying().notFound();
+        }
+
+        return Reply.with(proxy.resetHarTimings()).as(Json.class);
+    }
+
+    /**
+     * Reads the optional maxEntries, maxBodyBytes and maxAgeSeconds parameters.
+     *
+     * @return limits built from the parameters, or null if none of them were specified
+     * @throws IllegalArgumentException if a parameter is not a valid number, or is out of range
+     */
+    private static HarCaptureLimits parseHarCaptureLimits(Request request) {
+        String maxEntries = request.param("maxEntries");
+        String maxBodyBytes = request.param("maxBodyBytes");
+        String maxAgeSeconds = request.param("maxAgeSeconds");
+        if (maxEntries == null && maxBodyBytes == null && maxAgeSeconds == null) {
+            return null;
+        }
+
+        HarCaptureLimits.Builder builder = new HarCaptureLimits.Builder();
+        if (maxEntries != null) {
+            builder.setMaxEntries(Integer.parseInt(maxEntries));
+        }
+        if (maxBodyBytes != null) {
+            builder.setMaxBodyBytes(Long.parseLong(maxBodyBytes));
+        }
+        if (maxAgeSeconds != null) {
+            builder.setMaxAge(Long.parseLong(maxAgeSeconds), TimeUnit.SECONDS);
+        }
+
+        return builder.create();
+    }
+
+    @Get
+    @At("/:port/har/policies")
+    public Reply<?> getHarCapturePolicies(@Named("port") int port) {
+        LOG.info("GET /{}/har/policies", port);
+        MitmProxyServer proxy = proxyManager.get(port);
+        if (proxy == null) {
+            return Reply.saying().notFound();
+        }
+
+        return Reply.with(proxy.getHarCapturePolicies()).as(Json.class);
+    }
+
+    @Put
+    @At("/:port/har/policies")
+    public Reply<?> setHarCapturePolicies(@Named("port") int port, Request request) {
+        LOG.info("PUT /{}/har/policies", port);
+        MitmProxyServer proxy = proxyManager.get(port);
+        if (proxy == null) {
+            return Reply.saying().notFound();
+        }
+
+        List<HarCapturePolicy> policies;
+        try {
+            @SuppressWarnings("unchecked") List<Map<String, Object>> policyDescriptors = request.read(List.class).as(Json.class);
+            policies = parseHarCapturePolicies(policyDescriptors);
+        } catch (RuntimeException e) {
+            LOG.warn("Invalid HAR capture policies: {}", e.getMessage());
+            return Reply.saying().badRequest();
+        }
+
+        proxy.setHarCapturePolicies(policies);
+        return Reply.saying().ok();
+    }
+
+    @Delete
+    @At("/:port/har/policies")
+    public Reply<?> clearHarCapturePolicies(@Named("port") int port) {
+        LOG.info("DELETE /{}/har/policies", port);
+        MitmProxyServer proxy = proxyManager.get(port);
+        if (proxy == null) {
+            return Reply.saying().notFound();
+        }
+
+        proxy.setHarCapturePolicies(null);
+        return Reply.saying().ok();
+    }
+
+    /**
+     * Builds policies from JSON objects with the optional urlPattern, host, method, mimeTypePattern, captureTypes and
+     * maxBodySize properties.
+     *
+     * @throws IllegalArgumentException if a property is invalid
+     */
+    private static List<HarCapturePolicy> parseHarCapturePolicies(List<Map<String, Object>> policyDescriptors) {
+        if (policyDescriptors == null) {
+            return Collections.emptyList();
+        }
+
+        List<HarCapturePolicy> policies = new ArrayList<>(policyDescriptors.size());
+        for (Map<String, Object> descriptor : policyDescriptors) {
+            HarCapturePolicy.Builder builder = new HarCapturePolicy.Builder()
+                    .setUrlPattern((String) descriptor.get("urlPattern"))
+                    .setHost((String) descriptor.get("host"))
+                    .setMethod((String) descriptor.get("method"))
+                    .setMimeTypePattern((String) descriptor.get("mimeTypePattern"));
+
+            Object captureTypes = descriptor.get("captureTypes");
+            if (captureTypes != null) {
+                EnumSet<CaptureType> types = EnumSet.noneOf(CaptureType.class);
+                for (Object captureType : (List<?>) captureTypes) {
+                    types.add(CaptureType.valueOf(String.valueOf(captureType)));
+                }
+                builder.setCaptureTypes(types);
+            }
+
+            Object maxBodySize = descriptor.get("maxBodySize");
+            if (maxBodySize != null) {
+                builder.setMaxBodySize(((Number) maxBodySize).longValue());
+            }
+
+            policies.add(builder.create());
+        }
+
+        return policies;
+    }
+
     @Put
     @At("/:port/har/pageRef")
     public Reply<?> setPage(@Named("port") int port, Request request) {
@@ -53,6 +53,18 @@ public class ConfigModule implements Module {
                         .ofType(Boolean.class)
                         .defaultsTo(true);
 
+        ArgumentAcceptingOptionSpec<Integer> compressionLevelSpec =
+                parser.accepts("compressionLevel", "Gzip compression level (1-9) of REST API responses, -1 for the default level, or 0 to disable compression")
+                        .withOptionalArg()
+                        .ofType(Integer.class)
+                        .defaultsTo(-1);
+
+        ArgumentAcceptingOptionSpec<Integer> compressionMinSizeSpec =
+                parser.accepts("compressionMinSize", "Minimum size in bytes of a REST API response to compress")
+                        .withOptionalArg()
+                        .ofType(Integer.class)
+                        .defaultsTo(1024);
+
         parser.acceptsAll(Arrays.asList("help", "?"), "This help text");
 
         OptionSet options = parser.parse(args);
@@ -97,6 +109,19 @@ public class ConfigModule implements Module {
         binder.bind(Key.get(Integer.class, new NamedImpl("maxPort"))).toInstance(maxPort);
         binder.bind(Key.get(Integer.class, new NamedImpl("ttl"))).toInstance(ttlSpec.value(options));
 
+        Integer compressionLevel = compressionLevelSpec.value(options);
+        if (compressionLevel < -1 || compressionLevel > 9) {
+            throw new IllegalArgumentException("Compression level must be between -1 and 9: " + compressionLevel);
+        }
+
+        Integer compressionMinSize = compressionMinSizeSpec.value(options);
+        if (compressionMinSize < 0) {
+            throw new IllegalArgumentException("Minimum compressed response size cannot be negative: " + compressionMinSize);
+        }
+
+        binder.bind(Key.get(Integer.class, new NamedImpl("compressionLevel"))).toInstance(compressionLevel);
+        binder.bind(Key.get(Integer.class, new NamedImpl("compressionMinSize"))).toInstance(compressionMinSize);
+
         // bind an ObjectMapper provider that uses the system time zone instead of UTC by default
         binder.bind(ObjectMapper.class).toProvider(() -> {
             ObjectMapper objectMapper = new ObjectMapper();
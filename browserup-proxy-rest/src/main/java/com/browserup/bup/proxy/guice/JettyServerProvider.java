@@ -13,8 +13,11 @@ import java.net.UnknownHostException;
 import java.util.EnumSet;
 
 import io.swagger.v3.jaxrs2.integration.resources.OpenApiResource;
+import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
 import org.eclipse.jetty.servlet.DefaultServlet;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.glassfish.hk2.api.Factory;
@@ -25,6 +28,7 @@ import org.glassfish.jersey.server.ServerProperties;
 import org.glassfish.jersey.servlet.ServletContainer;
 
 import javax.servlet.DispatcherType;
+import javax.ws.rs.core.MediaType;
 
 public class JettyServerProvider implements Provider<Server> {
     public static final String OPENAPI_CONFIG_YAML = "openapi-config.yaml";
@@ -33,7 +37,8 @@ public class JettyServerProvider implements Provider<Server> {
     private Server server;
 
     @Inject
-    public JettyServerProvider(@Named("port") int port, @Named("address") String address, MitmProxyManager proxyManager) throws UnknownHostException {
+    public JettyServerProvider(@Named("port") int port, @Named("address") String address, MitmProxyManager proxyManager,
+                               @Named("compressionLevel") int compressionLevel, @Named("compressionMinSize") int compressionMinSize) throws UnknownHostException {
         OpenApiResource openApiResource = new OpenApiResource();
         openApiResource.setConfigLocation(OPENAPI_CONFIG_YAML);
 
@@ -51,14 +56,43 @@ public class JettyServerProvider implements Provider<Server> {
         ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
         context.setContextPath("/");
 
-        context.addFilter(GuiceFilter.class, "/*", EnumSet.of(DispatcherType.REQUEST));;
+        // streamed responses, such as /proxy/{port}/har/stream, are written asynchronously, so every filter and servlet
+        // they pass through must support async processing
+        FilterHolder guiceFilter = context.addFilter(GuiceFilter.class, "/*", EnumSet.of(DispatcherType.REQUEST));
+        guiceFilter.setAsyncSupported(true);
         context.addServlet(DefaultServlet.class, "/");
-        context.addServlet(new ServletHolder(new ServletContainer(resourceConfig)), "/*");
+        ServletHolder jerseyServlet = new ServletHolder(new ServletContainer(resourceConfig));
+        jerseyServlet.setAsyncSupported(true);
+        context.addServlet(jerseyServlet, "/*");
+
+        if (compressionLevel != 0) {
+            context.setGzipHandler(createGzipHandler(compressionLevel, compressionMinSize));
+        }
 
         server = new Server(new InetSocketAddress(InetAddress.getByName(address), port));
         server.setHandler(context);
     }
 
+    /**
+     * Creates a handler that gzips responses for clients that accept gzip, such as HARs, which are highly compressible.
+     * Responses are compressed as they are written, so a streamed response is never buffered in full.
+     *
+     * @param compressionLevel deflater compression level (1-9), or -1 for the default level
+     * @param compressionMinSize minimum size of a response to compress, in bytes
+     * @return the gzip handler
+     */
+    private static GzipHandler createGzipHandler(int compressionLevel, int compressionMinSize) {
+        GzipHandler gzipHandler = new GzipHandler();
+        gzipHandler.setCompressionLevel(compressionLevel);
+        gzipHandler.setMinGzipSize(compressionMinSize);
+        // PUT /proxy/{port}/har returns the previous HAR
+        gzipHandler.setIncludedMethods(HttpMethod.GET.asString(), HttpMethod.POST.asString(), HttpMethod.PUT.asString());
+        // compressed events would be held back until enough of them had been written to fill a deflater block
+        gzipHandler.addExcludedMimeTypes(MediaType.SERVER_SENT_EVENTS);
+
+        return gzipHandler;
+    }
+
     private AbstractBinder proxyManagerToHkBinder(MitmProxyManager proxyManager) {
         Factory<MitmProxyManager> proxyManagerFactory = new Factory<MitmProxyManager>() {
 
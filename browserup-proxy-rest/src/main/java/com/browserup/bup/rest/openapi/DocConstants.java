@@ -17,8 +17,23 @@ public class DocConstants {
 
     public static final String CONTENT_TEXT_DESCRIPTION = "String to search in the content.";
 
+    public static final String CONTENT_TEXTS_DESCRIPTION = "Strings to search in the content, one per parameter. " +
+            "The content is scanned once for all of the strings.";
+
     public static final String PORT_DESCRIPTION = "Proxy port, use /proxy endpoint to get available proxy ports.";
 
+    public static final String HOST_DESCRIPTION = "Host of the request URL, case-insensitive.";
+
+    public static final String BUFFER_SIZE_DESCRIPTION = "Maximum number of entries waiting to be sent to the client.";
+
+    public static final String ASSERTIONS_DESCRIPTION = "Assertions to check. Each assertion has a type, an optional URL pattern " +
+            "and mostRecent flag selecting the entries it is checked against, and the parameters its type requires.";
+
+    public static final String STANDING_ASSERTION_DESCRIPTION = "Assertion to check against each entry as it is completed. It has a " +
+            "type, an optional URL pattern selecting the entries it is checked against, and the parameters its type requires.";
+
+    public static final String STANDING_ASSERTION_ID_DESCRIPTION = "Id of the standing assertion, returned when it was registered.";
+
     public static final String MILLISECONDS_DESCRIPTION = "Maximum time in milliseconds, inclusive.";
 
     public static final String URL_PATTERN_DESCRIPTION = "Regular expression match of URL to find.\n" +
@@ -0,0 +1,162 @@
+package com.browserup.bup.rest.resource.assertions;
+
+import com.browserup.bup.assertion.model.AssertionResult;
+import com.browserup.bup.assertion.model.HarEntryAssertionSpec;
+import com.browserup.bup.assertion.model.StandingAssertionResult;
+import com.browserup.bup.proxy.MitmProxyManager;
+import com.browserup.bup.rest.openapi.DocConstants;
+import com.browserup.bup.rest.validation.NotNullConstraint;
+import com.browserup.bup.rest.validation.PortWithExistingProxyConstraint;
+import com.browserup.bup.rest.validation.mapper.model.ConstraintsErrors;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.enums.ParameterIn;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.parameters.RequestBody;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.List;
+
+@Path("/proxy/{port}/har/assertions")
+public class AssertionsProxyResource {
+    private static final String PORT = "port";
+    private static final String ASSERTIONS = "assertions";
+    private static final String ASSERTION = "assertion";
+    private static final String ID = "id";
+
+    private final MitmProxyManager proxyManager;
+
+    public AssertionsProxyResource(@Context MitmProxyManager proxyManager) {
+        this.proxyManager = proxyManager;
+    }
+
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @Operation(
+            description = "Check several assertions against the HAR at once. The HAR entries are walked only once, and " +
+                    "assertions with the same URL pattern share the entries found by it. An assertion that is not valid, " +
+                    "such as one missing a parameter its type requires, has an errored result.",
+            responses = {@ApiResponse(
+                    description = "Result of each assertion, in the order of the assertions",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON,
+                            array = @ArraySchema(schema = @Schema(implementation = AssertionResult.class))))})
+    public List<AssertionResult> assertAll(
+            @PathParam(PORT)
+            @NotNullConstraint(paramName = PORT)
+            @PortWithExistingProxyConstraint
+            @Parameter(required = true, in = ParameterIn.PATH, description = DocConstants.PORT_DESCRIPTION) int port,
+
+            @NotNullConstraint(paramName = ASSERTIONS)
+            @RequestBody(required = true, description = DocConstants.ASSERTIONS_DESCRIPTION,
+                    content = @Content(array = @ArraySchema(schema = @Schema(implementation = HarEntryAssertionSpec.class))))
+                    List<HarEntryAssertionSpec> assertions) {
+
+        return proxyManager.get(port).assertAll(assertions);
+    }
+
+    @POST
+    @Path("/standing")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @Operation(
+            description = "Register an assertion that is checked against each HAR entry as it is completed, keeping running " +
+                    "counters of the entries it was checked against and failed for, and the first entry it failed for.",
+            responses = {@ApiResponse(
+                    description = "Result of the new assertion, with its id",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON,
+                            schema = @Schema(implementation = StandingAssertionResult.class)))})
+    public Response addStandingAssertion(
+            @PathParam(PORT)
+            @NotNullConstraint(paramName = PORT)
+            @PortWithExistingProxyConstraint
+            @Parameter(required = true, in = ParameterIn.PATH, description = DocConstants.PORT_DESCRIPTION) int port,
+
+            @NotNullConstraint(paramName = ASSERTION)
+            @RequestBody(required = true, description = DocConstants.STANDING_ASSERTION_DESCRIPTION,
+                    content = @Content(schema = @Schema(implementation = HarEntryAssertionSpec.class)))
+                    HarEntryAssertionSpec assertion) {
+        long id;
+        try {
+            id = proxyManager.get(port).addStandingAssertion(assertion);
+        } catch (IllegalArgumentException e) {
+            ConstraintsErrors errors = new ConstraintsErrors();
+            errors.addError(ASSERTION, e.getMessage());
+
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(errors)
+                    .type(MediaType.APPLICATION_JSON_TYPE)
+                    .build();
+        }
+
+        return Response.ok(new StandingAssertionResult(id, assertion, 0, 0, null), MediaType.APPLICATION_JSON_TYPE).build();
+    }
+
+    @GET
+    @Path("/standing")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Operation(
+            description = "Get the running results of the standing assertions.",
+            responses = {@ApiResponse(
+                    description = "Result of each standing assertion, in the order the assertions were registered",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON,
+                            array = @ArraySchema(schema = @Schema(implementation = StandingAssertionResult.class))))})
+    public List<StandingAssertionResult> standingAssertionResults(
+            @PathParam(PORT)
+            @NotNullConstraint(paramName = PORT)
+            @PortWithExistingProxyConstraint
+            @Parameter(required = true, in = ParameterIn.PATH, description = DocConstants.PORT_DESCRIPTION) int port) {
+
+        return proxyManager.get(port).getStandingAssertionResults();
+    }
+
+    @POST
+    @Path("/standing/reset")
+    @Operation(
+            description = "Reset the counters and first failure of every standing assertion, keeping the assertions registered.",
+            responses = {@ApiResponse(responseCode = "204", description = "Results were reset")})
+    public void resetStandingAssertionResults(
+            @PathParam(PORT)
+            @NotNullConstraint(paramName = PORT)
+            @PortWithExistingProxyConstraint
+            @Parameter(required = true, in = ParameterIn.PATH, description = DocConstants.PORT_DESCRIPTION) int port) {
+
+        proxyManager.get(port).resetStandingAssertionResults();
+    }
+
+    @DELETE
+    @Path("/standing/{id}")
+    @Operation(
+            description = "Stop checking a standing assertion.",
+            responses = {
+                    @ApiResponse(responseCode = "204", description = "Assertion was removed"),
+                    @ApiResponse(responseCode = "404", description = "No assertion with the id is registered")})
+    public Response removeStandingAssertion(
+            @PathParam(PORT)
+            @NotNullConstraint(paramName = PORT)
+            @PortWithExistingProxyConstraint
+            @Parameter(required = true, in = ParameterIn.PATH, description = DocConstants.PORT_DESCRIPTION) int port,
+
+            @PathParam(ID)
+            @Parameter(required = true, in = ParameterIn.PATH, description = DocConstants.STANDING_ASSERTION_ID_DESCRIPTION) long id) {
+
+        boolean removed = proxyManager.get(port).removeStandingAssertion(id);
+
+        return Response.status(removed ? Response.Status.NO_CONTENT : Response.Status.NOT_FOUND).build();
+    }
+}
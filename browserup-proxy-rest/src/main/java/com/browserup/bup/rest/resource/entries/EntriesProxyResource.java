@@ -11,6 +11,9 @@ import com.browserup.bup.rest.validation.NotNullConstraint;
 import com.browserup.bup.rest.validation.PatternConstraint;
 import com.browserup.bup.rest.validation.PortWithExistingProxyConstraint;
 import com.browserup.bup.util.HttpStatusClass;
+import com.browserup.harreader.HarFormat;
+import com.browserup.harreader.HarStreamingWriter;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import de.sstoehr.harreader.model.HarEntry;
 import io.swagger.v3.oas.annotations.OpenAPIDefinition;
@@ -25,14 +28,19 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import org.apache.commons.lang3.StringUtils;
 
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import java.util.Collection;
+import javax.ws.rs.core.StreamingOutput;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import static com.browserup.bup.rest.openapi.DocConstants.*;
@@ -56,22 +64,40 @@ public class EntriesProxyResource {
     private static final String HEADER_VALUE_PATTERN = "headerValuePattern";
     private static final String STATUS = "status";
 
+    private static final String SMILE_MEDIA_TYPE = "application/x-jackson-smile";
+    private static final String CBOR_MEDIA_TYPE = "application/cbor";
+
     private final MitmProxyManager proxyManager;
+    private final Map<HarFormat, HarStreamingWriter> harWriters = new EnumMap<>(HarFormat.class);
 
     public EntriesProxyResource(@Context MitmProxyManager proxyManager) {
         this.proxyManager = proxyManager;
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        for (HarFormat format : HarFormat.values()) {
+            harWriters.put(format, new HarStreamingWriter(format.createMapper(objectMapper)));
+        }
     }
 
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Operation(
-            description = "Search the entire log for entries whose request URL matches the given url",
+            description = "Search the entire log for entries whose request URL matches the given url. The entries are " +
+                    "encoded in Smile or CBOR instead of JSON if the Accept header asks for " + SMILE_MEDIA_TYPE +
+                    " or " + CBOR_MEDIA_TYPE + ".",
             responses = {@ApiResponse(description = "Array of Har Entries",
-                    content = @Content(
-                            mediaType = MediaType.APPLICATION_JSON,
-                            array = @ArraySchema(schema = @Schema(implementation = HarEntry.class))))})
-
-    public Collection<HarEntry> entries(
+                    content = {
+                            @Content(
+                                    mediaType = MediaType.APPLICATION_JSON,
+                                    array = @ArraySchema(schema = @Schema(implementation = HarEntry.class))),
+                            @Content(
+                                    mediaType = SMILE_MEDIA_TYPE,
+                                    array = @ArraySchema(schema = @Schema(implementation = HarEntry.class))),
+                            @Content(
+                                    mediaType = CBOR_MEDIA_TYPE,
+                                    array = @ArraySchema(schema = @Schema(implementation = HarEntry.class)))})})
+
+    public Response entries(
             @PathParam(PORT)
             @NotNullConstraint(paramName = PORT)
             @PortWithExistingProxyConstraint
@@ -80,8 +106,17 @@ public class EntriesProxyResource {
             @QueryParam(URL_PATTERN)
             @NotBlankConstraint(paramName = URL_PATTERN)
             @PatternConstraint(paramName = URL_PATTERN)
-            @Parameter(required = true, description = DocConstants.URL_PATTERN_DESCRIPTION) String urlPattern) {
-        return proxyManager.get(port).findEntries(Pattern.compile(urlPattern));
+            @Parameter(required = true, description = DocConstants.URL_PATTERN_DESCRIPTION) String urlPattern,
+
+            @HeaderParam(HttpHeaders.ACCEPT)
+            @Parameter(hidden = true) String accept) {
+        List<HarEntry> entries = proxyManager.get(port).findEntries(Pattern.compile(urlPattern));
+
+        HarFormat format = HarFormat.forAcceptHeader(accept);
+        HarStreamingWriter harWriter = harWriters.get(format);
+
+        StreamingOutput output = out -> harWriter.writeEntries(entries, out);
+        return Response.ok(output, format.getMediaType()).build();
     }
 
     @GET
@@ -171,6 +206,60 @@ public class EntriesProxyResource {
         return proxyManager.get(port).assertAnyUrlContentDoesNotContain(Pattern.compile(urlPattern), contentText);
     }
 
+    @GET
+    @Path("/assertContentContainsAll")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Operation(description = "Assert that responses content for all requests found by a given URL pattern contain each of the specified values.",
+            responses = {@ApiResponse(
+                    description = "Assertion result",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON,
+                            schema = @Schema(implementation = AssertionResult.class)))})
+    public AssertionResult contentContainsAll(
+            @PathParam(PORT)
+            @NotNullConstraint(paramName = PORT)
+            @PortWithExistingProxyConstraint
+            @Parameter(required = true, in = ParameterIn.PATH, description = DocConstants.PORT_DESCRIPTION) int port,
+
+            @QueryParam(URL_PATTERN)
+            @NotBlankConstraint(paramName = URL_PATTERN)
+            @PatternConstraint(paramName = URL_PATTERN)
+            @Parameter(required = true, description = DocConstants.URL_PATTERN_DESCRIPTION) String urlPattern,
+
+            @QueryParam(CONTENT_TEXT)
+            @NotBlankConstraint(paramName = CONTENT_TEXT)
+            @Parameter(required = true, description = DocConstants.CONTENT_TEXTS_DESCRIPTION) List<String> contentTexts) {
+
+        return proxyManager.get(port).assertAnyUrlContentContainsAll(Pattern.compile(urlPattern), contentTexts);
+    }
+
+    @GET
+    @Path("/assertContentDoesNotContainAny")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Operation(description = "Assert that responses content for all requests found by a given URL pattern contain none of the specified values.",
+            responses = {@ApiResponse(
+                    description = "Assertion result",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON,
+                            schema = @Schema(implementation = AssertionResult.class)))})
+    public AssertionResult contentDoesNotContainAny(
+            @PathParam(PORT)
+            @NotNullConstraint(paramName = PORT)
+            @PortWithExistingProxyConstraint
+            @Parameter(required = true, in = ParameterIn.PATH, description = DocConstants.PORT_DESCRIPTION) int port,
+
+            @QueryParam(URL_PATTERN)
+            @NotBlankConstraint(paramName = URL_PATTERN)
+            @PatternConstraint(paramName = URL_PATTERN)
+            @Parameter(required = true, description = DocConstants.URL_PATTERN_DESCRIPTION) String urlPattern,
+
+            @QueryParam(CONTENT_TEXT)
+            @NotBlankConstraint(paramName = CONTENT_TEXT)
+            @Parameter(required = true, description = DocConstants.CONTENT_TEXTS_DESCRIPTION) List<String> contentTexts) {
+
+        return proxyManager.get(port).assertAnyUrlContentDoesNotContainAny(Pattern.compile(urlPattern), contentTexts);
+    }
+
     @GET
     @Path("/assertContentMatches")
     @Produces(MediaType.APPLICATION_JSON)
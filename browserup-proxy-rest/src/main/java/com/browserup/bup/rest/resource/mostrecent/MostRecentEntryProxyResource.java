@@ -26,6 +26,7 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import java.util.List;
 import java.util.regex.Pattern;
 
 import static com.browserup.bup.rest.openapi.DocConstants.*;
@@ -130,6 +131,60 @@ public class MostRecentEntryProxyResource {
         return proxyManager.get(port).assertMostRecentResponseContentDoesNotContain(Pattern.compile(urlPattern), contentText);
     }
 
+    @GET
+    @Path("/assertContentContainsAll")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Operation(description = "Assert that response content for the most recent request found by a given URL pattern contains each of the specified values.",
+            responses = {@ApiResponse(
+                    description = "Assertion result",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON,
+                            schema = @Schema(implementation = AssertionResult.class)))})
+    public AssertionResult contentContainsAll(
+            @PathParam(PORT)
+            @NotNullConstraint(paramName = PORT)
+            @PortWithExistingProxyConstraint
+            @Parameter(required = true, in = ParameterIn.PATH, description = PORT_DESCRIPTION) int port,
+
+            @QueryParam(URL_PATTERN)
+            @NotBlankConstraint(paramName = URL_PATTERN)
+            @PatternConstraint(paramName = URL_PATTERN)
+            @Parameter(required = true, description = URL_PATTERN_DESCRIPTION) String urlPattern,
+
+            @QueryParam(CONTENT_TEXT)
+            @NotBlankConstraint(paramName = CONTENT_TEXT)
+            @Parameter(required = true, description = CONTENT_TEXTS_DESCRIPTION) List<String> contentTexts) {
+
+        return proxyManager.get(port).assertMostRecentResponseContentContainsAll(Pattern.compile(urlPattern), contentTexts);
+    }
+
+    @GET
+    @Path("/assertContentDoesNotContainAny")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Operation(description = "Assert that response content for the most recent request found by a given URL pattern contains none of the specified values.",
+            responses = {@ApiResponse(
+                    description = "Assertion result",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON,
+                            schema = @Schema(implementation = AssertionResult.class)))})
+    public AssertionResult contentDoesNotContainAny(
+            @PathParam(PORT)
+            @NotNullConstraint(paramName = PORT)
+            @PortWithExistingProxyConstraint
+            @Parameter(required = true, in = ParameterIn.PATH, description = PORT_DESCRIPTION) int port,
+
+            @QueryParam(URL_PATTERN)
+            @NotBlankConstraint(paramName = URL_PATTERN)
+            @PatternConstraint(paramName = URL_PATTERN)
+            @Parameter(required = true, description = URL_PATTERN_DESCRIPTION) String urlPattern,
+
+            @QueryParam(CONTENT_TEXT)
+            @NotBlankConstraint(paramName = CONTENT_TEXT)
+            @Parameter(required = true, description = CONTENT_TEXTS_DESCRIPTION) List<String> contentTexts) {
+
+        return proxyManager.get(port).assertMostRecentResponseContentDoesNotContainAny(Pattern.compile(urlPattern), contentTexts);
+    }
+
     @GET
     @Path("/assertContentMatches")
     @Produces(MediaType.APPLICATION_JSON)
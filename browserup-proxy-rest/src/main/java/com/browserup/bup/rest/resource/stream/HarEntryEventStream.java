@@ -0,0 +1,192 @@
+package com.browserup.bup.rest.resource.stream;
+
+import com.browserup.bup.BrowserUpProxy;
+import com.browserup.bup.har.HarEntryListener;
+import com.browserup.harreader.HarStreamingWriter;
+import com.fasterxml.jackson.core.JsonGenerator;
+import de.sstoehr.harreader.model.HarEntry;
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Streams the completed entries of a proxy's HAR to a client as Server-Sent Events. Each entry is sent as an
+ * {@code entry} event whose data is the JSON-encoded entry.
+ * <p>
+ * Entries are buffered between the proxy's HAR entry dispatcher and the client, so that a slow client never holds up
+ * the dispatcher. When the buffer is full, new entries are dropped, and the client is sent a {@code dropped} event
+ * with the total number of entries dropped so far before the next entry. A comment is sent when no entry has been sent
+ * for a while, so that closed connections are noticed.
+ * <p>
+ * The stream never reads the proxy's HAR: entries are pushed to it by the proxy's HAR entry dispatcher when they are
+ * completed. For a {@link com.browserup.bup.MitmProxyServer}, the dispatcher is fed by
+ * {@link com.browserup.bup.mitmproxy.management.HarEntryFeed}, which receives each entry from mitmproxy once when it is
+ * completed, so the stream sends each entry once.
+ */
+public class HarEntryEventStream implements HarEntryListener, Runnable {
+    private static final Logger log = LoggerFactory.getLogger(HarEntryEventStream.class);
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    /**
+     * How long the stream may be idle before a comment is sent, in milliseconds.
+     */
+    private static final long HEARTBEAT_INTERVAL_MS = 15000;
+
+    /**
+     * How often the stream checks whether the proxy has been stopped while there are no entries, in milliseconds.
+     */
+    private static final long POLL_INTERVAL_MS = 1000;
+
+    private static final byte[] HEARTBEAT = ": keep-alive\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final BrowserUpProxy proxy;
+    private final ChunkedOutput<byte[]> output;
+    private final HarStreamingWriter harWriter;
+    private final Pattern urlPattern;
+    private final String host;
+
+    private final BlockingQueue<HarEntry> buffer;
+    private final AtomicLong droppedEntries = new AtomicLong();
+
+    private long sentEvents;
+    private long reportedDroppedEntries;
+
+    /**
+     * @param proxy proxy whose entries are streamed
+     * @param output output to send the events to
+     * @param harWriter writer used to encode entries
+     * @param urlPattern pattern that the request URL of a streamed entry must match, or null to stream entries of any URL
+     * @param host host that the request URL of a streamed entry must have (ignoring case), or null to stream entries of any host
+     * @param bufferSize maximum number of entries waiting to be sent
+     */
+    public HarEntryEventStream(BrowserUpProxy proxy, ChunkedOutput<byte[]> output, HarStreamingWriter harWriter,
+                               Pattern urlPattern, String host, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+        }
+
+        this.proxy = proxy;
+        this.output = output;
+        this.harWriter = harWriter;
+        this.urlPattern = urlPattern;
+        this.host = host;
+        this.buffer = new LinkedBlockingQueue<>(bufferSize);
+    }
+
+    @Override
+    public void onEntryCompleted(HarEntry entry) {
+        if (!matches(entry)) {
+            return;
+        }
+
+        if (!buffer.offer(entry)) {
+            droppedEntries.incrementAndGet();
+        }
+    }
+
+    /**
+     * Sends buffered entries until the client disconnects or the proxy is stopped, then removes this stream from the
+     * proxy's listeners.
+     */
+    @Override
+    public void run() {
+        try {
+            long lastSentNanos = System.nanoTime();
+            while (!output.isClosed() && proxy.isStarted()) {
+                HarEntry entry = buffer.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (entry != null) {
+                    sendDroppedEntries();
+                    sendEvent("entry", encode(entry));
+                    lastSentNanos = System.nanoTime();
+                } else if (System.nanoTime() - lastSentNanos >= TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_INTERVAL_MS)) {
+                    output.write(HEARTBEAT);
+                    lastSentNanos = System.nanoTime();
+                }
+            }
+        } catch (IOException e) {
+            log.debug("HAR entry stream closed by client", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            proxy.removeHarEntryListener(this);
+            closeOutput();
+        }
+    }
+
+    /**
+     * @return number of entries dropped because the buffer was full
+     */
+    public long getDroppedEntries() {
+        return droppedEntries.get();
+    }
+
+    private boolean matches(HarEntry entry) {
+        String url = entry.getRequest().getUrl();
+        if (url == null) {
+            return urlPattern == null && host == null;
+        }
+
+        if (urlPattern != null && !urlPattern.matcher(url).matches()) {
+            return false;
+        }
+
+        if (host != null) {
+            try {
+                String entryHost = URI.create(url).getHost();
+                return entryHost != null && entryHost.toLowerCase(Locale.ROOT).equals(host.toLowerCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void sendDroppedEntries() throws IOException {
+        long dropped = droppedEntries.get();
+        if (dropped > reportedDroppedEntries) {
+            sendEvent("dropped", "{\"dropped\":" + dropped + "}");
+            reportedDroppedEntries = dropped;
+        }
+    }
+
+    private String encode(HarEntry entry) throws IOException {
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        try (JsonGenerator generator = harWriter.createGenerator(json)) {
+            harWriter.writeEntry(entry, generator);
+        }
+
+        return json.toString(StandardCharsets.UTF_8.name());
+    }
+
+    /**
+     * Sends an event. Encoded entries do not contain line breaks, since line breaks in strings are escaped.
+     */
+    private void sendEvent(String name, String data) throws IOException {
+        String event = "id: " + (++sentEvents) + "\n" +
+                "event: " + name + "\n" +
+                "data: " + data + "\n\n";
+
+        output.write(event.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void closeOutput() {
+        try {
+            output.close();
+        } catch (IOException e) {
+            log.debug("Couldn't close HAR entry stream", e);
+        }
+    }
+}
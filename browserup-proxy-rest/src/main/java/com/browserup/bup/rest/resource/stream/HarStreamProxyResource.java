@@ -0,0 +1,97 @@
+package com.browserup.bup.rest.resource.stream;
+
+import com.browserup.bup.MitmProxyServer;
+import com.browserup.bup.proxy.MitmProxyManager;
+import com.browserup.bup.rest.openapi.DocConstants;
+import com.browserup.bup.rest.validation.LongPositiveConstraint;
+import com.browserup.bup.rest.validation.NotNullConstraint;
+import com.browserup.bup.rest.validation.PatternConstraint;
+import com.browserup.bup.rest.validation.PortWithExistingProxyConstraint;
+import com.browserup.harreader.HarStreamingWriter;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.enums.ParameterIn;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import org.apache.commons.lang3.StringUtils;
+import org.glassfish.jersey.server.ChunkedOutput;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+@Path("/proxy/{port}/har/stream")
+public class HarStreamProxyResource {
+    private static final String PORT = "port";
+    private static final String URL_PATTERN = "urlPattern";
+    private static final String HOST = "host";
+    private static final String BUFFER_SIZE = "bufferSize";
+
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+
+    /**
+     * Runs one task per open stream, which sends the stream's entries to its client.
+     */
+    private static final ExecutorService streamExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "har-entry-stream-" + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final MitmProxyManager proxyManager;
+    private final HarStreamingWriter harWriter = new HarStreamingWriter();
+
+    public HarStreamProxyResource(@Context MitmProxyManager proxyManager) {
+        this.proxyManager = proxyManager;
+    }
+
+    @GET
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @Operation(
+            description = "Stream HAR entries as Server-Sent Events as they are completed, optionally only entries whose request " +
+                    "URL matches the given URL pattern or host. Each entry is sent as an 'entry' event. If the client reads " +
+                    "slower than entries are completed, entries that do not fit in the buffer are dropped, and a 'dropped' " +
+                    "event with the total number of dropped entries is sent before the next entry.",
+            responses = {@ApiResponse(
+                    description = "Stream of Har Entries",
+                    content = @Content(mediaType = MediaType.SERVER_SENT_EVENTS))})
+    public ChunkedOutput<byte[]> stream(
+            @PathParam(PORT)
+            @NotNullConstraint(paramName = PORT)
+            @PortWithExistingProxyConstraint
+            @Parameter(required = true, in = ParameterIn.PATH, description = DocConstants.PORT_DESCRIPTION) int port,
+
+            @QueryParam(URL_PATTERN)
+            @PatternConstraint(paramName = URL_PATTERN)
+            @Parameter(description = DocConstants.URL_PATTERN_DESCRIPTION) String urlPattern,
+
+            @QueryParam(HOST)
+            @Parameter(description = DocConstants.HOST_DESCRIPTION) String host,
+
+            @QueryParam(BUFFER_SIZE)
+            @DefaultValue("" + HarEntryEventStream.DEFAULT_BUFFER_SIZE)
+            @LongPositiveConstraint(value = 1, paramName = BUFFER_SIZE)
+            @Parameter(description = DocConstants.BUFFER_SIZE_DESCRIPTION) String bufferSize) {
+        MitmProxyServer proxy = proxyManager.get(port);
+
+        ChunkedOutput<byte[]> output = new ChunkedOutput<>(byte[].class);
+        HarEntryEventStream stream = new HarEntryEventStream(proxy, output, harWriter,
+                StringUtils.isEmpty(urlPattern) ? null : Pattern.compile(urlPattern),
+                StringUtils.isEmpty(host) ? null : host,
+                (int) Math.min(Math.max(Long.parseLong(bufferSize), 1), Integer.MAX_VALUE));
+
+        proxy.addHarEntryListener(stream);
+        streamExecutor.execute(stream);
+
+        return output;
+    }
+}
@@ -2,6 +2,7 @@ package com.browserup.bup.rest.validation;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.Collection;
 
 import javax.validation.Constraint;
 import javax.validation.ConstraintValidator;
@@ -34,7 +35,12 @@ public @interface NotBlankConstraint {
 
     @Override
     public boolean isValid(Object value, ConstraintValidatorContext context) {
-      if (value != null && StringUtils.isNotEmpty(String.valueOf(value))) {
+      if (value instanceof Collection) {
+        Collection<?> values = (Collection<?>) value;
+        if (!values.isEmpty() && values.stream().allMatch(v -> v != null && StringUtils.isNotEmpty(String.valueOf(v)))) {
+          return true;
+        }
+      } else if (value != null && StringUtils.isNotEmpty(String.valueOf(value))) {
         return true;
       }
 
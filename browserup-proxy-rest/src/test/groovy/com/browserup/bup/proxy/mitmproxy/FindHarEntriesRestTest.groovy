@@ -1,6 +1,6 @@
 package com.browserup.bup.proxy.mitmproxy
 
-
+import com.browserup.harreader.HarFormat
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.github.tomakehurst.wiremock.client.WireMock
 import de.sstoehr.harreader.model.HarEntry
@@ -54,6 +54,36 @@ class FindHarEntriesRestTest extends BaseRestTest {
         WireMock.verify(1, getRequestedFor(urlEqualTo("/${urlNotToCatch}")))
     }
 
+    @Test
+    void findHarEntriesInBinaryFormatsByAcceptHeader() {
+        def urlToCatch = 'test'
+        def responseBody = 'success'
+
+        mockTargetServerResponse(urlToCatch, responseBody)
+
+        proxyManager.get()[0].newHar()
+
+        requestToTargetServer(urlToCatch, responseBody)
+
+        [HarFormat.SMILE, HarFormat.CBOR].each { HarFormat format ->
+            HttpURLConnection connection = new URL("http://localhost:${restServer.connectors[0].localPort}/proxy/${proxy.port}/${urlPath}?urlPattern=.*${urlToCatch}")
+                    .openConnection() as HttpURLConnection
+            connection.setRequestProperty('Accept', format.mediaType)
+
+            assertEquals(200, connection.responseCode)
+            assertEquals(format.mediaType, connection.getHeaderField('Content-Type'))
+
+            HarEntry[] entries = connection.inputStream.withCloseable {
+                format.createMapper(new ObjectMapper()).readValue(it, HarEntry[]) as HarEntry[]
+            }
+            assertThat('Expected to find only one entry', entries, Matchers.arrayWithSize(1))
+            assertThat('Expected to find entry containing url from url filter pattern',
+                    entries[0].request.url, Matchers.containsString(urlToCatch))
+        }
+
+        WireMock.verify(1, getRequestedFor(urlEqualTo("/${urlToCatch}")))
+    }
+
     @Test
     void getEmptyEntriesArrayIfNoEntriesFoundByUrl() {
         def urlToCatch = 'test'
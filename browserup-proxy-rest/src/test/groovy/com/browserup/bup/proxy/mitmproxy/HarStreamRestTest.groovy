@@ -0,0 +1,79 @@
+package com.browserup.bup.proxy.mitmproxy
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import de.sstoehr.harreader.model.HarEntry
+import org.awaitility.Awaitility
+import org.junit.Test
+
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+
+import static org.hamcrest.Matchers.endsWith
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertTrue
+
+class HarStreamRestTest extends BaseRestTest {
+
+    @Override
+    String getUrlPath() {
+        return 'har/stream'
+    }
+
+    @Test
+    void completedEntriesMatchingFilterAreStreamed() {
+        def urlToSkip = 'skipped'
+        def urlToStream = 'streamed'
+        def responseBody = 'success'
+
+        mockTargetServerResponse(urlToSkip, responseBody)
+        mockTargetServerResponse(urlToStream, responseBody)
+
+        proxyManager.get()[0].newHar()
+
+        HttpURLConnection connection = new URL("http://localhost:${restServer.connectors[0].localPort}/proxy/${proxy.port}/${urlPath}" +
+                "?urlPattern=${URLEncoder.encode(".*/${urlToStream}", 'UTF-8')}").openConnection() as HttpURLConnection
+        connection.setReadTimeout(30000)
+
+        CompletableFuture<HarEntry> streamedEntry = CompletableFuture.supplyAsync {
+            assertEquals(200, connection.responseCode)
+            assertTrue(connection.contentType.startsWith('text/event-stream'))
+
+            new BufferedReader(new InputStreamReader(connection.inputStream, StandardCharsets.UTF_8)).withCloseable { reader ->
+                String event = null
+                String line
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith('event: ')) {
+                        event = line.substring('event: '.length())
+                    } else if (line.startsWith('data: ') && event == 'entry') {
+                        return new ObjectMapper().readValue(line.substring('data: '.length()), HarEntry)
+                    }
+                }
+
+                return null
+            }
+        }
+
+        // entries completed before the stream subscribed are not sent, so keep making requests until one is
+        Awaitility.await().atMost(20, TimeUnit.SECONDS).until({ ->
+            requestToTargetServer(urlToSkip, responseBody)
+            requestToTargetServer(urlToStream, responseBody)
+            return streamedEntry.isDone()
+        })
+
+        HarEntry entry = streamedEntry.get()
+        connection.disconnect()
+
+        assertThat(entry.request.url, endsWith("/${urlToStream}"))
+        assertEquals(200, entry.response.status)
+    }
+
+    @Test
+    void invalidUrlPatternIsRejected() {
+        HttpURLConnection connection = new URL("http://localhost:${restServer.connectors[0].localPort}/proxy/${proxy.port}/${urlPath}" +
+                "?urlPattern=${URLEncoder.encode('[', 'UTF-8')}").openConnection() as HttpURLConnection
+
+        assertEquals(400, connection.responseCode)
+    }
+}
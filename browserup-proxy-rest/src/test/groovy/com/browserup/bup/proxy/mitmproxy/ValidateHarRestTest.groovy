@@ -7,6 +7,8 @@ import groovyx.net.http.Method
 import org.apache.http.entity.ContentType
 import org.junit.Test
 
+import java.util.zip.GZIPInputStream
+
 import static com.github.tomakehurst.wiremock.client.WireMock.*
 import static org.junit.Assert.*
 
@@ -172,6 +174,33 @@ class ValidateHarRestTest extends BaseRestTest {
         verify(1, getRequestedFor(urlEqualTo("/${urlToCatch}")))
     }
 
+    @Test
+    void harIsCompressedWhenClientAcceptsGzip() {
+        def urlToCatch = 'test'
+        def responseBody = 'success'
+
+        mockTargetServerResponse(urlToCatch, responseBody)
+
+        proxyManager.get()[0].newHar()
+
+        // enough entries for the HAR to exceed the minimum compressed response size
+        5.times { requestToTargetServer(urlToCatch, responseBody) }
+
+        HttpURLConnection connection = new URL("http://localhost:${restServer.connectors[0].localPort}/proxy/${proxy.port}/${urlPath}")
+                .openConnection() as HttpURLConnection
+        connection.setRequestProperty('Accept-Encoding', 'gzip')
+
+        assertEquals(200, connection.responseCode)
+        assertEquals('gzip', connection.getHeaderField('Content-Encoding'))
+
+        Har har = new GZIPInputStream(connection.inputStream).withCloseable {
+            new ObjectMapper().readValue(it, Har) as Har
+        }
+        assertEquals(5, har.getLog().getEntries().size())
+
+        verify(5, getRequestedFor(urlEqualTo("/${urlToCatch}")))
+    }
+
     protected void mockTargetServerResponse(String url, String responseBody) {
         def response = aResponse().withStatus(200)
                 .withBody(responseBody)
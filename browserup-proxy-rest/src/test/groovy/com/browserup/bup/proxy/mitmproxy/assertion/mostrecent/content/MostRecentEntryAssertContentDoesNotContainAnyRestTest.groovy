@@ -0,0 +1,88 @@
+package com.browserup.bup.proxy.mitmproxy.assertion.mostrecent.content
+
+import com.browserup.bup.assertion.model.AssertionResult
+import com.browserup.bup.proxy.CaptureType
+import com.browserup.bup.proxy.mitmproxy.BaseRestTest
+import com.fasterxml.jackson.databind.ObjectMapper
+import groovyx.net.http.HttpResponseDecorator
+import org.apache.http.HttpStatus
+import org.hamcrest.Matchers
+import org.junit.Test
+
+import static org.hamcrest.MatcherAssert.assertThat
+import static org.junit.Assert.*
+
+class MostRecentEntryAssertContentDoesNotContainAnyRestTest extends BaseRestTest {
+    def urlOfMostRecentRequest = 'url-most-recent'
+    def urlPatternToMatchUrl = '.*url-.*'
+    def responsesNotToFind = ['will not find', 'not there either']
+    def responseToFind = 'middle body'
+    def responseBody = "begin body ${responseToFind} end body".toString()
+
+    @Override
+    String getUrlPath() {
+        return 'har/mostRecentEntry/assertContentDoesNotContainAny'
+    }
+
+    @Test
+    void contentDoesNotContainAnyPasses() {
+        sendRequestsToTargetServer()
+
+        sendGetToProxyServer { req ->
+            uri.path = fullUrlPath
+            uri.query = [urlPattern: urlPatternToMatchUrl, contentText: responsesNotToFind]
+            response.success = { HttpResponseDecorator resp ->
+                def assertionResult = new ObjectMapper().readValue(resp.entity.content, AssertionResult) as AssertionResult
+                assertAssertionNotNull(assertionResult)
+                assertThat('Expected to get one assertion result', assertionResult.requests, Matchers.hasSize(1))
+                assertAssertionPassed(assertionResult)
+            }
+        }
+    }
+
+    @Test
+    void contentDoesNotContainAnyFailsWithFoundStrings() {
+        sendRequestsToTargetServer()
+
+        sendGetToProxyServer { req ->
+            uri.path = fullUrlPath
+            uri.query = [urlPattern: urlPatternToMatchUrl, contentText: responsesNotToFind + [responseToFind]]
+            response.success = { HttpResponseDecorator resp ->
+                def assertionResult = new ObjectMapper().readValue(resp.entity.content, AssertionResult) as AssertionResult
+                assertAssertionNotNull(assertionResult)
+                assertThat('Expected to get one assertion result', assertionResult.requests, Matchers.hasSize(1))
+                assertAssertionFailed(assertionResult)
+
+                def message = assertionResult.requests[0].message
+                assertTrue('Expected failure message to report the found string and where it was found',
+                        message.contains("'${responseToFind}' at index ${responseBody.indexOf(responseToFind)}".toString()))
+                assertFalse('Expected failure message not to report strings that were not found',
+                        message.contains(responsesNotToFind[0]))
+            }
+        }
+    }
+
+    @Test
+    void getBadRequestIfContentTextNotProvided() {
+        sendGetToProxyServer { req ->
+            uri.path = fullUrlPath
+            uri.query = [urlPattern: urlPatternToMatchUrl]
+            response.failure = { resp, reader ->
+                assertEquals('Expected to get bad request', resp.status, HttpStatus.SC_BAD_REQUEST)
+            }
+            response.success = { resp, reader ->
+                throw new AssertionError('Expected to get bad request, got: ' + resp.status)
+            }
+        }
+    }
+
+    private void sendRequestsToTargetServer() {
+        proxy.enableHarCaptureTypes(CaptureType.RESPONSE_CONTENT)
+
+        mockTargetServerResponse(urlOfMostRecentRequest, responseBody)
+
+        proxyManager.get()[0].newHar()
+
+        requestToTargetServer(urlOfMostRecentRequest, responseBody)
+    }
+}